@@ -1,6 +1,7 @@
 plugins {
     java
     id("io.freefair.lombok") version "6.3.0"
+    id("me.champeau.jmh") version "0.6.6"
 }
 
 group = "com.rationaleemotions"
@@ -23,4 +24,21 @@ dependencies {
 
 tasks.getByName<Test>("test") {
     useTestNG()
-}
\ No newline at end of file
+}
+
+// Benchmarks live in src/jmh/java. Run them with ./gradlew jmh, or a subset of them with
+// ./gradlew jmh -PjmhIncludes=ConsistentHash. The settings are pinned, so that the JSON results
+// of two commits can be compared.
+jmh {
+    jmhVersion.set("1.35")
+    fork.set(1)
+    warmupIterations.set(3)
+    warmup.set("2s")
+    iterations.set(5)
+    timeOnIteration.set("2s")
+    resultFormat.set("JSON")
+    resultsFile.set(project.file("${project.buildDir}/results/jmh/results.json"))
+    if (project.hasProperty("jmhIncludes")) {
+        includes.add(project.property("jmhIncludes") as String)
+    }
+}
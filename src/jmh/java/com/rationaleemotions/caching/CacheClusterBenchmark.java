@@ -0,0 +1,95 @@
+package com.rationaleemotions.caching;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Reads through a cache tier on four threads, filling it on every miss. The keys are skewed, so
+ * that some are far hotter than others, and the tier only holds a share of them. Besides the
+ * throughput, JMH reports the hits and misses, which give the hit rate.
+ * <p>
+ * With <code>rebalance</code> set, a node is added at the start of every iteration, so the hit
+ * rate shows what a change in topology costs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(4)
+public class CacheClusterBenchmark {
+
+  //A power of two, so that picking the next key is a mask.
+  private static final int KEYS = 1 << 16;
+  private static final int SAMPLES = 1 << 20;
+
+  @Param({"10", "100"})
+  private int servers;
+
+  //The share of the keys that the tier can hold (in percent).
+  @Param({"10", "50"})
+  private int capacity;
+
+  @Param({"false", "true"})
+  private boolean rebalance;
+
+  private CacheCluster<String> cluster;
+  private String[] keys;
+  //Indices into keys, picked with a skew towards the first ones.
+  private int[] samples;
+  private int added;
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Counters {
+
+    public long hits;
+    public long misses;
+    private int next;
+  }
+
+  @Setup
+  public void setUp() {
+    long perNode = Math.max(1, (long) KEYS * capacity / 100 / servers);
+    cluster = new CacheCluster<>(new ConsistentHash(ConsistentHashBenchmark.servers(servers), 100,
+        HashFunction.murmur3()), ConsistentHashBenchmark.servers(servers),
+        server -> new CacheNode<>(server, perNode));
+    keys = ConsistentHashBenchmark.keys(KEYS);
+    Random random = new Random(42);
+    samples = new int[SAMPLES];
+    for (int i = 0; i < SAMPLES; i++) {
+      //Squaring a uniform pick favours the low indices, roughly like a Zipf distribution.
+      double uniform = random.nextDouble();
+      samples[i] = (int) (uniform * uniform * KEYS);
+    }
+  }
+
+  @Setup(Level.Iteration)
+  public void addNode() {
+    if (rebalance) {
+      cluster.addNode("10.2.0." + added++ + ":11211");
+    }
+  }
+
+  @Benchmark
+  public String readThrough(Counters counters) {
+    String key = keys[samples[counters.next++ & (SAMPLES - 1)]];
+    String value = cluster.get(key);
+    if (value != null) {
+      counters.hits++;
+      return value;
+    }
+    counters.misses++;
+    cluster.put(key, key);
+    return key;
+  }
+}
@@ -0,0 +1,79 @@
+package com.rationaleemotions.caching;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Looks up keys on rings of different sizes, with each of the hash functions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ConsistentHashBenchmark {
+
+  //A power of two, so that picking the next key is a mask.
+  static final int KEYS = 1 << 12;
+
+  @Param({"10", "100", "1000"})
+  private int servers;
+
+  @Param({"100"})
+  private int virtualNodes;
+
+  @Param({"murmur3", "xxHash64"})
+  private String hashFunction;
+
+  private ConsistentHash ring;
+  private String[] keys;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    ring = new ConsistentHash(servers(servers), virtualNodes, hashFunction(hashFunction));
+    keys = keys(KEYS);
+  }
+
+  @Benchmark
+  public String getServerFor() {
+    return ring.getServerFor(keys[next++ & (KEYS - 1)]);
+  }
+
+  static List<String> servers(int count) {
+    List<String> servers = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      servers.add("10.0." + (i / 256) + "." + (i % 256) + ":11211");
+    }
+    return servers;
+  }
+
+  static String[] keys(int count) {
+    //Always the same keys, so that runs can be compared.
+    Random random = new Random(42);
+    String[] keys = new String[count];
+    for (int i = 0; i < count; i++) {
+      keys[i] = "user:" + random.nextInt(1_000_000) + ":session";
+    }
+    return keys;
+  }
+
+  static HashFunction hashFunction(String name) {
+    switch (name) {
+      case "murmur3":
+        return HashFunction.murmur3();
+      case "xxHash64":
+        return HashFunction.xxHash64();
+      default:
+        throw new IllegalArgumentException("Unknown hash function " + name);
+    }
+  }
+}
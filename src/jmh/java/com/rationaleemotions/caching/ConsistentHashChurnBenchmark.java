@@ -0,0 +1,67 @@
+package com.rationaleemotions.caching;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Looks up keys on three threads, while a fourth one keeps adding and removing a server. Shows
+ * what copy-on-write rebuilds of the ring cost the readers, and how quickly changes go through.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ConsistentHashChurnBenchmark {
+
+  private static final String SPARE = "10.1.0.0:11211";
+
+  @Param({"10", "100", "1000"})
+  private int servers;
+
+  @Param({"100"})
+  private int virtualNodes;
+
+  private ConsistentHash ring;
+  private String[] keys;
+  private boolean added;
+
+  @State(Scope.Thread)
+  public static class Cursor {
+
+    private int next;
+  }
+
+  @Setup
+  public void setUp() {
+    ring = new ConsistentHash(ConsistentHashBenchmark.servers(servers), virtualNodes,
+        HashFunction.murmur3());
+    keys = ConsistentHashBenchmark.keys(ConsistentHashBenchmark.KEYS);
+  }
+
+  @Benchmark
+  @Group("churn")
+  @GroupThreads(3)
+  public String lookup(Cursor cursor) {
+    return ring.getServerFor(keys[cursor.next++ & (ConsistentHashBenchmark.KEYS - 1)]);
+  }
+
+  @Benchmark
+  @Group("churn")
+  @GroupThreads(1)
+  public void addOrRemove() {
+    if (added) {
+      ring.removeServer(SPARE);
+    } else {
+      ring.addNewServer(SPARE);
+    }
+    added = !added;
+  }
+}
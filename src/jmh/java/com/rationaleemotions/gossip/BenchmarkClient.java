@@ -0,0 +1,60 @@
+package com.rationaleemotions.gossip;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+
+/**
+ * A client that knows of a given number of members, and never sends anything.
+ */
+class BenchmarkClient implements GossipContext, NotificationListener {
+
+  private final MembershipTable members;
+
+  BenchmarkClient(List<Member> members) {
+    this.members = new MembershipTable(members.get(0).getNickName());
+    members.forEach(this.members::putIfAbsent);
+  }
+
+  /**
+   * @return - The given number of members, all at the same version.
+   */
+  static List<Member> members(int count, int heartbeat, int generation) {
+    List<Member> members = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      members.add(new Member("10.0." + (i / 256) + "." + (i % 256) + ":" + (2000 + i % 1000),
+          heartbeat, generation, null, Client.t_cleanup));
+    }
+    return members;
+  }
+
+  @Override
+  public int getMaxMessageSize() {
+    return MembershipCodec.MAX_MESSAGE_SIZE;
+  }
+
+  @Override
+  public MembershipTable getMembershipTable() {
+    return members;
+  }
+
+  @Override
+  public void gossip(List<Member> peers) {
+  }
+
+  @Override
+  public void send(ByteBuffer message, SocketAddress peer) {
+  }
+
+  @Override
+  public String getNickName() {
+    return members.all()[0].getNickName();
+  }
+
+  @Override
+  public void handleNotification(Notification notification, Object handback) {
+  }
+}
@@ -0,0 +1,76 @@
+package com.rationaleemotions.gossip;
+
+import com.rationaleemotions.gossip.MembershipCodec.MemberVisitor;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Encodes and decodes a whole membership list, split across as many messages of the given size as
+ * it takes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MembershipCodecBenchmark {
+
+  @Param({"10", "100", "1000", "10000"})
+  private int members;
+
+  //The smallest datagram that never gets fragmented, plain ethernet, and our largest.
+  @Param({"548", "1472", "8192"})
+  private int messageSize;
+
+  private final MembershipCodec codec = new MembershipCodec();
+  private List<Member> list;
+  private ByteBuffer buffer;
+  private List<ByteBuffer> messages;
+  private int heartbeats;
+  private final MemberVisitor visitor = (address, heartbeat, generation) -> heartbeats += heartbeat;
+
+  @Setup
+  public void setUp() throws StreamCorruptedException {
+    list = BenchmarkClient.members(members, 1234, 1_600_000_000);
+    buffer = ByteBuffer.allocateDirect(messageSize);
+    messages = new ArrayList<>();
+    for (int from = 0; from < list.size(); ) {
+      ByteBuffer message = ByteBuffer.allocateDirect(messageSize);
+      from = codec.encode(list, from, message, false);
+      message.flip();
+      messages.add(message);
+    }
+    //Warm up the address cache of the codec, like a receiver that has seen these members before.
+    decode();
+  }
+
+  @Benchmark
+  public int encode() {
+    int bytes = 0;
+    for (int from = 0; from < list.size(); ) {
+      buffer.clear();
+      from = codec.encode(list, from, buffer, false);
+      bytes += buffer.position();
+    }
+    return bytes;
+  }
+
+  @Benchmark
+  public int decode() throws StreamCorruptedException {
+    heartbeats = 0;
+    for (ByteBuffer message : messages) {
+      message.rewind();
+      codec.decode(message, visitor);
+    }
+    return heartbeats;
+  }
+}
@@ -0,0 +1,97 @@
+package com.rationaleemotions.gossip;
+
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Merges a whole membership list into one that knows of the same members, the way
+ * {@link AsynchronousReceiver} does with every list that it receives.
+ * <ul>
+ *   <li>{@link #mergeUnchanged()} - Nothing is newer, which is what most entries of most lists
+ *   look like once a cluster has settled.</li>
+ *   <li>{@link #mergeNewer(NewerHeartbeats)} - Every member has a newer heartbeat. The list is
+ *   re-encoded before every invocation, outside of the measurement, which adds some noise for the
+ *   smallest lists.</li>
+ * </ul>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MergeBenchmark {
+
+  private static final int GENERATION = 1_600_000_000;
+
+  @Param({"10", "100", "1000", "10000"})
+  private int members;
+
+  private AsynchronousReceiver receiver;
+  private List<Member> remote;
+  private List<ByteBuffer> unchanged;
+  private int heartbeat = 1;
+
+  @State(Scope.Thread)
+  public static class NewerHeartbeats {
+
+    private List<ByteBuffer> messages;
+
+    @Setup(Level.Invocation)
+    public void bump(MergeBenchmark benchmark) {
+      benchmark.heartbeat++;
+      for (Member member : benchmark.remote) {
+        member.setHeartbeat(benchmark.heartbeat);
+      }
+      messages = encode(benchmark.remote);
+    }
+  }
+
+  @Setup
+  public void setUp() {
+    receiver = new AsynchronousReceiver(
+        new BenchmarkClient(BenchmarkClient.members(members, heartbeat, GENERATION)));
+    remote = BenchmarkClient.members(members, heartbeat, GENERATION);
+    unchanged = encode(remote);
+  }
+
+  @Benchmark
+  public int mergeUnchanged() throws StreamCorruptedException {
+    return merge(unchanged);
+  }
+
+  @Benchmark
+  public int mergeNewer(NewerHeartbeats newer) throws StreamCorruptedException {
+    return merge(newer.messages);
+  }
+
+  private int merge(List<ByteBuffer> messages) throws StreamCorruptedException {
+    int merged = 0;
+    for (ByteBuffer message : messages) {
+      message.rewind();
+      merged += receiver.mergeLists(message);
+    }
+    return merged;
+  }
+
+  private static List<ByteBuffer> encode(List<Member> members) {
+    MembershipCodec codec = new MembershipCodec();
+    List<ByteBuffer> messages = new ArrayList<>();
+    for (int from = 0; from < members.size(); ) {
+      ByteBuffer message = ByteBuffer.allocate(MembershipCodec.MAX_MESSAGE_SIZE);
+      from = codec.encode(members, from, message, false);
+      message.flip();
+      messages.add(message);
+    }
+    return messages;
+  }
+}
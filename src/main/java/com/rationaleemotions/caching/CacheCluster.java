@@ -0,0 +1,209 @@
+package com.rationaleemotions.caching;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+import java.util.function.ToIntBiFunction;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A cache tier of {@link CacheNode}s, all in this JVM, with keys spread across them by a
+ * {@link ConsistentHash}. It routes exactly like clients of a real tier would, so it can be used
+ * to measure hit rates, throughput, and what a change in topology costs, in a single process.
+ * <p>
+ * A multi-get is grouped by node, so that it costs one round trip per node rather than one per
+ * key.
+ * <p>
+ * A node that is added starts out empty, and a node that is removed takes its entries with it.
+ * The keys that move are hence misses until they are written again, just like with a real tier
+ * that does not migrate anything. Unless migration is enabled (see
+ * {@link #enableMigration(ExecutorService, long, ToIntBiFunction)}), in which case the entries
+ * that change owners are moved along with their ranges.
+ */
+@Slf4j
+public final class CacheCluster<V> {
+
+  private final ConsistentHash ring;
+  private final Function<String, CacheNode<String, V>> nodeFactory;
+  private final ConcurrentMap<String, CacheNode<String, V>> nodes = new ConcurrentHashMap<>();
+  private KeyMigrator<V> migrator;
+  private volatile KeyMigrator.Result lastMigration;
+
+  /**
+   * @param servers     - The servers to start out with.
+   * @param nodeFactory - Creates the node of a server.
+   */
+  public CacheCluster(List<String> servers, Function<String, CacheNode<String, V>> nodeFactory) {
+    this(new ConsistentHash(servers), servers, nodeFactory);
+  }
+
+  /**
+   * @param ring        - Routes the keys. Should be made up of the given servers.
+   * @param servers     - The servers to start out with.
+   * @param nodeFactory - Creates the node of a server.
+   */
+  public CacheCluster(ConsistentHash ring, Collection<String> servers,
+      Function<String, CacheNode<String, V>> nodeFactory) {
+    this.ring = ring;
+    this.nodeFactory = nodeFactory;
+    for (String server : servers) {
+      nodes.put(server, nodeFactory.apply(server));
+    }
+  }
+
+  public V get(String key) {
+    CacheNode<String, V> node = nodeFor(key);
+    return node == null ? null : node.get(key);
+  }
+
+  /**
+   * @return - The values of those of the given keys that the tier has.
+   */
+  public Map<String, V> getAll(Collection<String> keys) {
+    Map<String, V> found = new LinkedHashMap<>();
+    ring.groupByServer(keys).forEach((server, group) -> {
+      CacheNode<String, V> node = nodes.get(server);
+      if (node != null) {
+        found.putAll(node.getAll(group));
+      } else {
+        //The server was removed since, so its keys went elsewhere.
+        for (String key : group) {
+          V value = get(key);
+          if (value != null) {
+            found.put(key, value);
+          }
+        }
+      }
+    });
+    return found;
+  }
+
+  public void put(String key, V value) {
+    CacheNode<String, V> node = nodeFor(key);
+    if (node != null) {
+      node.put(key, value);
+    }
+  }
+
+  /**
+   * @param ttl - How long the entry lives (in ms). 0 for forever.
+   */
+  public void put(String key, V value, long ttl) {
+    CacheNode<String, V> node = nodeFor(key);
+    if (node != null) {
+      node.put(key, value, ttl);
+    }
+  }
+
+  public V remove(String key) {
+    CacheNode<String, V> node = nodeFor(key);
+    return node == null ? null : node.remove(key);
+  }
+
+  /**
+   * Moves the entries that change owners whenever a node is added or removed, before
+   * {@link #addNode(String)} or {@link #removeNode(String)} return. Reads of the entries that are
+   * on their way are misses.
+   *
+   * @param executor       - Runs the scans of the nodes that lose keys, one per node.
+   * @param bytesPerSecond - The most that a migration may copy per second. 0 for no cap.
+   * @param sizer          - The size of an entry (in bytes).
+   * @return - This instance.
+   */
+  public synchronized CacheCluster<V> enableMigration(ExecutorService executor,
+      long bytesPerSecond, ToIntBiFunction<String, V> sizer) {
+    migrator = new KeyMigrator<>(ring, nodes::get, executor, bytesPerSecond, sizer);
+    return this;
+  }
+
+  /**
+   * Adds a node for the given server, and routes its share of the keys to it. The node starts out
+   * empty, unless migration is enabled.
+   */
+  public synchronized void addNode(String server) {
+    nodes.computeIfAbsent(server, nodeFactory);
+    Ring before = ring.snapshot();
+    ring.addNewServer(server);
+    log.debug("Added cache node {}", server);
+    migrate(before);
+  }
+
+  /**
+   * Stops routing to the node of the given server, and drops it. Its entries go with it, unless
+   * migration is enabled.
+   */
+  public synchronized void removeNode(String server) {
+    Ring before = ring.snapshot();
+    ring.removeServer(server);
+    migrate(before);
+    nodes.remove(server);
+    log.debug("Removed cache node {}", server);
+  }
+
+  /**
+   * @return - What the last migration did, or <code>null</code> if there was none.
+   */
+  public KeyMigrator.Result getLastMigration() {
+    return lastMigration;
+  }
+
+  //Must be called while holding the lock.
+  private void migrate(Ring before) {
+    if (migrator == null) {
+      return;
+    }
+    try {
+      lastMigration = migrator.migrate(before.diff(ring.snapshot()));
+    } catch (InterruptedException e) {
+      //The entries that did not make it are simply misses.
+      Thread.currentThread().interrupt();
+      log.warn("Gave up on migrating keys, since we were interrupted");
+    }
+  }
+
+  /**
+   * @return - The node that the key is routed to, or <code>null</code> if the ring routes it to a
+   * server that has no node.
+   */
+  public CacheNode<String, V> nodeFor(String key) {
+    CacheNode<String, V> node = nodes.get(ring.getServerFor(key));
+    if (node == null) {
+      //The server was removed after we read the ring, which routes the key elsewhere by now.
+      //Nodes are only ever created by addNode(), lest we bring a removed one back.
+      node = nodes.get(ring.getServerFor(key));
+    }
+    return node;
+  }
+
+  /**
+   * @return - The node of the given server, or <code>null</code> if there is none.
+   */
+  public CacheNode<String, V> getNode(String server) {
+    return nodes.get(server);
+  }
+
+  public Map<String, CacheNode<String, V>> getNodes() {
+    return Collections.unmodifiableMap(nodes);
+  }
+
+  public ConsistentHash getRing() {
+    return ring;
+  }
+
+  /**
+   * @return - The stats of every node, added up.
+   */
+  public CacheNode.Stats getStats() {
+    CacheNode.Stats stats = new CacheNode.Stats(0, 0, 0, 0);
+    for (CacheNode<String, V> node : nodes.values()) {
+      stats = stats.plus(node.getStats());
+    }
+    return stats;
+  }
+}
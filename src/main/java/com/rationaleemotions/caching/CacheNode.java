@@ -0,0 +1,482 @@
+package com.rationaleemotions.caching;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.LongSupplier;
+import java.util.function.ToIntBiFunction;
+
+/**
+ * A bounded, in-memory cache that stands in for a single cache server.
+ * <p>
+ * Keys are spread across a fixed number of stripes, each with a lock, a hash map and eviction
+ * lists of its own, so threads that work on different stripes never contend. Each stripe gets an
+ * equal share of the maximum weight.
+ * <p>
+ * Eviction is a segmented LRU. A new entry goes into the probationary segment, and is promoted to
+ * the protected segment (which gets 80% of the weight) on its first hit. The protected segment
+ * overflows back into the probationary one, and entries are evicted from the tail of the
+ * probationary segment. So a scan of keys that are read once only ever flushes other one-hit
+ * wonders, and never the entries that are read over and over.
+ * <p>
+ * Entries can expire a given time after they were written. Expired entries are dropped lazily,
+ * when they are read or when they reach the tail of the probationary segment.
+ */
+public final class CacheNode<K, V> {
+
+  public static final int DEFAULT_STRIPES = 16;
+  //Share of the weight of a stripe that goes to the protected segment (in percent).
+  private static final int PROTECTED_SHARE = 80;
+  private static final long NEVER = Long.MAX_VALUE;
+
+  private final String name;
+  private final ToIntBiFunction<K, V> weigher;
+  private final long defaultTtl;
+  private final LongSupplier clock;
+  private final Stripe<K, V>[] stripes;
+  private final int mask;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder expirations = new LongAdder();
+
+  /**
+   * A node that holds up to the given number of entries, that never expire.
+   */
+  public CacheNode(String name, long maximumSize) {
+    this(name, maximumSize, (key, value) -> 1, 0, DEFAULT_STRIPES, System::currentTimeMillis);
+  }
+
+  /**
+   * @param name          - The server that the node stands in for.
+   * @param maximumWeight - The most weight that the node holds.
+   * @param weigher       - The weight of an entry. Always 1 for a bound on the number of entries.
+   * @param defaultTtl    - How long an entry lives after it was written (in ms). 0 for forever.
+   * @param stripes       - The number of stripes. Rounded up to a power of two.
+   * @param clock         - The current time (in ms).
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public CacheNode(String name, long maximumWeight, ToIntBiFunction<K, V> weigher,
+      long defaultTtl, int stripes, LongSupplier clock) {
+    if (maximumWeight < 1 || stripes < 1 || defaultTtl < 0) {
+      throw new IllegalArgumentException("Need a positive weight and number of stripes, and a "
+          + "TTL that is not negative");
+    }
+    int count = stripes == 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+    //Keep every stripe able to hold something.
+    while (count > maximumWeight) {
+      count >>= 1;
+    }
+    this.name = name;
+    this.weigher = weigher;
+    this.defaultTtl = defaultTtl;
+    this.clock = clock;
+    this.stripes = new Stripe[count];
+    long share = maximumWeight / count;
+    for (int i = 0; i < count; i++) {
+      //The first stripes take up whatever does not divide evenly.
+      this.stripes[i] = new Stripe<>(share + (i < maximumWeight % count ? 1 : 0));
+    }
+    this.mask = count - 1;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return - The value of the key, or <code>null</code> if the node does not have it (anymore).
+   */
+  public V get(K key) {
+    Stripe<K, V> stripe = stripeFor(key);
+    long now = clock.getAsLong();
+    V value;
+    synchronized (stripe) {
+      value = stripe.get(key, now, this);
+    }
+    if (value == null) {
+      misses.increment();
+    } else {
+      hits.increment();
+    }
+    return value;
+  }
+
+  /**
+   * @return - The values of those of the given keys that the node has.
+   */
+  public Map<K, V> getAll(Collection<K> keys) {
+    Map<K, V> found = new LinkedHashMap<>();
+    for (K key : keys) {
+      V value = get(key);
+      if (value != null) {
+        found.put(key, value);
+      }
+    }
+    return found;
+  }
+
+  public void put(K key, V value) {
+    put(key, value, defaultTtl);
+  }
+
+  /**
+   * @param ttl - How long the entry lives (in ms). 0 for forever.
+   */
+  public void put(K key, V value, long ttl) {
+    put(key, value, ttl, false);
+  }
+
+  /**
+   * Like {@link #put(Object, Object, long)}, but leaves a live entry of the key alone.
+   *
+   * @return - <code>true</code> if the entry went in.
+   */
+  public boolean putIfAbsent(K key, V value, long ttl) {
+    return put(key, value, ttl, true);
+  }
+
+  private boolean put(K key, V value, long ttl, boolean onlyIfAbsent) {
+    if (key == null || value == null) {
+      throw new NullPointerException("Keys and values cannot be null");
+    }
+    int weight = weigher.applyAsInt(key, value);
+    if (weight < 0) {
+      throw new IllegalArgumentException("Weight of " + key + " cannot be negative");
+    }
+    long now = clock.getAsLong();
+    long expiresAt = ttl > 0 ? now + ttl : NEVER;
+    Stripe<K, V> stripe = stripeFor(key);
+    synchronized (stripe) {
+      if (onlyIfAbsent && stripe.isLive(key, now)) {
+        return false;
+      }
+      stripe.put(key, value, weight, expiresAt, this);
+    }
+    return true;
+  }
+
+  /**
+   * @return - The value that the key had, or <code>null</code> if it had none.
+   */
+  public V remove(K key) {
+    Stripe<K, V> stripe = stripeFor(key);
+    synchronized (stripe) {
+      Entry<K, V> entry = stripe.remove(key);
+      return entry == null || entry.expiresAt <= clock.getAsLong() ? null : entry.value;
+    }
+  }
+
+  /**
+   * Hands every live entry to the given action, one stripe at a time. Entries that change while
+   * this runs may or may not be seen.
+   */
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    forEachEntry((key, value, ttl) -> action.accept(key, value));
+  }
+
+  /**
+   * Like {@link #forEach(BiConsumer)}, but also hands over how long every entry has left to live,
+   * so that it can be written elsewhere without living any longer.
+   */
+  void forEachEntry(EntryConsumer<? super K, ? super V> action) {
+    long now = clock.getAsLong();
+    List<Entry<K, V>> snapshot = new ArrayList<>();
+    for (Stripe<K, V> stripe : stripes) {
+      snapshot.clear();
+      synchronized (stripe) {
+        for (Entry<K, V> entry : stripe.entries.values()) {
+          if (entry.expiresAt > now) {
+            Entry<K, V> copy = new Entry<>(entry.key);
+            copy.value = entry.value;
+            copy.expiresAt = entry.expiresAt;
+            snapshot.add(copy);
+          }
+        }
+      }
+      for (Entry<K, V> entry : snapshot) {
+        action.accept(entry.key, entry.value,
+            entry.expiresAt == NEVER ? 0 : entry.expiresAt - now);
+      }
+    }
+  }
+
+  public void clear() {
+    for (Stripe<K, V> stripe : stripes) {
+      synchronized (stripe) {
+        stripe.clear();
+      }
+    }
+  }
+
+  /**
+   * @return - The number of entries, including expired ones that have not been dropped yet.
+   */
+  public long size() {
+    long size = 0;
+    for (Stripe<K, V> stripe : stripes) {
+      synchronized (stripe) {
+        size += stripe.entries.size();
+      }
+    }
+    return size;
+  }
+
+  public long weight() {
+    long weight = 0;
+    for (Stripe<K, V> stripe : stripes) {
+      synchronized (stripe) {
+        weight += stripe.probation.weight + stripe.protectedSegment.weight;
+      }
+    }
+    return weight;
+  }
+
+  public Stats getStats() {
+    return new Stats(hits.sum(), misses.sum(), evictions.sum(), expirations.sum());
+  }
+
+  private Stripe<K, V> stripeFor(K key) {
+    int hash = key.hashCode();
+    //Spread the bits, since the low bits of hashCode() are often poor.
+    hash ^= hash >>> 16;
+    return stripes[hash & mask];
+  }
+
+  /**
+   * Takes an entry along with the time it has left to live (in ms), or 0 if it lives forever.
+   */
+  @FunctionalInterface
+  interface EntryConsumer<K, V> {
+
+    void accept(K key, V value, long ttl);
+  }
+
+  /**
+   * What a node went through so far.
+   */
+  public static final class Stats {
+
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final long expirations;
+
+    public Stats(long hits, long misses, long evictions, long expirations) {
+      this.hits = hits;
+      this.misses = misses;
+      this.evictions = evictions;
+      this.expirations = expirations;
+    }
+
+    public long getHits() {
+      return hits;
+    }
+
+    public long getMisses() {
+      return misses;
+    }
+
+    /**
+     * @return - The entries that were dropped to make room.
+     */
+    public long getEvictions() {
+      return evictions;
+    }
+
+    public long getExpirations() {
+      return expirations;
+    }
+
+    /**
+     * @return - The share of reads that were hits, or 1 if there were no reads.
+     */
+    public double getHitRate() {
+      long requests = hits + misses;
+      return requests == 0 ? 1 : (double) hits / requests;
+    }
+
+    /**
+     * @return - The sum of this and the given stats.
+     */
+    public Stats plus(Stats other) {
+      return new Stats(hits + other.hits, misses + other.misses, evictions + other.evictions,
+          expirations + other.expirations);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("hits=%d, misses=%d, hitRate=%.3f, evictions=%d, expirations=%d",
+          hits, misses, getHitRate(), evictions, expirations);
+    }
+  }
+
+  private static final class Entry<K, V> {
+
+    private final K key;
+    private V value;
+    private int weight;
+    private long expiresAt;
+    private boolean isProtected;
+    private Entry<K, V> previous;
+    private Entry<K, V> next;
+
+    Entry(K key) {
+      this.key = key;
+    }
+  }
+
+  /**
+   * An intrusive, doubly linked list of entries, most recently used first.
+   */
+  private static final class Segment<K, V> {
+
+    private Entry<K, V> head;
+    private Entry<K, V> tail;
+    private long weight;
+
+    void addFirst(Entry<K, V> entry) {
+      entry.previous = null;
+      entry.next = head;
+      if (head == null) {
+        tail = entry;
+      } else {
+        head.previous = entry;
+      }
+      head = entry;
+      weight += entry.weight;
+    }
+
+    void remove(Entry<K, V> entry) {
+      if (entry.previous == null) {
+        head = entry.next;
+      } else {
+        entry.previous.next = entry.next;
+      }
+      if (entry.next == null) {
+        tail = entry.previous;
+      } else {
+        entry.next.previous = entry.previous;
+      }
+      entry.previous = null;
+      entry.next = null;
+      weight -= entry.weight;
+    }
+
+    void clear() {
+      head = null;
+      tail = null;
+      weight = 0;
+    }
+  }
+
+  /**
+   * Everything in here is guarded by the lock of the stripe.
+   */
+  private static final class Stripe<K, V> {
+
+    private final long maximumWeight;
+    private final long maximumProtectedWeight;
+    private final Map<K, Entry<K, V>> entries = new HashMap<>();
+    private final Segment<K, V> probation = new Segment<>();
+    private final Segment<K, V> protectedSegment = new Segment<>();
+
+    Stripe(long maximumWeight) {
+      this.maximumWeight = maximumWeight;
+      this.maximumProtectedWeight = maximumWeight * PROTECTED_SHARE / 100;
+    }
+
+    V get(K key, long now, CacheNode<K, V> node) {
+      Entry<K, V> entry = entries.get(key);
+      if (entry == null) {
+        return null;
+      }
+      if (entry.expiresAt <= now) {
+        remove(key);
+        node.expirations.increment();
+        return null;
+      }
+      segmentOf(entry).remove(entry);
+      if (!entry.isProtected) {
+        entry.isProtected = true;
+        protectedSegment.addFirst(entry);
+        demoteOverflow();
+      } else {
+        protectedSegment.addFirst(entry);
+      }
+      return entry.value;
+    }
+
+    boolean isLive(K key, long now) {
+      Entry<K, V> entry = entries.get(key);
+      return entry != null && entry.expiresAt > now;
+    }
+
+    void put(K key, V value, int weight, long expiresAt, CacheNode<K, V> node) {
+      if (weight > maximumWeight) {
+        //It would push out everything else, and still not fit.
+        remove(key);
+        return;
+      }
+      Entry<K, V> entry = entries.get(key);
+      if (entry == null) {
+        entry = new Entry<>(key);
+        entries.put(key, entry);
+      } else {
+        segmentOf(entry).remove(entry);
+      }
+      entry.value = value;
+      entry.weight = weight;
+      entry.expiresAt = expiresAt;
+      //An update counts as a use, so an entry keeps its segment.
+      segmentOf(entry).addFirst(entry);
+      demoteOverflow();
+      evictOverflow(node);
+    }
+
+    Entry<K, V> remove(K key) {
+      Entry<K, V> entry = entries.remove(key);
+      if (entry != null) {
+        segmentOf(entry).remove(entry);
+      }
+      return entry;
+    }
+
+    void clear() {
+      entries.clear();
+      probation.clear();
+      protectedSegment.clear();
+    }
+
+    private Segment<K, V> segmentOf(Entry<K, V> entry) {
+      return entry.isProtected ? protectedSegment : probation;
+    }
+
+    private void demoteOverflow() {
+      while (protectedSegment.weight > maximumProtectedWeight) {
+        Entry<K, V> demoted = protectedSegment.tail;
+        protectedSegment.remove(demoted);
+        demoted.isProtected = false;
+        probation.addFirst(demoted);
+      }
+    }
+
+    private void evictOverflow(CacheNode<K, V> node) {
+      while (probation.weight + protectedSegment.weight > maximumWeight) {
+        Entry<K, V> victim = probation.tail != null ? probation.tail : protectedSegment.tail;
+        remove(victim.key);
+        if (victim.expiresAt <= node.clock.getAsLong()) {
+          node.expirations.increment();
+        } else {
+          node.evictions.increment();
+        }
+      }
+    }
+  }
+}
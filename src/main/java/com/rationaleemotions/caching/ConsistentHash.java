@@ -1,94 +1,451 @@
 package com.rationaleemotions.caching;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Objects;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.function.IntUnaryOperator;
 import lombok.extern.slf4j.Slf4j;
 
 /**
  * References: https://programmer.help/blogs/consistency-hash-algorithm-principle-and-java-implementation.html
+ * <p>
+ * Lookups never take a lock. Every topology change rebuilds an immutable {@link Ring} and
+ * publishes it atomically (copy-on-write), so {@link #getServerFor(String)} always sees a
+ * consistent ring. A rebuild is linear in the size of the ring, so batching changes through
+ * {@link #updateServers(Map, Collection)} is cheaper than adding servers one at a time.
+ * <p>
+ * Servers can carry a weight, which multiplies the number of virtual nodes they get. This lets
+ * bigger machines take a proportionally bigger share of the keys.
+ * <p>
+ * Optionally, the ring can run in "consistent hashing with bounded loads" mode (Mirrokni, Thorup
+ * and Zadimoghaddam - https://arxiv.org/abs/1608.01350). Callers then {@link #acquireServerFor}
+ * a server and {@link #release} it once they are done, and a key is routed to the first server
+ * clockwise whose in-flight load is below {@code ceil((1 + epsilon) * average load)}.
  */
 @SuppressWarnings("unused")
 @Slf4j
-public class ConsistentHash {
+public class ConsistentHash implements KeyRouter {
 
   private static final int MAX_VIRTUAL_NODES_PER_PHYSICAL_NODE = 5;
+  //Batches of at least these many keys get routed on the common fork-join pool.
+  private static final int PARALLEL_ROUTING_THRESHOLD = 1 << 14;
+  //The number of virtual nodes that a server with a weight of 1 gets.
   private final int virtualNodesPerPhysicalNode;
-  private final Function<String, Integer> hashFunction;
+  private final HashFunction hashFunction;
 
-  //Virtual node, key represents the hash value of virtual node, value represents the name of virtual node
-  private final SortedMap<Integer, String> virtualNodes = new TreeMap<>();
+  //The snapshot that lookups read from. Replaced as a whole on every topology change, which only
+  //ever happens while holding the lock of this instance.
+  private volatile Ring ring = Ring.EMPTY;
+
+  //Size of the preference lists that every published ring pre-computes. 0 turns it off.
+  private int precomputedReplicas;
+
+  //The epsilon of the bounded loads mode. Infinity means that no server is ever skipped.
+  private volatile double loadBalancingFactor = Double.POSITIVE_INFINITY;
+
+  //Only there while metrics are enabled, see enableMetrics().
+  private volatile RoutingMetrics metrics;
+
+  //In-flight assignments per physical server, and their sum.
+  private final ConcurrentMap<String, AtomicInteger> loads = new ConcurrentHashMap<>();
+  private final AtomicInteger totalLoad = new AtomicInteger();
 
   public ConsistentHash(List<String> servers) {
-    this(servers, MAX_VIRTUAL_NODES_PER_PHYSICAL_NODE, text -> Math.abs(Objects.hashCode(text)));
+    this(servers, MAX_VIRTUAL_NODES_PER_PHYSICAL_NODE, HashFunction.murmur3());
   }
 
   public ConsistentHash(List<String> servers, int maxVirtualNodesPerPhysicalNode,
       Function<String, Integer> hashFunction) {
-    this.virtualNodesPerPhysicalNode = maxVirtualNodesPerPhysicalNode;
+    this(servers, maxVirtualNodesPerPhysicalNode, HashFunction.fromFunction(hashFunction));
+  }
+
+  public ConsistentHash(List<String> servers, int maxVirtualNodesPerPhysicalNode,
+      HashFunction hashFunction) {
+    this(withSameWeight(servers), maxVirtualNodesPerPhysicalNode, hashFunction);
+  }
+
+  /**
+   * @param weightedServers             - The servers along with their weights. A server with a
+   *                                    weight of 2 gets twice as many virtual nodes (and hence
+   *                                    roughly twice as many keys) as a server with a weight of 1.
+   * @param virtualNodesPerPhysicalNode - The number of virtual nodes of a server whose weight is
+   *                                    1.
+   * @param hashFunction                - The hash function for both keys and virtual nodes.
+   */
+  public ConsistentHash(Map<String, Integer> weightedServers, int virtualNodesPerPhysicalNode,
+      HashFunction hashFunction) {
+    if (virtualNodesPerPhysicalNode < 1) {
+      throw new IllegalArgumentException(
+          "Need at least one virtual node per server, but got " + virtualNodesPerPhysicalNode);
+    }
+    this.virtualNodesPerPhysicalNode = virtualNodesPerPhysicalNode;
     this.hashFunction = hashFunction;
-    addServers(servers);
+    updateServers(weightedServers, Collections.emptySet());
+  }
+
+  private static Map<String, Integer> withSameWeight(Collection<String> servers) {
+    Map<String, Integer> weightedServers = new LinkedHashMap<>();
+    servers.forEach(server -> weightedServers.put(server, 1));
+    return weightedServers;
+  }
+
+  private long[] virtualNodeTokens(String server, int weight, StringBuilder virtualNode) {
+    if (weight < 1) {
+      throw new IllegalArgumentException(
+          "Weight of server " + server + " should be a positive number, but was " + weight);
+    }
+    long[] tokens = new long[weight * virtualNodesPerPhysicalNode];
+    //Virtual nodes are named server&&VN0, server&&VN1 and so on. Reuse a single builder for all
+    //the names. The hash functions work off a CharSequence, so none of the names ever turn into a
+    //String.
+    virtualNode.setLength(0);
+    virtualNode.append(server).append("&&VN");
+    int prefix = virtualNode.length();
+    for (int i = 0; i < tokens.length; i++) {
+      virtualNode.setLength(prefix);
+      virtualNode.append(i);
+      tokens[i] = hashFunction.hash(virtualNode) + i;
+    }
+    log.debug("Adding {} virtual nodes for server : {}", tokens.length, server);
+    return tokens;
+  }
+
+  @Override
+  public void addNewServer(String server) {
+    addNewServer(server, 1);
+  }
+
+  /**
+   * Adds the server with the given weight. Adding a server that is already on the ring changes its
+   * weight.
+   */
+  public void addNewServer(String server, int weight) {
+    updateServers(Collections.singletonMap(server, weight), Collections.emptySet());
   }
 
-  private List<String> virtualNodes(String server) {
-    return IntStream.rangeClosed(0, virtualNodesPerPhysicalNode - 1)
-        .mapToObj(i -> server + "&&VN" + i)
-        .collect(Collectors.toList());
+  @Override
+  public void removeServer(String server) {
+    updateServers(Collections.emptyMap(), Collections.singleton(server));
   }
 
-  private void addServers(List<String> servers) {
-    for (int i = 0; i < virtualNodesPerPhysicalNode; i++) {
-      for (String server : servers) {
-        String virtualNode = virtualNodes(server).get(i);
-        int hash = hash(virtualNode) + i;
-        log.info("Adding virtual node : {}", virtualNode);
-        virtualNodes.put(hash, virtualNode);
+  /**
+   * Applies a batch of topology changes with a single rebuild of the ring.
+   *
+   * @param added   - The servers to add (or re-weigh) along with their weights.
+   * @param removed - The servers to remove.
+   */
+  public synchronized void updateServers(Map<String, Integer> added, Collection<String> removed) {
+    RingRebuildEvent event = new RingRebuildEvent();
+    event.begin();
+    StringBuilder virtualNode = new StringBuilder();
+    Map<String, long[]> addedTokens = new LinkedHashMap<>();
+    added.forEach((server, weight) ->
+        addedTokens.put(server, virtualNodeTokens(server, weight, virtualNode)));
+    Set<String> removedServers = new HashSet<>(removed);
+    removedServers.removeAll(added.keySet());
+    removedServers.forEach(server -> log.debug("Deleting virtual nodes of server : {}", server));
+
+    Ring updated = ring.update(removedServers, addedTokens);
+    ring = precomputedReplicas > 0 ? updated.withPreferenceLists(precomputedReplicas) : updated;
+
+    for (String server : removedServers) {
+      AtomicInteger load = loads.remove(server);
+      if (load != null) {
+        totalLoad.addAndGet(-load.get());
       }
     }
+    if (event.shouldCommit()) {
+      event.added = added.size();
+      event.removed = removedServers.size();
+      event.servers = ring.serverCount();
+      event.virtualNodes = ring.size();
+      event.commit();
+    }
+  }
+
+  /**
+   * Pre-computes the preference list of every virtual node whenever the ring changes, so that
+   * {@link #getServersFor(String, int)} needs no walk for up to the given number of replicas. This
+   * costs an extra {@code replicas} ints per virtual node.
+   *
+   * @param replicas - The number of replicas to pre-compute. 0 turns pre-computation off.
+   * @return - This instance.
+   */
+  public synchronized ConsistentHash precomputePreferenceLists(int replicas) {
+    if (replicas < 0) {
+      throw new IllegalArgumentException("Replicas cannot be negative, but was " + replicas);
+    }
+    this.precomputedReplicas = replicas;
+    ring = ring.withPreferenceLists(replicas);
+    return this;
+  }
+
+  /**
+   * Turns on the bounded loads mode.
+   *
+   * @param epsilon - How much above the average load a server is allowed to go. For e.g., 0.25
+   *                means that no server gets more than 125% of the average number of in-flight
+   *                assignments.
+   * @return - This instance.
+   */
+  public ConsistentHash enableBoundedLoads(double epsilon) {
+    if (!(epsilon > 0)) {
+      throw new IllegalArgumentException("Epsilon should be a positive number, but was " + epsilon);
+    }
+    this.loadBalancingFactor = epsilon;
+    return this;
+  }
+
+  /**
+   * Routes the key and records an in-flight assignment on the chosen server. Every call should be
+   * paired with a call to {@link #release(String)} with the returned server.
+   *
+   * @param key - The key to route.
+   * @return - The physical server that the key was assigned to.
+   */
+  public String acquireServerFor(String key) {
+    Ring current = nonEmptyRing();
+    int start = current.indexFor(hash(key));
+    double capacity = Math.ceil(
+        (1 + loadBalancingFactor) * (totalLoad.get() + 1) / current.serverCount());
+    for (int step = 0, size = current.size(); step < size; step++) {
+      String server = current.nodeAt((start + step) % size);
+      if (tryAcquire(server, capacity)) {
+        return server;
+      }
+    }
+    //Only reachable when concurrent callers raced us for the last free slots. The bound is a soft
+    //one anyway, so fall back to the regular owner of the key.
+    String server = current.nodeAt(start);
+    loadOf(server).incrementAndGet();
+    totalLoad.incrementAndGet();
+    return server;
+  }
+
+  /**
+   * Releases an assignment that was handed out by {@link #acquireServerFor(String)}.
+   */
+  public void release(String server) {
+    AtomicInteger load = loads.get(server);
+    if (load == null) {
+      //The server was removed from the ring in the meantime, which already forgot its load.
+      return;
+    }
+    int current;
+    do {
+      current = load.get();
+      if (current == 0) {
+        return;
+      }
+    } while (!load.compareAndSet(current, current - 1));
+    totalLoad.decrementAndGet();
+  }
 
+  /**
+   * @return - The number of in-flight assignments of the given server.
+   */
+  public int getLoad(String server) {
+    AtomicInteger load = loads.get(server);
+    return load == null ? 0 : load.get();
   }
 
-  private void removeVirtualNode(String server) {
-    for (int i = 0; i < virtualNodesPerPhysicalNode; i++) {
-      String virtualNode = server + "&&VN" + i;
-      int hash = hash(virtualNode) + i;
-      log.info("Deleting virtual node : {}", virtualNode);
-      virtualNodes.remove(hash);
+  private boolean tryAcquire(String server, double capacity) {
+    AtomicInteger load = loadOf(server);
+    int current;
+    do {
+      current = load.get();
+      if (current >= capacity) {
+        return false;
+      }
+    } while (!load.compareAndSet(current, current + 1));
+    totalLoad.incrementAndGet();
+    return true;
+  }
+
+  private AtomicInteger loadOf(String server) {
+    return loads.computeIfAbsent(server, k -> new AtomicInteger());
+  }
+
+  /**
+   * Counts and times lookups, and exposes them over JMX along with the ownership of every server.
+   *
+   * @param name - Tells this ring apart from other rings in the JVM.
+   * @return - This instance.
+   */
+  public synchronized ConsistentHash enableMetrics(String name) {
+    if (metrics == null) {
+      RoutingMetrics enabled = new RoutingMetrics(this);
+      enabled.register(name);
+      metrics = enabled;
     }
+    return this;
+  }
+
+  public synchronized void disableMetrics() {
+    if (metrics != null) {
+      metrics.unregister();
+      metrics = null;
+    }
+  }
+
+  /**
+   * @return - The metrics of this ring, or <code>null</code> if they are not enabled.
+   */
+  public RoutingMetrics getMetrics() {
+    return metrics;
   }
 
-  public synchronized void addNewServer(String server) {
-    addServers(Collections.singletonList(server));
+  /**
+   * @return - The current version of the ring, which never changes. Compare it with a later one to
+   * find the hash ranges that moved in between (see {@link Ring#diff(Ring)}).
+   */
+  public Ring snapshot() {
+    return ring;
   }
 
-  public synchronized void removeServer(String server) {
-    removeVirtualNode(server);
+  /**
+   * @return - The servers that are currently on the ring.
+   */
+  public List<String> getServers() {
+    return Collections.unmodifiableList(Arrays.asList(ring.servers()));
   }
 
-  public int hash(String content) {
-    return hashFunction.apply(content);
+  public long hash(String content) {
+    return hashFunction.hash(content);
   }
 
+  @Override
   public String getServerFor(String key) {
-    int hash = hash(key);
-    SortedMap<Integer, String> subMap = virtualNodes.tailMap(hash);
-    //We assume that there is no one larger than the hash value of the key and start with the
-    //first node
-    int i = virtualNodes.firstKey();
-    if (!subMap.isEmpty()) {
-      //Since we found that there are larger values than the hash value of our key, lets update
-      //ourselves to point to the first key in the found sub map.
-      i = subMap.firstKey();
-    }
-    String virtualNode = virtualNodes.get(i);
-    if (virtualNode == null || virtualNode.trim().isEmpty()) {
-      throw new IllegalStateException("Problem");
-    }
-    return virtualNode.substring(0, virtualNode.indexOf("&&VN")) + " (" + virtualNode + ")";
+    return serverFor(hashFunction.hash(key));
+  }
+
+  public String getServerFor(byte[] key) {
+    return serverFor(hashFunction.hash(key));
+  }
+
+  /**
+   * Routes the remaining bytes of the buffer. The position of the buffer is left untouched.
+   */
+  public String getServerFor(ByteBuffer key) {
+    return serverFor(hashFunction.hash(key));
+  }
+
+  /**
+   * Builds a Dynamo style preference list for the key, i.e., the first distinct physical servers
+   * found when walking the ring clockwise from the key. The first entry is always the server that
+   * {@link #getServerFor(String)} returns.
+   *
+   * @param key      - The key to route.
+   * @param replicas - The number of distinct servers wanted.
+   * @return - The servers, in order of preference. There are fewer of them than requested when the
+   * ring does not have enough servers.
+   */
+  public List<String> getServersFor(String key, int replicas) {
+    if (replicas < 1) {
+      throw new IllegalArgumentException("Need at least one replica, but got " + replicas);
+    }
+    Ring current = nonEmptyRing();
+    int[] serverIndexes = new int[Math.min(replicas, current.serverCount())];
+    int found = current.preferenceList(current.indexFor(hash(key)), serverIndexes,
+        serverIndexes.length);
+    String[] servers = current.servers();
+    String[] preferenceList = new String[found];
+    for (int i = 0; i < found; i++) {
+      preferenceList[i] = servers[serverIndexes[i]];
+    }
+    return Arrays.asList(preferenceList);
+  }
+
+  /**
+   * Routes a batch of keys against a single version of the ring. Large batches are spread across
+   * the common fork-join pool. No per-key objects get allocated either way.
+   */
+  public Routing route(String[] keys) {
+    Ring current = nonEmptyRing();
+    int[] serverIndexes = new int[keys.length];
+    IntUnaryOperator router = i -> current.ownerAt(current.indexFor(hashFunction.hash(keys[i])));
+    if (keys.length >= PARALLEL_ROUTING_THRESHOLD) {
+      Arrays.parallelSetAll(serverIndexes, router);
+    } else {
+      Arrays.setAll(serverIndexes, router);
+    }
+    RoutingMetrics enabled = metrics;
+    if (enabled != null) {
+      enabled.lookedUp(keys.length);
+    }
+    return new Routing(current.servers(), serverIndexes);
+  }
+
+  public Routing route(List<String> keys) {
+    return route(keys.toArray(new String[0]));
+  }
+
+  /**
+   * @return - The given keys grouped by the server that owns them, for e.g., to issue one multi-get
+   * per server. Servers that own none of the keys are left out.
+   */
+  public Map<String, List<String>> groupByServer(Collection<String> keys) {
+    String[] batch = keys.toArray(new String[0]);
+    Routing routing = route(batch);
+    List<String> servers = routing.getServers();
+    List<List<String>> groups = new ArrayList<>(servers.size());
+    for (int i = 0; i < servers.size(); i++) {
+      groups.add(null);
+    }
+    int[] serverIndexes = routing.getServerIndexes();
+    for (int i = 0; i < batch.length; i++) {
+      List<String> group = groups.get(serverIndexes[i]);
+      if (group == null) {
+        group = new ArrayList<>();
+        groups.set(serverIndexes[i], group);
+      }
+      group.add(batch[i]);
+    }
+    Map<String, List<String>> grouped = new LinkedHashMap<>();
+    for (int i = 0; i < servers.size(); i++) {
+      if (groups.get(i) != null) {
+        grouped.put(servers.get(i), groups.get(i));
+      }
+    }
+    return grouped;
+  }
+
+  private String serverFor(long hash) {
+    //Read the ring exactly once, so that a concurrent topology change cannot hand us a mix of
+    //two different rings.
+    Ring current = nonEmptyRing();
+    RoutingMetrics enabled = metrics;
+    if (enabled == null) {
+      //The ring takes care of wrapping around to the first node when there is no virtual node
+      //whose hash value is larger than the hash value of our key.
+      return current.nodeAt(current.indexFor(hash));
+    }
+    if (!enabled.sample()) {
+      enabled.lookedUp(1);
+      return current.nodeAt(current.indexFor(hash));
+    }
+    long started = System.nanoTime();
+    String server = current.nodeAt(current.indexFor(hash));
+    enabled.lookedUp(1, System.nanoTime() - started);
+    return server;
+  }
+
+  private Ring nonEmptyRing() {
+    Ring current = ring;
+    if (current.isEmpty()) {
+      throw new IllegalStateException("There are no servers in the ring");
+    }
+    return current;
   }
 }
@@ -0,0 +1,91 @@
+package com.rationaleemotions.caching;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * A primitive 64-bit hash function used to place keys and virtual nodes on the ring.
+ * <p>
+ * Implementations only need to hash a range of bytes. Text is hashed as its UTF-8 bytes which are
+ * encoded into a per-thread scratch buffer, and so is the content of a direct {@link ByteBuffer},
+ * which means that none of the lookup paths allocate or box once the scratch buffer has grown to
+ * the size of the largest key.
+ */
+public interface HashFunction extends ToLongFunction<CharSequence> {
+
+  /**
+   * @param bytes  - The bytes to hash.
+   * @param offset - The index of the first byte to hash.
+   * @param length - The number of bytes to hash.
+   * @return - The 64-bit hash of the given range of bytes.
+   */
+  long hash(byte[] bytes, int offset, int length);
+
+  default long hash(byte[] bytes) {
+    return hash(bytes, 0, bytes.length);
+  }
+
+  /**
+   * Hashes the remaining bytes of the buffer without changing its position.
+   */
+  default long hash(ByteBuffer buffer) {
+    int length = buffer.remaining();
+    if (buffer.hasArray()) {
+      return hash(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+    }
+    byte[] scratch = Utf8.scratch(length);
+    for (int i = 0, position = buffer.position(); i < length; i++) {
+      scratch[i] = buffer.get(position + i);
+    }
+    return hash(scratch, 0, length);
+  }
+
+  /**
+   * Hashes the UTF-8 encoding of the given text.
+   */
+  default long hash(CharSequence text) {
+    byte[] scratch = Utf8.scratch(Utf8.encodedLength(text));
+    return hash(scratch, 0, Utf8.encode(text, scratch));
+  }
+
+  @Override
+  default long applyAsLong(CharSequence text) {
+    return hash(text);
+  }
+
+  /**
+   * @return - The 64-bit variant (x64, 128-bit, first half) of MurmurHash3 with a seed of zero.
+   */
+  static HashFunction murmur3() {
+    return Murmur3Hash.INSTANCE;
+  }
+
+  /**
+   * @return - XXH64 with a seed of zero.
+   */
+  static HashFunction xxHash64() {
+    return XxHash64.INSTANCE;
+  }
+
+  /**
+   * Adapts a boxed 32-bit hash function. Meant only for compatibility (and deterministic hashes in
+   * tests), since every call goes through a {@link String} and an {@link Integer}.
+   */
+  static HashFunction fromFunction(Function<String, Integer> function) {
+    Objects.requireNonNull(function, "function");
+    return new HashFunction() {
+      @Override
+      public long hash(byte[] bytes, int offset, int length) {
+        return function.apply(new String(bytes, offset, length, StandardCharsets.UTF_8));
+      }
+
+      @Override
+      public long hash(CharSequence text) {
+        return function.apply(text.toString());
+      }
+    };
+  }
+}
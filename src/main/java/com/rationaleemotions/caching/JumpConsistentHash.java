@@ -0,0 +1,81 @@
+package com.rationaleemotions.caching;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Jump Consistent Hash (Lamping and Veach - https://arxiv.org/abs/1406.2294). It needs no memory
+ * besides the list of servers and routes a key in O(ln n) time, but it only works with numbered
+ * buckets.
+ * <p>
+ * Adding a server appends a bucket, which only moves the keys that the new bucket takes over.
+ * Removing a server moves the last server into the bucket of the removed one. So removing the most
+ * recently added server is as cheap as it gets, while removing any other server additionally
+ * moves the keys of the last server.
+ */
+public class JumpConsistentHash implements KeyRouter {
+
+  private final HashFunction hashFunction;
+
+  //The bucket number of a server is its index. Replaced as a whole on every topology change.
+  private volatile String[] buckets;
+
+  public JumpConsistentHash(List<String> servers) {
+    this(servers, HashFunction.murmur3());
+  }
+
+  public JumpConsistentHash(List<String> servers, HashFunction hashFunction) {
+    this.hashFunction = hashFunction;
+    this.buckets = servers.stream().distinct().toArray(String[]::new);
+  }
+
+  /**
+   * @param key        - The hash of a key.
+   * @param numBuckets - The number of buckets.
+   * @return - A bucket in the range [0, numBuckets).
+   */
+  public static int bucketFor(long key, int numBuckets) {
+    long b = -1;
+    long j = 0;
+    while (j < numBuckets) {
+      b = j;
+      key = key * 2862933555777941757L + 1;
+      j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+    }
+    return (int) b;
+  }
+
+  @Override
+  public String getServerFor(String key) {
+    String[] current = buckets;
+    if (current.length == 0) {
+      throw new IllegalStateException("There are no servers to route to");
+    }
+    return current[bucketFor(hashFunction.hash(key), current.length)];
+  }
+
+  @Override
+  public synchronized void addNewServer(String server) {
+    String[] current = buckets;
+    if (Arrays.asList(current).contains(server)) {
+      return;
+    }
+    String[] updated = Arrays.copyOf(current, current.length + 1);
+    updated[current.length] = server;
+    buckets = updated;
+  }
+
+  @Override
+  public synchronized void removeServer(String server) {
+    String[] current = buckets;
+    int index = Arrays.asList(current).indexOf(server);
+    if (index < 0) {
+      return;
+    }
+    String[] updated = Arrays.copyOf(current, current.length - 1);
+    if (index < updated.length) {
+      updated[index] = current[current.length - 1];
+    }
+    buckets = updated;
+  }
+}
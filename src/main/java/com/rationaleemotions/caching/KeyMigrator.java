@@ -0,0 +1,248 @@
+package com.rationaleemotions.caching;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToIntBiFunction;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Moves the entries whose keys fall into the hash ranges that changed owners (see
+ * {@link Ring#diff(Ring)}) from the node that owned them to the node that owns them now, and drops
+ * them from where they were. Every node that lost ranges is scanned on a thread of its own, and
+ * only the entries that moved get copied, so adding an Nth node copies about 1/N of the data.
+ * <p>
+ * Only the copying is limited to the moved ranges, not the scan. A {@link CacheNode} does not
+ * index its entries by token, so every key on a node that lost ranges gets hashed, however little
+ * of it moves.
+ * <p>
+ * All the copies share a single bandwidth cap, so that a migration does not starve regular
+ * traffic. Entries keep whatever time they had left to live.
+ */
+@Slf4j
+public final class KeyMigrator<V> {
+
+  private final ConsistentHash ring;
+  private final Function<String, CacheNode<String, V>> nodes;
+  private final ExecutorService executor;
+  private final ToIntBiFunction<String, V> sizer;
+  private final Throttle throttle;
+
+  /**
+   * @param ring           - Hashes the keys, the same way it routes them.
+   * @param nodes          - The node of a server.
+   * @param executor       - Runs the scans of the nodes that lost ranges.
+   * @param bytesPerSecond - The most that all copies together may send per second. 0 for no cap.
+   * @param sizer          - The size of an entry on the wire (in bytes).
+   */
+  public KeyMigrator(ConsistentHash ring, Function<String, CacheNode<String, V>> nodes,
+      ExecutorService executor, long bytesPerSecond, ToIntBiFunction<String, V> sizer) {
+    if (bytesPerSecond < 0) {
+      throw new IllegalArgumentException("The bandwidth cap cannot be negative");
+    }
+    this.ring = ring;
+    this.nodes = nodes;
+    this.executor = executor;
+    this.sizer = sizer;
+    this.throttle = new Throttle(bytesPerSecond);
+  }
+
+  /**
+   * Moves the entries in the given ranges, and waits for all of them to be moved.
+   */
+  public Result migrate(List<TokenRange> ranges) throws InterruptedException {
+    long started = System.nanoTime();
+    Map<String, List<TokenRange>> bySource = new LinkedHashMap<>();
+    for (TokenRange range : ranges) {
+      bySource.computeIfAbsent(range.getFrom(), k -> new ArrayList<>()).add(range);
+    }
+    LongAdder scanned = new LongAdder();
+    LongAdder moved = new LongAdder();
+    LongAdder bytes = new LongAdder();
+    Map<String, Future<?>> scans = new LinkedHashMap<>();
+    bySource.forEach((source, lost) -> {
+      CacheNode<String, V> node = nodes.apply(source);
+      if (node != null) {
+        scans.put(source, executor.submit(() -> {
+          scan(node, new Ranges(lost), scanned, moved, bytes);
+          return null;
+        }));
+      }
+    });
+    try {
+      for (Map.Entry<String, Future<?>> scan : scans.entrySet()) {
+        try {
+          scan.getValue().get();
+        } catch (ExecutionException e) {
+          throw new IllegalStateException("Could not migrate keys off " + scan.getKey(),
+              e.getCause());
+        }
+      }
+    } finally {
+      //Nothing should go on moving once we gave up.
+      scans.values().forEach(scan -> scan.cancel(true));
+    }
+    Result result = new Result(scanned.sum(), moved.sum(), bytes.sum(),
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    log.debug("Migrated {} ranges off {} nodes: {}", ranges.size(), scans.size(), result);
+    return result;
+  }
+
+  private void scan(CacheNode<String, V> source, Ranges lost, LongAdder scanned, LongAdder moved,
+      LongAdder bytes) throws InterruptedException {
+    InterruptedException[] interrupted = new InterruptedException[1];
+    source.forEachEntry((key, value, ttl) -> {
+      if (interrupted[0] != null) {
+        return;
+      }
+      scanned.increment();
+      TokenRange range = lost.find(ring.hash(key));
+      if (range == null) {
+        return;
+      }
+      int size = sizer.applyAsInt(key, value);
+      try {
+        throttle.acquire(size);
+      } catch (InterruptedException e) {
+        interrupted[0] = e;
+        return;
+      }
+      //The ring changed before the scan started, so the new owner may have been written to since.
+      //Whatever it got then is newer than what we are copying.
+      boolean copied = nodes.apply(range.getTo()).putIfAbsent(key, value, ttl);
+      source.remove(key);
+      if (copied) {
+        moved.increment();
+        bytes.add(size);
+      }
+    });
+    if (interrupted[0] != null) {
+      throw interrupted[0];
+    }
+  }
+
+  /**
+   * The ranges that a single node lost, sorted so that the range of a hash is a binary search
+   * away.
+   */
+  private static final class Ranges {
+
+    private final TokenRange[] ranges;
+    private final long[] ends;
+    //At most one range wraps around, since the diff joins the halves of a range across the wrap.
+    private final TokenRange wrapping;
+
+    Ranges(List<TokenRange> lost) {
+      TokenRange wraps = null;
+      List<TokenRange> sorted = new ArrayList<>(lost.size());
+      for (TokenRange range : lost) {
+        if (range.wrapsAround()) {
+          wraps = range;
+        } else {
+          sorted.add(range);
+        }
+      }
+      sorted.sort(Comparator.comparingLong(TokenRange::getEnd));
+      this.ranges = sorted.toArray(new TokenRange[0]);
+      this.ends = Arrays.stream(ranges).mapToLong(TokenRange::getEnd).toArray();
+      this.wrapping = wraps;
+    }
+
+    TokenRange find(long hash) {
+      if (wrapping != null && wrapping.contains(hash)) {
+        return wrapping;
+      }
+      int index = Arrays.binarySearch(ends, hash);
+      if (index < 0) {
+        index = -index - 1;
+      }
+      return index < ranges.length && ranges[index].contains(hash) ? ranges[index] : null;
+    }
+  }
+
+  /**
+   * Paces the copies, by handing out consecutive slots of time that are as long as it takes to
+   * send the given number of bytes at the cap.
+   */
+  private static final class Throttle {
+
+    private final long bytesPerSecond;
+    //When the next slot starts (as per System.nanoTime()).
+    private long nextSlot;
+
+    Throttle(long bytesPerSecond) {
+      this.bytesPerSecond = bytesPerSecond;
+    }
+
+    void acquire(int bytes) throws InterruptedException {
+      if (bytesPerSecond == 0) {
+        return;
+      }
+      long wait;
+      synchronized (this) {
+        long now = System.nanoTime();
+        long start = Math.max(nextSlot, now);
+        nextSlot = start + bytes * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond;
+        wait = start - now;
+      }
+      if (wait > 0) {
+        TimeUnit.NANOSECONDS.sleep(wait);
+      }
+    }
+  }
+
+  /**
+   * What a migration did.
+   */
+  public static final class Result {
+
+    private final long keysScanned;
+    private final long keysMoved;
+    private final long bytesMoved;
+    private final long elapsed;
+
+    Result(long keysScanned, long keysMoved, long bytesMoved, long elapsed) {
+      this.keysScanned = keysScanned;
+      this.keysMoved = keysMoved;
+      this.bytesMoved = bytesMoved;
+      this.elapsed = elapsed;
+    }
+
+    /**
+     * @return - The keys on the nodes that lost ranges, all of which had to be hashed.
+     */
+    public long getKeysScanned() {
+      return keysScanned;
+    }
+
+    public long getKeysMoved() {
+      return keysMoved;
+    }
+
+    public long getBytesMoved() {
+      return bytesMoved;
+    }
+
+    /**
+     * @return - How long the migration took (in ms).
+     */
+    public long getElapsed() {
+      return elapsed;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("scanned=%d, moved=%d, bytes=%d, elapsed=%dms", keysScanned, keysMoved,
+          bytesMoved, elapsed);
+    }
+  }
+}
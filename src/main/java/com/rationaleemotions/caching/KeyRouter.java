@@ -0,0 +1,20 @@
+package com.rationaleemotions.caching;
+
+/**
+ * Decides which server owns a key. Implementations are expected to be safe for concurrent use, to
+ * never lock on the lookup path and to move as few keys as possible when the set of servers
+ * changes.
+ */
+public interface KeyRouter {
+
+  /**
+   * @param key - The key to route.
+   * @return - The server that owns the key.
+   * @throws IllegalStateException - When there are no servers to route to.
+   */
+  String getServerFor(String key);
+
+  void addNewServer(String server);
+
+  void removeServer(String server);
+}
@@ -0,0 +1,123 @@
+package com.rationaleemotions.caching;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Maglev hashing (Eisenbud et al. - https://research.google/pubs/pub44824/). Every server fills
+ * the slots of a lookup table in the order of its own permutation, taking turns with the other
+ * servers, so that every server ends up with an (almost) equal share of the table. A lookup is a
+ * single array access, no matter how many servers there are.
+ * <p>
+ * Unlike the ring, a topology change may move a small number of keys between two servers that
+ * both stayed in the table.
+ */
+public class MaglevHash implements KeyRouter {
+
+  /**
+   * The default number of slots in the lookup table. Should be a prime that is much larger than
+   * the number of servers (the paper recommends at least a 100 times).
+   */
+  public static final int DEFAULT_TABLE_SIZE = 65537;
+
+  private final int tableSize;
+  private final HashFunction hashFunction;
+
+  //The servers in the table. This is only ever touched by writers.
+  private final Set<String> servers = new TreeSet<>();
+
+  //The lookup table along with the servers that it points into. Replaced as a whole on every
+  //topology change.
+  private volatile Table table;
+
+  public MaglevHash(List<String> servers) {
+    this(servers, DEFAULT_TABLE_SIZE, HashFunction.murmur3());
+  }
+
+  public MaglevHash(List<String> servers, int tableSize, HashFunction hashFunction) {
+    if (tableSize < 2 || !BigInteger.valueOf(tableSize).isProbablePrime(32)) {
+      throw new IllegalArgumentException("Table size should be a prime, but was " + tableSize);
+    }
+    this.tableSize = tableSize;
+    this.hashFunction = hashFunction;
+    this.servers.addAll(servers);
+    this.table = populate();
+  }
+
+  @Override
+  public String getServerFor(String key) {
+    Table current = table;
+    if (current.servers.length == 0) {
+      throw new IllegalStateException("There are no servers to route to");
+    }
+    int slot = (int) Long.remainderUnsigned(hashFunction.hash(key), current.entries.length);
+    return current.servers[current.entries[slot]];
+  }
+
+  @Override
+  public synchronized void addNewServer(String server) {
+    if (servers.add(server)) {
+      table = populate();
+    }
+  }
+
+  @Override
+  public synchronized void removeServer(String server) {
+    if (servers.remove(server)) {
+      table = populate();
+    }
+  }
+
+  /**
+   * Builds the lookup table as described in section 3.4 of the paper. The servers are visited in
+   * sorted order so that the table does not depend on the order in which servers were added.
+   */
+  private Table populate() {
+    String[] names = servers.toArray(new String[0]);
+    int n = names.length;
+    if (n == 0) {
+      return Table.EMPTY;
+    }
+    long[] offsets = new long[n];
+    long[] skips = new long[n];
+    long[] next = new long[n];
+    for (int i = 0; i < n; i++) {
+      offsets[i] = Long.remainderUnsigned(HashFunction.murmur3().hash(names[i]), tableSize);
+      skips[i] = Long.remainderUnsigned(HashFunction.xxHash64().hash(names[i]), tableSize - 1) + 1;
+    }
+    int[] entries = new int[tableSize];
+    Arrays.fill(entries, -1);
+    int filled = 0;
+    while (true) {
+      for (int i = 0; i < n; i++) {
+        int candidate = (int) ((offsets[i] + next[i] * skips[i]) % tableSize);
+        while (entries[candidate] >= 0) {
+          next[i]++;
+          candidate = (int) ((offsets[i] + next[i] * skips[i]) % tableSize);
+        }
+        entries[candidate] = i;
+        next[i]++;
+        if (++filled == tableSize) {
+          return new Table(names, entries);
+        }
+      }
+    }
+  }
+
+  private static final class Table {
+
+    static final Table EMPTY = new Table(new String[0], new int[0]);
+
+    private final String[] servers;
+    //Index into servers, for every slot of the lookup table.
+    private final int[] entries;
+
+    private Table(String[] servers, int[] entries) {
+      this.servers = servers;
+      this.entries = entries;
+    }
+  }
+}
@@ -0,0 +1,130 @@
+package com.rationaleemotions.caching;
+
+/**
+ * MurmurHash3 (x64, 128-bit) with a seed of zero, truncated to the first 64 bits. This yields the
+ * same value as Guava's {@code Hashing.murmur3_128().hashBytes(bytes).asLong()}.
+ */
+final class Murmur3Hash implements HashFunction {
+
+  static final Murmur3Hash INSTANCE = new Murmur3Hash();
+
+  private static final long C1 = 0x87c37b91114253d5L;
+  private static final long C2 = 0x4cf5ad432745937fL;
+
+  private Murmur3Hash() {
+  }
+
+  @Override
+  @SuppressWarnings("fallthrough")
+  public long hash(byte[] bytes, int offset, int length) {
+    long h1 = 0;
+    long h2 = 0;
+    int end = offset + (length & ~15);
+    int i = offset;
+    for (; i < end; i += 16) {
+      h1 ^= mixK1(getLongLE(bytes, i));
+      h1 = Long.rotateLeft(h1, 27);
+      h1 += h2;
+      h1 = h1 * 5 + 0x52dce729;
+
+      h2 ^= mixK2(getLongLE(bytes, i + 8));
+      h2 = Long.rotateLeft(h2, 31);
+      h2 += h1;
+      h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    long k1 = 0;
+    long k2 = 0;
+    switch (length & 15) {
+      case 15:
+        k2 ^= (bytes[i + 14] & 0xFFL) << 48;
+        // fall through
+      case 14:
+        k2 ^= (bytes[i + 13] & 0xFFL) << 40;
+        // fall through
+      case 13:
+        k2 ^= (bytes[i + 12] & 0xFFL) << 32;
+        // fall through
+      case 12:
+        k2 ^= (bytes[i + 11] & 0xFFL) << 24;
+        // fall through
+      case 11:
+        k2 ^= (bytes[i + 10] & 0xFFL) << 16;
+        // fall through
+      case 10:
+        k2 ^= (bytes[i + 9] & 0xFFL) << 8;
+        // fall through
+      case 9:
+        k2 ^= bytes[i + 8] & 0xFFL;
+        h2 ^= mixK2(k2);
+        // fall through
+      case 8:
+        k1 ^= (bytes[i + 7] & 0xFFL) << 56;
+        // fall through
+      case 7:
+        k1 ^= (bytes[i + 6] & 0xFFL) << 48;
+        // fall through
+      case 6:
+        k1 ^= (bytes[i + 5] & 0xFFL) << 40;
+        // fall through
+      case 5:
+        k1 ^= (bytes[i + 4] & 0xFFL) << 32;
+        // fall through
+      case 4:
+        k1 ^= (bytes[i + 3] & 0xFFL) << 24;
+        // fall through
+      case 3:
+        k1 ^= (bytes[i + 2] & 0xFFL) << 16;
+        // fall through
+      case 2:
+        k1 ^= (bytes[i + 1] & 0xFFL) << 8;
+        // fall through
+      case 1:
+        k1 ^= bytes[i] & 0xFFL;
+        h1 ^= mixK1(k1);
+        // fall through
+      default:
+        break;
+    }
+
+    h1 ^= length;
+    h2 ^= length;
+    h1 += h2;
+    h2 += h1;
+    h1 = fmix(h1);
+    h2 = fmix(h2);
+    h1 += h2;
+    return h1;
+  }
+
+  private static long mixK1(long k1) {
+    k1 *= C1;
+    k1 = Long.rotateLeft(k1, 31);
+    return k1 * C2;
+  }
+
+  private static long mixK2(long k2) {
+    k2 *= C2;
+    k2 = Long.rotateLeft(k2, 33);
+    return k2 * C1;
+  }
+
+  private static long fmix(long k) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    return k ^ (k >>> 33);
+  }
+
+  static long getLongLE(byte[] bytes, int index) {
+    return (bytes[index] & 0xFFL)
+        | (bytes[index + 1] & 0xFFL) << 8
+        | (bytes[index + 2] & 0xFFL) << 16
+        | (bytes[index + 3] & 0xFFL) << 24
+        | (bytes[index + 4] & 0xFFL) << 32
+        | (bytes[index + 5] & 0xFFL) << 40
+        | (bytes[index + 6] & 0xFFL) << 48
+        | (bytes[index + 7] & 0xFFL) << 56;
+  }
+}
@@ -0,0 +1,324 @@
+package com.rationaleemotions.caching;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * An immutable snapshot of the hash ring. The token hashes are kept in a sorted primitive array
+ * and the owner of every token lives at the same position of the parallel arrays, so that a lookup
+ * is nothing more than a binary search.
+ * <p>
+ * Snapshots are handed out by {@link ConsistentHash#snapshot()}, so that two versions of the ring
+ * can be compared (see {@link #diff(Ring)}).
+ */
+public final class Ring {
+
+  static final Ring EMPTY = new Ring(new long[0], new int[0], new String[0], new int[0], 0);
+  private static final double TWO_TO_THE_64 = 0x1p64;
+
+  //Sorted hash values of the virtual nodes.
+  private final long[] tokens;
+  //Index into servers, of the physical server that owns the virtual node at the same index in
+  //tokens.
+  private final int[] owners;
+  //The distinct physical servers.
+  private final String[] servers;
+  //Optional. The preference list of every virtual node, i.e., the indexes (into servers) of the
+  //first preferenceListSize distinct servers clockwise from it. The list of the virtual node at
+  //index i starts at i * preferenceListSize.
+  private final int[] preferenceLists;
+  private final int preferenceListSize;
+
+  private Ring(long[] tokens, int[] owners, String[] servers, int[] preferenceLists,
+      int preferenceListSize) {
+    this.tokens = tokens;
+    this.owners = owners;
+    this.servers = servers;
+    this.preferenceLists = preferenceLists;
+    this.preferenceListSize = preferenceListSize;
+  }
+
+  /**
+   * Builds the next version of the ring in a single pass over this one. Only the tokens of the
+   * added servers need to be sorted, everything else is a linear merge.
+   * <p>
+   * When two virtual nodes collide on the same token, the one that was already on the ring wins.
+   *
+   * @param removed - The servers to take off the ring. Expected to be a set, since it is consulted
+   *                for every server.
+   * @param added   - The servers to put on the ring, along with the (unsorted) tokens of their
+   *                virtual nodes. A server that is already on the ring gets its virtual nodes
+   *                replaced.
+   * @return - The updated ring.
+   */
+  Ring update(Collection<String> removed, Map<String, long[]> added) {
+    //Work out the new list of servers along with where every surviving server moved to.
+    List<String> updatedServers = new ArrayList<>(servers.length + added.size());
+    int[] remap = new int[servers.length];
+    for (int i = 0; i < servers.length; i++) {
+      boolean dropped = removed.contains(servers[i]) || added.containsKey(servers[i]);
+      remap[i] = dropped ? -1 : updatedServers.size();
+      if (!dropped) {
+        updatedServers.add(servers[i]);
+      }
+    }
+    Map<String, Integer> addedIndexes = new HashMap<>();
+    for (String server : added.keySet()) {
+      addedIndexes.put(server, updatedServers.size());
+      updatedServers.add(server);
+    }
+
+    //Lay out the tokens of the added servers, and sort just those.
+    int count = added.values().stream().mapToInt(each -> each.length).sum();
+    long[] addedTokens = new long[count];
+    int[] addedOwners = new int[count];
+    int position = 0;
+    for (Map.Entry<String, long[]> entry : added.entrySet()) {
+      int owner = addedIndexes.get(entry.getKey());
+      for (long token : entry.getValue()) {
+        addedTokens[position] = token;
+        addedOwners[position++] = owner;
+      }
+    }
+    int[] order = IntStream.range(0, count).boxed()
+        .sorted(Comparator.comparingLong(i -> addedTokens[i]))
+        .mapToInt(Integer::intValue)
+        .toArray();
+
+    //Merge the surviving tokens with the added ones.
+    int capacity = tokens.length + count;
+    long[] mergedTokens = new long[capacity];
+    int[] mergedOwners = new int[capacity];
+    int size = 0;
+    int i = 0;
+    int j = 0;
+    while (i < tokens.length || j < count) {
+      if (i < tokens.length && remap[owners[i]] < 0) {
+        i++;
+        continue;
+      }
+      boolean takeExisting = j == count
+          || (i < tokens.length && tokens[i] <= addedTokens[order[j]]);
+      long token = takeExisting ? tokens[i] : addedTokens[order[j]];
+      if (size > 0 && mergedTokens[size - 1] == token) {
+        //A collision. The existing token always sorts first, so it is the one we keep.
+        if (takeExisting) {
+          i++;
+        } else {
+          j++;
+        }
+        continue;
+      }
+      mergedTokens[size] = token;
+      if (takeExisting) {
+        mergedOwners[size] = remap[owners[i]];
+        i++;
+      } else {
+        mergedOwners[size] = addedOwners[order[j]];
+        j++;
+      }
+      size++;
+    }
+    return new Ring(Arrays.copyOf(mergedTokens, size), Arrays.copyOf(mergedOwners, size),
+        updatedServers.toArray(new String[0]), new int[0], 0);
+  }
+
+  /**
+   * Works out which hash ranges changed owners between this version of the ring and the given one,
+   * in a single merge of the tokens of both. Between two neighbouring tokens of either ring, both
+   * rings have a single owner, which is the owner of their next token clockwise. Neighbouring
+   * ranges that moved between the same two servers are joined up.
+   *
+   * @param next - A later version of the ring.
+   * @return - The ranges that moved, in ring order. Empty when either ring is.
+   */
+  public List<TokenRange> diff(Ring next) {
+    List<TokenRange> moved = new ArrayList<>();
+    if (isEmpty() || next.isEmpty()) {
+      return moved;
+    }
+    //Owners are compared by their index into the servers of the next ring.
+    Map<String, Integer> nextIndexes = new HashMap<>();
+    for (int i = 0; i < next.servers.length; i++) {
+      nextIndexes.put(next.servers[i], i);
+    }
+    int[] remap = new int[servers.length];
+    for (int i = 0; i < servers.length; i++) {
+      remap[i] = nextIndexes.getOrDefault(servers[i], -1);
+    }
+
+    long[] nextTokens = next.tokens;
+    //The first range wraps around, from the largest token of either ring.
+    long previous = Math.max(tokens[tokens.length - 1], nextTokens[nextTokens.length - 1]);
+    int i = 0;
+    int j = 0;
+    TokenRange open = null;
+    while (i < tokens.length || j < nextTokens.length) {
+      long boundary = j == nextTokens.length || (i < tokens.length && tokens[i] <= nextTokens[j])
+          ? tokens[i] : nextTokens[j];
+      int before = owners[i == tokens.length ? 0 : i];
+      int after = next.owners[j == nextTokens.length ? 0 : j];
+      if (i < tokens.length && tokens[i] == boundary) {
+        i++;
+      }
+      if (j < nextTokens.length && nextTokens[j] == boundary) {
+        j++;
+      }
+      if (remap[before] == after) {
+        if (open != null) {
+          moved.add(open);
+          open = null;
+        }
+      } else if (open != null && open.getFrom().equals(servers[before])
+          && open.getTo().equals(next.servers[after])) {
+        open = new TokenRange(open.getStart(), boundary, open.getFrom(), open.getTo());
+      } else {
+        if (open != null) {
+          moved.add(open);
+        }
+        open = new TokenRange(previous, boundary, servers[before], next.servers[after]);
+      }
+      previous = boundary;
+    }
+    if (open != null) {
+      moved.add(open);
+    }
+
+    //The last range and the first one may be the two halves of a single range across the wrap.
+    if (moved.size() > 1) {
+      TokenRange first = moved.get(0);
+      TokenRange last = moved.get(moved.size() - 1);
+      if (first.getStart() == previous && last.getEnd() == previous
+          && first.getFrom().equals(last.getFrom()) && first.getTo().equals(last.getTo())) {
+        moved.set(0, new TokenRange(last.getStart(), first.getEnd(), first.getFrom(),
+            first.getTo()));
+        moved.remove(moved.size() - 1);
+      }
+    }
+    return moved;
+  }
+
+  /**
+   * @param replicas - The number of distinct servers to remember for every virtual node.
+   * @return - A copy of this ring, that answers preference lists of up to the given size with a
+   * single array copy.
+   */
+  Ring withPreferenceLists(int replicas) {
+    int size = Math.min(replicas, servers.length);
+    if (size == 0) {
+      return new Ring(tokens, owners, servers, new int[0], 0);
+    }
+    int[] lists = new int[tokens.length * size];
+    int[] list = new int[size];
+    for (int i = 0; i < tokens.length; i++) {
+      walk(i, list, size);
+      System.arraycopy(list, 0, lists, i * size, size);
+    }
+    return new Ring(tokens, owners, servers, lists, size);
+  }
+
+  /**
+   * Fills the given array with the indexes (into {@link #servers()}) of the first distinct servers
+   * clockwise from the virtual node at the given index.
+   *
+   * @return - The number of servers found, which is less than requested when the ring does not
+   * have enough servers.
+   */
+  int preferenceList(int index, int[] into, int replicas) {
+    if (replicas <= preferenceListSize) {
+      System.arraycopy(preferenceLists, index * preferenceListSize, into, 0, replicas);
+      return replicas;
+    }
+    return walk(index, into, replicas);
+  }
+
+  private int walk(int start, int[] into, int replicas) {
+    int found = 0;
+    for (int step = 0; step < tokens.length && found < replicas; step++) {
+      int owner = owners[(start + step) % tokens.length];
+      boolean seen = false;
+      for (int i = 0; i < found && !seen; i++) {
+        seen = into[i] == owner;
+      }
+      if (!seen) {
+        into[found++] = owner;
+      }
+    }
+    return found;
+  }
+
+  /**
+   * @return - The share of the (64 bit) hash space that every server owns, i.e., the sum of the
+   * distances from the previous virtual node to each of its own.
+   */
+  Map<String, Double> ownership() {
+    double[] owned = new double[servers.length];
+    for (int i = 0; i < tokens.length; i++) {
+      //Wraps around for the first virtual node, which is exactly what the distance should do.
+      long distance = tokens[i] - tokens[i == 0 ? tokens.length - 1 : i - 1];
+      //An unsigned distance. A single virtual node owns the whole ring.
+      owned[owners[i]] += distance == 0 ? TWO_TO_THE_64 : unsigned(distance);
+    }
+    Map<String, Double> ownership = new LinkedHashMap<>();
+    for (int i = 0; i < servers.length; i++) {
+      ownership.put(servers[i], owned[i] / TWO_TO_THE_64);
+    }
+    return ownership;
+  }
+
+  private static double unsigned(long value) {
+    return value >= 0 ? value : value + TWO_TO_THE_64;
+  }
+
+  boolean isEmpty() {
+    return tokens.length == 0;
+  }
+
+  int size() {
+    return tokens.length;
+  }
+
+  int serverCount() {
+    return servers.length;
+  }
+
+  /**
+   * @param hash - The hash value of a key.
+   * @return - The index of the first virtual node whose hash is equal to or larger than the given
+   * hash, wrapping around to the first virtual node when there is none.
+   */
+  int indexFor(long hash) {
+    int index = Arrays.binarySearch(tokens, hash);
+    if (index < 0) {
+      //Not an exact match, so binarySearch gave us -(insertion point) - 1.
+      index = -index - 1;
+    }
+    return index == tokens.length ? 0 : index;
+  }
+
+  String nodeAt(int index) {
+    return servers[owners[index]];
+  }
+
+  /**
+   * @return - The index (into {@link #servers()}) of the server that owns the virtual node at the
+   * given index.
+   */
+  int ownerAt(int index) {
+    return owners[index];
+  }
+
+  /**
+   * @return - The distinct physical servers. Callers must not modify the array.
+   */
+  String[] servers() {
+    return servers;
+  }
+}
@@ -0,0 +1,200 @@
+package com.rationaleemotions.caching;
+
+import com.rationaleemotions.gossip.ClientImpl;
+import com.rationaleemotions.gossip.HashedWheelTimer;
+import com.rationaleemotions.gossip.Member;
+import com.rationaleemotions.gossip.MembershipEvent;
+import com.rationaleemotions.gossip.MembershipListener;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps the servers of a {@link ConsistentHash} in line with the live members of a gossip cluster,
+ * so that routing follows the cluster without anyone having to add or remove servers by hand. A
+ * server is known by the address of its member.
+ * <p>
+ * Changes are debounced: they are held back until the membership has been quiet for a while (but
+ * no longer than a maximum delay from the first held back change), and then applied with a single
+ * rebuild of the ring. A member that flaps in the meantime costs nothing, and a burst of joins
+ * costs one rebuild rather than one per join.
+ * <p>
+ * The timer only decides when to apply the changes. The rebuild itself runs on an executor of the
+ * binding, since the timer is usually shared by every member of the client (and a rebuild of a
+ * large ring would hold up their timeouts).
+ */
+@Slf4j
+public final class RingBinding implements MembershipListener {
+
+  private final ConsistentHash ring;
+  private final HashedWheelTimer timer;
+  private final long quietPeriod;
+  private final long maxDelay;
+  private final Executor rebuilder;
+
+  //Guarded by this. Whether every held back member should end up on the ring.
+  private final Map<String, Boolean> pending = new LinkedHashMap<>();
+  private long firstChange;
+  private long lastChange;
+  private HashedWheelTimer.Timeout flush;
+  //Serializes the rebuilds, which happen outside of our lock, since the timer needs that lock to
+  //hand us changes and to ask when to flush. Always taken before our lock, never after.
+  private final Object rebuildLock = new Object();
+  //Only written while holding rebuildLock.
+  private volatile long rebuilds;
+
+  /**
+   * A binding that rebuilds the ring on a thread of its own, which only lives while there are
+   * changes to apply.
+   */
+  public RingBinding(ConsistentHash ring, HashedWheelTimer timer, long quietPeriod,
+      long maxDelay) {
+    this(ring, timer, quietPeriod, maxDelay, newRebuilder());
+  }
+
+  /**
+   * @param ring        - The ring to keep in line.
+   * @param timer       - Decides when to apply the held back changes.
+   * @param quietPeriod - How long the membership should be quiet before changes are applied (in
+   *                    ms).
+   * @param maxDelay    - The longest that a change is held back (in ms).
+   * @param rebuilder   - Applies the held back changes, off the thread of the timer.
+   */
+  public RingBinding(ConsistentHash ring, HashedWheelTimer timer, long quietPeriod,
+      long maxDelay, Executor rebuilder) {
+    if (quietPeriod < 0 || maxDelay < quietPeriod) {
+      throw new IllegalArgumentException("Need 0 <= quietPeriod <= maxDelay");
+    }
+    this.ring = ring;
+    this.timer = timer;
+    this.quietPeriod = quietPeriod;
+    this.maxDelay = maxDelay;
+    this.rebuilder = rebuilder;
+  }
+
+  /**
+   * Puts the live members of the client on the ring (and takes everything else off it), and keeps
+   * it that way from then on. Changes are applied within a gossip round of the client, or within a
+   * quarter of one if the membership quiets down.
+   */
+  public static RingBinding bind(ClientImpl client, ConsistentHash ring) {
+    return bind(client, ring, newRebuilder());
+  }
+
+  /**
+   * Like {@link #bind(ClientImpl, ConsistentHash)}, but rebuilds the ring on the given executor.
+   */
+  public static RingBinding bind(ClientImpl client, ConsistentHash ring, Executor rebuilder) {
+    long interval = client.getGossipInterval();
+    RingBinding binding = new RingBinding(ring, client.getTimer(), interval / 4, interval,
+        rebuilder);
+    //Listen first, so that nothing falls in between. Applying a change twice is harmless.
+    client.addMembershipListener(binding);
+    Set<String> live = new LinkedHashSet<>();
+    for (Member member : client.getMemberList()) {
+      live.add(member.getNickName());
+    }
+    Set<String> dead = new LinkedHashSet<>(ring.getServers());
+    dead.removeAll(live);
+    binding.update(live, dead);
+    return binding;
+  }
+
+  @Override
+  public synchronized void membershipChanged(List<MembershipEvent> events) {
+    long now = timer.now();
+    if (pending.isEmpty()) {
+      firstChange = now;
+    }
+    lastChange = now;
+    for (MembershipEvent event : events) {
+      pending.put(event.getMember().getNickName(), event.isLive());
+    }
+    if (flush == null) {
+      flush = timer.schedule(new HashedWheelTimer.Task() {
+        @Override
+        public long deadline() {
+          return flushDeadline();
+        }
+
+        @Override
+        public void expire() {
+          rebuilder.execute(RingBinding.this::flush);
+        }
+      });
+    }
+  }
+
+  /**
+   * @return - How many times the ring has been rebuilt so far.
+   */
+  public long getRebuilds() {
+    return rebuilds;
+  }
+
+  /**
+   * Stops holding back changes, and applies the ones that are held back right away.
+   */
+  public void flush() {
+    synchronized (rebuildLock) {
+      Set<String> live = new LinkedHashSet<>();
+      Set<String> dead = new LinkedHashSet<>();
+      synchronized (this) {
+        if (flush != null) {
+          flush.cancel();
+          flush = null;
+        }
+        pending.forEach((server, isLive) -> (isLive ? live : dead).add(server));
+        pending.clear();
+      }
+      update(live, dead);
+    }
+  }
+
+  //A single daemon thread, that goes away once it has been idle for a while.
+  private static Executor newRebuilder() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(), runnable -> {
+          Thread thread = new Thread(runnable, "ring-rebuild");
+          thread.setDaemon(true);
+          return thread;
+        });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  //Read by the timer whenever the flush comes around, since new changes push it out.
+  private synchronized long flushDeadline() {
+    return Math.min(lastChange + quietPeriod, firstChange + maxDelay);
+  }
+
+  //Adds the live servers and removes the dead ones, unless they are already where they belong.
+  private void update(Set<String> live, Set<String> dead) {
+    synchronized (rebuildLock) {
+      Set<String> current = new HashSet<>(ring.getServers());
+      Map<String, Integer> added = new LinkedHashMap<>();
+      for (String server : live) {
+        if (!current.contains(server)) {
+          added.put(server, 1);
+        }
+      }
+      Set<String> removed = new LinkedHashSet<>(dead);
+      removed.retainAll(current);
+      if (added.isEmpty() && removed.isEmpty()) {
+        return;
+      }
+      ring.updateServers(added, removed);
+      rebuilds++;
+      log.debug("Ring now has {} servers, after adding {} and removing {}",
+          ring.getServers().size(), added.keySet(), removed);
+    }
+  }
+}
@@ -0,0 +1,26 @@
+package com.rationaleemotions.caching;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A rebuild of a {@link ConsistentHash}, for a batch of topology changes.
+ */
+@Name("com.rationaleemotions.caching.RingRebuild")
+@Label("Ring Rebuild")
+@Category({"Distributed Systems", "Caching"})
+final class RingRebuildEvent extends jdk.jfr.Event {
+
+  @Label("Servers Added")
+  int added;
+
+  @Label("Servers Removed")
+  int removed;
+
+  @Label("Servers")
+  int servers;
+
+  @Label("Virtual Nodes")
+  int virtualNodes;
+}
@@ -0,0 +1,48 @@
+package com.rationaleemotions.caching;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of routing a batch of keys. Every key is mapped to an index into {@link #getServers()},
+ * and both come from the same version of the ring, so a concurrent topology change cannot make them
+ * disagree.
+ */
+public final class Routing {
+
+  private final String[] servers;
+  private final int[] serverIndexes;
+
+  Routing(String[] servers, int[] serverIndexes) {
+    this.servers = servers;
+    this.serverIndexes = serverIndexes;
+  }
+
+  /**
+   * @return - The servers of the ring that the keys were routed with.
+   */
+  public List<String> getServers() {
+    return Collections.unmodifiableList(Arrays.asList(servers));
+  }
+
+  /**
+   * @return - For every key (in the order in which they were given), the index of its server in
+   * {@link #getServers()}. The array is owned by this instance, so callers should not modify it.
+   */
+  public int[] getServerIndexes() {
+    return serverIndexes;
+  }
+
+  /**
+   * @param keyIndex - The position of the key in the batch.
+   * @return - The server that owns the key.
+   */
+  public String getServerFor(int keyIndex) {
+    return servers[serverIndexes[keyIndex]];
+  }
+
+  public int size() {
+    return serverIndexes.length;
+  }
+}
@@ -0,0 +1,112 @@
+package com.rationaleemotions.caching;
+
+import com.rationaleemotions.metrics.Jmx;
+import com.rationaleemotions.metrics.LatencyHistogram;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+
+/**
+ * Counters and histograms of a {@link ConsistentHash}. A lookup takes tens of nanoseconds, so
+ * timing every one of them would cost about as much as the lookup itself. Every lookup is counted,
+ * but only one in {@value #SAMPLE_EVERY} is timed. The ownership of the servers is worked out from
+ * the ring when it is read.
+ */
+public final class RoutingMetrics implements RoutingMetricsMXBean {
+
+  static final String DOMAIN = "com.rationaleemotions.caching";
+  //Times one in these many lookups.
+  private static final int SAMPLE_EVERY = 64;
+
+  private final ConsistentHash ring;
+  private final LongAdder lookups = new LongAdder();
+  private final LatencyHistogram lookupLatency = new LatencyHistogram(); //in ns
+
+  //Guarded by this. Where the last rate was taken from.
+  private long lastSampled = System.nanoTime();
+  private long lastLookups;
+  private double lastRate;
+
+  private ObjectName objectName;
+
+  RoutingMetrics(ConsistentHash ring) {
+    this.ring = ring;
+  }
+
+  /**
+   * @return - Whether the lookup at hand should be timed.
+   */
+  boolean sample() {
+    return ThreadLocalRandom.current().nextInt(SAMPLE_EVERY) == 0;
+  }
+
+  void lookedUp(int count) {
+    lookups.add(count);
+  }
+
+  void lookedUp(int count, long nanos) {
+    lookups.add(count);
+    lookupLatency.record(nanos);
+  }
+
+  synchronized void register(String name) {
+    if (objectName == null) {
+      objectName = Jmx.register(this, DOMAIN, "ConsistentHash", name);
+    }
+  }
+
+  synchronized void unregister() {
+    Jmx.unregister(objectName);
+    objectName = null;
+  }
+
+  @Override
+  public long getLookups() {
+    return lookups.sum();
+  }
+
+  @Override
+  public synchronized double getLookupsPerSecond() {
+    long now = System.nanoTime();
+    long elapsed = now - lastSampled;
+    if (elapsed >= TimeUnit.SECONDS.toNanos(1)) {
+      long current = lookups.sum();
+      lastRate = (current - lastLookups) * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+      lastLookups = current;
+      lastSampled = now;
+    }
+    return lastRate;
+  }
+
+  @Override
+  public double getLookupLatencyMeanNanos() {
+    return lookupLatency.getMean();
+  }
+
+  @Override
+  public long getLookupLatency99thPercentileNanos() {
+    return lookupLatency.getPercentile(99);
+  }
+
+  @Override
+  public long getLookupLatencyMaxNanos() {
+    return lookupLatency.getMax();
+  }
+
+  @Override
+  public int getServers() {
+    return ring.snapshot().serverCount();
+  }
+
+  @Override
+  public int getVirtualNodes() {
+    return ring.snapshot().size();
+  }
+
+  @Override
+  public Map<String, Double> getOwnership() {
+    return ring.snapshot().ownership();
+  }
+}
@@ -0,0 +1,31 @@
+package com.rationaleemotions.caching;
+
+import java.util.Map;
+
+/**
+ * What a ring exposes over JMX, see {@link RoutingMetrics}.
+ */
+public interface RoutingMetricsMXBean {
+
+  long getLookups();
+
+  /**
+   * @return - Lookups per second, since the previous read (of at least a second ago).
+   */
+  double getLookupsPerSecond();
+
+  double getLookupLatencyMeanNanos();
+
+  long getLookupLatency99thPercentileNanos();
+
+  long getLookupLatencyMaxNanos();
+
+  int getServers();
+
+  int getVirtualNodes();
+
+  /**
+   * @return - The share of the hash space that every server owns.
+   */
+  Map<String, Double> getOwnership();
+}
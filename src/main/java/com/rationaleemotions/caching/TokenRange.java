@@ -0,0 +1,64 @@
+package com.rationaleemotions.caching;
+
+/**
+ * A range of hash values that moved from one server to another, between two versions of a ring
+ * (see {@link Ring#diff(Ring)}). Like the ownership of a virtual node, a range runs from just after
+ * its start up to and including its end. A range whose start is not below its end wraps around
+ * from the largest hash value to the smallest, and one whose start equals its end covers every
+ * hash value.
+ */
+public final class TokenRange {
+
+  private final long start;
+  private final long end;
+  private final String from;
+  private final String to;
+
+  TokenRange(long start, long end, String from, String to) {
+    this.start = start;
+    this.end = end;
+    this.from = from;
+    this.to = to;
+  }
+
+  /**
+   * @return - The hash value just before the range (exclusive).
+   */
+  public long getStart() {
+    return start;
+  }
+
+  /**
+   * @return - The last hash value of the range (inclusive).
+   */
+  public long getEnd() {
+    return end;
+  }
+
+  /**
+   * @return - The server that owned the range before.
+   */
+  public String getFrom() {
+    return from;
+  }
+
+  /**
+   * @return - The server that owns the range now.
+   */
+  public String getTo() {
+    return to;
+  }
+
+  public boolean wrapsAround() {
+    return start >= end;
+  }
+
+  public boolean contains(long hash) {
+    return wrapsAround() ? hash > start || hash <= end : hash > start && hash <= end;
+  }
+
+  @Override
+  public String toString() {
+    return "(" + start + ", " + end + "] " + from + " -> " + to;
+  }
+}
@@ -0,0 +1,77 @@
+package com.rationaleemotions.caching;
+
+/**
+ * Encodes text into UTF-8 without going through {@link String#getBytes}, so that hashing a key does
+ * not allocate a fresh byte array every time.
+ */
+final class Utf8 {
+
+  private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[256]);
+
+  private Utf8() {
+  }
+
+  /**
+   * @return - This thread's scratch buffer, grown to hold at least the given number of bytes.
+   */
+  static byte[] scratch(int length) {
+    byte[] scratch = SCRATCH.get();
+    if (scratch.length < length) {
+      scratch = new byte[Math.max(length, scratch.length * 2)];
+      SCRATCH.set(scratch);
+    }
+    return scratch;
+  }
+
+  static int encodedLength(CharSequence text) {
+    int length = 0;
+    for (int i = 0, n = text.length(); i < n; i++) {
+      char c = text.charAt(i);
+      if (c < 0x80) {
+        length++;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < n
+          && Character.isLowSurrogate(text.charAt(i + 1))) {
+        length += 4;
+        i++;
+      } else {
+        //Includes lone surrogates, which are encoded as a (single byte) '?' just like String does.
+        length += Character.isSurrogate(c) ? 1 : 3;
+      }
+    }
+    return length;
+  }
+
+  /**
+   * Encodes the text into the buffer, which must be at least {@link #encodedLength} bytes long.
+   *
+   * @return - The number of bytes written.
+   */
+  static int encode(CharSequence text, byte[] buffer) {
+    int position = 0;
+    for (int i = 0, n = text.length(); i < n; i++) {
+      char c = text.charAt(i);
+      if (c < 0x80) {
+        buffer[position++] = (byte) c;
+      } else if (c < 0x800) {
+        buffer[position++] = (byte) (0xC0 | (c >> 6));
+        buffer[position++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c) && i + 1 < n
+          && Character.isLowSurrogate(text.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, text.charAt(++i));
+        buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+        buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+      } else if (Character.isSurrogate(c)) {
+        buffer[position++] = (byte) '?';
+      } else {
+        buffer[position++] = (byte) (0xE0 | (c >> 12));
+        buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        buffer[position++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+    return position;
+  }
+}
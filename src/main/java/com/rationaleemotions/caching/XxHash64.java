@@ -0,0 +1,85 @@
+package com.rationaleemotions.caching;
+
+import static com.rationaleemotions.caching.Murmur3Hash.getLongLE;
+
+/**
+ * XXH64 with a seed of zero. See https://github.com/Cyan4973/xxHash/blob/dev/doc/xxhash_spec.md
+ */
+final class XxHash64 implements HashFunction {
+
+  static final XxHash64 INSTANCE = new XxHash64();
+
+  private static final long P1 = 0x9E3779B185EBCA87L;
+  private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+  private static final long P3 = 0x165667B19E3779F9L;
+  private static final long P4 = 0x85EBCA77C2B2AE63L;
+  private static final long P5 = 0x27D4EB2F165667C5L;
+
+  private XxHash64() {
+  }
+
+  @Override
+  public long hash(byte[] bytes, int offset, int length) {
+    int end = offset + length;
+    int i = offset;
+    long h;
+    if (length >= 32) {
+      long v1 = P1 + P2;
+      long v2 = P2;
+      long v3 = 0;
+      long v4 = -P1;
+      for (int limit = end - 32; i <= limit; i += 32) {
+        v1 = round(v1, getLongLE(bytes, i));
+        v2 = round(v2, getLongLE(bytes, i + 8));
+        v3 = round(v3, getLongLE(bytes, i + 16));
+        v4 = round(v4, getLongLE(bytes, i + 24));
+      }
+      h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7)
+          + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+      h = mergeRound(h, v1);
+      h = mergeRound(h, v2);
+      h = mergeRound(h, v3);
+      h = mergeRound(h, v4);
+    } else {
+      h = P5;
+    }
+    h += length;
+
+    for (; i + 8 <= end; i += 8) {
+      h ^= round(0, getLongLE(bytes, i));
+      h = Long.rotateLeft(h, 27) * P1 + P4;
+    }
+    if (i + 4 <= end) {
+      h ^= getIntLE(bytes, i) * P1;
+      h = Long.rotateLeft(h, 23) * P2 + P3;
+      i += 4;
+    }
+    for (; i < end; i++) {
+      h ^= (bytes[i] & 0xFFL) * P5;
+      h = Long.rotateLeft(h, 11) * P1;
+    }
+
+    h ^= h >>> 33;
+    h *= P2;
+    h ^= h >>> 29;
+    h *= P3;
+    return h ^ (h >>> 32);
+  }
+
+  private static long round(long accumulator, long lane) {
+    accumulator += lane * P2;
+    return Long.rotateLeft(accumulator, 31) * P1;
+  }
+
+  private static long mergeRound(long accumulator, long value) {
+    accumulator ^= round(0, value);
+    return accumulator * P1 + P4;
+  }
+
+  private static long getIntLE(byte[] bytes, int index) {
+    return (bytes[index] & 0xFFL)
+        | (bytes[index + 1] & 0xFFL) << 8
+        | (bytes[index + 2] & 0xFFL) << 16
+        | (bytes[index + 3] & 0xFFL) << 24;
+  }
+}
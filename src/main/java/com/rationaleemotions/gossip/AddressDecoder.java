@@ -0,0 +1,63 @@
+package com.rationaleemotions.gossip;
+
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads the (length prefixed, UTF-8 encoded) addresses of the messages of a
+ * {@link MembershipCodec} or an {@link OverlayCodec}. Keeps scratch space and an open addressing
+ * cache of the addresses that it has decoded so far around, so reading an address that it has
+ * seen recently allocates nothing. Not thread-safe.
+ */
+final class AddressDecoder {
+
+  private static final int CACHE_SIZE = 1024;
+
+  private byte[] scratch = new byte[256];
+  //Indexed by the hash of the bytes of an address.
+  private final byte[][] cachedBytes = new byte[CACHE_SIZE][];
+  private final String[] cachedAddresses = new String[CACHE_SIZE];
+
+  String read(ByteBuffer buffer) throws StreamCorruptedException {
+    int length = MembershipCodec.getVarint(buffer);
+    if (length < 0 || length > buffer.remaining()) {
+      throw new StreamCorruptedException("String of " + length + " bytes overruns the message");
+    }
+    if (scratch.length < length) {
+      scratch = new byte[length];
+    }
+    buffer.get(scratch, 0, length);
+    return intern(scratch, length);
+  }
+
+  /**
+   * @return - The address whose UTF-8 encoding is in the first length bytes of the given array,
+   * decoding (and remembering) it only if we have not seen it recently.
+   */
+  private String intern(byte[] bytes, int length) {
+    int hash = 1;
+    for (int i = 0; i < length; i++) {
+      hash = 31 * hash + bytes[i];
+    }
+    int slot = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+    byte[] cached = cachedBytes[slot];
+    if (cached != null && cached.length == length && equals(cached, bytes, length)) {
+      return cachedAddresses[slot];
+    }
+    String address = new String(bytes, 0, length, StandardCharsets.UTF_8);
+    cachedBytes[slot] = Arrays.copyOf(bytes, length);
+    cachedAddresses[slot] = address;
+    return address;
+  }
+
+  private static boolean equals(byte[] cached, byte[] bytes, int length) {
+    for (int i = 0; i < length; i++) {
+      if (cached[i] != bytes[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,169 @@
+package com.rationaleemotions.gossip;
+
+import com.rationaleemotions.gossip.MembershipCodec.DigestVisitor;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Digest based (Scuttlebutt style) reconciliation of membership lists. Rather than shipping its
+ * whole membership list, a client sends a digest, i.e., the fingerprint and version of every
+ * member that it knows of. The exchange then goes:
+ * <ol>
+ *   <li>A sends its digest to B.</li>
+ *   <li>B replies with the members that it has newer versions of (or that A has never heard of),
+ *   and requests the members that A has newer versions of (or that B has never heard of).</li>
+ *   <li>A replies to the request with those members.</li>
+ * </ol>
+ * Both ends are up to date after a single exchange (push-pull), and only members that actually
+ * differ are ever sent in full. This class takes care of the receiving end of the digest and of
+ * the request.
+ * <p>
+ * Digests are walked alongside the membership table (both are sorted by fingerprint), so handling
+ * one takes time linear in the size of the two. An instance keeps its scratch space around and is
+ * not thread-safe; it belongs to the receiver thread.
+ */
+@Slf4j
+public final class AntiEntropy implements DigestVisitor {
+
+  private final GossipContext client;
+  private final MembershipCodec codec;
+  private final ByteBuffer sendBuffer;
+
+  //The members to send back, and the ones to ask for.
+  private final List<Member> pushes = new ArrayList<>();
+  private long[] requestedFingerprints = new long[64];
+  private long[] requestedVersions = new long[64];
+  private int requestCount;
+
+  //Where we stand in the membership table while walking a digest.
+  private Member[] members;
+  private int cursor;
+  private long coveredTo;
+  private boolean request;
+
+  public AntiEntropy(GossipContext client, MembershipCodec codec) {
+    this.client = client;
+    this.codec = codec;
+    this.sendBuffer = ByteBuffer.allocateDirect(client.getMaxMessageSize());
+  }
+
+  /**
+   * Handles a digest (or a request) from the given peer, and replies to it.
+   *
+   * @param digest - The encoded digest, see {@link MembershipCodec}.
+   * @param sender - Where the digest came from.
+   */
+  public void reconcile(ByteBuffer digest, SocketAddress sender)
+      throws StreamCorruptedException {
+    reconcile(digest);
+    try {
+      reply(sender);
+    } catch (IOException e) {
+      log.debug("{} could not reply to {} : {}", client.getNickName(), sender, e.getMessage());
+    }
+  }
+
+  /**
+   * Works out the reply to the given digest, without sending it.
+   */
+  void reconcile(ByteBuffer digest) throws StreamCorruptedException {
+    pushes.clear();
+    requestCount = 0;
+    codec.decodeDigest(digest, this);
+    if (!request) {
+      //Anything left within the range is something that the sender has never heard of.
+      while (cursor < members.length && members[cursor].getFingerprint() <= coveredTo) {
+        push(members[cursor++], 0);
+      }
+    }
+    members = null;
+  }
+
+  @Override
+  public void begin(long from, long to, boolean request) {
+    this.request = request;
+    this.members = client.getMembershipTable().byFingerprint();
+    this.cursor = request ? 0 : MembershipTable.lowerBound(members, from);
+    this.coveredTo = to;
+  }
+
+  @Override
+  public void visit(long fingerprint, int heartbeat, int generation) {
+    long version = Member.versionOf(generation, heartbeat);
+    if (request) {
+      //Requests are small, and nothing is implied by what they leave out.
+      Member member = client.getMembershipTable().get(fingerprint);
+      if (member != null) {
+        push(member, version);
+      }
+      return;
+    }
+    while (cursor < members.length && members[cursor].getFingerprint() < fingerprint) {
+      push(members[cursor++], 0);
+    }
+    if (cursor < members.length && members[cursor].getFingerprint() == fingerprint) {
+      Member member = members[cursor++];
+      int comparison = Long.compareUnsigned(member.getVersion(), version);
+      if (comparison > 0) {
+        push(member, version);
+      } else if (comparison < 0) {
+        request(fingerprint, member.getVersion());
+      }
+    } else {
+      request(fingerprint, 0);
+    }
+  }
+
+  /**
+   * @return - The members that the reply to the last digest carries.
+   */
+  List<Member> getPushes() {
+    return pushes;
+  }
+
+  /**
+   * @return - The fingerprints of the members that the reply to the last digest asks for.
+   */
+  long[] getRequests() {
+    return Arrays.copyOf(requestedFingerprints, requestCount);
+  }
+
+  private void push(Member member, long theirVersion) {
+    // Dead members are not gossiped about, just like with full membership lists.
+    if (member.getStatus() != MemberStatus.DEAD
+        && Long.compareUnsigned(member.getVersion(), theirVersion) > 0) {
+      pushes.add(member);
+    }
+  }
+
+  private void request(long fingerprint, long ourVersion) {
+    if (requestCount == requestedFingerprints.length) {
+      requestedFingerprints = Arrays.copyOf(requestedFingerprints, requestCount * 2);
+      requestedVersions = Arrays.copyOf(requestedVersions, requestCount * 2);
+    }
+    requestedFingerprints[requestCount] = fingerprint;
+    requestedVersions[requestCount++] = ourVersion;
+  }
+
+  private void reply(SocketAddress sender) throws IOException {
+    for (int from = 0; from < pushes.size(); ) {
+      sendBuffer.clear();
+      from = codec.encode(pushes, from, sendBuffer, false);
+      sendBuffer.flip();
+      client.send(sendBuffer, sender);
+    }
+    for (int from = 0; from < requestCount; ) {
+      sendBuffer.clear();
+      from = codec.encodeRequest(requestedFingerprints, requestedVersions, from, requestCount,
+          sendBuffer);
+      sendBuffer.flip();
+      client.send(sendBuffer, sender);
+    }
+  }
+}
@@ -1,69 +1,108 @@
 package com.rationaleemotions.gossip;
 
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.net.DatagramPacket;
-import java.util.ArrayList;
-import java.util.Objects;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.stream.Collectors;
+import com.rationaleemotions.gossip.MembershipCodec.MemberVisitor;
+import java.io.StreamCorruptedException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
 import javax.management.NotificationListener;
+import lombok.extern.slf4j.Slf4j;
 
 /**
  * This class handles the passive cycle, where this client has received an incoming message.  For
  * now, this message is always the membership list, but if you choose to gossip additional
  * information, you will need some logic to determine the incoming message.
+ * <p>
+ * Datagrams are decoded in place, straight out of the buffer of the transport. Handling a datagram
+ * about known members allocates nothing.
+ * <p>
+ * The receiver is handed datagrams by the {@link Transport} of the client, on whichever thread
+ * receives for that transport.
  */
-public class AsynchronousReceiver implements Runnable {
+@Slf4j
+public class AsynchronousReceiver implements Transport.Receiver {
 
-  private final Client client;
-  private final AtomicBoolean keepRunning = new AtomicBoolean(true);
+  private final GossipContext client;
+  private final MembershipCodec codec = new MembershipCodec();
+  private final AntiEntropy antiEntropy;
+  //Created once, so that merging does not allocate a visitor per message.
+  private final MemberVisitor merger = this::mergeMember;
+  private final GossipMetrics metrics;
+  //How many members the merge at hand changed. Only touched by the thread that receives.
+  private int changes;
 
-  public AsynchronousReceiver(Client client) {
+  public AsynchronousReceiver(GossipContext client) {
     this.client = client;
     if (!(client instanceof NotificationListener)) {
       throw new IllegalArgumentException("Not my type");
     }
+    this.antiEntropy = new AntiEntropy(client, codec);
+    this.metrics = client.getMetrics();
   }
 
-  @SuppressWarnings("unchecked")
+  /**
+   * Merges a datagram into our lists (or replies to it, in the case of a digest or a probe).
+   */
   @Override
-  public void run() {
-    while (keepRunning.get()) {
-      try {
-        //XXX: be mindful of this array size for later
-        byte[] buf = new byte[256];
-        DatagramPacket p = new DatagramPacket(buf, buf.length);
-        client.getServer().receive(p);
-
-        // extract the member arraylist out of the packet
-        // TODO: maybe abstract this out to pass just the bytes needed
-        ByteArrayInputStream bais = new ByteArrayInputStream(p.getData());
-        ObjectInputStream ois = new ObjectInputStream(bais);
-
-        Object readObject = ois.readObject();
-        if (readObject instanceof ArrayList<?>) {
-          ArrayList<Member> list = (ArrayList<Member>) readObject;
-
-          String text = client.getNickName() + " received the following members : " +
-              list.stream()
-                  .map(Objects::toString)
-                  .collect(Collectors.joining("\t"));
+  public void receive(ByteBuffer message, SocketAddress sender) {
+    GossipReceiveEvent event = new GossipReceiveEvent();
+    if (event.isEnabled()) {
+      event.begin();
+      event.client = client.getNickName();
+      event.peer = String.valueOf(sender);
+      event.bytes = message.remaining();
+      event.type = message.remaining() > 2
+          ? MembershipCodec.nameOf(message.get(message.position() + 2)) : null;
+    }
+    metrics.received(message.remaining());
+    try {
+      handle(message, sender);
+    } catch (StreamCorruptedException e) {
+      // A garbled (or foreign) datagram. Drop it, and keep listening.
+      metrics.decodeFailed();
+      event.dropped = true;
+      log.debug("{} dropped a message : {}", client.getNickName(), e.getMessage());
+    }
+    event.commit();
+  }
 
-          System.out.println(text);
-          // Merge our list with the one we just received
-          mergeLists(list);
-        } else {
-          keepRunning.set(false);
-        }
-      } catch (IOException e) {
-        e.printStackTrace();
-        keepRunning.set(false);
-      } catch (ClassNotFoundException e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
+  private void handle(ByteBuffer message, SocketAddress sender) throws StreamCorruptedException {
+    byte type = MembershipCodec.typeOf(message);
+    if (OverlayCodec.isOverlay(type)) {
+      HyParView overlay = client.getOverlay();
+      if (overlay == null) {
+        throw new StreamCorruptedException("Not running an overlay");
       }
+      overlay.receive(message, sender);
+      return;
+    }
+    switch (type) {
+      case MembershipCodec.MEMBERSHIP:
+        GossipMergeEvent event = new GossipMergeEvent();
+        event.begin();
+        long started = System.nanoTime();
+        int members = mergeLists(message);
+        metrics.merged(System.nanoTime() - started);
+        if (event.shouldCommit()) {
+          event.client = client.getNickName();
+          event.members = members;
+          event.changes = changes;
+          event.commit();
+        }
+        break;
+      case MembershipCodec.DIGEST:
+        antiEntropy.reconcile(message, sender);
+        break;
+      case MembershipCodec.PING:
+      case MembershipCodec.PING_REQ:
+      case MembershipCodec.ACK:
+        SwimProtocol swim = client.getSwimProtocol();
+        if (swim == null) {
+          throw new StreamCorruptedException("Not running SWIM");
+        }
+        swim.handle(message, sender, codec);
+        break;
+      default:
+        throw new StreamCorruptedException("Unsupported message type " + type);
     }
   }
 
@@ -72,49 +111,46 @@ public class AsynchronousReceiver implements Runnable {
    * heartbeats that the remote list has with our list.  Also, some additional logic is needed to
    * make sure we have not timed out a member and then immediately received a list with that
    * member.
+   * <p>
+   * Every remote member costs a single lookup in the membership table, and no lock is held, so a
+   * merge never holds up the gossiper.
+   *
+   * @param message - The encoded membership list, see {@link MembershipCodec}.
+   * @return - The number of members in the message.
    */
-  private void mergeLists(ArrayList<Member> remoteList) {
-
-    synchronized (client.getDeadList()) {
-      synchronized (client.getMemberList()) {
-        for (Member remoteMember : remoteList) {
-          if (client.getMemberList().contains(remoteMember)) {
-            Member localMember = client.getMemberList().get(
-                client.getMemberList().indexOf(remoteMember));
-
-            if (remoteMember.getHeartbeat() > localMember.getHeartbeat()) {
-              // update local list with latest heartbeat
-              localMember.setHeartbeat(remoteMember.getHeartbeat());
-              // and reset the timeout of that member
-              localMember.resetTimeoutTimer();
-            }
-            continue;
-          }
-          // the local list does not contain the remote member
-
-          // the remote member is either brand new, or a previously declared dead member
-          // if its dead, check the heartbeat because it may have come back from the dead
+  int mergeLists(ByteBuffer message) throws StreamCorruptedException {
+    changes = 0;
+    return codec.decode(message, merger);
+  }
 
-          if (client.getDeadList().contains(remoteMember)) {
-            Member localDeadMember = client.getDeadList().get(
-                client.getDeadList().indexOf(remoteMember));
-            if (remoteMember.getHeartbeat() > localDeadMember.getHeartbeat()) {
-              // it's baa-aack
-              client.getDeadList().remove(localDeadMember);
-              Member newLocalMember = new Member(remoteMember.getNickName(),
-                  remoteMember.getHeartbeat(), (NotificationListener) client, client.t_cleanup);
-              client.getMemberList().add(newLocalMember);
-              newLocalMember.startTimeoutTimer();
-            } // else ignore
-          } else {
-            // brand spanking new member - welcome
-            Member newLocalMember = new Member(remoteMember.getNickName(),
-                remoteMember.getHeartbeat(), (NotificationListener) client, client.t_cleanup);
-            client.getMemberList().add(newLocalMember);
-            newLocalMember.startTimeoutTimer();
-          }
-        }
+  private void mergeMember(String address, int heartbeat, int generation) {
+    MembershipTable table = client.getMembershipTable();
+    Member localMember = table.get(address);
+    if (localMember == null) {
+      // brand spanking new member - welcome
+      Member newLocalMember = client.newMember(address, heartbeat, generation);
+      localMember = table.putIfAbsent(newLocalMember);
+      if (localMember == null) {
+        newLocalMember.startTimeoutTimer();
+        changes++;
+        return;
       }
+      // someone else beat us to it, so merge with theirs
+    }
+
+    // A member that restarted comes back with a larger generation, and its heartbeat starts over.
+    // So a larger generation always wins, and heartbeats only matter within the same generation.
+    if (!localMember.updateIfNewer(generation, heartbeat)) {
+      return;
+    }
+    changes++;
+    if (localMember.getStatus() == MemberStatus.DEAD) {
+      // it's baa-aack
+      table.setStatus(localMember, MemberStatus.ALIVE);
+      localMember.startTimeoutTimer();
+    } else {
+      // reset the timeout of that member
+      localMember.resetTimeoutTimer();
     }
   }
 }
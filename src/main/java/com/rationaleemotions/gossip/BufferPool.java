@@ -0,0 +1,53 @@
+package com.rationaleemotions.gossip;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A small pool of direct buffers of a fixed size. Direct buffers can be handed to a channel as is,
+ * whereas a heap buffer gets copied into a temporary direct buffer on every send and receive.
+ * <p>
+ * The pool never blocks. When it runs dry, a fresh buffer is allocated, and a buffer that is
+ * released into a full pool is simply dropped.
+ */
+public final class BufferPool {
+
+  private final int bufferSize;
+  private final ByteBuffer[] buffers;
+  private int available;
+
+  /**
+   * @param bufferSize - The capacity of every buffer, typically the largest datagram payload.
+   * @param poolSize   - How many idle buffers to hold on to.
+   */
+  public BufferPool(int bufferSize, int poolSize) {
+    this.bufferSize = bufferSize;
+    this.buffers = new ByteBuffer[poolSize];
+    for (int i = 0; i < poolSize; i++) {
+      buffers[i] = ByteBuffer.allocateDirect(bufferSize);
+    }
+    this.available = poolSize;
+  }
+
+  /**
+   * @return - A cleared buffer, that should be given back via {@link #release(ByteBuffer)}.
+   */
+  public synchronized ByteBuffer acquire() {
+    if (available == 0) {
+      return ByteBuffer.allocateDirect(bufferSize);
+    }
+    ByteBuffer buffer = buffers[--available];
+    buffers[available] = null;
+    buffer.clear();
+    return buffer;
+  }
+
+  public synchronized void release(ByteBuffer buffer) {
+    if (available < buffers.length && buffer.capacity() == bufferSize) {
+      buffers[available++] = buffer;
+    }
+  }
+
+  public int getBufferSize() {
+    return bufferSize;
+  }
+}
@@ -1,19 +1,49 @@
 package com.rationaleemotions.gossip;
 
+import java.io.IOException;
 import java.net.DatagramSocket;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
-public interface Client {
+public interface Client extends GossipContext {
   int t_cleanup = 10000;
-  DatagramSocket getServer();
 
-  List<Member> getMemberList();
+  int t_gossip = 5000;
 
-  List<Member> getDeadList();
+  /**
+   * @return - The channel that this client is bound to, and receives gossip on. <code>null</code>
+   * for a client that does not gossip over UDP, see {@link Transport}.
+   */
+  DatagramChannel getChannel();
+
+  default DatagramSocket getServer() {
+    return getChannel().socket();
+  }
+
+  /**
+   * @return - A snapshot of the members that are not dead, this client included.
+   */
+  default List<Member> getMemberList() {
+    return Collections.unmodifiableList(Arrays.asList(getMembershipTable().live()));
+  }
+
+  /**
+   * @return - A snapshot of the members that have been declared dead.
+   */
+  default List<Member> getDeadList() {
+    return getMembershipTable().withStatus(MemberStatus.DEAD);
+  }
 
   void sendMembershipList();
 
-  String getNickName();
+  /**
+   * Tells the given listener of every member that joins, leaves or comes back from now on.
+   */
+  void addMembershipListener(MembershipListener listener);
+
+  void removeMembershipListener(MembershipListener listener);
 
-  void start() throws InterruptedException;
+  void start() throws IOException;
 }
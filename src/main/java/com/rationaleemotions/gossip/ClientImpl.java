@@ -1,39 +1,61 @@
 package com.rationaleemotions.gossip;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.net.SocketException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 import javax.management.Notification;
 import javax.management.NotificationListener;
+import lombok.extern.slf4j.Slf4j;
 
+@Slf4j
 public class ClientImpl implements Client, NotificationListener {
 
-  private final List<Member> memberList = new ArrayList<>();
-
-  private final List<Member> deadList = new ArrayList<>();
+  private final MembershipTable members;
 
   public final int t_cleanup = 10000; //in ms
 
-  private final Random random = new Random();
+  //Out of the box, we drop about a quarter of what we send, to show that gossip copes with loss.
+  private static final int SIMULATED_LOSS = 25; //in percent
+
+  private final Random random;
+
+  private final MembershipCodec codec = new MembershipCodec();
+
+  private final int maxMessageSize;
+
+  //Only ever used while holding its own lock. A direct buffer, so that the channel does not copy it
+  //on every send.
+  private final ByteBuffer sendBuffer;
+
+  private final Transport transport;
 
-  private DatagramSocket server;
+  private final GossipMetrics metrics;
+
+  //Times out members, and runs the SWIM protocol.
+  private final HashedWheelTimer timer;
+
+  private volatile GossipMode mode = GossipMode.FULL_LIST;
+
+  //How many peers to gossip with per round, normally and right after a change in membership.
+  private volatile int minFanOut = 1;
+  private volatile int maxFanOut = 1;
+
+  //The time between two gossip rounds (in ms), or zero for the default of the gossip mode.
+  private volatile long gossipInterval;
 
 //  private String myAddress;
 
@@ -41,49 +63,108 @@ public class ClientImpl implements Client, NotificationListener {
 
   private Member me;
 
-  public ClientImpl(String nickName) throws SocketException {
+  //Creates the failure detector of every member we come to know.
+  private final Supplier<FailureDetector> failureDetectors;
+
+  private SwimProtocol swim;
+
+  //The first member of the startup list other than ourselves, which we join the overlay through.
+  private String contact;
+
+  private volatile HyParView overlay;
+
+  private final List<MembershipListener> listeners = new CopyOnWriteArrayList<>();
+  //Whether a delivery of membership events is already on the timer.
+  private final AtomicBoolean deliveryScheduled = new AtomicBoolean();
+
+  //Guarded by this. The runtime is ours to close, unless it was handed in.
+  private boolean started;
+  private GossipRuntime runtime;
+  private boolean ownsRuntime;
+  private GossipScheduler scheduler;
+  private final CountDownLatch stopped = new CountDownLatch(1);
+
+  public ClientImpl(String nickName) throws IOException {
     this(nickName, parseStartupMembers());
   }
 
   /**
    * Setup the client's lists, gossiping parameters, and parse the startup config file.
    */
-  public ClientImpl(String nickName, List<String> entries) throws SocketException {
-    Runtime.getRuntime().addShutdownHook(new Thread(
-        () -> System.out.println("Goodbye my friends...")));
+  public ClientImpl(String nickName, List<String> entries) throws IOException {
+    this(nickName, entries, () -> FailureDetector.fixed(Client.t_cleanup));
+  }
+
+  /**
+   * Setup the client's lists, gossiping parameters, and parse the startup config file.
+   *
+   * @param failureDetectors - Creates the failure detector of every member that we come to know,
+   *                         e.g., a {@link PhiAccrualFailureDetector} rather than a fixed
+   *                         <code>t_cleanup</code>.
+   */
+  public ClientImpl(String nickName, List<String> entries,
+      Supplier<FailureDetector> failureDetectors) throws IOException {
+    this(nickName, entries, failureDetectors, UdpTransport.factory(SIMULATED_LOSS),
+        HashedWheelTimer.shared(), new Random());
+  }
+
+  /**
+   * Setup the client's lists, gossiping parameters, and parse the startup config file.
+   *
+   * @param failureDetectors - Creates the failure detector of every member that we come to know.
+   * @param transports       - Creates the transport that we gossip over.
+   * @param timer            - Times out members. Its clock also sets our generation.
+   * @param random           - Picks the members to gossip with.
+   */
+  public ClientImpl(String nickName, List<String> entries,
+      Supplier<FailureDetector> failureDetectors, Transport.Factory transports,
+      HashedWheelTimer timer, Random random) throws IOException {
+    this.failureDetectors = failureDetectors;
+    this.timer = timer;
+    this.random = random;
 
     int port = 0;
     this.nickName = nickName;
+    this.members = new MembershipTable(nickName);
+    this.metrics = new GossipMetrics(members);
+    //Restarting bumps our generation, which tells everyone else that our heartbeat starts over.
+    int generation = (int) TimeUnit.MILLISECONDS.toSeconds(timer.now());
 
     // loop over the initial hosts, and find ourselves
     for (String entry : entries) {
-      Member member = new Member(entry, 0, this, t_cleanup);
+      Member member = newMember(entry, 0, 0);
 
       if (entry.contains(this.nickName)) {
         // save our own Member class, so we can increment our heartbeat later
         me = member;
+        me.setGeneration(generation);
         port = Integer.parseInt(entry.split(":")[1]);
-        System.out.println("I am " + me);
+      } else if (contact == null) {
+        contact = entry;
       }
-      memberList.add(member);
+      members.putIfAbsent(member);
     }
 
-    String text = "I am " + me + ". My Members are : " +
-        memberList.stream()
-            .map(Member::toString)
-            .collect(Collectors.joining("\t"));
-
-    System.out.println(text);
-
-    if (port != 0) {
-      // TODO: starting the server could probably be moved to the constructor
-      // of the receiver thread.
-      server = new DatagramSocket(port);
-    } else {
+    if (port == 0) {
       // This is bad, so no need proceeding on
-      System.err.println("Could not find myself in startup list");
-      System.exit(-1);
+      throw new IllegalArgumentException("Could not find " + nickName + " in the startup list");
+    }
+    log.info("I am {}", me);
+    if (log.isDebugEnabled()) {
+      log.debug("My members are : {}", Arrays.stream(members.all())
+          .map(Member::toString)
+          .collect(Collectors.joining("\t")));
     }
+
+    maxMessageSize = transports.getMaxMessageSize();
+    sendBuffer = ByteBuffer.allocateDirect(maxMessageSize);
+
+    //The startup list is where membership events start from.
+    members.recordChanges(this::scheduleDelivery);
+
+    transport = transports.bind(me.getSocketAddress());
+    swim = new SwimProtocol(this, me, timer, random, SwimProtocol.DEFAULT_PROTOCOL_PERIOD,
+        SwimProtocol.DEFAULT_ACK_TIMEOUT, SwimProtocol.DEFAULT_INDIRECT_PROBES);
   }
 
   @Override
@@ -91,16 +172,141 @@ public class ClientImpl implements Client, NotificationListener {
     return nickName;
   }
 
-  public DatagramSocket getServer() {
-    return server;
+  @Override
+  public DatagramChannel getChannel() {
+    return transport.getChannel();
   }
 
-  public List<Member> getMemberList() {
-    return memberList;
+  @Override
+  public int getMaxMessageSize() {
+    return maxMessageSize;
   }
 
-  public List<Member> getDeadList() {
-    return deadList;
+  @Override
+  public Member newMember(String address, int heartbeat, int generation) {
+    return new Member(address, heartbeat, generation, this, failureDetectors.get(), timer);
+  }
+
+  @Override
+  public MembershipTable getMembershipTable() {
+    return members;
+  }
+
+  public GossipMode getGossipMode() {
+    return mode;
+  }
+
+  /**
+   * Should be set before the client is started.
+   */
+  public void setGossipMode(GossipMode mode) {
+    this.mode = mode;
+  }
+
+  /**
+   * Should be set before the client is started.
+   *
+   * @param minFanOut - How many peers to gossip with per round.
+   * @param maxFanOut - How many peers to gossip with per round, right after a change in
+   *                  membership. See {@link GossipScheduler}.
+   */
+  public void setFanOut(int minFanOut, int maxFanOut) {
+    this.minFanOut = minFanOut;
+    this.maxFanOut = maxFanOut;
+  }
+
+  /**
+   * Should be set before the client is started.
+   *
+   * @param gossipInterval - The time between two gossip rounds (in ms). Defaults to
+   *                       <code>t_gossip</code>, or the protocol period in SWIM mode.
+   */
+  public void setGossipInterval(long gossipInterval) {
+    this.gossipInterval = gossipInterval;
+  }
+
+  @Override
+  public long getGossipInterval() {
+    if (gossipInterval > 0) {
+      return gossipInterval;
+    }
+    switch (mode) {
+      case SWIM:
+        return swim.getProtocolPeriod();
+      case OVERLAY:
+        //Our active peers have to hear from us well within t_cleanup.
+        return HyParView.DEFAULT_KEEP_ALIVE_INTERVAL;
+      default:
+        return t_gossip;
+    }
+  }
+
+  @Override
+  public SwimProtocol getSwimProtocol() {
+    return swim;
+  }
+
+  @Override
+  public HyParView getOverlay() {
+    return overlay;
+  }
+
+  /**
+   * @return - The timer that times out our members, and delivers membership events.
+   */
+  public HashedWheelTimer getTimer() {
+    return timer;
+  }
+
+  /**
+   * Tells the given listener of every member that joins, leaves or comes back from now on. Changes
+   * are delivered on the next tick of our timer, so that everything that one gossip message
+   * changed arrives together, and a member that flapped in between is left out.
+   */
+  @Override
+  public void addMembershipListener(MembershipListener listener) {
+    listeners.add(listener);
+  }
+
+  @Override
+  public void removeMembershipListener(MembershipListener listener) {
+    listeners.remove(listener);
+  }
+
+  //Invoked while holding the lock of the membership table, so this only schedules.
+  private void scheduleDelivery() {
+    if (!deliveryScheduled.compareAndSet(false, true)) {
+      return;
+    }
+    long deadline = timer.now();
+    timer.schedule(new HashedWheelTimer.Task() {
+      @Override
+      public long deadline() {
+        return deadline;
+      }
+
+      @Override
+      public void expire() {
+        deliverMembershipEvents();
+      }
+    });
+  }
+
+  private void deliverMembershipEvents() {
+    //Cleared first, so that a change that comes in while we deliver gets a delivery of its own.
+    deliveryScheduled.set(false);
+    List<MembershipEvent> events = members.drainEvents();
+    if (events.isEmpty()) {
+      return;
+    }
+    for (MembershipListener listener : listeners) {
+      try {
+        listener.membershipChanged(events);
+      } catch (RuntimeException e) {
+        //One bad listener should neither stop the others, nor the timer.
+        log.warn("Listener {} failed", listener, e);
+      }
+    }
   }
 
   /**
@@ -120,45 +326,99 @@ public class ClientImpl implements Client, NotificationListener {
   }
 
   /**
-   * Performs the sending of the membership list, after we have incremented our own heartbeat.
+   * Performs the sending of the membership list (or of a digest of it, see {@link GossipMode}),
+   * after we have incremented our own heartbeat.
    */
   public void sendMembershipList() {
+    Member member = getRandomMember();
+    gossip(member == null ? Collections.emptyList() : Collections.singletonList(member));
+  }
+
+  /**
+   * Runs a gossip round with the given peers, after we have incremented our own heartbeat. In
+   * SWIM mode, the round is a protocol period, which picks a member to probe on its own. In overlay
+   * mode, the round sends our heartbeat to every peer of our active view instead, since those are
+   * the only ones that track us.
+   */
+  @Override
+  public void gossip(List<Member> peers) {
+    if (mode == GossipMode.SWIM) {
+      // Our heartbeat is our incarnation number, which only grows when we refute a suspicion.
+      swim.probe();
+      return;
+    }
 
     this.me.setHeartbeat(me.getHeartbeat() + 1);
 
-    synchronized (this.memberList) {
+    if (mode == GossipMode.OVERLAY) {
+      sendMembershipList(Collections.singletonList(me), activePeers());
+      return;
+    }
+    if (peers.isEmpty()) {
+      return;
+    }
+    if (mode == GossipMode.DIGEST) {
+      sendDigest(peers);
+    } else {
+      sendMembershipList(peers);
+    }
+  }
+
+  /**
+   * Sends a digest of our membership list to each of the given peers, which kicks off a
+   * reconciliation with each of them (see {@link AntiEntropy}).
+   */
+  void sendDigest(List<Member> peers) {
+    Member[] digest = members.byFingerprint();
+    synchronized (this.sendBuffer) {
       try {
-        Member member = getRandomMember();
-        if (member == null) {
-          return;
+        for (int from = 0; from < digest.length; ) {
+          sendBuffer.clear();
+          int next = codec.encodeDigest(digest, from, sendBuffer);
+          sendBuffer.flip();
+          for (Member peer : peers) {
+            send(sendBuffer, peer.getSocketAddress(), next - from);
+          }
+          from = next;
         }
+      } catch (IOException e1) {
+        e1.printStackTrace();
+      }
+    }
+  }
 
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ObjectOutputStream oos = new ObjectOutputStream(baos);
-        oos.writeObject(this.memberList);
-        byte[] buf = baos.toByteArray();
-
-        String address = member.getNickName();
-        int port = Integer.parseInt(address.split(":")[1]);
-
-        InetAddress dest = InetAddress.getLocalHost();
-
-        String text = me.getNickName() + " gossipping with " +
-            memberList.stream()
-                .map(Member::toString)
-                .collect(Collectors.joining("\t"));
+  /**
+   * Sends our membership list to each of the given peers. Every message is encoded once, and then
+   * sent to all the peers back to back over our own transport, so that peers always see the
+   * same source address.
+   */
+  void sendMembershipList(List<Member> peers) {
+    //Gossip about the members that are alive as of now. Anything that changes while we send makes
+    //it into the next round.
+    List<Member> memberList = Arrays.asList(members.live());
+    if (log.isDebugEnabled()) {
+      log.debug("{} gossipping with {}", me.getNickName(), memberList.stream()
+          .map(Member::toString)
+          .collect(Collectors.joining("\t")));
+    }
+    sendMembershipList(memberList, peers);
+  }
 
-        System.out.println(text);
+  private void sendMembershipList(List<Member> memberList, List<Member> peers) {
+    synchronized (this.sendBuffer) {
 
-        //simulate some packet loss ~25%
-        int percentToSend = random.nextInt(100);
-        if (percentToSend > 25) {
-          DatagramSocket socket = new DatagramSocket();
-          DatagramPacket datagramPacket = new DatagramPacket(buf, buf.length, dest, port);
-          socket.send(datagramPacket);
-          socket.close();
+      try {
+        //A large membership list is split across as many messages as it takes.
+        for (int from = 0; from < memberList.size(); ) {
+          sendBuffer.clear();
+          int next = codec.encode(memberList, from, sendBuffer, false);
+          sendBuffer.flip();
+
+          for (Member peer : peers) {
+            send(sendBuffer, peer.getSocketAddress(), next - from);
+          }
+          from = next;
         }
-
       } catch (IOException e1) {
         e1.printStackTrace();
       }
@@ -166,68 +426,201 @@ public class ClientImpl implements Client, NotificationListener {
   }
 
   /**
-   * Find a random peer from the local membership list. Ensure that we do not select ourselves, and
-   * keep trying 10 times if we do.  Therefore, in the case where this client is the only member in
-   * the list, this method will return null
+   * @return - The members of the active view of our overlay. A peer that we have not heard of yet
+   * is taken into our table right away, so that it times out like any other member, should it
+   * never send us its heartbeat.
+   */
+  private List<Member> activePeers() {
+    List<String> view = overlay.getActiveView();
+    List<Member> peers = new ArrayList<>(view.size());
+    for (String address : view) {
+      Member peer = members.get(address);
+      if (peer == null) {
+        Member newPeer = newMember(address, 0, 0);
+        peer = members.putIfAbsent(newPeer);
+        if (peer == null) {
+          newPeer.startTimeoutTimer();
+          peer = newPeer;
+        }
+      }
+      peers.add(peer);
+    }
+    return peers;
+  }
+
+  @Override
+  public void send(ByteBuffer message, SocketAddress peer) throws IOException {
+    send(message, peer, 0);
+  }
+
+  /**
+   * @param members - How many members the message carries, for the {@link GossipSendEvent}.
+   */
+  private void send(ByteBuffer message, SocketAddress peer, int members) throws IOException {
+    //Next to free when nobody records: the event does not escape, and commit() checks first.
+    GossipSendEvent event = new GossipSendEvent();
+    if (event.isEnabled()) {
+      event.begin();
+      event.client = me.getNickName();
+      event.peer = String.valueOf(peer);
+      event.type = MembershipCodec.nameOf(message.get(message.position() + 2));
+      event.bytes = message.remaining();
+      event.members = members;
+    }
+    metrics.sent(message.remaining());
+    transport.send(message, peer);
+    event.commit();
+  }
+
+  @Override
+  public GossipMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Find a random peer from the local membership list, other than ourselves. Therefore, in the case
+   * where this client is the only live member in the list, this method will return null
    *
    * @return Member random member if list is greater than 1, null otherwise
    */
   private Member getRandomMember() {
-    if (memberList.isEmpty() || memberList.size() == 1) {
-      System.out.println(me.getNickName() + " has no members to gossip");
-      return null;
+    Member member = members.randomPeer(random);
+    if (member == null) {
+      log.debug("{} has no members to gossip", me.getNickName());
     }
+    return member;
+  }
+
+  /**
+   * Starts the client on threads of its own. Specifically, start the various cycles for this
+   * protocol: the gossip rounds and the receiver. Returns right away, see
+   * {@link #awaitTermination()}.
+   */
+  @Override
+  public void start() throws IOException {
+    start(null);
+  }
 
-    int randomNeighborIndex = random.nextInt(this.memberList.size() - 1);
-    List<Member> list = new ArrayList<>(memberList);
-    list.removeIf(m -> m.getNickName().equalsIgnoreCase(this.nickName));
-    return list.get(randomNeighborIndex);
+  /**
+   * Starts the client on the given runtime, which it shares with other clients. The runtime
+   * outlives the client.
+   */
+  public synchronized void start(GossipRuntime shared) throws IOException {
+    checkNotStarted();
+    ownsRuntime = shared == null;
+    runtime = ownsRuntime ? new GossipRuntime() : shared;
+    startTimers();
+    startOverlay();
+    metrics.register(nickName);
+
+    //  The gossip scheduler is an active player that
+    //  selects neighbors to share its membership list with
+    scheduler = new GossipScheduler(this, runtime.getScheduler(), getGossipInterval(),
+        minFanOut, maxFanOut);
+    scheduler.start();
+
+    //  The receiver is a passive player that handles
+    //  merging incoming membership lists from other neighbors.
+    transport.listen(new AsynchronousReceiver(this), runtime);
   }
 
   /**
-   * Starts the client.  Specifically, start the various cycles for this protocol. Start the gossip
-   * thread and start the receiver thread.
+   * Starts the client without any threads of its own: the gossip rounds run on the timer of the
+   * client, and datagrams come in on whichever thread the transport delivers them. This is how a
+   * {@link ClusterSimulator} runs a client, with a timer whose clock it moves along.
    */
-  public void start() throws InterruptedException {
+  public synchronized void startOnTimer() {
+    checkNotStarted();
+    startTimers();
+    startOverlay();
+    scheduler = new GossipScheduler(this, timer, getGossipInterval(), minFanOut, maxFanOut,
+        random);
+    scheduler.start();
+    transport.listen(new AsynchronousReceiver(this), null);
+  }
+
+  //Must be called while holding the lock, ahead of the first round and of listening, so that both
+  //find the overlay.
+  private void startOverlay() {
+    if (mode != GossipMode.OVERLAY) {
+      return;
+    }
+    overlay = new HyParView(nickName, transport, maxMessageSize, timer, random);
+    overlay.start(contact, null);
+  }
 
-    // Start all timers except for me
-    for (Member member : memberList) {
-      if (!member.equals(me)) {
+  //Must be called while holding the lock.
+  private void checkNotStarted() {
+    if (started || stopped.getCount() == 0) {
+      throw new IllegalStateException(nickName + " has already been started");
+    }
+    started = true;
+  }
+
+  private void startTimers() {
+    // Start all timers except for me. SWIM times out members on its own.
+    for (Member member : members.all()) {
+      if (!member.equals(me) && mode != GossipMode.SWIM) {
         member.startTimeoutTimer();
       }
     }
+  }
 
-    // Start the two worker threads
-    ExecutorService executor = Executors.newCachedThreadPool();
-    List<Future<?>> results = Stream.of(
-            //  The receiver thread is a passive player that handles
-            //  merging incoming membership lists from other neighbors.
-            new AsynchronousReceiver(this),
-            //  The gossiper thread is an active player that
-            //  selects a neighbor to share its membership list
-            new MembershipGossiper(this)
-        ).map(executor::submit)
-        .collect(Collectors.toList());
-
-    executor.shutdown();
-    results
-        .forEach(
-            each -> {
-              try {
-                each.get();
-              } catch (InterruptedException | ExecutionException e) {
-                e.printStackTrace();
-              }
-            }
-        );
+  /**
+   * Stops gossiping and receiving, and closes our transport. A stopped client cannot be started
+   * again.
+   */
+  public void stop() {
+    synchronized (this) {
+      if (stopped.getCount() == 0) {
+        return;
+      }
+      if (scheduler != null) {
+        scheduler.stop();
+      }
+      for (Member member : members.all()) {
+        if (!member.equals(me)) {
+          member.stopTimeoutTimer();
+        }
+      }
+      if (overlay != null) {
+        overlay.stop();
+      }
+      try {
+        transport.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+      if (ownsRuntime) {
+        runtime.close();
+      }
+      metrics.unregister();
+    }
+    stopped.countDown();
+  }
 
-    // Potentially, you could kick off more threads here
-    //  that could perform additional data synching
+  /**
+   * Waits for the client to be stopped.
+   */
+  public void awaitTermination() throws InterruptedException {
+    stopped.await();
+    while (ownsRuntime && !runtime.awaitTermination(1, TimeUnit.DAYS)) {
+      // Keep waiting.
+    }
+  }
 
-    // keep the main thread around
-    while (!executor.isShutdown()) {
-      TimeUnit.SECONDS.sleep(10);
+  /**
+   * Waits for the client to be stopped, for at most the given time.
+   *
+   * @return - Whether the client has been stopped.
+   */
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    if (!stopped.await(timeout, unit)) {
+      return false;
     }
+    return !ownsRuntime
+        || runtime.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
   }
 
   /**
@@ -240,14 +633,11 @@ public class ClientImpl implements Client, NotificationListener {
 
     Member deadMember = (Member) notification.getUserData();
 
-    System.out.println("Dead member detected: " + deadMember);
-
-    synchronized (this.memberList) {
-      this.memberList.remove(deadMember);
-    }
-
-    synchronized (this.deadList) {
-      this.deadList.add(deadMember);
+    if (members.setStatus(deadMember, MemberStatus.DEAD)) {
+      log.info("Dead member detected: {}", deadMember);
+      long timeToDetect = timer.now() - deadMember.getLastHeard();
+      metrics.detected(timeToDetect);
+      MemberFailureEvent.emit(me.getNickName(), deadMember, timeToDetect, "timeout");
     }
 
   }
@@ -0,0 +1,347 @@
+package com.rationaleemotions.gossip;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Runs a whole cluster of {@link ClientImpl}s on a {@link SimulatedNetwork}, to see how gossip
+ * scales, without a single socket. Every run goes:
+ * <ol>
+ *   <li>Start every client, spread over one gossip interval. Every client knows every other
+ *   client from the start, but not its current generation.</li>
+ *   <li>Gossip until every client has heard the current generation of every other client. The
+ *   number of rounds that takes is the convergence time.</li>
+ *   <li>Crash a random client, and gossip until every other client has declared it dead. How long
+ *   that takes is the detection latency.</li>
+ * </ol>
+ * Throughout, every round, we count how many live members the clients consider dead, which gives
+ * the false positive rate. The bytes sent per client per second are taken over the whole run.
+ * <p>
+ * The same seed always gives the same report. Every client keeps a full membership list, so a
+ * cluster of <code>n</code> clients holds <code>n * n</code> members, which needs a sizable heap
+ * for ten thousand clients.
+ */
+public final class ClusterSimulator {
+
+  public static final long DEFAULT_SEED = 42;
+  public static final double DEFAULT_LOSS = 0.01;
+  //Ports are handed out from here on, one per client.
+  private static final int FIRST_PORT = 10000;
+  //Give up on convergence after this many rounds.
+  private static final int MAX_ROUNDS = 200;
+  //How often to check whether the crash has been detected (in ms).
+  private static final long DETECTION_SAMPLE = 100;
+  //The log level of the gossip package, as per slf4j-simple.
+  private static final String QUIET_LOGGER =
+      "org.slf4j.simpleLogger.log.com.rationaleemotions.gossip";
+
+  private final GossipMode mode;
+  private final long seed;
+  private double loss = DEFAULT_LOSS;
+  private long minLatency = SimulatedNetwork.DEFAULT_MIN_LATENCY;
+  private long maxLatency = SimulatedNetwork.DEFAULT_MAX_LATENCY;
+  private long gossipInterval;
+  private int minFanOut = 1;
+  private int maxFanOut = 1;
+  private Supplier<FailureDetector> failureDetectors =
+      () -> FailureDetector.fixed(Client.t_cleanup);
+
+  /**
+   * @param mode - How the clients gossip.
+   * @param seed - Seeds every random choice of a run.
+   */
+  public ClusterSimulator(GossipMode mode, long seed) {
+    if (mode == GossipMode.OVERLAY) {
+      //Which never converges on a full membership list, see OverlaySimulator instead.
+      throw new IllegalArgumentException("Clients of an overlay only know their neighbors");
+    }
+    this.mode = mode;
+    this.seed = seed;
+  }
+
+  /**
+   * @param loss - The chance that a datagram gets lost (0 to 1).
+   */
+  public void setLoss(double loss) {
+    this.loss = loss;
+  }
+
+  /**
+   * @param minLatency - The least time that a datagram takes to arrive (in ms).
+   * @param maxLatency - The most time that a datagram takes to arrive (in ms).
+   */
+  public void setLatency(long minLatency, long maxLatency) {
+    this.minLatency = minLatency;
+    this.maxLatency = maxLatency;
+  }
+
+  /**
+   * @param gossipInterval - The time between two gossip rounds (in ms). Defaults to that of the
+   *                       gossip mode.
+   */
+  public void setGossipInterval(long gossipInterval) {
+    this.gossipInterval = gossipInterval;
+  }
+
+  /**
+   * See {@link ClientImpl#setFanOut(int, int)}.
+   */
+  public void setFanOut(int minFanOut, int maxFanOut) {
+    this.minFanOut = minFanOut;
+    this.maxFanOut = maxFanOut;
+  }
+
+  public void setFailureDetectors(Supplier<FailureDetector> failureDetectors) {
+    this.failureDetectors = failureDetectors;
+  }
+
+  /**
+   * Simulates a cluster of the given size, see above.
+   */
+  public Report run(int size) throws IOException {
+    if (size < 2 || size > 0xFFFF - FIRST_PORT) {
+      throw new IllegalArgumentException("Can simulate 2 to " + (0xFFFF - FIRST_PORT) + " clients");
+    }
+    SimulatedNetwork network = new SimulatedNetwork(seed);
+    network.setLoss(loss);
+    network.setLatency(minLatency, maxLatency);
+    Random random = network.getRandom();
+
+    List<String> addresses = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      addresses.add("node" + i + ":" + (FIRST_PORT + i));
+    }
+    List<ClientImpl> clients = new ArrayList<>(size);
+    for (String address : addresses) {
+      ClientImpl client = new ClientImpl(address, addresses, failureDetectors,
+          network.transports(), network.getTimer(), new Random(random.nextLong()));
+      client.setGossipMode(mode);
+      client.setFanOut(minFanOut, maxFanOut);
+      if (gossipInterval > 0) {
+        client.setGossipInterval(gossipInterval);
+      }
+      clients.add(client);
+    }
+    long interval = clients.get(0).getGossipInterval();
+
+    //Spread the starts over a round, so that the rounds of the clients do not all line up.
+    long firstStart = network.now();
+    for (int i = 0; i < size; i++) {
+      network.advance(firstStart + i * interval / size - network.now());
+      clients.get(i).startOnTimer();
+    }
+    long started = network.now();
+    long bytesAtStart = network.getBytesSent();
+    int[] generations = new int[size];
+    for (int i = 0; i < size; i++) {
+      generations[i] = clients.get(i).getMembershipTable().get(addresses.get(i)).getGeneration();
+    }
+
+    Set<String> crashed = new HashSet<>();
+    Observations observations = new Observations();
+    int rounds = -1;
+    for (int round = 0; round <= MAX_ROUNDS; round++) {
+      if (haveConverged(clients, addresses, generations)) {
+        rounds = round;
+        break;
+      }
+      network.advance(interval);
+      observations.sample(clients, crashed);
+    }
+
+    int victim = random.nextInt(size);
+    clients.get(victim).stop();
+    crashed.add(addresses.get(victim));
+    long crashedAt = network.now();
+    long[] detections = new long[size];
+    Arrays.fill(detections, -1);
+    int undetected = size - 1;
+    long giveUpAt = crashedAt + MAX_ROUNDS * interval;
+    long nextSample = crashedAt + interval;
+    while (undetected > 0 && network.now() < giveUpAt) {
+      network.advance(DETECTION_SAMPLE);
+      for (int i = 0; i < size; i++) {
+        if (i != victim && detections[i] < 0 && clients.get(i).getMembershipTable()
+            .get(addresses.get(victim)).getStatus() == MemberStatus.DEAD) {
+          detections[i] = network.now() - crashedAt;
+          undetected--;
+        }
+      }
+      if (network.now() >= nextSample) {
+        observations.sample(clients, crashed);
+        nextSample += interval;
+      }
+    }
+
+    long elapsed = network.now() - started;
+    double bytesPerSecond = (network.getBytesSent() - bytesAtStart) * 1000.0 / elapsed / size;
+    for (ClientImpl client : clients) {
+      client.stop();
+    }
+    return new Report(size, mode, rounds, observations.rate(), bytesPerSecond, detections,
+        victim);
+  }
+
+  private static boolean haveConverged(List<ClientImpl> clients, List<String> addresses,
+      int[] generations) {
+    for (ClientImpl client : clients) {
+      MembershipTable table = client.getMembershipTable();
+      for (int i = 0; i < generations.length; i++) {
+        if (table.get(addresses.get(i)).getGeneration() != generations[i]) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Counts how often a live client sees a live member as dead.
+   */
+  private static final class Observations {
+
+    private long falsePositives;
+    private long total;
+
+    void sample(List<ClientImpl> clients, Set<String> crashed) {
+      for (ClientImpl client : clients) {
+        if (crashed.contains(client.getNickName())) {
+          continue;
+        }
+        for (Member member : client.getMembershipTable().all()) {
+          if (crashed.contains(member.getNickName())
+              || member.getNickName().equals(client.getNickName())) {
+            continue;
+          }
+          total++;
+          if (member.getStatus() == MemberStatus.DEAD) {
+            falsePositives++;
+          }
+        }
+      }
+    }
+
+    double rate() {
+      return total == 0 ? 0 : (double) falsePositives / total;
+    }
+  }
+
+  /**
+   * What a run came up with.
+   */
+  public static final class Report {
+
+    private final int size;
+    private final GossipMode mode;
+    private final int convergenceRounds;
+    private final double falsePositiveRate;
+    private final double bytesPerNodePerSecond;
+    private final long meanDetectionLatency;
+    private final long maxDetectionLatency;
+    private final double detected;
+
+    Report(int size, GossipMode mode, int convergenceRounds, double falsePositiveRate,
+        double bytesPerNodePerSecond, long[] detections, int victim) {
+      this.size = size;
+      this.mode = mode;
+      this.convergenceRounds = convergenceRounds;
+      this.falsePositiveRate = falsePositiveRate;
+      this.bytesPerNodePerSecond = bytesPerNodePerSecond;
+      long sum = 0;
+      long max = 0;
+      int count = 0;
+      for (int i = 0; i < detections.length; i++) {
+        if (i != victim && detections[i] >= 0) {
+          sum += detections[i];
+          max = Math.max(max, detections[i]);
+          count++;
+        }
+      }
+      this.meanDetectionLatency = count == 0 ? -1 : sum / count;
+      this.maxDetectionLatency = count == detections.length - 1 ? max : -1;
+      this.detected = (double) count / (detections.length - 1);
+    }
+
+    public int getSize() {
+      return size;
+    }
+
+    /**
+     * @return - The rounds it took every client to hear of every other, or -1 if they never did.
+     */
+    public int getConvergenceRounds() {
+      return convergenceRounds;
+    }
+
+    /**
+     * @return - The share of observations in which a live member was considered dead.
+     */
+    public double getFalsePositiveRate() {
+      return falsePositiveRate;
+    }
+
+    public double getBytesPerNodePerSecond() {
+      return bytesPerNodePerSecond;
+    }
+
+    /**
+     * @return - The average time it took a client to declare the crashed client dead (in ms), or
+     * -1 if none did.
+     */
+    public long getMeanDetectionLatency() {
+      return meanDetectionLatency;
+    }
+
+    /**
+     * @return - The time it took for every client to declare the crashed client dead (in ms), or -1
+     * if some never did.
+     */
+    public long getMaxDetectionLatency() {
+      return maxDetectionLatency;
+    }
+
+    /**
+     * @return - The share of the clients that declared the crashed client dead.
+     */
+    public double getDetected() {
+      return detected;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%-9s %7d %12d %14.6f %16.1f %14d %14d %9.1f%%", mode, size,
+          convergenceRounds, falsePositiveRate, bytesPerNodePerSecond, meanDetectionLatency,
+          maxDetectionLatency, detected * 100);
+    }
+  }
+
+  /**
+   * Usage: <code>ClusterSimulator [mode] [size...]</code>, e.g. <code>ClusterSimulator SWIM 10
+   * 100</code>. Simulates clusters of 10, 100, 1,000 and 10,000 clients in full list mode by
+   * default.
+   */
+  public static void main(String[] args) throws IOException {
+    GossipMode mode = args.length > 0 ? GossipMode.valueOf(args[0]) : GossipMode.FULL_LIST;
+    int[] sizes = args.length > 1
+        ? Arrays.stream(args, 1, args.length).mapToInt(Integer::parseInt).toArray()
+        : new int[]{10, 100, 1_000, 10_000};
+
+    //Every client logs every death it detects, which would drown out the report. Has to be set
+    //before the first client is created.
+    if (System.getProperty(QUIET_LOGGER) == null) {
+      System.setProperty(QUIET_LOGGER, "warn");
+    }
+    System.out.println(String.format("%-9s %7s %12s %14s %16s %14s %14s %10s", "mode", "nodes",
+        "rounds", "false-pos", "bytes/node/s", "detect-mean", "detect-max", "detected"));
+    ClusterSimulator simulator = new ClusterSimulator(mode, DEFAULT_SEED);
+    for (int size : sizes) {
+      System.out.println(simulator.run(size));
+    }
+  }
+}
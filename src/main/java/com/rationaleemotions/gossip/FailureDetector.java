@@ -0,0 +1,44 @@
+package com.rationaleemotions.gossip;
+
+/**
+ * Decides how long we wait to hear from a member, before we declare it dead. See
+ * {@link TimeoutTimer}.
+ */
+public interface FailureDetector {
+
+  /**
+   * Records that we heard from the member.
+   *
+   * @param now - The current time (in ms).
+   */
+  void heartbeat(long now);
+
+  /**
+   * @return - How long after the last heartbeat the member is considered dead (in ms).
+   */
+  long timeout();
+
+  /**
+   * Forgets everything heard so far, like when the member comes back from the dead.
+   */
+  default void clear() {
+  }
+
+  /**
+   * @param timeout - In ms.
+   * @return - A detector that always waits for the same amount of time, no matter how regularly
+   * we hear from the member.
+   */
+  static FailureDetector fixed(long timeout) {
+    return new FailureDetector() {
+      @Override
+      public void heartbeat(long now) {
+      }
+
+      @Override
+      public long timeout() {
+        return timeout;
+      }
+    };
+  }
+}
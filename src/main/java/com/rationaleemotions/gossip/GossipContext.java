@@ -0,0 +1,79 @@
+package com.rationaleemotions.gossip;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.List;
+import javax.management.NotificationListener;
+
+/**
+ * What the protocols that run on behalf of a {@link Client} (see {@link AsynchronousReceiver},
+ * {@link AntiEntropy}, {@link SwimProtocol} and {@link GossipScheduler}) need of it: who it is,
+ * whom it knows of, and a way to reach them.
+ */
+public interface GossipContext {
+
+  String getNickName();
+
+  /**
+   * @return - Every member that this client knows of.
+   */
+  MembershipTable getMembershipTable();
+
+  /**
+   * @return - The largest message that this client sends, and expects to receive.
+   */
+  int getMaxMessageSize();
+
+  /**
+   * Sends the message that sits between the position and the limit of the buffer to the given
+   * peer, over the transport of this client. The buffer is rewound afterwards, so that the same
+   * message can go out to the next peer.
+   */
+  void send(ByteBuffer message, SocketAddress peer) throws IOException;
+
+  /**
+   * Runs a gossip round with the given peers, see {@link GossipScheduler}.
+   */
+  void gossip(List<Member> peers);
+
+  /**
+   * @return - How often a gossip round runs, see {@link Client#sendMembershipList()} (in ms).
+   */
+  default long getGossipInterval() {
+    return Client.t_gossip;
+  }
+
+  /**
+   * Creates a member that we just heard of, whose timeout notifies this client. The timeout is a
+   * fixed <code>t_cleanup</code> unless the client says otherwise.
+   */
+  default Member newMember(String address, int heartbeat, int generation) {
+    return new Member(address, heartbeat, generation, (NotificationListener) this,
+        Client.t_cleanup);
+  }
+
+  /**
+   * @return - The SWIM failure detector of this client, or <code>null</code> if it does not run
+   * one.
+   */
+  default SwimProtocol getSwimProtocol() {
+    return null;
+  }
+
+  /**
+   * @return - The overlay that this client gossips over, or <code>null</code> if it does not join
+   * one.
+   */
+  default HyParView getOverlay() {
+    return null;
+  }
+
+  /**
+   * @return - The metrics of this client. A client that keeps none hands out a fresh, unregistered
+   * instance.
+   */
+  default GossipMetrics getMetrics() {
+    return new GossipMetrics(getMembershipTable());
+  }
+}
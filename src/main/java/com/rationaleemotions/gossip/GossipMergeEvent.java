@@ -0,0 +1,27 @@
+package com.rationaleemotions.gossip;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A membership list that a client merged into its own.
+ */
+@Name("com.rationaleemotions.gossip.Merge")
+@Label("Gossip Merge")
+@Category({"Distributed Systems", "Gossip"})
+@StackTrace(false)
+final class GossipMergeEvent extends jdk.jfr.Event {
+
+  @Label("Client")
+  String client;
+
+  @Label("Members")
+  int members;
+
+  @Label("Changes")
+  @Description("Members that joined, came back, or had a newer heartbeat")
+  int changes;
+}
@@ -0,0 +1,161 @@
+package com.rationaleemotions.gossip;
+
+import com.rationaleemotions.metrics.Jmx;
+import com.rationaleemotions.metrics.LatencyHistogram;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+
+/**
+ * Counters and histograms of a single client. Recording is a striped increment, so it stays on
+ * the receive and send paths. Member counts are worked out from the membership table when they are
+ * read.
+ * <p>
+ * Time to detect is how long a member had been quiet by the time we declared it dead. In SWIM
+ * mode, it is how long it had been suspected.
+ */
+public final class GossipMetrics implements GossipMetricsMXBean {
+
+  static final String DOMAIN = "com.rationaleemotions.gossip";
+
+  private final MembershipTable members;
+
+  private final LongAdder packetsIn = new LongAdder();
+  private final LongAdder packetsOut = new LongAdder();
+  private final LongAdder bytesIn = new LongAdder();
+  private final LongAdder bytesOut = new LongAdder();
+  private final LongAdder decodeFailures = new LongAdder();
+  private final LatencyHistogram mergeLatency = new LatencyHistogram(); //in ns
+  private final LatencyHistogram timeToDetect = new LatencyHistogram(); //in ms
+
+  private ObjectName objectName;
+
+  public GossipMetrics(MembershipTable members) {
+    this.members = members;
+  }
+
+  void received(int bytes) {
+    packetsIn.increment();
+    bytesIn.add(bytes);
+  }
+
+  void sent(int bytes) {
+    packetsOut.increment();
+    bytesOut.add(bytes);
+  }
+
+  void decodeFailed() {
+    decodeFailures.increment();
+  }
+
+  void merged(long nanos) {
+    mergeLatency.record(nanos);
+  }
+
+  void detected(long millis) {
+    timeToDetect.record(millis);
+  }
+
+  /**
+   * Registers with the platform MBean server, under the address of the client.
+   */
+  synchronized void register(String nickName) {
+    if (objectName == null) {
+      objectName = Jmx.register(this, DOMAIN, "GossipClient", nickName);
+    }
+  }
+
+  synchronized void unregister() {
+    Jmx.unregister(objectName);
+    objectName = null;
+  }
+
+  @Override
+  public long getPacketsIn() {
+    return packetsIn.sum();
+  }
+
+  @Override
+  public long getPacketsOut() {
+    return packetsOut.sum();
+  }
+
+  @Override
+  public long getBytesIn() {
+    return bytesIn.sum();
+  }
+
+  @Override
+  public long getBytesOut() {
+    return bytesOut.sum();
+  }
+
+  @Override
+  public long getDecodeFailures() {
+    return decodeFailures.sum();
+  }
+
+  @Override
+  public long getMerges() {
+    return mergeLatency.getCount();
+  }
+
+  @Override
+  public double getMergeLatencyMeanNanos() {
+    return mergeLatency.getMean();
+  }
+
+  @Override
+  public long getMergeLatency99thPercentileNanos() {
+    return mergeLatency.getPercentile(99);
+  }
+
+  @Override
+  public long getMergeLatencyMaxNanos() {
+    return mergeLatency.getMax();
+  }
+
+  @Override
+  public int getAliveMembers() {
+    return count(MemberStatus.ALIVE);
+  }
+
+  @Override
+  public int getSuspectMembers() {
+    return count(MemberStatus.SUSPECT);
+  }
+
+  @Override
+  public int getDeadMembers() {
+    return count(MemberStatus.DEAD);
+  }
+
+  @Override
+  public long getDetections() {
+    return timeToDetect.getCount();
+  }
+
+  @Override
+  public double getTimeToDetectMeanMillis() {
+    return timeToDetect.getMean();
+  }
+
+  @Override
+  public long getTimeToDetect99thPercentileMillis() {
+    return timeToDetect.getPercentile(99);
+  }
+
+  @Override
+  public long getTimeToDetectMaxMillis() {
+    return timeToDetect.getMax();
+  }
+
+  private int count(MemberStatus status) {
+    int count = 0;
+    for (Member member : members.all()) {
+      if (member.getStatus() == status) {
+        count++;
+      }
+    }
+    return count;
+  }
+}
@@ -0,0 +1,48 @@
+package com.rationaleemotions.gossip;
+
+/**
+ * What a client exposes over JMX, see {@link GossipMetrics}.
+ */
+public interface GossipMetricsMXBean {
+
+  long getPacketsIn();
+
+  long getPacketsOut();
+
+  long getBytesIn();
+
+  long getBytesOut();
+
+  /**
+   * @return - Datagrams that we dropped, since they could not be decoded.
+   */
+  long getDecodeFailures();
+
+  /**
+   * @return - Membership lists that we merged.
+   */
+  long getMerges();
+
+  double getMergeLatencyMeanNanos();
+
+  long getMergeLatency99thPercentileNanos();
+
+  long getMergeLatencyMaxNanos();
+
+  int getAliveMembers();
+
+  int getSuspectMembers();
+
+  int getDeadMembers();
+
+  /**
+   * @return - Members that we declared dead.
+   */
+  long getDetections();
+
+  double getTimeToDetectMeanMillis();
+
+  long getTimeToDetect99thPercentileMillis();
+
+  long getTimeToDetectMaxMillis();
+}
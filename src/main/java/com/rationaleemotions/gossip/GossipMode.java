@@ -0,0 +1,28 @@
+package com.rationaleemotions.gossip;
+
+/**
+ * How a client reconciles its membership list with its peers.
+ */
+public enum GossipMode {
+  /**
+   * Push the whole membership list to a peer every round.
+   */
+  FULL_LIST,
+  /**
+   * Send a digest to a peer every round, and exchange only the members that differ. See
+   * {@link AntiEntropy}.
+   */
+  DIGEST,
+  /**
+   * Detect failures with SWIM, and piggyback membership updates on its probes. See
+   * {@link SwimProtocol}.
+   */
+  SWIM,
+  /**
+   * Join a {@link HyParView} overlay over our own transport, and send our heartbeat to nothing but
+   * its active view every round. Our active peers send us theirs, so we only ever track (and time
+   * out) our <code>log(n)</code> neighbors, however large the cluster. The startup list only needs
+   * ourselves and a contact to join through.
+   */
+  OVERLAY
+}
@@ -0,0 +1,33 @@
+package com.rationaleemotions.gossip;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A datagram that a client received, from the moment it was handed over until it was handled.
+ */
+@Name("com.rationaleemotions.gossip.Receive")
+@Label("Gossip Receive")
+@Category({"Distributed Systems", "Gossip"})
+@StackTrace(false)
+final class GossipReceiveEvent extends jdk.jfr.Event {
+
+  @Label("Client")
+  String client;
+
+  @Label("Peer")
+  String peer;
+
+  @Label("Message Type")
+  String type;
+
+  @Label("Size")
+  @DataAmount
+  int bytes;
+
+  @Label("Dropped")
+  boolean dropped;
+}
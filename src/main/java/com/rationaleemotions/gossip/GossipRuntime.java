@@ -0,0 +1,144 @@
+package com.rationaleemotions.gossip;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The threads that clients run on. Any number of clients can share a runtime, which is what makes
+ * it possible to run a cluster of thousands of clients in a single JVM:
+ * <ul>
+ *   <li>A single thread receives for all of them, by multiplexing their channels through one
+ *   selector.</li>
+ *   <li>A small scheduled pool runs the gossip rounds of all of them.</li>
+ *   <li>Member timeouts already share a single timer, see {@link HashedWheelTimer#shared()}.</li>
+ * </ul>
+ * Threads come from the given {@link ThreadFactory}. On a JDK with virtual threads, a virtual
+ * thread factory can be handed in as is.
+ */
+@Slf4j
+public final class GossipRuntime implements AutoCloseable {
+
+  //How long a select waits, before checking if we should keep running (in ms).
+  private static final long SELECT_TIMEOUT = 1000;
+  private static final AtomicInteger RUNTIMES = new AtomicInteger();
+
+  private final Selector selector;
+  private final ScheduledExecutorService scheduler;
+  private final Thread receiver;
+  //Registrations are handed over to the receiver thread, since registering blocks while the
+  //selector is selecting.
+  private final Queue<UdpTransport> registrations = new ConcurrentLinkedQueue<>();
+  private volatile boolean running = true;
+
+  /**
+   * A runtime with a single gossip thread, on (non-daemon) threads of its own.
+   */
+  public GossipRuntime() throws IOException {
+    this(1, namedThreads("gossip-" + RUNTIMES.incrementAndGet()));
+  }
+
+  /**
+   * @param gossipThreads - How many threads run gossip rounds.
+   * @param threadFactory - Creates all threads of the runtime.
+   */
+  public GossipRuntime(int gossipThreads, ThreadFactory threadFactory) throws IOException {
+    this.selector = Selector.open();
+    this.scheduler = Executors.newScheduledThreadPool(gossipThreads, threadFactory);
+    this.receiver = threadFactory.newThread(this::receive);
+    this.receiver.start();
+  }
+
+  /**
+   * @return - Runs the gossip rounds of the clients.
+   */
+  public ScheduledExecutorService getScheduler() {
+    return scheduler;
+  }
+
+  /**
+   * Starts receiving on the channel of the given transport.
+   */
+  void register(UdpTransport transport) {
+    if (!running) {
+      throw new IllegalStateException("The runtime is closed");
+    }
+    registrations.add(transport);
+    selector.wakeup();
+  }
+
+  /**
+   * Stops all threads of the runtime. Clients that are still running on it stop gossiping.
+   */
+  @Override
+  public void close() {
+    running = false;
+    scheduler.shutdownNow();
+    selector.wakeup();
+  }
+
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    if (!scheduler.awaitTermination(timeout, unit)) {
+      return false;
+    }
+    receiver.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+    return !receiver.isAlive();
+  }
+
+  private void receive() {
+    try {
+      while (running) {
+        UdpTransport registration;
+        while ((registration = registrations.poll()) != null) {
+          try {
+            registration.getChannel().register(selector, SelectionKey.OP_READ, registration);
+          } catch (ClosedChannelException e) {
+            // The client was stopped before it got to receive anything.
+          }
+        }
+        if (selector.select(SELECT_TIMEOUT) == 0) {
+          continue;
+        }
+        for (SelectionKey key : selector.selectedKeys()) {
+          UdpTransport transport = (UdpTransport) key.attachment();
+          try {
+            transport.drain();
+          } catch (ClosedChannelException e) {
+            // The client is being stopped.
+            key.cancel();
+          } catch (IOException e) {
+            log.warn("Stopped receiving on {}", transport.getChannel(), e);
+            key.cancel();
+          } catch (RuntimeException e) {
+            //One bad receiver should neither stop the others, nor its own next datagram.
+            log.warn("Receiving on {} failed", transport.getChannel(), e);
+          }
+        }
+        selector.selectedKeys().clear();
+      }
+    } catch (IOException e) {
+      log.error("The runtime stopped receiving", e);
+    } finally {
+      try {
+        selector.close();
+      } catch (IOException e) {
+        log.warn("Could not close the selector", e);
+      }
+    }
+  }
+
+  private static ThreadFactory namedThreads(String prefix) {
+    AtomicInteger count = new AtomicInteger();
+    return runnable -> new Thread(runnable, prefix + "-" + count.incrementAndGet());
+  }
+}
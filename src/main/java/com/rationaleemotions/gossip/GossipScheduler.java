@@ -0,0 +1,178 @@
+package com.rationaleemotions.gossip;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs the active cycle of a client: every interval, pick <code>k</code> peers (the fan-out) and
+ * gossip with them. Peers are picked in a shuffled round-robin (see {@link ShuffledRoundRobin}), so
+ * every peer hears from us within a bounded number of rounds.
+ * <p>
+ * In adaptive mode (a maximum fan-out larger than the minimum one), a change in membership bumps
+ * the fan-out up to the maximum for about <code>log2(n)</code> rounds, so that the news spreads
+ * quickly. After that, the fan-out backs off one step per round, down to the minimum, while the
+ * membership stays put.
+ * <p>
+ * Rounds run on a {@link ScheduledExecutorService}, rather than on a thread of their own that
+ * sleeps in between. Or on a {@link HashedWheelTimer}, whose clock can be simulated (see
+ * {@link ClusterSimulator}).
+ */
+@Slf4j
+public final class GossipScheduler {
+
+  private final GossipContext client;
+  private final ScheduledExecutorService executor;
+  private final HashedWheelTimer wheel;
+  private final long interval;
+  private final int minFanOut;
+  private final int maxFanOut;
+  private final ShuffledRoundRobin peers;
+
+  //Everything below belongs to whichever thread runs the rounds, one at a time.
+  private final List<Member> picked = new ArrayList<>();
+  private long lastChangeCount;
+  private int fanOut;
+  private int boostedRoundsLeft;
+
+  private ScheduledFuture<?> rounds;
+  private HashedWheelTimer.Timeout nextRound;
+
+  /**
+   * Gossips with a single peer per round, like the original gossiper.
+   */
+  public GossipScheduler(GossipContext client, ScheduledExecutorService executor) {
+    this(client, executor, client.getGossipInterval(), 1, 1);
+  }
+
+  /**
+   * @param client    - The client to gossip for.
+   * @param executor  - Runs the rounds.
+   * @param interval  - The time between two rounds (in ms).
+   * @param minFanOut - How many peers to gossip with per round.
+   * @param maxFanOut - How many peers to gossip with per round, right after a change in membership.
+   *                  The same as minFanOut to turn adaptive mode off.
+   */
+  public GossipScheduler(GossipContext client, ScheduledExecutorService executor, long interval,
+      int minFanOut, int maxFanOut) {
+    this(client, executor, null, interval, minFanOut, maxFanOut, new Random());
+  }
+
+  /**
+   * @param client    - The client to gossip for.
+   * @param wheel     - Runs the rounds.
+   * @param interval  - The time between two rounds (in ms).
+   * @param minFanOut - How many peers to gossip with per round.
+   * @param maxFanOut - How many peers to gossip with per round, right after a change in membership.
+   * @param random    - Picks the peers.
+   */
+  public GossipScheduler(GossipContext client, HashedWheelTimer wheel, long interval, int minFanOut,
+      int maxFanOut, Random random) {
+    this(client, null, wheel, interval, minFanOut, maxFanOut, random);
+  }
+
+  private GossipScheduler(GossipContext client, ScheduledExecutorService executor,
+      HashedWheelTimer wheel, long interval, int minFanOut, int maxFanOut, Random random) {
+    if (interval <= 0 || minFanOut < 1 || maxFanOut < minFanOut) {
+      throw new IllegalArgumentException("Need a positive interval, and 1 <= minFanOut <= "
+          + "maxFanOut");
+    }
+    this.client = client;
+    this.executor = executor;
+    this.wheel = wheel;
+    this.interval = interval;
+    this.minFanOut = minFanOut;
+    this.maxFanOut = maxFanOut;
+    this.fanOut = minFanOut;
+    this.peers = new ShuffledRoundRobin(random);
+    this.lastChangeCount = client.getMembershipTable().getChangeCount();
+  }
+
+  public synchronized void start() {
+    if (executor == null) {
+      if (nextRound == null) {
+        scheduleRound();
+      }
+    } else if (rounds == null) {
+      rounds = executor.scheduleWithFixedDelay(this::runRound, interval, interval,
+          TimeUnit.MILLISECONDS);
+    }
+  }
+
+  public synchronized void stop() {
+    if (rounds != null) {
+      rounds.cancel(false);
+      rounds = null;
+    }
+    if (nextRound != null) {
+      nextRound.cancel();
+      nextRound = null;
+    }
+  }
+
+  private void scheduleRound() {
+    long deadline = wheel.now() + interval;
+    nextRound = wheel.schedule(new HashedWheelTimer.Task() {
+      @Override
+      public long deadline() {
+        return deadline;
+      }
+
+      @Override
+      public void expire() {
+        runRound();
+        synchronized (GossipScheduler.this) {
+          //Unless we have been stopped in the meantime.
+          if (nextRound != null) {
+            scheduleRound();
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * @return - The fan-out of the next round.
+   */
+  public int getFanOut() {
+    return fanOut;
+  }
+
+  /**
+   * Runs a single round.
+   */
+  void runRound() {
+    try {
+      adapt();
+      MembershipTable table = client.getMembershipTable();
+      peers.next(table.peers(), fanOut, picked);
+      if (picked.isEmpty()) {
+        log.debug("{} has no members to gossip", client.getNickName());
+      }
+      client.gossip(picked);
+    } catch (RuntimeException e) {
+      // An exception would quietly cancel all future rounds.
+      log.warn("{} failed a gossip round", client.getNickName(), e);
+    }
+  }
+
+  private void adapt() {
+    if (maxFanOut == minFanOut) {
+      return;
+    }
+    long changeCount = client.getMembershipTable().getChangeCount();
+    if (changeCount != lastChangeCount) {
+      lastChangeCount = changeCount;
+      fanOut = maxFanOut;
+      boostedRoundsLeft = 32 - Integer.numberOfLeadingZeros(client.getMembershipTable().size());
+    } else if (boostedRoundsLeft > 0) {
+      boostedRoundsLeft--;
+    } else if (fanOut > minFanOut) {
+      fanOut--;
+    }
+  }
+}
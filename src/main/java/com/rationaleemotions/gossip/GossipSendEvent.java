@@ -0,0 +1,36 @@
+package com.rationaleemotions.gossip;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A datagram that a client sent. Spans the send itself, so a send that blocks on the socket shows
+ * up as a long one.
+ */
+@Name("com.rationaleemotions.gossip.Send")
+@Label("Gossip Send")
+@Category({"Distributed Systems", "Gossip"})
+@StackTrace(false)
+final class GossipSendEvent extends jdk.jfr.Event {
+
+  @Label("Client")
+  String client;
+
+  @Label("Peer")
+  String peer;
+
+  @Label("Message Type")
+  String type;
+
+  @Label("Size")
+  @DataAmount
+  int bytes;
+
+  @Label("Members")
+  @Description("Members in the message, for membership lists and digests")
+  int members;
+}
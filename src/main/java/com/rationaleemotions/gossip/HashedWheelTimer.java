@@ -0,0 +1,277 @@
+package com.rationaleemotions.gossip;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A hashed timing wheel (Varghese and Lauck) that drives every failure detection timeout of the
+ * gossip package off a single thread, no matter how many members there are.
+ * <p>
+ * Timeouts are re-armed lazily. A {@link Task} only reports its current deadline, which the wheel
+ * reads when the slot that the timeout sits in comes around. If the deadline moved out in the
+ * meantime (because we heard from the member), the timeout is simply moved to a later slot. So
+ * resetting a timeout is just a write to a timestamp, and never touches the wheel.
+ * <p>
+ * All wheel bookkeeping happens on the worker thread. Other threads only ever hand over new
+ * timeouts through a concurrent queue, and cancel timeouts by flagging them.
+ */
+@Slf4j
+public final class HashedWheelTimer implements AutoCloseable {
+
+  private static final long DEFAULT_TICK = 100; //in ms
+  private static final int DEFAULT_WHEEL_SIZE = 512;
+
+  private static volatile HashedWheelTimer shared;
+
+  /**
+   * Something with a deadline, that might move out while it waits.
+   */
+  public interface Task {
+
+    /**
+     * @return - The time (as per the clock of the timer) at which the task expires. Read every time
+     * the task comes around on the wheel.
+     */
+    long deadline();
+
+    /**
+     * Invoked on the timer thread, once the deadline has passed.
+     */
+    void expire();
+  }
+
+  /**
+   * A handle on a scheduled task.
+   */
+  public static final class Timeout {
+
+    private final Task task;
+    private volatile boolean cancelled;
+    //Everything below belongs to the worker thread.
+    private long remainingRounds;
+    private Timeout next;
+    private Timeout previous;
+    private Bucket bucket;
+
+    private Timeout(Task task) {
+      this.task = task;
+    }
+
+    public void cancel() {
+      cancelled = true;
+    }
+
+    public boolean isCancelled() {
+      return cancelled;
+    }
+  }
+
+  private static final class Bucket {
+
+    private Timeout head;
+    private Timeout tail;
+
+    private void add(Timeout timeout) {
+      timeout.bucket = this;
+      timeout.previous = tail;
+      timeout.next = null;
+      if (tail == null) {
+        head = timeout;
+      } else {
+        tail.next = timeout;
+      }
+      tail = timeout;
+    }
+
+    private void remove(Timeout timeout) {
+      if (timeout.previous == null) {
+        head = timeout.next;
+      } else {
+        timeout.previous.next = timeout.next;
+      }
+      if (timeout.next == null) {
+        tail = timeout.previous;
+      } else {
+        timeout.next.previous = timeout.previous;
+      }
+      timeout.next = null;
+      timeout.previous = null;
+      timeout.bucket = null;
+    }
+  }
+
+  private final long tickDuration;
+  private final Bucket[] wheel;
+  private final int mask;
+  private final LongSupplier clock;
+  private final ThreadFactory threadFactory;
+  private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+  private final long startTime;
+
+  //The last tick that has been processed. Only touched by the worker.
+  private long tick;
+  private volatile boolean running = true;
+  private Thread worker;
+
+  /**
+   * @return - The timer that is shared by every member of every client in this JVM.
+   */
+  public static HashedWheelTimer shared() {
+    if (shared == null) {
+      synchronized (HashedWheelTimer.class) {
+        if (shared == null) {
+          shared = new HashedWheelTimer(DEFAULT_TICK, DEFAULT_WHEEL_SIZE,
+              System::currentTimeMillis, runnable -> {
+                Thread thread = new Thread(runnable, "gossip-timer");
+                thread.setDaemon(true);
+                return thread;
+              });
+        }
+      }
+    }
+    return shared;
+  }
+
+  /**
+   * @param tickDuration  - The resolution of the timer (in ms). Timeouts fire up to one tick late.
+   * @param wheelSize     - The number of slots in the wheel. Rounded up to a power of two.
+   * @param clock         - The current time (in ms).
+   * @param threadFactory - Creates the worker thread, which is started on the first schedule.
+   */
+  public HashedWheelTimer(long tickDuration, int wheelSize, LongSupplier clock,
+      ThreadFactory threadFactory) {
+    if (tickDuration <= 0 || wheelSize <= 0) {
+      throw new IllegalArgumentException("Tick duration and wheel size should be positive numbers");
+    }
+    int size = Integer.highestOneBit(wheelSize - 1) << 1;
+    this.tickDuration = tickDuration;
+    this.wheel = new Bucket[Math.max(size, 1)];
+    for (int i = 0; i < wheel.length; i++) {
+      wheel[i] = new Bucket();
+    }
+    this.mask = wheel.length - 1;
+    this.clock = clock;
+    this.threadFactory = threadFactory;
+    this.startTime = clock.getAsLong();
+  }
+
+  /**
+   * @return - The current time as per the clock of this timer (in ms).
+   */
+  public long now() {
+    return clock.getAsLong();
+  }
+
+  public Timeout schedule(Task task) {
+    if (!running) {
+      throw new IllegalStateException("Timer is closed");
+    }
+    Timeout timeout = new Timeout(task);
+    pending.add(timeout);
+    startWorker();
+    return timeout;
+  }
+
+  private synchronized void startWorker() {
+    if (worker == null && threadFactory != null) {
+      worker = threadFactory.newThread(this::work);
+      worker.start();
+    }
+  }
+
+  private void work() {
+    while (running) {
+      long nextTick = startTime + (tick + 1) * tickDuration;
+      long sleep = nextTick - now();
+      if (sleep > 0) {
+        try {
+          TimeUnit.MILLISECONDS.sleep(sleep);
+        } catch (InterruptedException e) {
+          running = false;
+          return;
+        }
+      }
+      advance(now());
+    }
+  }
+
+  /**
+   * Processes every tick up to the given time. Called by the worker thread, and meant to be driven
+   * directly by anything that owns the clock instead, in which case the timer should not have a
+   * thread factory.
+   */
+  void advance(long now) {
+    long target = (now - startTime) / tickDuration;
+    while (tick < target) {
+      tick++;
+      transferPending();
+      expire(wheel[(int) (tick & mask)], now);
+    }
+    transferPending();
+  }
+
+  private void transferPending() {
+    Timeout timeout;
+    while ((timeout = pending.poll()) != null) {
+      if (!timeout.cancelled) {
+        place(timeout, timeout.task.deadline());
+      }
+    }
+  }
+
+  private void place(Timeout timeout, long deadline) {
+    //The first tick at (or after) the deadline, but never one that has already been processed.
+    long due = Math.max(tick + 1, ceilDiv(deadline - startTime, tickDuration));
+    timeout.remainingRounds = (due - tick - 1) / wheel.length;
+    wheel[(int) (due & mask)].add(timeout);
+  }
+
+  private void expire(Bucket bucket, long now) {
+    //A timeout that gets re-placed a whole number of rounds ahead lands at the end of this very
+    //bucket, so stop at what is the last timeout right now.
+    Timeout last = bucket.tail;
+    Timeout timeout = bucket.head;
+    while (timeout != null) {
+      Timeout next = timeout == last ? null : timeout.next;
+      if (timeout.cancelled) {
+        bucket.remove(timeout);
+      } else if (timeout.remainingRounds > 0) {
+        timeout.remainingRounds--;
+      } else {
+        bucket.remove(timeout);
+        long deadline = timeout.task.deadline();
+        if (deadline <= now) {
+          timeout.cancelled = true;
+          try {
+            timeout.task.expire();
+          } catch (RuntimeException e) {
+            //A task that fails must not take the wheel, and every other task on it, down.
+            log.warn("Task {} failed", timeout.task, e);
+          }
+        } else {
+          //We heard from the member in the meantime.
+          place(timeout, deadline);
+        }
+      }
+      timeout = next;
+    }
+  }
+
+  private static long ceilDiv(long x, long y) {
+    return -Math.floorDiv(-x, y);
+  }
+
+  @Override
+  public void close() {
+    running = false;
+    synchronized (this) {
+      if (worker != null) {
+        worker.interrupt();
+      }
+    }
+  }
+}
@@ -0,0 +1,786 @@
+package com.rationaleemotions.gossip;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A HyParView overlay (Leitão, Pereira and Rodrigues, 2007), for clusters that are too large for
+ * every node to know, and time out, every other node. Each node only knows two small views of the
+ * cluster:
+ * <ul>
+ *   <li>An active view of about <code>log(n)</code> peers, that it keeps links with and floods
+ *   broadcasts over. Links are symmetric: a peer in our active view has us in its own.</li>
+ *   <li>A larger passive view of peers in reserve, that it replaces failed active peers from.</li>
+ * </ul>
+ * A node joins through any node of the overlay, which walks the join a few random hops (see
+ * {@link OverlayCodec#FORWARD_JOIN}), so that the newcomer ends up in the views of nodes all
+ * over the overlay. Every shuffle interval, a node swaps a sample of its views with a node at the
+ * end of a random walk, which keeps the passive views fresh and spread out.
+ * <p>
+ * Active peers keep their links alive every keep-alive interval. A peer that we did not hear from
+ * for three intervals is dropped, and replaced by a passive peer that agrees to take us in (it
+ * always does when we have no active peers left). So a node tracks, and sends to, a constant
+ * number of peers no matter the size of the cluster, while a broadcast still reaches everyone as
+ * long as the overlay stays connected.
+ * <p>
+ * An overlay runs on a transport of its own, or on that of a {@link ClientImpl} that gossips over
+ * it (see {@link GossipMode#OVERLAY}). Both its periodic work and its timeouts run on a
+ * {@link HashedWheelTimer}, whose clock can be simulated (see {@link OverlaySimulator}).
+ */
+@Slf4j
+public final class HyParView implements Transport.Receiver, OverlayCodec.OverlayVisitor {
+
+  public static final int DEFAULT_ACTIVE_VIEW_SIZE = 5;
+  public static final int DEFAULT_PASSIVE_VIEW_SIZE = 30;
+  public static final long DEFAULT_KEEP_ALIVE_INTERVAL = 1000; //in ms
+  public static final long DEFAULT_SHUFFLE_INTERVAL = 10_000; //in ms
+  //How far a join (and a shuffle) walks, and how far along its walk a join makes it into passive
+  //views.
+  private static final int ACTIVE_RANDOM_WALK = 6;
+  private static final int PASSIVE_RANDOM_WALK = 3;
+  //How many of our active and passive peers a shuffle carries, on top of ourselves.
+  private static final int SHUFFLE_ACTIVE = 3;
+  private static final int SHUFFLE_PASSIVE = 4;
+  //An active peer that we did not hear from for this many keep-alive intervals is gone.
+  private static final int KEEP_ALIVE_MISSES = 3;
+  //How many broadcasts we remember, so that we forward each one once.
+  private static final int SEEN_BROADCASTS = 4096;
+
+  /**
+   * Receives the broadcasts of the overlay.
+   */
+  @FunctionalInterface
+  public interface BroadcastListener {
+
+    /**
+     * Invoked on whichever thread the transport delivers datagrams, once per broadcast.
+     *
+     * @param origin  - The node that broadcast the payload.
+     * @param payload - The payload, between the position and the limit of the buffer. Only valid
+     *                for the duration of the call.
+     */
+    void delivered(String origin, ByteBuffer payload);
+  }
+
+  private final Peer me;
+  private final Transport transport;
+  //Whether the transport is ours to listen on and close, rather than that of a client.
+  private final boolean ownsTransport;
+  private final HashedWheelTimer timer;
+  private final Random random;
+  private final List<BroadcastListener> listeners = new CopyOnWriteArrayList<>();
+  private int activeViewSize = DEFAULT_ACTIVE_VIEW_SIZE;
+  private int passiveViewSize = DEFAULT_PASSIVE_VIEW_SIZE;
+  private long keepAliveInterval = DEFAULT_KEEP_ALIVE_INTERVAL;
+  private long shuffleInterval = DEFAULT_SHUFFLE_INTERVAL;
+
+  //Everything below is guarded by this.
+  private final List<Peer> active = new ArrayList<>();
+  private final List<Peer> passive = new ArrayList<>();
+  private final Map<Long, Boolean> seen = new LinkedHashMap<Long, Boolean>() {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+      return size() > SEEN_BROADCASTS;
+    }
+  };
+  private final OverlayCodec codec = new OverlayCodec();
+  private final ByteBuffer sendBuffer;
+  private String contact;
+  //Whether our contact let us in.
+  private boolean joined;
+  private HashedWheelTimer.Timeout nextTick;
+  private boolean stopped;
+  private long nextShuffle;
+  //The peers that went out with our last shuffle, which are the first to go when the reply comes.
+  private List<Peer> shuffled = Collections.emptyList();
+  //The passive peer that we asked to become active, and until when we wait for its reply.
+  private Peer candidate;
+  private long candidateDeadline;
+  private int broadcastSequence;
+  private long broadcastsDelivered;
+
+  //The message being decoded. A broadcast only leaves its payload behind, when it is a new one.
+  private byte flags;
+  private String sender;
+  private int ttl;
+  private String subject;
+  private final List<String> addresses = new ArrayList<>();
+  private ByteBuffer payload;
+
+  /**
+   * @param address    - Our address, in the form host:port.
+   * @param transports - Creates the transport of the overlay.
+   * @param timer      - Runs the keep-alives, shuffles and repairs.
+   * @param random     - Picks the peers.
+   */
+  public HyParView(String address, Transport.Factory transports, HashedWheelTimer timer,
+      Random random) throws IOException {
+    this.me = new Peer(address);
+    this.timer = timer;
+    this.random = random;
+    this.sendBuffer = ByteBuffer.allocateDirect(transports.getMaxMessageSize());
+    this.transport = transports.bind(me.getSocketAddress());
+    this.ownsTransport = true;
+  }
+
+  /**
+   * Runs the overlay over the transport of a client, which hands us the messages of the overlay
+   * (see {@link AsynchronousReceiver}). We neither listen on it, nor close it.
+   *
+   * @param address        - Our address, in the form host:port.
+   * @param transport      - The transport of the client.
+   * @param maxMessageSize - The largest message that the transport carries.
+   * @param timer          - Runs the keep-alives, shuffles and repairs.
+   * @param random         - Picks the peers.
+   */
+  HyParView(String address, Transport transport, int maxMessageSize, HashedWheelTimer timer,
+      Random random) {
+    this.me = new Peer(address);
+    this.timer = timer;
+    this.random = random;
+    this.sendBuffer = ByteBuffer.allocateDirect(maxMessageSize);
+    this.transport = transport;
+    this.ownsTransport = false;
+  }
+
+  /**
+   * Should be set before the overlay is started.
+   *
+   * @param activeViewSize  - How many peers we keep links with. About <code>log(n) + 1</code>.
+   * @param passiveViewSize - How many peers we keep in reserve. A few times the active view.
+   */
+  public void setViewSizes(int activeViewSize, int passiveViewSize) {
+    if (activeViewSize < 1 || passiveViewSize < 1) {
+      throw new IllegalArgumentException("Both views need room for at least one peer");
+    }
+    this.activeViewSize = activeViewSize;
+    this.passiveViewSize = passiveViewSize;
+  }
+
+  /**
+   * Should be set before the overlay is started.
+   *
+   * @param keepAliveInterval - How often we keep our links alive, and repair the active view (in
+   *                          ms).
+   * @param shuffleInterval   - How often we swap a sample of our views (in ms).
+   */
+  public void setIntervals(long keepAliveInterval, long shuffleInterval) {
+    if (keepAliveInterval <= 0 || shuffleInterval <= 0) {
+      throw new IllegalArgumentException("Intervals should be positive");
+    }
+    this.keepAliveInterval = keepAliveInterval;
+    this.shuffleInterval = shuffleInterval;
+  }
+
+  public String getAddress() {
+    return me.address;
+  }
+
+  public synchronized List<String> getActiveView() {
+    return addressesOf(active);
+  }
+
+  public synchronized List<String> getPassiveView() {
+    return addressesOf(passive);
+  }
+
+  /**
+   * @return - How many broadcasts of other nodes we have delivered.
+   */
+  public synchronized long getBroadcastsDelivered() {
+    return broadcastsDelivered;
+  }
+
+  public void addBroadcastListener(BroadcastListener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeBroadcastListener(BroadcastListener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Joins the overlay through the given node, and starts keeping our views up.
+   *
+   * @param contact - Any node of the overlay, or <code>null</code> for the first node.
+   * @param runtime - The threads to receive on, for transports that need any. Unused when we run
+   *                over the transport of a client.
+   */
+  public synchronized void start(String contact, GossipRuntime runtime) {
+    if (nextTick != null || stopped) {
+      throw new IllegalStateException(me.address + " has already been started");
+    }
+    this.contact = me.address.equals(contact) ? null : contact;
+    this.joined = this.contact == null;
+    if (ownsTransport) {
+      transport.listen(this, runtime);
+    }
+    //Shuffles start out at a random point of the interval, so that nodes do not shuffle in step.
+    nextShuffle = timer.now() + (long) (random.nextDouble() * shuffleInterval);
+    scheduleTick();
+    if (this.contact != null) {
+      send(OverlayCodec.JOIN, 0, null, Collections.emptyList(), new Peer(this.contact));
+    }
+  }
+
+  /**
+   * Leaves the overlay without a word, the way a crashed node would, and closes our transport
+   * (unless it belongs to a client). Our active peers find out through the missing keep-alives.
+   */
+  public synchronized void stop() {
+    stopped = true;
+    if (nextTick != null) {
+      nextTick.cancel();
+    }
+    if (!ownsTransport) {
+      return;
+    }
+    try {
+      transport.close();
+    } catch (IOException e) {
+      log.warn("{} could not close its transport", me.address, e);
+    }
+  }
+
+  /**
+   * Floods the given payload over the overlay, to every other node.
+   *
+   * @param payload - The payload, between the position and the limit of the buffer. Has to fit
+   *                into a single message along with our address.
+   */
+  public synchronized void broadcast(ByteBuffer payload) {
+    int sequence = ++broadcastSequence;
+    firstTime(me.address, sequence);
+    sendBuffer.clear();
+    codec.encodeBroadcast(me.bytes, me.bytes, sequence, payload, sendBuffer);
+    sendBuffer.flip();
+    for (Peer peer : active) {
+      send(peer);
+    }
+  }
+
+  private void scheduleTick() {
+    long deadline = timer.now() + keepAliveInterval;
+    nextTick = timer.schedule(new HashedWheelTimer.Task() {
+      @Override
+      public long deadline() {
+        return deadline;
+      }
+
+      @Override
+      public void expire() {
+        synchronized (HyParView.this) {
+          if (stopped) {
+            return;
+          }
+          try {
+            tick();
+          } catch (RuntimeException e) {
+            // An exception would quietly end all future ticks.
+            log.warn("{} failed a tick", me.address, e);
+          }
+          scheduleTick();
+        }
+      }
+    });
+  }
+
+  //Must be called while holding the lock.
+  private void tick() {
+    long now = timer.now();
+    for (int i = active.size() - 1; i >= 0; i--) {
+      Peer peer = active.get(i);
+      if (now - peer.lastHeard > KEEP_ALIVE_MISSES * keepAliveInterval) {
+        //Most likely gone, so it does not make it into our passive view either.
+        active.remove(i);
+        log.debug("{} lost its active peer {}", me.address, peer.address);
+      }
+    }
+    for (Peer peer : active) {
+      send(OverlayCodec.KEEP_ALIVE, 0, null, Collections.emptyList(), peer);
+    }
+    if (!joined) {
+      //Until our contact lets us in. A lost join would otherwise leave us (and whoever joins
+      //through us) on an island of our own.
+      send(OverlayCodec.JOIN, 0, null, Collections.emptyList(), new Peer(contact));
+    }
+    repair(now);
+    if (now >= nextShuffle) {
+      nextShuffle = now + shuffleInterval;
+      shuffle();
+    }
+  }
+
+  /**
+   * Asks a passive peer to fill a gap in our active view, one peer at a time. A peer that does
+   * not reply in time is dropped from our passive view.
+   */
+  //Must be called while holding the lock.
+  private void repair(long now) {
+    if (candidate != null) {
+      if (now < candidateDeadline) {
+        return;
+      }
+      passive.remove(candidate);
+      candidate = null;
+    }
+    if (active.size() >= activeViewSize) {
+      return;
+    }
+    if (passive.isEmpty()) {
+      if (active.isEmpty() && contact != null) {
+        //We are cut off from the overlay, so start over.
+        joined = false;
+      }
+      return;
+    }
+    candidate = passive.get(random.nextInt(passive.size()));
+    candidateDeadline = now + 2 * keepAliveInterval;
+    byte priority = active.isEmpty() ? OverlayCodec.FLAG_HIGH_PRIORITY : 0;
+    send(OverlayCodec.NEIGHBOR, priority, 0, null, Collections.emptyList(), candidate);
+  }
+
+  //Must be called while holding the lock.
+  private void shuffle() {
+    if (active.isEmpty()) {
+      return;
+    }
+    List<Peer> sample = new ArrayList<>(1 + SHUFFLE_ACTIVE + SHUFFLE_PASSIVE);
+    sample.add(me);
+    sample.addAll(sample(active, SHUFFLE_ACTIVE));
+    List<Peer> passiveSample = sample(passive, SHUFFLE_PASSIVE);
+    sample.addAll(passiveSample);
+    shuffled = passiveSample;
+    send(OverlayCodec.SHUFFLE, ACTIVE_RANDOM_WALK, me, sample,
+        active.get(random.nextInt(active.size())));
+  }
+
+  /**
+   * Handles a message of the overlay. A broadcast is forwarded while holding our lock, but
+   * delivered to the listeners after letting go of it.
+   */
+  @Override
+  public void receive(ByteBuffer message, SocketAddress from) {
+    String origin;
+    ByteBuffer delivery;
+    synchronized (this) {
+      addresses.clear();
+      sender = null;
+      subject = null;
+      payload = null;
+      byte type;
+      try {
+        type = codec.decode(message, this);
+      } catch (StreamCorruptedException e) {
+        // A garbled (or foreign) datagram. Drop it, and keep listening.
+        log.debug("{} dropped a message : {}", me.address, e.getMessage());
+        return;
+      }
+      if (type != OverlayCodec.BROADCAST) {
+        if (!wellFormed()) {
+          //An address we could never send to must not make it into our views.
+          log.debug("{} dropped a message with a malformed address", me.address);
+          return;
+        }
+        handle(type);
+        return;
+      }
+      origin = subject;
+      delivery = payload;
+      payload = null;
+    }
+    if (delivery != null) {
+      for (BroadcastListener listener : listeners) {
+        try {
+          listener.delivered(origin, delivery.duplicate());
+        } catch (RuntimeException e) {
+          //One bad listener should neither stop the others, nor the overlay.
+          log.warn("Listener {} failed", listener, e);
+        }
+      }
+    }
+  }
+
+  //Must be called while holding the lock.
+  private boolean wellFormed() {
+    if (sender == null || Peer.portOf(sender) < 0
+        || (subject != null && Peer.portOf(subject) < 0)) {
+      return false;
+    }
+    for (String address : addresses) {
+      if (Peer.portOf(address) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void visit(byte type, byte flags, String sender, int ttl, String subject) {
+    this.flags = flags;
+    this.sender = sender;
+    this.ttl = ttl;
+    this.subject = subject;
+  }
+
+  @Override
+  public void address(String address) {
+    addresses.add(address);
+  }
+
+  //Invoked while holding the lock, from receive().
+  @Override
+  public void broadcast(String sender, String origin, int sequence, ByteBuffer payload) {
+    Peer from = find(active, sender);
+    if (from != null) {
+      from.lastHeard = timer.now();
+    }
+    if (!firstTime(origin, sequence)) {
+      return;
+    }
+    broadcastsDelivered++;
+    sendBuffer.clear();
+    codec.encodeBroadcast(me.bytes, origin.getBytes(StandardCharsets.UTF_8), sequence, payload,
+        sendBuffer);
+    sendBuffer.flip();
+    for (Peer peer : active) {
+      if (!peer.address.equals(sender) && !peer.address.equals(origin)) {
+        send(peer);
+      }
+    }
+    //Left for receive(), which delivers it.
+    this.subject = origin;
+    this.payload = payload;
+  }
+
+  //Must be called while holding the lock.
+  private void handle(byte type) {
+    if (sender == null || sender.equals(me.address)) {
+      return;
+    }
+    Peer from = find(active, sender);
+    if (from != null) {
+      from.lastHeard = timer.now();
+    }
+    switch (type) {
+      case OverlayCodec.JOIN:
+        join(from != null ? from : new Peer(sender));
+        break;
+      case OverlayCodec.FORWARD_JOIN:
+        forwardJoin(subject);
+        break;
+      case OverlayCodec.NEIGHBOR:
+        if (from == null && ((flags & OverlayCodec.FLAG_HIGH_PRIORITY) != 0
+            || active.size() < activeViewSize)) {
+          from = addActive(peer(sender));
+        }
+        send(OverlayCodec.NEIGHBOR_REPLY, from == null ? 0 : OverlayCodec.FLAG_ACCEPTED, 0,
+            null, Collections.emptyList(), from != null ? from : peer(sender));
+        break;
+      case OverlayCodec.NEIGHBOR_REPLY:
+        if (candidate != null && candidate.address.equals(sender)) {
+          candidate = null;
+        }
+        if (sender.equals(contact)) {
+          joined = true;
+        }
+        if ((flags & OverlayCodec.FLAG_ACCEPTED) != 0 && from == null) {
+          addActive(peer(sender));
+        }
+        break;
+      case OverlayCodec.DISCONNECT:
+        if (from != null) {
+          active.remove(from);
+          addPassive(from);
+        }
+        break;
+      case OverlayCodec.SHUFFLE:
+        shuffled(from);
+        break;
+      case OverlayCodec.SHUFFLE_REPLY:
+        integrate(shuffled);
+        shuffled = Collections.emptyList();
+        break;
+      case OverlayCodec.KEEP_ALIVE:
+        if (from == null) {
+          //It still thinks that we are linked, most likely since our disconnect got lost.
+          send(OverlayCodec.DISCONNECT, 0, null, Collections.emptyList(), peer(sender));
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  //Must be called while holding the lock.
+  private void join(Peer joiner) {
+    addActive(joiner);
+    send(OverlayCodec.NEIGHBOR_REPLY, OverlayCodec.FLAG_ACCEPTED, 0, null,
+        Collections.emptyList(), joiner);
+    for (Peer peer : active) {
+      if (peer != joiner) {
+        send(OverlayCodec.FORWARD_JOIN, ACTIVE_RANDOM_WALK, joiner, Collections.emptyList(),
+            peer);
+      }
+    }
+  }
+
+  //Must be called while holding the lock.
+  private void forwardJoin(String joiner) {
+    if (joiner == null || joiner.equals(me.address) || find(active, joiner) != null) {
+      return;
+    }
+    Peer next = ttl == 0 ? null : randomActiveExcept(sender, joiner);
+    if (next == null) {
+      //The end of the walk, or a dead end.
+      Peer peer = addActive(peer(joiner));
+      send(OverlayCodec.NEIGHBOR_REPLY, OverlayCodec.FLAG_ACCEPTED, 0, null,
+          Collections.emptyList(), peer);
+      return;
+    }
+    if (ttl == PASSIVE_RANDOM_WALK) {
+      addPassive(peer(joiner));
+    }
+    send(OverlayCodec.FORWARD_JOIN, ttl - 1, peer(joiner), Collections.emptyList(), next);
+  }
+
+  //Must be called while holding the lock.
+  private void shuffled(Peer from) {
+    if (subject == null || subject.equals(me.address)) {
+      return;
+    }
+    Peer next = ttl > 1 ? randomActiveExcept(sender, subject) : null;
+    if (next != null) {
+      List<Peer> sample = new ArrayList<>(addresses.size());
+      for (String address : addresses) {
+        sample.add(peer(address));
+      }
+      send(OverlayCodec.SHUFFLE, ttl - 1, peer(subject), sample, next);
+      return;
+    }
+    //Swap the sample for one of our own, as large as theirs.
+    List<Peer> reply = sample(passive, addresses.size());
+    send(OverlayCodec.SHUFFLE_REPLY, 0, null, reply, peer(subject));
+    integrate(reply);
+  }
+
+  /**
+   * Takes the addresses of the message at hand into our passive view, making room by dropping the
+   * given peers first (the ones that we just sent off), and random ones after that.
+   */
+  //Must be called while holding the lock.
+  private void integrate(List<Peer> sentOff) {
+    int next = 0;
+    for (String address : addresses) {
+      if (address.equals(me.address) || find(active, address) != null
+          || find(passive, address) != null) {
+        continue;
+      }
+      if (passive.size() >= passiveViewSize) {
+        boolean dropped = false;
+        while (!dropped && next < sentOff.size()) {
+          dropped = passive.remove(sentOff.get(next++));
+        }
+        if (!dropped) {
+          passive.remove(random.nextInt(passive.size()));
+        }
+      }
+      passive.add(new Peer(address));
+    }
+  }
+
+  /**
+   * @return - The peer, now in our active view. Makes room by moving a random active peer to our
+   * passive view, and letting it know.
+   */
+  //Must be called while holding the lock.
+  private Peer addActive(Peer peer) {
+    Peer existing = find(active, peer.address);
+    if (existing != null) {
+      return existing;
+    }
+    passive.remove(peer);
+    if (candidate != null && candidate.equals(peer)) {
+      candidate = null;
+    }
+    if (active.size() >= activeViewSize) {
+      Peer dropped = active.remove(random.nextInt(active.size()));
+      send(OverlayCodec.DISCONNECT, 0, null, Collections.emptyList(), dropped);
+      addPassive(dropped);
+    }
+    peer.lastHeard = timer.now();
+    active.add(peer);
+    return peer;
+  }
+
+  //Must be called while holding the lock.
+  private void addPassive(Peer peer) {
+    if (peer.equals(me) || active.contains(peer) || passive.contains(peer)) {
+      return;
+    }
+    if (passive.size() >= passiveViewSize) {
+      passive.remove(random.nextInt(passive.size()));
+    }
+    passive.add(peer);
+  }
+
+  /**
+   * @return - The peer with the given address, from our views if it is in there.
+   */
+  //Must be called while holding the lock.
+  private Peer peer(String address) {
+    Peer peer = find(active, address);
+    if (peer == null) {
+      peer = find(passive, address);
+    }
+    return peer != null ? peer : new Peer(address);
+  }
+
+  private static Peer find(List<Peer> view, String address) {
+    for (Peer peer : view) {
+      if (peer.address.equals(address)) {
+        return peer;
+      }
+    }
+    return null;
+  }
+
+  //Must be called while holding the lock.
+  private Peer randomActiveExcept(String first, String second) {
+    int offset = active.isEmpty() ? 0 : random.nextInt(active.size());
+    for (int i = 0; i < active.size(); i++) {
+      Peer peer = active.get((offset + i) % active.size());
+      if (!peer.address.equals(first) && !peer.address.equals(second)) {
+        return peer;
+      }
+    }
+    return null;
+  }
+
+  //Must be called while holding the lock.
+  private List<Peer> sample(List<Peer> view, int count) {
+    List<Peer> copy = new ArrayList<>(view);
+    Collections.shuffle(copy, random);
+    return copy.subList(0, Math.min(count, copy.size()));
+  }
+
+  //Must be called while holding the lock.
+  private boolean firstTime(String origin, int sequence) {
+    long id = MembershipCodec.fingerprint(origin.getBytes(StandardCharsets.UTF_8))
+        + sequence * 0x9E3779B97F4A7C15L;
+    return seen.put(id, Boolean.TRUE) == null;
+  }
+
+  //Must be called while holding the lock.
+  private void send(byte type, int ttl, Peer subject, List<Peer> peers, Peer to) {
+    send(type, (byte) 0, ttl, subject, peers, to);
+  }
+
+  //Must be called while holding the lock.
+  private void send(byte type, byte flags, int ttl, Peer subject, List<Peer> peers, Peer to) {
+    List<byte[]> encoded = new ArrayList<>(peers.size());
+    for (Peer peer : peers) {
+      encoded.add(peer.bytes);
+    }
+    sendBuffer.clear();
+    codec.encode(type, flags, me.bytes, ttl, subject == null ? null : subject.bytes,
+        encoded, sendBuffer);
+    sendBuffer.flip();
+    send(to);
+  }
+
+  //Must be called while holding the lock.
+  private void send(Peer to) {
+    try {
+      transport.send(sendBuffer, to.getSocketAddress());
+    } catch (IOException | RuntimeException e) {
+      //Neither a host we can't resolve, nor a misbehaving transport, should stop the overlay.
+      log.debug("{} could not send to {} : {}", me.address, to.address, e.getMessage());
+    }
+  }
+
+  private static List<String> addressesOf(List<Peer> view) {
+    List<String> addresses = new ArrayList<>(view.size());
+    for (Peer peer : view) {
+      addresses.add(peer.address);
+    }
+    return addresses;
+  }
+
+  @Override
+  public String toString() {
+    return me.address + " active=" + getActiveView() + " passive=" + getPassiveView();
+  }
+
+  /**
+   * A node of the overlay, as far as the views of another node go.
+   */
+  private static final class Peer {
+
+    private final String address;
+    private final byte[] bytes;
+    private final int port;
+    private InetSocketAddress socketAddress;
+    //When we last heard from it, while it is in our active view.
+    private long lastHeard;
+
+    Peer(String address) {
+      this.address = address;
+      this.bytes = address.getBytes(StandardCharsets.UTF_8);
+      this.port = portOf(address);
+      if (port < 0) {
+        throw new IllegalArgumentException("Not a host:port address : " + address);
+      }
+    }
+
+    /**
+     * @return - The port of an address in the form host:port, or -1 if it is not in that form.
+     */
+    static int portOf(String address) {
+      int colon = address.lastIndexOf(':');
+      if (colon < 0) {
+        return -1;
+      }
+      try {
+        int port = Integer.parseInt(address.substring(colon + 1));
+        return port <= 0xFFFF ? port : -1;
+      } catch (NumberFormatException e) {
+        return -1;
+      }
+    }
+
+    /**
+     * Like {@link Member}, every node runs on this host for now, and is told apart by its port.
+     */
+    InetSocketAddress getSocketAddress() throws UnknownHostException {
+      if (socketAddress == null) {
+        socketAddress = new InetSocketAddress(InetAddress.getLocalHost(), port);
+      }
+      return socketAddress;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof Peer && ((Peer) other).address.equals(address);
+    }
+
+    @Override
+    public int hashCode() {
+      return address.hashCode();
+    }
+  }
+}
@@ -5,7 +5,12 @@ public class Main {
   //https://github.com/ympons/gossip-protocol-java
   public static void main(String[] args) throws Exception {
     ClientImpl client = new ClientImpl("");
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      client.stop();
+      System.out.println("Goodbye my friends...");
+    }));
     client.start();
+    client.awaitTermination();
   }
 
 }
@@ -1,7 +1,11 @@
 package com.rationaleemotions.gossip;
 
 import java.io.Serializable;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import javax.management.NotificationListener;
 
 public class Member implements Serializable {
@@ -13,20 +17,71 @@ public class Member implements Serializable {
    */
   private final String nickName;
 
-  private int heartbeat;
+  private static final AtomicLongFieldUpdater<Member> VERSION =
+      AtomicLongFieldUpdater.newUpdater(Member.class, "version");
+
+  /**
+   * The generation in the upper 32 bits and the heartbeat in the lower 32 bits, so that both are
+   * always updated together, and a newer version is simply a larger (unsigned) number.
+   * <p>
+   * The generation tells apart two runs of the same member. A member that restarts comes back with
+   * a larger generation, and starts counting its heartbeat from scratch.
+   */
+  private volatile long version;
+
+  private volatile MemberStatus status = MemberStatus.ALIVE;
 
   private final transient TimeoutTimer timeoutTimer;
 
+  //The UTF-8 encoding of the address, as it goes on the wire.
+  private transient byte[] addressBytes;
+
+  //Stands in for the address in digests.
+  private final transient long fingerprint;
+
+  //Where datagrams for this member go. Resolved on first use.
+  private transient InetSocketAddress socketAddress;
+
   public Member(String nickName, int heartbeat, NotificationListener client, int t_cleanup) {
+    this(nickName, heartbeat, 0, client, t_cleanup);
+  }
+
+  public Member(String nickName, int heartbeat, int generation, NotificationListener client,
+      int t_cleanup) {
+    this(nickName, heartbeat, generation, client, FailureDetector.fixed(t_cleanup));
+  }
+
+  public Member(String nickName, int heartbeat, int generation, NotificationListener client,
+      FailureDetector detector) {
+    this(nickName, heartbeat, generation, client, detector, HashedWheelTimer.shared());
+  }
+
+  /**
+   * @param wheel - Times the member out.
+   */
+  public Member(String nickName, int heartbeat, int generation, NotificationListener client,
+      FailureDetector detector, HashedWheelTimer wheel) {
     this.nickName = nickName;
-    this.heartbeat = heartbeat;
-    this.timeoutTimer = new TimeoutTimer(t_cleanup, client, this);
+    this.version = versionOf(generation, heartbeat);
+    this.fingerprint = MembershipCodec.fingerprint(getAddressBytes());
+    this.timeoutTimer = new TimeoutTimer(detector, client, this, wheel);
   }
 
   public void startTimeoutTimer() {
     this.timeoutTimer.start();
   }
 
+  public void stopTimeoutTimer() {
+    this.timeoutTimer.stop();
+  }
+
+  /**
+   * @return - When we last heard from the member, as per the clock of its timer (in ms).
+   */
+  public long getLastHeard() {
+    return timeoutTimer.getLastHeard();
+  }
+
   public void resetTimeoutTimer() {
     this.timeoutTimer.reset();
   }
@@ -36,16 +91,95 @@ public class Member implements Serializable {
   }
 
   public int getHeartbeat() {
-    return heartbeat;
+    return (int) version;
   }
 
   public void setHeartbeat(int heartbeat) {
-    this.heartbeat = heartbeat;
+    long current;
+    do {
+      current = version;
+    } while (!VERSION.compareAndSet(this, current, versionOf((int) (current >>> 32), heartbeat)));
+  }
+
+  public int getGeneration() {
+    return (int) (version >>> 32);
+  }
+
+  public void setGeneration(int generation) {
+    long current;
+    do {
+      current = version;
+    } while (!VERSION.compareAndSet(this, current, versionOf(generation, (int) current)));
+  }
+
+  /**
+   * @return - The generation and the heartbeat as a single number, which only ever grows (when
+   * compared as an unsigned number).
+   */
+  long getVersion() {
+    return version;
+  }
+
+  /**
+   * Takes on the given generation and heartbeat, but only if they are newer than what we have. A
+   * larger generation always wins, and heartbeats only matter within the same generation.
+   *
+   * @return - <code>true</code> if this member was updated.
+   */
+  public boolean updateIfNewer(int generation, int heartbeat) {
+    return updateIfNewer(versionOf(generation, heartbeat));
+  }
+
+  boolean updateIfNewer(long update) {
+    long current;
+    do {
+      current = version;
+      if (Long.compareUnsigned(update, current) <= 0) {
+        return false;
+      }
+    } while (!VERSION.compareAndSet(this, current, update));
+    return true;
+  }
+
+  public MemberStatus getStatus() {
+    return status;
+  }
+
+  //Only the membership table changes the status, so that its snapshots stay in step.
+  void setStatus(MemberStatus status) {
+    this.status = status;
+  }
+
+  static long versionOf(int generation, int heartbeat) {
+    return ((long) generation << 32) | (heartbeat & 0xFFFFFFFFL);
+  }
+
+  byte[] getAddressBytes() {
+    if (addressBytes == null) {
+      addressBytes = nickName.getBytes(StandardCharsets.UTF_8);
+    }
+    return addressBytes;
+  }
+
+  long getFingerprint() {
+    return fingerprint;
+  }
+
+  /**
+   * All members run on this host for now, and are told apart by the port in their address.
+   */
+  InetSocketAddress getSocketAddress() throws UnknownHostException {
+    if (socketAddress == null) {
+      int port = Integer.parseInt(nickName.substring(nickName.lastIndexOf(':') + 1));
+      socketAddress = new InetSocketAddress(InetAddress.getLocalHost(), port);
+    }
+    return socketAddress;
   }
 
   @Override
   public String toString() {
-    return "[address=" + nickName + ", heartbeat=" + heartbeat + "]";
+    return "[address=" + nickName + ", heartbeat=" + getHeartbeat() + ", generation="
+        + getGeneration() + ", status=" + status + "]";
   }
 
   /* (non-Javadoc)
@@ -0,0 +1,39 @@
+package com.rationaleemotions.gossip;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * A member that a client declared dead.
+ */
+@Name("com.rationaleemotions.gossip.MemberFailure")
+@Label("Member Failure")
+@Category({"Distributed Systems", "Gossip"})
+final class MemberFailureEvent extends jdk.jfr.Event {
+
+  @Label("Client")
+  String client;
+
+  @Label("Member")
+  String member;
+
+  @Label("Time To Detect")
+  @Timespan(Timespan.MILLISECONDS)
+  long timeToDetect;
+
+  @Label("Detected By")
+  String detectedBy;
+
+  static void emit(String client, Member member, long timeToDetect, String detectedBy) {
+    MemberFailureEvent event = new MemberFailureEvent();
+    if (event.shouldCommit()) {
+      event.client = client;
+      event.member = member.getNickName();
+      event.timeToDetect = timeToDetect;
+      event.detectedBy = detectedBy;
+      event.commit();
+    }
+  }
+}
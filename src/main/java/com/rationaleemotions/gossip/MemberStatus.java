@@ -0,0 +1,19 @@
+package com.rationaleemotions.gossip;
+
+/**
+ * Where a member stands, as far as this client can tell.
+ */
+public enum MemberStatus {
+  /**
+   * We have heard from the member recently.
+   */
+  ALIVE,
+  /**
+   * We have not heard from the member for a while, but have not given up on it yet.
+   */
+  SUSPECT,
+  /**
+   * We timed the member out. It comes back to life when we hear a newer heartbeat from it.
+   */
+  DEAD
+}
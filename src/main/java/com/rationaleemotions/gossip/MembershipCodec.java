@@ -0,0 +1,599 @@
+package com.rationaleemotions.gossip;
+
+import java.io.StreamCorruptedException;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * A compact binary format for gossip messages, that replaces Java serialization on the wire. A
+ * membership message looks like this (all numbers are unsigned LEB128 varints unless noted
+ * otherwise):
+ * <pre>
+ *   magic          1 byte ('G')
+ *   version        1 byte
+ *   type           1 byte
+ *   flags          1 byte
+ *   [string table] count, followed by count x (length, UTF-8 bytes)  - only with FLAG_STRING_TABLE
+ *   member count
+ *   members        count x (address, heartbeat, generation)
+ * </pre>
+ * An address is either an index into the string table, or (without a string table) its length
+ * followed by its UTF-8 bytes. A member typically takes up a little more than the length of its
+ * address, so a single datagram carries hundreds of members.
+ * <p>
+ * A digest message shares the header, and then identifies members by the (8 byte, big endian)
+ * fingerprint of their address rather than by the address itself:
+ * <pre>
+ *   [range]        from, to (8 bytes each)  - only without FLAG_REQUEST
+ *   entry count
+ *   entries        count x (fingerprint, heartbeat, generation), in ascending fingerprint order
+ * </pre>
+ * A digest covers every member whose fingerprint falls within its range, so a member that is
+ * missing from it is one that the sender has never heard of. A request (a digest with
+ * FLAG_REQUEST) covers nothing but its own entries.
+ * <p>
+ * The messages of a {@link HyParView} overlay share the header as well, see {@link OverlayCodec}.
+ * <p>
+ * Both directions work straight against a {@link ByteBuffer}. An instance keeps scratch space and
+ * a cache of the addresses that it has decoded so far around, so decoding a message about known
+ * members allocates nothing. It is hence not thread-safe and should not be shared between threads.
+ */
+public final class MembershipCodec {
+
+  /**
+   * The largest message that we ever put on the wire, which is well within what a single UDP
+   * datagram can carry.
+   */
+  public static final int MAX_MESSAGE_SIZE = 8192;
+
+  //IPv4 (20 bytes) and UDP (8 bytes) headers.
+  private static final int DATAGRAM_OVERHEAD = 28;
+  //A datagram of this size is never fragmented on an IPv4 network (576 byte minimum reassembly
+  //buffer).
+  private static final int MIN_MESSAGE_SIZE = 576 - DATAGRAM_OVERHEAD;
+  //Payload of a datagram on a plain ethernet network, for when we cannot tell the MTU.
+  static final int DEFAULT_MESSAGE_SIZE = 1500 - DATAGRAM_OVERHEAD;
+
+  public static final byte VERSION = 1;
+
+  /**
+   * A (full or partial) membership list.
+   */
+  public static final byte MEMBERSHIP = 1;
+
+  /**
+   * The fingerprints and versions of members, see {@link AntiEntropy}.
+   */
+  public static final byte DIGEST = 2;
+
+  /**
+   * A direct probe, that the receiver acks.
+   */
+  public static final byte PING = 3;
+
+  /**
+   * Asks the receiver to probe a member on our behalf.
+   */
+  public static final byte PING_REQ = 4;
+
+  /**
+   * The answer to a probe.
+   */
+  public static final byte ACK = 5;
+
+  /**
+   * Addresses are sent once in a string table and referred to by their index.
+   */
+  public static final byte FLAG_STRING_TABLE = 1;
+
+  /**
+   * The digest lists members that the sender wants to hear about.
+   */
+  public static final byte FLAG_REQUEST = 2;
+
+  private static final byte MAGIC = 'G';
+  static final int HEADER_SIZE = 4;
+  //The largest possible varint for a count, that we reserve room for up front.
+  static final int MAX_VARINT_SIZE = 5;
+
+  /**
+   * Receives the members of a message as they are decoded.
+   */
+  @FunctionalInterface
+  public interface MemberVisitor {
+
+    void visit(String address, int heartbeat, int generation);
+  }
+
+  /**
+   * Receives the entries of a digest as they are decoded.
+   */
+  public interface DigestVisitor {
+
+    /**
+     * Invoked ahead of the entries.
+     *
+     * @param from    - The smallest fingerprint that the digest covers.
+     * @param to      - The largest fingerprint that the digest covers.
+     * @param request - Whether this is a request, in which case the range is empty.
+     */
+    void begin(long from, long to, boolean request);
+
+    void visit(long fingerprint, int heartbeat, int generation);
+  }
+
+  /**
+   * Receives a probe, and then the updates that it carries, as they are decoded.
+   */
+  public interface ProbeVisitor {
+
+    /**
+     * @param type     - One of {@link #PING}, {@link #PING_REQ} or {@link #ACK}.
+     * @param sequence - Tells apart the probes of the sender.
+     * @param target   - The member to probe, for a ping-req. <code>null</code> otherwise.
+     */
+    void visit(byte type, int sequence, String target);
+
+    void update(String address, MemberStatus status, int heartbeat, int generation);
+  }
+
+  private static final MemberStatus[] STATUSES = MemberStatus.values();
+
+  private final AddressDecoder addresses = new AddressDecoder();
+  private String[] strings = new String[64];
+
+  /**
+   * Works out the largest message that can travel from the given address without being
+   * fragmented, from the MTU of the interface that it belongs to.
+   *
+   * @param address - A local address.
+   * @return - The largest payload of a datagram, capped at {@link #MAX_MESSAGE_SIZE}.
+   */
+  public static int maxMessageSizeFor(InetAddress address) {
+    try {
+      NetworkInterface networkInterface = NetworkInterface.getByInetAddress(address);
+      if (networkInterface == null || networkInterface.getMTU() <= 0) {
+        return DEFAULT_MESSAGE_SIZE;
+      }
+      int payload = networkInterface.getMTU() - DATAGRAM_OVERHEAD;
+      return Math.max(MIN_MESSAGE_SIZE, Math.min(MAX_MESSAGE_SIZE, payload));
+    } catch (SocketException e) {
+      return DEFAULT_MESSAGE_SIZE;
+    }
+  }
+
+  /**
+   * @return - A 64-bit fingerprint of the given (UTF-8 encoded) address, that stands in for it in
+   * digests. It is the same on every JVM.
+   */
+  public static long fingerprint(byte[] address) {
+    //FNV-1a, followed by the murmur3 finalizer to spread the bits around.
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : address) {
+      hash ^= b & 0xFF;
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+  /**
+   * Checks the header of the message that sits at the position of the buffer, without consuming
+   * anything.
+   *
+   * @return - The type of the message.
+   * @throws StreamCorruptedException - When the buffer does not hold a message of ours.
+   */
+  public static byte typeOf(ByteBuffer buffer) throws StreamCorruptedException {
+    int position = buffer.position();
+    if (buffer.remaining() < HEADER_SIZE || buffer.get(position) != MAGIC) {
+      throw new StreamCorruptedException("Not a gossip message");
+    }
+    byte version = buffer.get(position + 1);
+    if (version != VERSION) {
+      throw new StreamCorruptedException("Unsupported version " + version);
+    }
+    return buffer.get(position + 2);
+  }
+
+  /**
+   * @return - The name of the given message type, e.g., for events.
+   */
+  public static String nameOf(byte type) {
+    switch (type) {
+      case MEMBERSHIP:
+        return "MEMBERSHIP";
+      case DIGEST:
+        return "DIGEST";
+      case PING:
+        return "PING";
+      case PING_REQ:
+        return "PING_REQ";
+      case ACK:
+        return "ACK";
+      case OverlayCodec.JOIN:
+        return "JOIN";
+      case OverlayCodec.FORWARD_JOIN:
+        return "FORWARD_JOIN";
+      case OverlayCodec.NEIGHBOR:
+        return "NEIGHBOR";
+      case OverlayCodec.NEIGHBOR_REPLY:
+        return "NEIGHBOR_REPLY";
+      case OverlayCodec.DISCONNECT:
+        return "DISCONNECT";
+      case OverlayCodec.SHUFFLE:
+        return "SHUFFLE";
+      case OverlayCodec.SHUFFLE_REPLY:
+        return "SHUFFLE_REPLY";
+      case OverlayCodec.KEEP_ALIVE:
+        return "KEEP_ALIVE";
+      case OverlayCodec.BROADCAST:
+        return "BROADCAST";
+      default:
+        return "UNKNOWN(" + type + ")";
+    }
+  }
+
+  /**
+   * Writes as many members as fit into the remaining space of the buffer, starting from the given
+   * member.
+   *
+   * @param members     - The members to write.
+   * @param from        - The index of the first member to write.
+   * @param buffer      - The buffer to write to.
+   * @param stringTable - Whether the addresses should go into a string table.
+   * @return - The index of the first member that was not written, which equals the number of
+   * members when all of them fit.
+   */
+  public int encode(List<Member> members, int from, ByteBuffer buffer, boolean stringTable) {
+    //First work out how many members fit, since the counts go ahead of the members.
+    int available = buffer.remaining() - HEADER_SIZE - 2 * MAX_VARINT_SIZE;
+    int to = from;
+    for (; to < members.size(); to++) {
+      Member member = members.get(to);
+      int length = member.getAddressBytes().length;
+      int size = varintSize(length) + length
+          + varintSize(member.getHeartbeat()) + varintSize(member.getGeneration())
+          + (stringTable ? varintSize(to - from) : 0);
+      if (size > available) {
+        break;
+      }
+      available -= size;
+    }
+    if (to == from && from < members.size()) {
+      throw new IllegalArgumentException(
+          "Buffer is too small for member " + members.get(from).getNickName());
+    }
+
+    putHeader(buffer, MEMBERSHIP, stringTable ? FLAG_STRING_TABLE : 0);
+    if (stringTable) {
+      putVarint(buffer, to - from);
+      for (int i = from; i < to; i++) {
+        putBytes(buffer, members.get(i).getAddressBytes());
+      }
+    }
+    putVarint(buffer, to - from);
+    for (int i = from; i < to; i++) {
+      Member member = members.get(i);
+      if (stringTable) {
+        putVarint(buffer, i - from);
+      } else {
+        putBytes(buffer, member.getAddressBytes());
+      }
+      putVarint(buffer, member.getHeartbeat());
+      putVarint(buffer, member.getGeneration());
+    }
+    return to;
+  }
+
+  /**
+   * Decodes the message that sits between the position and the limit of the buffer.
+   *
+   * @param buffer  - The buffer to read from.
+   * @param visitor - Receives every member of the message.
+   * @return - The number of members in the message.
+   * @throws StreamCorruptedException - When the buffer does not hold a valid message.
+   */
+  public int decode(ByteBuffer buffer, MemberVisitor visitor) throws StreamCorruptedException {
+    try {
+      if (buffer.get() != MAGIC) {
+        throw new StreamCorruptedException("Not a gossip message");
+      }
+      byte version = buffer.get();
+      if (version != VERSION) {
+        throw new StreamCorruptedException("Unsupported version " + version);
+      }
+      byte type = buffer.get();
+      if (type != MEMBERSHIP) {
+        throw new StreamCorruptedException("Unsupported message type " + type);
+      }
+      boolean stringTable = (buffer.get() & FLAG_STRING_TABLE) != 0;
+      int stringCount = 0;
+      if (stringTable) {
+        stringCount = checkedCount(buffer);
+        if (strings.length < stringCount) {
+          strings = new String[stringCount];
+        }
+        for (int i = 0; i < stringCount; i++) {
+          strings[i] = addresses.read(buffer);
+        }
+      }
+      int count = checkedCount(buffer);
+      for (int i = 0; i < count; i++) {
+        String address;
+        if (stringTable) {
+          int index = getVarint(buffer);
+          if (index < 0 || index >= stringCount) {
+            throw new StreamCorruptedException("No string at index " + index);
+          }
+          address = strings[index];
+        } else {
+          address = addresses.read(buffer);
+        }
+        visitor.visit(address, getVarint(buffer), getVarint(buffer));
+      }
+      return count;
+    } catch (BufferUnderflowException e) {
+      throw new StreamCorruptedException("Truncated gossip message");
+    }
+  }
+
+  /**
+   * Writes a digest of as many members as fit into the remaining space of the buffer, starting
+   * from the given member. The digest covers everything from the fingerprint of the given member
+   * (or from the smallest fingerprint, when starting out) up to the fingerprint of the first
+   * member that did not fit (or up to the largest fingerprint, when all of them fit).
+   *
+   * @param members - The members to write, sorted by their fingerprint.
+   * @param from    - The index of the first member to write.
+   * @param buffer  - The buffer to write to.
+   * @return - The index of the first member that was not written, which equals the number of
+   * members when all of them fit.
+   */
+  public int encodeDigest(Member[] members, int from, ByteBuffer buffer) {
+    int available = buffer.remaining() - HEADER_SIZE - 2 * Long.BYTES - MAX_VARINT_SIZE;
+    int to = from;
+    for (; to < members.length; to++) {
+      int size = digestEntrySize(members[to].getVersion());
+      if (size > available) {
+        break;
+      }
+      available -= size;
+    }
+    checkProgress(from, to, members.length);
+
+    putHeader(buffer, DIGEST, (byte) 0);
+    buffer.putLong(from == 0 ? Long.MIN_VALUE : members[from].getFingerprint());
+    buffer.putLong(to == members.length ? Long.MAX_VALUE : members[to].getFingerprint() - 1);
+    putVarint(buffer, to - from);
+    for (int i = from; i < to; i++) {
+      putDigestEntry(buffer, members[i].getFingerprint(), members[i].getVersion());
+    }
+    return to;
+  }
+
+  /**
+   * Writes a request for as many of the given entries as fit into the remaining space of the
+   * buffer, starting from the given entry.
+   *
+   * @param fingerprints - The fingerprints of the members that we want to hear about.
+   * @param versions     - The versions that we have of those members (see
+   *                     {@link Member#getVersion()}), zero for those that we do not know.
+   * @param from         - The index of the first entry to write.
+   * @param count        - The number of entries.
+   * @param buffer       - The buffer to write to.
+   * @return - The index of the first entry that was not written, which equals the count when all
+   * of them fit.
+   */
+  public int encodeRequest(long[] fingerprints, long[] versions, int from, int count,
+      ByteBuffer buffer) {
+    int available = buffer.remaining() - HEADER_SIZE - MAX_VARINT_SIZE;
+    int to = from;
+    for (; to < count; to++) {
+      int size = digestEntrySize(versions[to]);
+      if (size > available) {
+        break;
+      }
+      available -= size;
+    }
+    checkProgress(from, to, count);
+
+    putHeader(buffer, DIGEST, FLAG_REQUEST);
+    putVarint(buffer, to - from);
+    for (int i = from; i < to; i++) {
+      putDigestEntry(buffer, fingerprints[i], versions[i]);
+    }
+    return to;
+  }
+
+  /**
+   * Decodes the digest that sits between the position and the limit of the buffer.
+   *
+   * @param buffer  - The buffer to read from.
+   * @param visitor - Receives every entry of the digest.
+   * @return - The number of entries in the digest.
+   * @throws StreamCorruptedException - When the buffer does not hold a valid digest.
+   */
+  public int decodeDigest(ByteBuffer buffer, DigestVisitor visitor)
+      throws StreamCorruptedException {
+    try {
+      if (typeOf(buffer) != DIGEST) {
+        throw new StreamCorruptedException("Not a digest");
+      }
+      buffer.position(buffer.position() + HEADER_SIZE - 1);
+      boolean request = (buffer.get() & FLAG_REQUEST) != 0;
+      if (request) {
+        visitor.begin(0, -1, true);
+      } else {
+        visitor.begin(buffer.getLong(), buffer.getLong(), false);
+      }
+      int count = checkedCount(buffer);
+      long previous = Long.MIN_VALUE;
+      for (int i = 0; i < count; i++) {
+        long fingerprint = buffer.getLong();
+        if (fingerprint < previous) {
+          throw new StreamCorruptedException("Digest is out of order");
+        }
+        previous = fingerprint;
+        visitor.visit(fingerprint, getVarint(buffer), getVarint(buffer));
+      }
+      return count;
+    } catch (BufferUnderflowException e) {
+      throw new StreamCorruptedException("Truncated gossip message");
+    }
+  }
+
+  /**
+   * Writes a probe, along with as many of the given updates as fit into the remaining space of
+   * the buffer. An update carries the current status and version of the member.
+   *
+   * @param type     - One of {@link #PING}, {@link #PING_REQ} or {@link #ACK}.
+   * @param sequence - Tells apart the probes of the sender.
+   * @param target   - The member to probe, for a ping-req. Ignored otherwise.
+   * @param updates  - The members to piggyback on the probe.
+   * @param buffer   - The buffer to write to.
+   * @return - The number of updates that were written.
+   */
+  public int encodeProbe(byte type, int sequence, Member target, List<Member> updates,
+      ByteBuffer buffer) {
+    putHeader(buffer, type, (byte) 0);
+    putVarint(buffer, sequence);
+    if (type == PING_REQ) {
+      putBytes(buffer, target.getAddressBytes());
+    }
+    int available = buffer.remaining() - MAX_VARINT_SIZE;
+    int count = 0;
+    for (; count < updates.size(); count++) {
+      Member member = updates.get(count);
+      int length = member.getAddressBytes().length;
+      int size = varintSize(length) + length + 1
+          + varintSize(member.getHeartbeat()) + varintSize(member.getGeneration());
+      if (size > available) {
+        break;
+      }
+      available -= size;
+    }
+    putVarint(buffer, count);
+    for (int i = 0; i < count; i++) {
+      Member member = updates.get(i);
+      //Read the version once, so that the heartbeat and the generation belong together.
+      long version = member.getVersion();
+      putBytes(buffer, member.getAddressBytes());
+      buffer.put((byte) member.getStatus().ordinal());
+      putVarint(buffer, (int) version);
+      putVarint(buffer, (int) (version >>> 32));
+    }
+    return count;
+  }
+
+  /**
+   * Decodes the probe that sits between the position and the limit of the buffer.
+   *
+   * @param buffer  - The buffer to read from.
+   * @param visitor - Receives the probe, and then every update that it carries.
+   * @return - The number of updates in the probe.
+   * @throws StreamCorruptedException - When the buffer does not hold a valid probe.
+   */
+  public int decodeProbe(ByteBuffer buffer, ProbeVisitor visitor)
+      throws StreamCorruptedException {
+    try {
+      byte type = typeOf(buffer);
+      if (type != PING && type != PING_REQ && type != ACK) {
+        throw new StreamCorruptedException("Not a probe");
+      }
+      buffer.position(buffer.position() + HEADER_SIZE);
+      int sequence = getVarint(buffer);
+      String target = type == PING_REQ ? addresses.read(buffer) : null;
+      visitor.visit(type, sequence, target);
+      int count = checkedCount(buffer);
+      for (int i = 0; i < count; i++) {
+        String address = addresses.read(buffer);
+        int status = buffer.get();
+        if (status < 0 || status >= STATUSES.length) {
+          throw new StreamCorruptedException("Unknown status " + status);
+        }
+        visitor.update(address, STATUSES[status], getVarint(buffer), getVarint(buffer));
+      }
+      return count;
+    } catch (BufferUnderflowException e) {
+      throw new StreamCorruptedException("Truncated gossip message");
+    }
+  }
+
+  private static int digestEntrySize(long version) {
+    return Long.BYTES + varintSize((int) version) + varintSize((int) (version >>> 32));
+  }
+
+  private static void putDigestEntry(ByteBuffer buffer, long fingerprint, long version) {
+    buffer.putLong(fingerprint);
+    putVarint(buffer, (int) version);
+    putVarint(buffer, (int) (version >>> 32));
+  }
+
+  private static void checkProgress(int from, int to, int count) {
+    if (to == from && from < count) {
+      throw new IllegalArgumentException("Buffer is too small for a single entry");
+    }
+  }
+
+  /**
+   * Reads a count, and sanity checks it against the size of the message, since every counted item
+   * takes up at least one byte.
+   */
+  static int checkedCount(ByteBuffer buffer) throws StreamCorruptedException {
+    int count = getVarint(buffer);
+    if (count < 0 || count > buffer.remaining()) {
+      throw new StreamCorruptedException("Count " + count + " overruns the message");
+    }
+    return count;
+  }
+
+  static void putBytes(ByteBuffer buffer, byte[] bytes) {
+    putVarint(buffer, bytes.length);
+    buffer.put(bytes);
+  }
+
+  /**
+   * Writes the header of a message.
+   */
+  static void putHeader(ByteBuffer buffer, byte type, byte flags) {
+    buffer.put(MAGIC).put(VERSION).put(type).put(flags);
+  }
+
+  static void putVarint(ByteBuffer buffer, int value) {
+    while ((value & ~0x7F) != 0) {
+      buffer.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+
+  static int getVarint(ByteBuffer buffer) throws StreamCorruptedException {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      byte b = buffer.get();
+      value |= (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+    throw new StreamCorruptedException("Malformed varint");
+  }
+
+  static int varintSize(int value) {
+    int size = 1;
+    while ((value & ~0x7F) != 0) {
+      value >>>= 7;
+      size++;
+    }
+    return size;
+  }
+}
@@ -0,0 +1,51 @@
+package com.rationaleemotions.gossip;
+
+/**
+ * A change in who is part of the cluster, as far as a client can tell. Suspicion is not a change:
+ * a suspect member is still part of the cluster until it is declared dead.
+ */
+public final class MembershipEvent {
+
+  public enum Type {
+    /**
+     * We heard of a member for the first time.
+     */
+    JOINED,
+    /**
+     * A member was declared dead.
+     */
+    LEFT,
+    /**
+     * A member that was declared dead came back to life.
+     */
+    RECOVERED
+  }
+
+  private final Type type;
+  private final Member member;
+
+  public MembershipEvent(Type type, Member member) {
+    this.type = type;
+    this.member = member;
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  public Member getMember() {
+    return member;
+  }
+
+  /**
+   * @return - Whether the member is part of the cluster after this event.
+   */
+  public boolean isLive() {
+    return type != Type.LEFT;
+  }
+
+  @Override
+  public String toString() {
+    return type + " " + member.getNickName();
+  }
+}
@@ -0,0 +1,18 @@
+package com.rationaleemotions.gossip;
+
+import java.util.List;
+
+/**
+ * Hears of members joining, leaving and coming back, see {@link ClientImpl#addMembershipListener}.
+ */
+@FunctionalInterface
+public interface MembershipListener {
+
+  /**
+   * Invoked on the timer thread of the client, so implementations should return quickly.
+   *
+   * @param events - Every change since the last invocation, at most one per member. A member that
+   *               left and came back in between (or the other way around) has no event at all.
+   */
+  void membershipChanged(List<MembershipEvent> events);
+}
@@ -0,0 +1,278 @@
+package com.rationaleemotions.gossip;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Every member that we know of, keyed by address. Members are never removed, they only change
+ * their {@link MemberStatus}.
+ * <p>
+ * Looking up a member is a single hash lookup, and updating the heartbeat of a known member takes
+ * no lock at all (see {@link Member#updateIfNewer(int, int)}). Only a change in the membership
+ * itself (a member joining, or changing its status) takes the lock, and rebuilds the array
+ * snapshots that senders read without locking. Those changes are rare compared to heartbeats.
+ */
+public final class MembershipTable {
+
+  private static final Member[] NONE = new Member[0];
+
+  private final ConcurrentMap<String, Member> index = new ConcurrentHashMap<>();
+
+  //The address of this client, which is never picked as a peer.
+  private final String self;
+
+  //Copy-on-write snapshots, rebuilt whenever a member joins or changes its status.
+  private volatile Member[] all = NONE;
+  //Every member we know of, sorted by the fingerprint of its address. Only changes on a join.
+  private volatile Member[] byFingerprint = NONE;
+  //Every member that is not dead, ourselves included. This is what we gossip about.
+  private volatile Member[] live = NONE;
+  //Every member that is not dead, except ourselves. This is who we gossip with.
+  private volatile Member[] peers = NONE;
+  //How many joins and status changes there have been so far.
+  private volatile long changes;
+  //Told of every join and status change, once changes are being recorded.
+  private volatile Runnable changeObserver;
+  //Guarded by this. The status of every member that changed since the last drain, as it was
+  //before the first of those changes. null for a member that had not joined yet.
+  private final Map<String, MemberStatus> pendingChanges = new LinkedHashMap<>();
+
+  public MembershipTable(String self) {
+    this.self = self;
+  }
+
+  /**
+   * @return - The member with the given address, or <code>null</code> if we have never heard of it.
+   */
+  public Member get(String address) {
+    return index.get(address);
+  }
+
+  /**
+   * @return - The member whose address has the given fingerprint, or <code>null</code> if we have
+   * never heard of it.
+   */
+  public Member get(long fingerprint) {
+    Member[] members = byFingerprint;
+    int index = lowerBound(members, fingerprint);
+    if (index < members.length && members[index].getFingerprint() == fingerprint) {
+      return members[index];
+    }
+    return null;
+  }
+
+  /**
+   * Adds the given member, unless we already know of a member with the same address.
+   *
+   * @return - The member that was already there, or <code>null</code> if the given member was
+   * added.
+   */
+  public Member putIfAbsent(Member member) {
+    Member existing = index.get(member.getNickName());
+    if (existing != null) {
+      return existing;
+    }
+    synchronized (this) {
+      existing = index.putIfAbsent(member.getNickName(), member);
+      if (existing == null) {
+        Member[] grown = Arrays.copyOf(all, all.length + 1);
+        grown[all.length] = member;
+        all = grown;
+        byFingerprint = insertSorted(byFingerprint, member);
+        refresh();
+        record(member, null);
+      }
+      return existing;
+    }
+  }
+
+  /**
+   * Moves the given member to the given status.
+   *
+   * @return - <code>true</code> if the status changed.
+   */
+  public boolean setStatus(Member member, MemberStatus status) {
+    if (member.getStatus() == status) {
+      return false;
+    }
+    synchronized (this) {
+      if (member.getStatus() == status) {
+        return false;
+      }
+      MemberStatus previous = member.getStatus();
+      member.setStatus(status);
+      refresh();
+      record(member, previous);
+      return true;
+    }
+  }
+
+  /**
+   * Picks a random member to gossip with, in constant time and without allocating.
+   *
+   * @return - A member other than ourselves that is not dead, or <code>null</code> if there is none.
+   */
+  public Member randomPeer(Random random) {
+    Member[] candidates = peers;
+    if (candidates.length == 0) {
+      return null;
+    }
+    return candidates[random.nextInt(candidates.length)];
+  }
+
+  /**
+   * @return - Every member that is not dead, ourselves included. Callers must not modify the array.
+   */
+  public Member[] live() {
+    return live;
+  }
+
+  /**
+   * @return - Every member that is not dead, except ourselves. Callers must not modify the array.
+   */
+  public Member[] peers() {
+    return peers;
+  }
+
+  /**
+   * @return - Every member we know of, whatever its status. Callers must not modify the array.
+   */
+  public Member[] all() {
+    return all;
+  }
+
+  /**
+   * @return - Every member we know of, whatever its status, sorted by the fingerprint of its
+   * address. Callers must not modify the array.
+   */
+  public Member[] byFingerprint() {
+    return byFingerprint;
+  }
+
+  /**
+   * @return - The index of the first of the given members (sorted by fingerprint) whose
+   * fingerprint is equal to or larger than the given one.
+   */
+  static int lowerBound(Member[] members, long fingerprint) {
+    int low = 0;
+    int high = members.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (members[middle].getFingerprint() < fingerprint) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @return - A copy of the members that currently have the given status.
+   */
+  public List<Member> withStatus(MemberStatus status) {
+    List<Member> members = new ArrayList<>();
+    for (Member member : all) {
+      if (member.getStatus() == status) {
+        members.add(member);
+      }
+    }
+    return Collections.unmodifiableList(members);
+  }
+
+  public int size() {
+    return all.length;
+  }
+
+  private static Member[] insertSorted(Member[] members, Member member) {
+    int index = lowerBound(members, member.getFingerprint());
+    Member[] grown = new Member[members.length + 1];
+    System.arraycopy(members, 0, grown, 0, index);
+    grown[index] = member;
+    System.arraycopy(members, index, grown, index + 1, members.length - index);
+    return grown;
+  }
+
+  /**
+   * @return - How many times a member joined or changed its status so far. Tells whether the
+   * membership changed between two calls.
+   */
+  public long getChangeCount() {
+    return changes;
+  }
+
+  /**
+   * Starts recording joins and status changes, for {@link #drainEvents()}. Whatever happened before
+   * is taken as the starting point.
+   *
+   * @param observer - Invoked, while holding the lock of the table, on every join and status change
+   *                 from now on.
+   */
+  synchronized void recordChanges(Runnable observer) {
+    pendingChanges.clear();
+    changeObserver = observer;
+  }
+
+  /**
+   * @return - The net change of every member since the last drain, leaving out the members that
+   * ended up where they started (see {@link MembershipListener}).
+   */
+  synchronized List<MembershipEvent> drainEvents() {
+    List<MembershipEvent> events = new ArrayList<>(pendingChanges.size());
+    pendingChanges.forEach((address, before) -> {
+      Member member = index.get(address);
+      boolean isLive = member.getStatus() != MemberStatus.DEAD;
+      if (before == null) {
+        if (isLive) {
+          events.add(new MembershipEvent(MembershipEvent.Type.JOINED, member));
+        }
+      } else if ((before != MemberStatus.DEAD) != isLive) {
+        events.add(new MembershipEvent(
+            isLive ? MembershipEvent.Type.RECOVERED : MembershipEvent.Type.LEFT, member));
+      }
+    });
+    pendingChanges.clear();
+    return events;
+  }
+
+  //Must be called while holding the lock.
+  private void record(Member member, MemberStatus previous) {
+    Runnable observer = changeObserver;
+    if (observer == null) {
+      return;
+    }
+    //Only the first change since the last drain tells where the member started out.
+    if (!pendingChanges.containsKey(member.getNickName())) {
+      pendingChanges.put(member.getNickName(), previous);
+    }
+    observer.run();
+  }
+
+  //Must be called while holding the lock.
+  private void refresh() {
+    changes++;
+    Member[] members = all;
+    Member[] alive = new Member[members.length];
+    Member[] others = new Member[members.length];
+    int liveCount = 0;
+    int peerCount = 0;
+    for (Member member : members) {
+      if (member.getStatus() == MemberStatus.DEAD) {
+        continue;
+      }
+      alive[liveCount++] = member;
+      if (!member.getNickName().equals(self)) {
+        others[peerCount++] = member;
+      }
+    }
+    live = Arrays.copyOf(alive, liveCount);
+    peers = Arrays.copyOf(others, peerCount);
+  }
+}
@@ -0,0 +1,240 @@
+package com.rationaleemotions.gossip;
+
+import java.io.StreamCorruptedException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * The format of the messages of a {@link HyParView} overlay. They share the header (and the
+ * numbering of the message types) with the messages of a {@link MembershipCodec}, so that an
+ * overlay can run over the same transport as a client, see {@link GossipMode#OVERLAY}. After the
+ * header comes:
+ * <pre>
+ *   sender         address
+ *   ttl
+ *   subject        address (empty if there is none)
+ *   address count
+ *   addresses      count x address
+ * </pre>
+ * Except for a broadcast, which carries an opaque payload:
+ * <pre>
+ *   sender         address
+ *   origin         address
+ *   sequence
+ *   payload        length, bytes
+ * </pre>
+ * An address is its length followed by its UTF-8 bytes.
+ * <p>
+ * Like a {@link MembershipCodec}, an instance keeps a cache of the addresses that it has decoded so
+ * far around, and is hence not thread-safe.
+ */
+public final class OverlayCodec {
+
+  /**
+   * Asks a node to let the sender into the overlay.
+   */
+  public static final byte JOIN = 6;
+
+  /**
+   * Walks a join (of the subject) through the overlay.
+   */
+  public static final byte FORWARD_JOIN = 7;
+
+  /**
+   * Asks the receiver to take the sender into its active view.
+   */
+  public static final byte NEIGHBOR = 8;
+
+  /**
+   * Tells the receiver whether the sender took it into its active view (see
+   * {@link #FLAG_ACCEPTED}).
+   */
+  public static final byte NEIGHBOR_REPLY = 9;
+
+  /**
+   * Tells the receiver that the sender dropped it from its active view.
+   */
+  public static final byte DISCONNECT = 10;
+
+  /**
+   * A sample of the views of the subject, that walks the overlay until somebody swaps it for a
+   * sample of its own.
+   */
+  public static final byte SHUFFLE = 11;
+
+  /**
+   * The sample that a shuffle was swapped for.
+   */
+  public static final byte SHUFFLE_REPLY = 12;
+
+  /**
+   * Keeps a link between two active views alive.
+   */
+  public static final byte KEEP_ALIVE = 13;
+
+  /**
+   * A payload that floods the overlay.
+   */
+  public static final byte BROADCAST = 14;
+
+  /**
+   * The neighbor request must not be turned down, since the sender has no active peers left.
+   */
+  public static final byte FLAG_HIGH_PRIORITY = 4;
+
+  /**
+   * The neighbor request was accepted.
+   */
+  public static final byte FLAG_ACCEPTED = 8;
+
+  private static final byte[] EMPTY = new byte[0];
+
+  /**
+   * Receives the messages of an overlay, as they are decoded.
+   */
+  public interface OverlayVisitor {
+
+    /**
+     * Invoked ahead of the addresses.
+     *
+     * @param type    - One of {@link #JOIN} to {@link #KEEP_ALIVE}.
+     * @param flags   - The flags of the message.
+     * @param sender  - Who sent the message.
+     * @param ttl     - How many more hops the message may take.
+     * @param subject - Who the message is about, or <code>null</code>.
+     */
+    void visit(byte type, byte flags, String sender, int ttl, String subject);
+
+    void address(String address);
+
+    /**
+     * @param payload - The payload, between the position and the limit of the buffer. Only valid
+     *                for the duration of the call.
+     */
+    void broadcast(String sender, String origin, int sequence, ByteBuffer payload);
+  }
+
+  private final AddressDecoder addresses = new AddressDecoder();
+
+  /**
+   * @return - Whether the given message type belongs to an overlay.
+   */
+  public static boolean isOverlay(byte type) {
+    return type >= JOIN && type <= BROADCAST;
+  }
+
+  /**
+   * Writes a message of an overlay, along with as many of the given addresses as fit into the
+   * remaining space of the buffer.
+   *
+   * @param type      - One of {@link #JOIN} to {@link #KEEP_ALIVE}.
+   * @param flags     - The flags of the message.
+   * @param sender    - The (UTF-8 encoded) address of the sender.
+   * @param ttl       - How many more hops the message may take.
+   * @param subject   - The (UTF-8 encoded) address that the message is about, or
+   *                  <code>null</code>.
+   * @param addresses - The (UTF-8 encoded) addresses to carry.
+   * @param buffer    - The buffer to write to.
+   * @return - The number of addresses that were written.
+   */
+  public int encode(byte type, byte flags, byte[] sender, int ttl, byte[] subject,
+      List<byte[]> addresses, ByteBuffer buffer) {
+    MembershipCodec.putHeader(buffer, type, flags);
+    MembershipCodec.putBytes(buffer, sender);
+    MembershipCodec.putVarint(buffer, ttl);
+    MembershipCodec.putBytes(buffer, subject == null ? EMPTY : subject);
+    int available = buffer.remaining() - MembershipCodec.MAX_VARINT_SIZE;
+    int count = 0;
+    for (; count < addresses.size(); count++) {
+      int length = addresses.get(count).length;
+      int size = MembershipCodec.varintSize(length) + length;
+      if (size > available) {
+        break;
+      }
+      available -= size;
+    }
+    MembershipCodec.putVarint(buffer, count);
+    for (int i = 0; i < count; i++) {
+      MembershipCodec.putBytes(buffer, addresses.get(i));
+    }
+    return count;
+  }
+
+  /**
+   * Writes a broadcast of an overlay.
+   *
+   * @param sender   - The (UTF-8 encoded) address of the sender.
+   * @param origin   - The (UTF-8 encoded) address of the node that broadcast the payload first.
+   * @param sequence - Tells apart the broadcasts of the origin.
+   * @param payload  - The payload, between the position and the limit of the buffer. Left as it
+   *                 was.
+   * @param buffer   - The buffer to write to.
+   */
+  public void encodeBroadcast(byte[] sender, byte[] origin, int sequence, ByteBuffer payload,
+      ByteBuffer buffer) {
+    int size = MembershipCodec.HEADER_SIZE
+        + MembershipCodec.varintSize(sender.length) + sender.length
+        + MembershipCodec.varintSize(origin.length) + origin.length
+        + MembershipCodec.varintSize(sequence)
+        + MembershipCodec.varintSize(payload.remaining()) + payload.remaining();
+    if (size > buffer.remaining()) {
+      throw new IllegalArgumentException("A payload of " + payload.remaining()
+          + " bytes does not fit into a message");
+    }
+    MembershipCodec.putHeader(buffer, BROADCAST, (byte) 0);
+    MembershipCodec.putBytes(buffer, sender);
+    MembershipCodec.putBytes(buffer, origin);
+    MembershipCodec.putVarint(buffer, sequence);
+    MembershipCodec.putVarint(buffer, payload.remaining());
+    int position = payload.position();
+    buffer.put(payload);
+    payload.position(position);
+  }
+
+  /**
+   * Decodes the message of an overlay that sits between the position and the limit of the
+   * buffer.
+   *
+   * @param buffer  - The buffer to read from.
+   * @param visitor - Receives the message, and then every address that it carries. Or the payload,
+   *                in the case of a broadcast.
+   * @return - The type of the message.
+   * @throws StreamCorruptedException - When the buffer does not hold a valid overlay message.
+   */
+  public byte decode(ByteBuffer buffer, OverlayVisitor visitor)
+      throws StreamCorruptedException {
+    try {
+      byte type = MembershipCodec.typeOf(buffer);
+      if (!isOverlay(type)) {
+        throw new StreamCorruptedException("Not an overlay message");
+      }
+      byte flags = buffer.get(buffer.position() + 3);
+      buffer.position(buffer.position() + MembershipCodec.HEADER_SIZE);
+      String sender = addresses.read(buffer);
+      if (type == BROADCAST) {
+        String origin = addresses.read(buffer);
+        int sequence = MembershipCodec.getVarint(buffer);
+        int length = MembershipCodec.getVarint(buffer);
+        if (length < 0 || length > buffer.remaining()) {
+          throw new StreamCorruptedException(
+              "Payload of " + length + " bytes overruns the message");
+        }
+        ByteBuffer payload = buffer.slice();
+        payload.limit(length);
+        visitor.broadcast(sender, origin, sequence, payload);
+        return type;
+      }
+      int ttl = MembershipCodec.getVarint(buffer);
+      String subject = addresses.read(buffer);
+      visitor.visit(type, flags, sender, ttl, subject.isEmpty() ? null : subject);
+      int count = MembershipCodec.checkedCount(buffer);
+      for (int i = 0; i < count; i++) {
+        visitor.address(addresses.read(buffer));
+      }
+      return type;
+    } catch (BufferUnderflowException e) {
+      throw new StreamCorruptedException("Truncated gossip message");
+    }
+  }
+}
@@ -0,0 +1,292 @@
+package com.rationaleemotions.gossip;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Runs a whole {@link HyParView} overlay on a {@link SimulatedNetwork}, to see what it costs a node
+ * as the cluster grows. Every run goes:
+ * <ol>
+ *   <li>Join every node through a random node that joined before it, spread over the join
+ *   period.</li>
+ *   <li>Let the overlay settle for a few shuffles, and then measure the bytes sent per node per
+ *   second, while nothing happens.</li>
+ *   <li>Broadcast from a random node, and count how many nodes deliver it, and how long the last
+ *   one took.</li>
+ *   <li>Crash a share of the nodes, and broadcast right away, before anyone noticed. And once
+ *   more, after the active views have been repaired.</li>
+ * </ol>
+ * Unlike with a {@link ClusterSimulator}, no node knows more than a few dozen others, so per node
+ * the views, the traffic and the time it takes to hear a broadcast should barely move as the
+ * cluster grows a hundredfold.
+ * <p>
+ * The same seed always gives the same report.
+ */
+public final class OverlaySimulator {
+
+  public static final long DEFAULT_SEED = 42;
+  public static final double DEFAULT_LOSS = 0.01;
+  public static final double DEFAULT_FAILURES = 0.2;
+  //Ports are handed out from here on, one per node.
+  private static final int FIRST_PORT = 10000;
+  private static final long JOIN_PERIOD = 30_000; //in ms
+  private static final int SETTLING_SHUFFLES = 3;
+  private static final long MEASUREMENT = 10_000; //in ms
+  //Long enough for any broadcast to have flooded the overlay.
+  private static final long BROADCAST_WAIT = 5_000; //in ms
+  //How long the survivors get to repair their active views, in keep-alive intervals.
+  private static final int REPAIR_INTERVALS = 10;
+
+  private final long seed;
+  private double loss = DEFAULT_LOSS;
+  private double failures = DEFAULT_FAILURES;
+  private int activeViewSize = HyParView.DEFAULT_ACTIVE_VIEW_SIZE;
+  private int passiveViewSize = HyParView.DEFAULT_PASSIVE_VIEW_SIZE;
+
+  /**
+   * @param seed - Seeds every random choice of a run.
+   */
+  public OverlaySimulator(long seed) {
+    this.seed = seed;
+  }
+
+  /**
+   * @param loss - The chance that a datagram gets lost (0 to 1).
+   */
+  public void setLoss(double loss) {
+    this.loss = loss;
+  }
+
+  /**
+   * @param failures - The share of the nodes that crash at once (0 to 1).
+   */
+  public void setFailures(double failures) {
+    this.failures = failures;
+  }
+
+  /**
+   * See {@link HyParView#setViewSizes(int, int)}.
+   */
+  public void setViewSizes(int activeViewSize, int passiveViewSize) {
+    this.activeViewSize = activeViewSize;
+    this.passiveViewSize = passiveViewSize;
+  }
+
+  /**
+   * Simulates an overlay of the given size, see above.
+   */
+  public Report run(int size) throws IOException {
+    if (size < 2 || size > 0xFFFF - FIRST_PORT) {
+      throw new IllegalArgumentException("Can simulate 2 to " + (0xFFFF - FIRST_PORT) + " nodes");
+    }
+    SimulatedNetwork network = new SimulatedNetwork(seed);
+    network.setLoss(loss);
+    Random random = network.getRandom();
+
+    List<HyParView> nodes = new ArrayList<>(size);
+    long[] deliveredAt = new long[size];
+    for (int i = 0; i < size; i++) {
+      HyParView node = new HyParView("node" + i + ":" + (FIRST_PORT + i), network.transports(),
+          network.getTimer(), new Random(random.nextLong()));
+      node.setViewSizes(activeViewSize, passiveViewSize);
+      int index = i;
+      node.addBroadcastListener((origin, payload) -> deliveredAt[index] = network.now());
+      nodes.add(node);
+    }
+
+    long firstJoin = network.now();
+    for (int i = 0; i < size; i++) {
+      network.advance(firstJoin + i * JOIN_PERIOD / size - network.now());
+      String contact = i == 0 ? null : nodes.get(random.nextInt(i)).getAddress();
+      nodes.get(i).start(contact, null);
+    }
+    network.advance(SETTLING_SHUFFLES * HyParView.DEFAULT_SHUFFLE_INTERVAL);
+
+    long bytesAtStart = network.getBytesSent();
+    network.advance(MEASUREMENT);
+    double bytesPerSecond = (network.getBytesSent() - bytesAtStart) * 1000.0 / MEASUREMENT / size;
+    double activeView = 0;
+    double passiveView = 0;
+    for (HyParView node : nodes) {
+      activeView += node.getActiveView().size();
+      passiveView += node.getPassiveView().size();
+    }
+
+    boolean[] crashed = new boolean[size];
+    Broadcast healthy = broadcast(network, nodes, crashed, deliveredAt, random);
+    int crashes = (int) (size * failures);
+    for (int i = 0; i < crashes; ) {
+      int victim = random.nextInt(size);
+      if (!crashed[victim]) {
+        crashed[victim] = true;
+        nodes.get(victim).stop();
+        i++;
+      }
+    }
+    Broadcast afterCrash = broadcast(network, nodes, crashed, deliveredAt, random);
+    network.advance(REPAIR_INTERVALS * HyParView.DEFAULT_KEEP_ALIVE_INTERVAL);
+    Broadcast afterRepair = broadcast(network, nodes, crashed, deliveredAt, random);
+
+    for (HyParView node : nodes) {
+      node.stop();
+    }
+    return new Report(size, activeView / size, passiveView / size, bytesPerSecond, healthy,
+        afterCrash, afterRepair);
+  }
+
+  /**
+   * Broadcasts from a random live node, and waits for the broadcast to flood the overlay.
+   */
+  private static Broadcast broadcast(SimulatedNetwork network, List<HyParView> nodes,
+      boolean[] crashed, long[] deliveredAt, Random random) {
+    int origin;
+    do {
+      origin = random.nextInt(nodes.size());
+    } while (crashed[origin]);
+    Arrays.fill(deliveredAt, -1);
+    long sentAt = network.now();
+    nodes.get(origin).broadcast(ByteBuffer.wrap(new byte[]{42}));
+    network.advance(BROADCAST_WAIT);
+    int live = 0;
+    int reached = 0;
+    long latest = 0;
+    for (int i = 0; i < nodes.size(); i++) {
+      if (i == origin || crashed[i]) {
+        continue;
+      }
+      live++;
+      if (deliveredAt[i] >= 0) {
+        reached++;
+        latest = Math.max(latest, deliveredAt[i] - sentAt);
+      }
+    }
+    return new Broadcast((double) reached / live, latest);
+  }
+
+  /**
+   * How far a single broadcast got.
+   */
+  public static final class Broadcast {
+
+    private final double reach;
+    private final long latency;
+
+    Broadcast(double reach, long latency) {
+      this.reach = reach;
+      this.latency = latency;
+    }
+
+    /**
+     * @return - The share of the live nodes that delivered the broadcast.
+     */
+    public double getReach() {
+      return reach;
+    }
+
+    /**
+     * @return - How long it took the last node to deliver the broadcast (in ms).
+     */
+    public long getLatency() {
+      return latency;
+    }
+  }
+
+  /**
+   * What a run came up with.
+   */
+  public static final class Report {
+
+    private final int size;
+    private final double activeView;
+    private final double passiveView;
+    private final double bytesPerNodePerSecond;
+    private final Broadcast healthy;
+    private final Broadcast afterCrash;
+    private final Broadcast afterRepair;
+
+    Report(int size, double activeView, double passiveView, double bytesPerNodePerSecond,
+        Broadcast healthy, Broadcast afterCrash, Broadcast afterRepair) {
+      this.size = size;
+      this.activeView = activeView;
+      this.passiveView = passiveView;
+      this.bytesPerNodePerSecond = bytesPerNodePerSecond;
+      this.healthy = healthy;
+      this.afterCrash = afterCrash;
+      this.afterRepair = afterRepair;
+    }
+
+    public int getSize() {
+      return size;
+    }
+
+    /**
+     * @return - The average size of an active view, once the overlay settled.
+     */
+    public double getActiveView() {
+      return activeView;
+    }
+
+    /**
+     * @return - The average size of a passive view, once the overlay settled.
+     */
+    public double getPassiveView() {
+      return passiveView;
+    }
+
+    /**
+     * @return - What keeping the overlay up costs a node, while nothing happens.
+     */
+    public double getBytesPerNodePerSecond() {
+      return bytesPerNodePerSecond;
+    }
+
+    /**
+     * @return - A broadcast over the settled overlay.
+     */
+    public Broadcast getHealthy() {
+      return healthy;
+    }
+
+    /**
+     * @return - A broadcast right after the crash, before anyone noticed.
+     */
+    public Broadcast getAfterCrash() {
+      return afterCrash;
+    }
+
+    /**
+     * @return - A broadcast once the active views have been repaired.
+     */
+    public Broadcast getAfterRepair() {
+      return afterRepair;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%7d %8.1f %8.1f %14.1f %8.2f%% %8d %10.2f%% %10.2f%% %10d", size,
+          activeView, passiveView, bytesPerNodePerSecond, healthy.reach * 100, healthy.latency,
+          afterCrash.reach * 100, afterRepair.reach * 100, afterRepair.latency);
+    }
+  }
+
+  /**
+   * Usage: <code>OverlaySimulator [size...]</code>, e.g. <code>OverlaySimulator 100 1000</code>.
+   * Simulates overlays of 100, 1,000 and 10,000 nodes by default.
+   */
+  public static void main(String[] args) throws IOException {
+    int[] sizes = args.length > 0
+        ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray()
+        : new int[]{100, 1_000, 10_000};
+    System.out.println(String.format("%7s %8s %8s %14s %9s %8s %11s %11s %10s", "nodes",
+        "active", "passive", "bytes/node/s", "reach", "latency", "crashed", "repaired",
+        "latency"));
+    OverlaySimulator simulator = new OverlaySimulator(DEFAULT_SEED);
+    for (int size : sizes) {
+      System.out.println(simulator.run(size));
+    }
+  }
+}
@@ -0,0 +1,165 @@
+package com.rationaleemotions.gossip;
+
+/**
+ * The phi accrual failure detector (Hayashibara et al., 2004). Rather than a yes or no answer
+ * after a fixed timeout, it keeps a suspicion level (phi) that grows the longer a member stays
+ * quiet, relative to how regularly we heard from it so far. A phi of 1 means a 10% chance that
+ * we are wrong to consider the member dead, a phi of 2 a 1% chance, and so on.
+ * <p>
+ * The inter-arrival times of the last few heartbeats go into a fixed-size ring buffer, alongside
+ * a running sum and sum of squares, so recording a heartbeat and working out phi both take
+ * constant time. The distribution is approximated with a normal distribution (using the logistic
+ * approximation of its CDF), just like Akka and Cassandra do.
+ * <p>
+ * The member is considered dead once phi reaches the threshold, which for a normal distribution
+ * is always the same number of standard deviations past the mean. So {@link #timeout()} needs
+ * nothing more than the running mean and standard deviation.
+ */
+public final class PhiAccrualFailureDetector implements FailureDetector {
+
+  public static final double DEFAULT_THRESHOLD = 8;
+  public static final int DEFAULT_SAMPLE_SIZE = 200;
+  //Keeps a very regular member from being declared dead over the slightest delay.
+  private static final long DEFAULT_MIN_STANDARD_DEVIATION = 500; //in ms
+
+  private final double threshold;
+  private final long minStandardDeviation;
+  private final long firstHeartbeatEstimate;
+  //How many standard deviations past the mean phi reaches the threshold.
+  private final double deviationsToThreshold;
+
+  //Guarded by this.
+  private final long[] intervals;
+  private int count;
+  private int next;
+  private long sum;
+  private long sumOfSquares;
+  private long lastHeartbeat = -1;
+
+  /**
+   * @param firstHeartbeatEstimate - How often we expect to hear from the member (in ms), until we
+   *                               actually have.
+   */
+  public PhiAccrualFailureDetector(long firstHeartbeatEstimate) {
+    this(DEFAULT_THRESHOLD, DEFAULT_SAMPLE_SIZE, DEFAULT_MIN_STANDARD_DEVIATION,
+        firstHeartbeatEstimate);
+  }
+
+  /**
+   * @param threshold              - The phi at which the member is considered dead.
+   * @param sampleSize             - How many inter-arrival times to remember.
+   * @param minStandardDeviation   - The smallest standard deviation to assume (in ms).
+   * @param firstHeartbeatEstimate - How often we expect to hear from the member (in ms), until we
+   *                               actually have.
+   */
+  public PhiAccrualFailureDetector(double threshold, int sampleSize, long minStandardDeviation,
+      long firstHeartbeatEstimate) {
+    if (threshold <= 0 || sampleSize < 2 || firstHeartbeatEstimate <= 0) {
+      throw new IllegalArgumentException("Threshold and estimate must be positive, and at least "
+          + "two samples are needed");
+    }
+    this.threshold = threshold;
+    this.minStandardDeviation = minStandardDeviation;
+    this.firstHeartbeatEstimate = firstHeartbeatEstimate;
+    this.deviationsToThreshold = deviationsFor(threshold);
+    this.intervals = new long[sampleSize];
+    clear();
+  }
+
+  @Override
+  public synchronized void heartbeat(long now) {
+    if (lastHeartbeat >= 0) {
+      add(now - lastHeartbeat);
+    }
+    lastHeartbeat = now;
+  }
+
+  @Override
+  public synchronized long timeout() {
+    return (long) Math.ceil(mean() + deviationsToThreshold * standardDeviation());
+  }
+
+  @Override
+  public synchronized void clear() {
+    count = 0;
+    next = 0;
+    sum = 0;
+    sumOfSquares = 0;
+    lastHeartbeat = -1;
+    //Start out with a history around the estimate (mean = estimate, deviation = estimate / 4).
+    long deviation = firstHeartbeatEstimate / 4;
+    add(firstHeartbeatEstimate - deviation);
+    add(firstHeartbeatEstimate + deviation);
+  }
+
+  public double getThreshold() {
+    return threshold;
+  }
+
+  /**
+   * @param now - The current time (in ms).
+   * @return - The suspicion level of the member at the given time. Zero until the first heartbeat.
+   */
+  public synchronized double phi(long now) {
+    if (lastHeartbeat < 0) {
+      return 0;
+    }
+    return phi((now - lastHeartbeat - mean()) / standardDeviation());
+  }
+
+  //Must be called while holding the lock.
+  private void add(long interval) {
+    if (count == intervals.length) {
+      long evicted = intervals[next];
+      sum -= evicted;
+      sumOfSquares -= evicted * evicted;
+    } else {
+      count++;
+    }
+    intervals[next] = interval;
+    next = (next + 1) % intervals.length;
+    sum += interval;
+    sumOfSquares += interval * interval;
+  }
+
+  private double mean() {
+    return (double) sum / count;
+  }
+
+  private double standardDeviation() {
+    double mean = mean();
+    double variance = Math.max(0, (double) sumOfSquares / count - mean * mean);
+    return Math.max(Math.sqrt(variance), minStandardDeviation);
+  }
+
+  /**
+   * @param y - How many standard deviations past the mean we are.
+   * @return - -log10 of the chance that a heartbeat still arrives, with the logistic approximation
+   * of the CDF of the normal distribution.
+   */
+  static double phi(double y) {
+    double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+    if (y > 0) {
+      return -Math.log10(e / (1.0 + e));
+    }
+    return -Math.log10(1.0 - 1.0 / (1.0 + e));
+  }
+
+  /**
+   * @return - How many standard deviations past the mean phi reaches the given value. Phi grows
+   * with y, so a bisection does it.
+   */
+  private static double deviationsFor(double threshold) {
+    double low = -10;
+    double high = 40;
+    for (int i = 0; i < 100; i++) {
+      double middle = (low + high) / 2;
+      if (phi(middle) < threshold) {
+        low = middle;
+      } else {
+        high = middle;
+      }
+    }
+    return high;
+  }
+}
@@ -0,0 +1,67 @@
+package com.rationaleemotions.gossip;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Picks peers to gossip with by walking a shuffled copy of the peers, and reshuffling whenever it
+ * runs out. Unlike picking at random every time, every peer is contacted once per cycle of
+ * <code>n / k</code> rounds (of <code>k</code> peers each), and so never goes more than
+ * <code>2 * ceil(n / k) + 1</code> rounds without hearing from us, as long as the membership does
+ * not change. A change in membership starts a new shuffled cycle.
+ * <p>
+ * Nothing is allocated outside of a reshuffle. Not thread-safe.
+ */
+final class ShuffledRoundRobin {
+
+  private final Random random;
+  //The snapshot of peers that the current order was shuffled from.
+  private Member[] source;
+  private Member[] order = new Member[0];
+  private int cursor;
+
+  ShuffledRoundRobin(Random random) {
+    this.random = random;
+  }
+
+  /**
+   * Fills the given list with up to count distinct peers.
+   *
+   * @param peers - The current snapshot of peers, see {@link MembershipTable#peers()}.
+   * @param count - How many peers to pick.
+   * @param into  - Cleared, and then filled with the picked peers.
+   */
+  void next(Member[] peers, int count, List<Member> into) {
+    into.clear();
+    if (peers != source) {
+      source = peers;
+      reshuffle();
+    }
+    int wanted = Math.min(count, order.length);
+    while (into.size() < wanted) {
+      if (cursor == order.length) {
+        reshuffle();
+      }
+      Member peer = order[cursor++];
+      // A reshuffle can bring up a peer that we already picked this round.
+      if (!into.contains(peer)) {
+        into.add(peer);
+      }
+    }
+  }
+
+  private void reshuffle() {
+    if (order.length != source.length) {
+      order = new Member[source.length];
+    }
+    System.arraycopy(source, 0, order, 0, source.length);
+    //Fisher-Yates
+    for (int i = order.length - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      Member swap = order[i];
+      order[i] = order[j];
+      order[j] = swap;
+    }
+    cursor = 0;
+  }
+}
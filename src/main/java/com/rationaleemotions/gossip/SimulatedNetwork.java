@@ -0,0 +1,277 @@
+package com.rationaleemotions.gossip;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * A network that lives in memory, so that a whole cluster of clients can run in a single JVM,
+ * without a single socket (see {@link ClusterSimulator}).
+ * <p>
+ * Nothing happens unless the network is moved along (see {@link #advance(long)}), on the thread
+ * that does so. Time is simulated, and every random choice comes off a single seeded
+ * {@link Random}, so the same seed always plays out the same way.
+ * <ul>
+ *   <li>Every datagram takes a latency picked between a minimum and a maximum. Datagrams that go
+ *   out back to back can therefore arrive in a different order.</li>
+ *   <li>A share of the datagrams gets lost.</li>
+ *   <li>The network can be partitioned, so that datagrams only get across within a side.</li>
+ * </ul>
+ */
+public final class SimulatedNetwork {
+
+  //Simulated time starts out at a realistic date, since clients derive their generation from it.
+  public static final long DEFAULT_START_TIME = 1_600_000_000_000L; //in ms
+  public static final long DEFAULT_MIN_LATENCY = 1; //in ms
+  public static final long DEFAULT_MAX_LATENCY = 20; //in ms
+  //The resolution of the timer of the network.
+  private static final long TICK = 10; //in ms
+  private static final int WHEEL_SIZE = 1024;
+
+  private final Random random;
+  private final HashedWheelTimer timer;
+  private final Map<SocketAddress, Endpoint> endpoints = new HashMap<>();
+  //By the time they arrive, and in the order they were sent for the same time.
+  private final PriorityQueue<Datagram> inFlight = new PriorityQueue<>();
+  //The side of every address that has been partitioned off. Everyone else is on side zero.
+  private final Map<SocketAddress, Integer> sides = new HashMap<>();
+  private int maxMessageSize = MembershipCodec.DEFAULT_MESSAGE_SIZE;
+
+  private long now;
+  private long minLatency = DEFAULT_MIN_LATENCY;
+  private long maxLatency = DEFAULT_MAX_LATENCY;
+  private double loss;
+  private int partitions;
+  private long sequence;
+
+  private long datagramsSent;
+  private long bytesSent;
+  private long datagramsDropped;
+
+  /**
+   * @param seed - Seeds every random choice made on the network.
+   */
+  public SimulatedNetwork(long seed) {
+    this(seed, DEFAULT_START_TIME);
+  }
+
+  /**
+   * @param seed      - Seeds every random choice made on the network.
+   * @param startTime - The simulated time to start out at (in ms).
+   */
+  public SimulatedNetwork(long seed, long startTime) {
+    this.random = new Random(seed);
+    this.now = startTime;
+    this.timer = new HashedWheelTimer(TICK, WHEEL_SIZE, this::now, null);
+  }
+
+  /**
+   * @return - The simulated time (in ms).
+   */
+  public long now() {
+    return now;
+  }
+
+  /**
+   * @return - The timer that every client on the network should use, which runs on simulated time.
+   */
+  public HashedWheelTimer getTimer() {
+    return timer;
+  }
+
+  /**
+   * @return - The source of all random choices, for anything that should play out the same way
+   * for the same seed.
+   */
+  public Random getRandom() {
+    return random;
+  }
+
+  /**
+   * @return - Creates transports on this network.
+   */
+  public Transport.Factory transports() {
+    return new Transport.Factory() {
+      @Override
+      public int getMaxMessageSize() {
+        return maxMessageSize;
+      }
+
+      @Override
+      public Transport bind(InetSocketAddress address) {
+        return SimulatedNetwork.this.bind(address);
+      }
+    };
+  }
+
+  /**
+   * @param minLatency - The least time that a datagram takes to arrive (in ms).
+   * @param maxLatency - The most time that a datagram takes to arrive (in ms).
+   */
+  public void setLatency(long minLatency, long maxLatency) {
+    if (minLatency < 0 || maxLatency < minLatency) {
+      throw new IllegalArgumentException("Need 0 <= minLatency <= maxLatency");
+    }
+    this.minLatency = minLatency;
+    this.maxLatency = maxLatency;
+  }
+
+  /**
+   * @param loss - The chance that a datagram gets lost (0 to 1).
+   */
+  public void setLoss(double loss) {
+    if (loss < 0 || loss > 1) {
+      throw new IllegalArgumentException("The loss should be between 0 and 1");
+    }
+    this.loss = loss;
+  }
+
+  public void setMaxMessageSize(int maxMessageSize) {
+    this.maxMessageSize = maxMessageSize;
+  }
+
+  /**
+   * Cuts the given addresses off from everyone else, including from the sides of earlier
+   * partitions. Datagrams that are still in flight across the cut get lost.
+   */
+  public void partition(Collection<? extends SocketAddress> side) {
+    partitions++;
+    for (SocketAddress address : side) {
+      sides.put(address, partitions);
+    }
+  }
+
+  /**
+   * Undoes every partition.
+   */
+  public void heal() {
+    sides.clear();
+  }
+
+  /**
+   * Moves simulated time along by the given amount, delivering every datagram that arrives in the
+   * meantime, and running every timeout that expires.
+   */
+  public void advance(long millis) {
+    long end = now + millis;
+    while (now < end) {
+      long tickEnd = Math.min(end, (now / TICK + 1) * TICK);
+      Datagram datagram;
+      while ((datagram = inFlight.peek()) != null && datagram.arrival <= tickEnd) {
+        inFlight.poll();
+        now = Math.max(now, datagram.arrival);
+        deliver(datagram);
+      }
+      now = tickEnd;
+      timer.advance(now);
+    }
+  }
+
+  public long getDatagramsSent() {
+    return datagramsSent;
+  }
+
+  public long getBytesSent() {
+    return bytesSent;
+  }
+
+  /**
+   * @return - How many datagrams got lost, to loss, to partitions, or to a closed transport.
+   */
+  public long getDatagramsDropped() {
+    return datagramsDropped;
+  }
+
+  private Transport bind(InetSocketAddress address) {
+    Endpoint endpoint = new Endpoint(address);
+    if (endpoints.putIfAbsent(address, endpoint) != null) {
+      throw new IllegalStateException(address + " is already bound");
+    }
+    return endpoint;
+  }
+
+  private void send(Endpoint from, ByteBuffer message, SocketAddress to) {
+    datagramsSent++;
+    bytesSent += message.remaining();
+    if (loss > 0 && random.nextDouble() < loss) {
+      datagramsDropped++;
+      message.rewind();
+      return;
+    }
+    //The sender reuses its buffer, so the datagram needs a copy of its own.
+    ByteBuffer copy = ByteBuffer.allocate(message.remaining());
+    copy.put(message).flip();
+    message.rewind();
+    long latency = minLatency + (long) (random.nextDouble() * (maxLatency - minLatency + 1));
+    inFlight.add(new Datagram(now + latency, sequence++, from.address, to, copy));
+  }
+
+  private void deliver(Datagram datagram) {
+    Endpoint endpoint = endpoints.get(datagram.to);
+    if (endpoint == null || endpoint.receiver == null
+        || !sides.getOrDefault(datagram.from, 0).equals(sides.getOrDefault(datagram.to, 0))) {
+      datagramsDropped++;
+      return;
+    }
+    endpoint.receiver.receive(datagram.message, datagram.from);
+  }
+
+  private static final class Datagram implements Comparable<Datagram> {
+
+    private final long arrival;
+    private final long sequence;
+    private final SocketAddress from;
+    private final SocketAddress to;
+    private final ByteBuffer message;
+
+    Datagram(long arrival, long sequence, SocketAddress from, SocketAddress to,
+        ByteBuffer message) {
+      this.arrival = arrival;
+      this.sequence = sequence;
+      this.from = from;
+      this.to = to;
+      this.message = message;
+    }
+
+    @Override
+    public int compareTo(Datagram other) {
+      int byArrival = Long.compare(arrival, other.arrival);
+      return byArrival != 0 ? byArrival : Long.compare(sequence, other.sequence);
+    }
+  }
+
+  private final class Endpoint implements Transport {
+
+    private final InetSocketAddress address;
+    private Transport.Receiver receiver;
+    private boolean closed;
+
+    Endpoint(InetSocketAddress address) {
+      this.address = address;
+    }
+
+    @Override
+    public void send(ByteBuffer message, SocketAddress peer) {
+      if (closed) {
+        return;
+      }
+      SimulatedNetwork.this.send(this, message, peer);
+    }
+
+    @Override
+    public void listen(Receiver receiver, GossipRuntime runtime) {
+      this.receiver = receiver;
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+      endpoints.remove(address, this);
+    }
+  }
+}
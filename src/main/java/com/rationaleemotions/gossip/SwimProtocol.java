@@ -0,0 +1,430 @@
+package com.rationaleemotions.gossip;
+
+import com.rationaleemotions.gossip.MembershipCodec.ProbeVisitor;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * SWIM failure detection (Das, Gupta and Motivala, 2002), as an alternative to timing out members
+ * whose heartbeat stops growing.
+ * <p>
+ * Every protocol period, a client pings a random member. If no ack comes back within the ack
+ * timeout, it asks {@link #DEFAULT_INDIRECT_PROBES} other members to ping that member on its
+ * behalf (ping-req). If the period ends without an ack, direct or relayed, the member becomes a
+ * suspect. A suspect that does not refute the suspicion before the suspicion timeout runs out is
+ * declared dead. So each member sends a constant number of messages per period, and how quickly a
+ * failure is detected does not depend on the size of the cluster.
+ * <p>
+ * The heartbeat of a member doubles as its incarnation number. It only grows when the member
+ * refutes a suspicion about itself, and the generation keeps doing what it always did. Changes in
+ * membership are not gossiped separately, but piggybacked on the probes, each one a few times over
+ * (see {@link #retransmitLimit()}).
+ * <p>
+ * Updates about a member are ordered by their version (generation, then incarnation). For the same
+ * version, dead overrides suspect, which overrides alive.
+ */
+@Slf4j
+public final class SwimProtocol implements ProbeVisitor {
+
+  public static final long DEFAULT_PROTOCOL_PERIOD = 1000; //in ms
+  public static final long DEFAULT_ACK_TIMEOUT = 300; //in ms
+  public static final int DEFAULT_INDIRECT_PROBES = 3;
+  //Scales the suspicion timeout, and the number of times an update is piggybacked.
+  private static final int SUSPICION_MULTIPLIER = 4;
+  private static final int RETRANSMIT_MULTIPLIER = 3;
+  //The most updates that a single probe carries.
+  private static final int MAX_PIGGYBACKED = 8;
+
+  private final GossipContext client;
+  private final Member me;
+  private final HashedWheelTimer wheel;
+  private final Random random;
+  private final long protocolPeriod;
+  private final long ackTimeout;
+  private final int indirectProbes;
+
+  private final AtomicInteger sequence = new AtomicInteger();
+  //Probes that are waiting for an ack, by their sequence number.
+  private final ConcurrentMap<Integer, Probe> pending = new ConcurrentHashMap<>();
+
+  //Guarded by this. Recent updates that are still being piggybacked, newest last.
+  private final List<Broadcast> broadcasts = new ArrayList<>();
+  //Guarded by this. The running suspicion timeouts, by member.
+  private final Map<Member, Suspicion> suspicions = new HashMap<>();
+
+  //Used while holding the lock on sendBuffer.
+  private final MembershipCodec codec = new MembershipCodec();
+  private final ByteBuffer sendBuffer;
+  private final List<Member> piggyback = new ArrayList<>(MAX_PIGGYBACKED);
+
+  //Belongs to the receiver thread. The sender of the probe being decoded.
+  private SocketAddress sender;
+
+  public SwimProtocol(GossipContext client, Member me) {
+    this(client, me, HashedWheelTimer.shared(), new Random(), DEFAULT_PROTOCOL_PERIOD,
+        DEFAULT_ACK_TIMEOUT, DEFAULT_INDIRECT_PROBES);
+  }
+
+  /**
+   * @param client         - The client that we detect failures for.
+   * @param me             - The member of the client itself.
+   * @param wheel          - Times out acks and suspicions.
+   * @param random         - Picks the members to probe.
+   * @param protocolPeriod - How often to probe a member (in ms). Expected to be how often
+   *                       {@link #probe()} is invoked.
+   * @param ackTimeout     - How long to wait for a direct ack, before probing indirectly (in ms).
+   * @param indirectProbes - How many members to ask to probe on our behalf.
+   */
+  public SwimProtocol(GossipContext client, Member me, HashedWheelTimer wheel, Random random,
+      long protocolPeriod, long ackTimeout, int indirectProbes) {
+    this.client = client;
+    this.me = me;
+    this.wheel = wheel;
+    this.random = random;
+    this.protocolPeriod = protocolPeriod;
+    this.ackTimeout = ackTimeout;
+    this.indirectProbes = indirectProbes;
+    this.sendBuffer = ByteBuffer.allocateDirect(client.getMaxMessageSize());
+    //Let everyone know which generation of us is around.
+    enqueue(me);
+  }
+
+  public long getProtocolPeriod() {
+    return protocolPeriod;
+  }
+
+  /**
+   * Runs a protocol period: pings a random member, and sets up the ack timeout and the end of the
+   * period.
+   */
+  public void probe() {
+    Member target = client.getMembershipTable().randomPeer(random);
+    if (target == null) {
+      return;
+    }
+    int probeSequence = sequence.incrementAndGet();
+    Probe probe = new Probe(null, 0);
+    pending.put(probeSequence, probe);
+    send(MembershipCodec.PING, probeSequence, null, target);
+
+    long start = wheel.now();
+    wheel.schedule(new Deadline(start + ackTimeout, () -> {
+      if (!probe.acked) {
+        probeIndirectly(probeSequence, target);
+      }
+    }));
+    wheel.schedule(new Deadline(start + protocolPeriod, () -> {
+      pending.remove(probeSequence);
+      if (!probe.acked) {
+        suspect(target);
+      }
+    }));
+  }
+
+  private void probeIndirectly(int probeSequence, Member target) {
+    Member[] peers = client.getMembershipTable().peers();
+    //Pick from a random starting point, so that we do not allocate a shuffled copy.
+    int offset = peers.length == 0 ? 0 : random.nextInt(peers.length);
+    int asked = 0;
+    for (int i = 0; i < peers.length && asked < indirectProbes; i++) {
+      Member peer = peers[(offset + i) % peers.length];
+      if (!peer.equals(target) && peer.getStatus() == MemberStatus.ALIVE) {
+        send(MembershipCodec.PING_REQ, probeSequence, target, peer);
+        asked++;
+      }
+    }
+  }
+
+  /**
+   * Handles a probe that we received.
+   *
+   * @param message - The encoded probe, see {@link MembershipCodec}.
+   * @param sender  - Where the probe came from.
+   * @param codec   - Decodes the probe. Belongs to the receiver thread.
+   */
+  public void handle(ByteBuffer message, SocketAddress sender, MembershipCodec codec)
+      throws StreamCorruptedException {
+    this.sender = sender;
+    try {
+      codec.decodeProbe(message, this);
+    } finally {
+      this.sender = null;
+    }
+  }
+
+  @Override
+  public void visit(byte type, int probeSequence, String target) {
+    switch (type) {
+      case MembershipCodec.PING:
+        reply(MembershipCodec.ACK, probeSequence, sender);
+        break;
+      case MembershipCodec.PING_REQ:
+        Member member = client.getMembershipTable().get(target);
+        if (member != null) {
+          int relaySequence = sequence.incrementAndGet();
+          pending.put(relaySequence, new Probe(sender, probeSequence));
+          send(MembershipCodec.PING, relaySequence, null, member);
+          wheel.schedule(new Deadline(wheel.now() + protocolPeriod,
+              () -> pending.remove(relaySequence)));
+        }
+        break;
+      case MembershipCodec.ACK:
+        Probe probe = pending.remove(probeSequence);
+        if (probe != null) {
+          probe.acked = true;
+          if (probe.replyTo != null) {
+            //We only relayed this one.
+            reply(MembershipCodec.ACK, probe.replySequence, probe.replyTo);
+          }
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Applies an update about a member, that somebody piggybacked on a probe.
+   */
+  @Override
+  public synchronized void update(String address, MemberStatus status, int heartbeat,
+      int generation) {
+    long version = Member.versionOf(generation, heartbeat);
+    if (address.equals(me.getNickName())) {
+      if (status != MemberStatus.ALIVE) {
+        //Somebody thinks we are in trouble. Refute it, with an incarnation that beats theirs
+        //(unless ours already does, like when they never heard of our current generation).
+        if (Long.compareUnsigned(version, me.getVersion()) >= 0) {
+          me.updateIfNewer(Member.versionOf(me.getGeneration(), heartbeat + 1));
+        }
+        enqueue(me);
+      }
+      return;
+    }
+    MembershipTable table = client.getMembershipTable();
+    Member member = table.get(address);
+    if (member == null) {
+      Member newMember = client.newMember(address, heartbeat, generation);
+      newMember.setStatus(status);
+      member = table.putIfAbsent(newMember);
+      if (member == null) {
+        enqueue(newMember);
+        if (status == MemberStatus.SUSPECT) {
+          startSuspicion(newMember);
+        }
+        return;
+      }
+    }
+    int comparison = Long.compareUnsigned(version, member.getVersion());
+    if (comparison < 0 || (comparison == 0 && status.compareTo(member.getStatus()) <= 0)) {
+      //Old news.
+      return;
+    }
+    member.updateIfNewer(version);
+    changeStatus(member, status);
+  }
+
+  /**
+   * @return - The members whose updates are still being piggybacked. For tests.
+   */
+  synchronized List<Member> getBroadcasts() {
+    List<Member> members = new ArrayList<>(broadcasts.size());
+    for (Broadcast broadcast : broadcasts) {
+      members.add(broadcast.member);
+    }
+    return members;
+  }
+
+  private synchronized void suspect(Member member) {
+    if (member.getStatus() == MemberStatus.ALIVE) {
+      changeStatus(member, MemberStatus.SUSPECT);
+    }
+  }
+
+  //Must be called while holding the lock.
+  private void changeStatus(Member member, MemberStatus status) {
+    client.getMembershipTable().setStatus(member, status);
+    Suspicion suspicion = suspicions.remove(member);
+    if (suspicion != null) {
+      suspicion.timeout.cancel();
+    }
+    if (status == MemberStatus.SUSPECT) {
+      startSuspicion(member);
+    } else if (status == MemberStatus.DEAD) {
+      log.info("Dead member detected: {}", member);
+      if (suspicion != null) {
+        long timeToDetect = wheel.now() - suspicion.started;
+        client.getMetrics().detected(timeToDetect);
+        MemberFailureEvent.emit(client.getNickName(), member, timeToDetect, "swim");
+      }
+    }
+    enqueue(member);
+  }
+
+  //Must be called while holding the lock.
+  private void startSuspicion(Member member) {
+    long now = wheel.now();
+    Suspicion suspicion = new Suspicion(member, member.getVersion(), now,
+        now + suspicionTimeout());
+    suspicion.timeout = wheel.schedule(suspicion);
+    suspicions.put(member, suspicion);
+  }
+
+  private synchronized void confirm(Suspicion suspicion) {
+    Member member = suspicion.member;
+    //Only if nobody refuted it in the meantime.
+    if (suspicions.get(member) == suspicion && member.getVersion() == suspicion.version
+        && member.getStatus() == MemberStatus.SUSPECT) {
+      changeStatus(member, MemberStatus.DEAD);
+    }
+  }
+
+  /**
+   * How long a suspect has to refute the suspicion. Grows with the logarithm of the cluster size,
+   * since that is how long it takes for the suspicion to reach everyone.
+   */
+  private long suspicionTimeout() {
+    int members = Math.max(client.getMembershipTable().size(), 10);
+    return (long) (SUSPICION_MULTIPLIER * Math.log10(members) * protocolPeriod);
+  }
+
+  /**
+   * How many probes carry an update, which also grows with the logarithm of the cluster size.
+   */
+  private int retransmitLimit() {
+    int members = client.getMembershipTable().size() + 1;
+    return RETRANSMIT_MULTIPLIER * (32 - Integer.numberOfLeadingZeros(members));
+  }
+
+  //Must be called while holding the lock.
+  private void enqueue(Member member) {
+    broadcasts.removeIf(each -> each.member == member);
+    broadcasts.add(new Broadcast(member, retransmitLimit()));
+  }
+
+  /**
+   * Picks the updates for the next probe, newest first, since those have been sent the least.
+   */
+  private synchronized void fillPiggyback() {
+    piggyback.clear();
+    for (int i = broadcasts.size() - 1; i >= 0 && piggyback.size() < MAX_PIGGYBACKED; i--) {
+      Broadcast broadcast = broadcasts.get(i);
+      piggyback.add(broadcast.member);
+      if (--broadcast.remaining == 0) {
+        broadcasts.remove(i);
+      }
+    }
+  }
+
+  private void send(byte type, int probeSequence, Member target, Member peer) {
+    try {
+      sendTo(type, probeSequence, target, peer.getSocketAddress());
+    } catch (IOException e) {
+      log.debug("{} could not send to {} : {}", me.getNickName(), peer, e.getMessage());
+    }
+  }
+
+  private void reply(byte type, int probeSequence, SocketAddress peer) {
+    try {
+      sendTo(type, probeSequence, null, peer);
+    } catch (IOException e) {
+      log.debug("{} could not send to {} : {}", me.getNickName(), peer, e.getMessage());
+    }
+  }
+
+  private void sendTo(byte type, int probeSequence, Member target, SocketAddress peer)
+      throws IOException {
+    synchronized (sendBuffer) {
+      fillPiggyback();
+      sendBuffer.clear();
+      codec.encodeProbe(type, probeSequence, target, piggyback, sendBuffer);
+      sendBuffer.flip();
+      client.send(sendBuffer, peer);
+    }
+  }
+
+  private static final class Probe {
+
+    //Where to forward the ack to, when we are probing on behalf of somebody else.
+    private final SocketAddress replyTo;
+    private final int replySequence;
+    private volatile boolean acked;
+
+    Probe(SocketAddress replyTo, int replySequence) {
+      this.replyTo = replyTo;
+      this.replySequence = replySequence;
+    }
+  }
+
+  private static final class Broadcast {
+
+    private final Member member;
+    private int remaining;
+
+    Broadcast(Member member, int remaining) {
+      this.member = member;
+      this.remaining = remaining;
+    }
+  }
+
+  /**
+   * Runs an action on the timer thread, once a fixed deadline passes.
+   */
+  private static final class Deadline implements HashedWheelTimer.Task {
+
+    private final long deadline;
+    private final Runnable action;
+
+    Deadline(long deadline, Runnable action) {
+      this.deadline = deadline;
+      this.action = action;
+    }
+
+    @Override
+    public long deadline() {
+      return deadline;
+    }
+
+    @Override
+    public void expire() {
+      action.run();
+    }
+  }
+
+  private final class Suspicion implements HashedWheelTimer.Task {
+
+    private final Member member;
+    private final long version;
+    private final long started;
+    private final long deadline;
+    private HashedWheelTimer.Timeout timeout;
+
+    Suspicion(Member member, long version, long started, long deadline) {
+      this.member = member;
+      this.version = version;
+      this.started = started;
+      this.deadline = deadline;
+    }
+
+    @Override
+    public long deadline() {
+      return deadline;
+    }
+
+    @Override
+    public void expire() {
+      confirm(this);
+    }
+  }
+}
@@ -1,46 +1,106 @@
 package com.rationaleemotions.gossip;
 
-import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.Notification;
 import javax.management.NotificationListener;
-import javax.management.timer.Timer;
-
-public class TimeoutTimer extends Timer {
-
-	/**
-	 * The amount of time this timer waits before generating a wake-up event.
-	 */
-	private final long sleepTime;
-
-	private final Member source;
-
-	/**
-	 * Creates a reset-able timer that wakes up after millisecondsSleepTime.
-	 * @param millisecondsSleepTime The time for this timer to wait before an event.
-	 */
-	public TimeoutTimer(long millisecondsSleepTime, NotificationListener client, Member member) {
-		this.sleepTime = millisecondsSleepTime;
-		this.source = member;
-		addNotificationListener(client, null, null);
-	}
-
-	public void start() {
-		this.reset();
-		super.start();
-	}
-
-	/**
-	 * Resets timer to start counting down from original time.
-	 */
-	public void reset() {
-		removeAllNotifications();
-		setWakeupTime(sleepTime);
-	}
-
-	/**
-	 * Adds a new wake-up time for this timer.
-	 */
-	private void setWakeupTime(long milliseconds) {
-		addNotification("type", "message", source, new Date(System.currentTimeMillis()+milliseconds));
-	}
-}
 
+/**
+ * A reset-able failure detection timeout for a single member. This is a thin adapter over a
+ * (shared) {@link HashedWheelTimer}. Resetting it only records when we last heard from the member,
+ * and the wheel works out whether the timeout really expired when it comes around.
+ * <p>
+ * How long the timeout is, is up to a {@link FailureDetector}. That is either a fixed amount of
+ * time, or one that adapts to how regularly we hear from the member.
+ * <p>
+ * On expiry, the listener receives a {@link Notification} whose user data is the member, just like
+ * it did back when every member had a JMX timer of its own.
+ */
+public class TimeoutTimer implements HashedWheelTimer.Task {
+
+  private static final AtomicLong SEQUENCE = new AtomicLong();
+
+  /**
+   * Works out the amount of time this timer waits before generating a wake-up event.
+   */
+  private final FailureDetector detector;
+
+  private final Member source;
+
+  private final NotificationListener listener;
+
+  private final HashedWheelTimer wheel;
+
+  /**
+   * When we last heard from the member, as per the clock of the wheel.
+   */
+  private volatile long lastHeard;
+
+  private HashedWheelTimer.Timeout timeout;
+
+  /**
+   * Creates a reset-able timer that wakes up after millisecondsSleepTime.
+   * @param millisecondsSleepTime The time for this timer to wait before an event.
+   */
+  public TimeoutTimer(long millisecondsSleepTime, NotificationListener client, Member member) {
+    this(millisecondsSleepTime, client, member, HashedWheelTimer.shared());
+  }
+
+  public TimeoutTimer(long millisecondsSleepTime, NotificationListener client, Member member,
+      HashedWheelTimer wheel) {
+    this(FailureDetector.fixed(millisecondsSleepTime), client, member, wheel);
+  }
+
+  /**
+   * Creates a reset-able timer whose wait is decided by the given failure detector.
+   */
+  public TimeoutTimer(FailureDetector detector, NotificationListener client, Member member,
+      HashedWheelTimer wheel) {
+    this.detector = detector;
+    this.source = member;
+    this.listener = client;
+    this.wheel = wheel;
+  }
+
+  public synchronized void start() {
+    if (timeout == null || timeout.isCancelled()) {
+      // Whatever we heard before the member died says nothing about it now.
+      detector.clear();
+      this.reset();
+      timeout = wheel.schedule(this);
+    } else {
+      this.reset();
+    }
+  }
+
+  /**
+   * Resets timer to start counting down from original time.
+   */
+  public void reset() {
+    long now = wheel.now();
+    detector.heartbeat(now);
+    lastHeard = now;
+  }
+
+  public synchronized void stop() {
+    if (timeout != null) {
+      timeout.cancel();
+    }
+  }
+
+  public long getLastHeard() {
+    return lastHeard;
+  }
+
+  @Override
+  public long deadline() {
+    return lastHeard + detector.timeout();
+  }
+
+  @Override
+  public void expire() {
+    Notification notification = new Notification("type", this, SEQUENCE.incrementAndGet(),
+        wheel.now(), "message");
+    notification.setUserData(source);
+    listener.handleNotification(notification, null);
+  }
+}
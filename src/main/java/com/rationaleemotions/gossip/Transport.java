@@ -0,0 +1,67 @@
+package com.rationaleemotions.gossip;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Carries the datagrams of a client. Over UDP for real (see {@link UdpTransport}), or over a
+ * {@link SimulatedNetwork} that runs a whole cluster in memory.
+ * <p>
+ * Like UDP, a transport makes no promises: datagrams may get lost, or arrive out of order.
+ */
+public interface Transport extends Closeable {
+
+  /**
+   * Handles the datagrams that come in over a transport.
+   */
+  interface Receiver {
+
+    /**
+     * @param message - The datagram, between the position and the limit of the buffer. Only valid
+     *                for the duration of the call.
+     * @param sender  - Where the datagram came from.
+     */
+    void receive(ByteBuffer message, SocketAddress sender);
+  }
+
+  /**
+   * Creates the transport of a client.
+   */
+  interface Factory {
+
+    /**
+     * @return - The largest datagram that clients should send, and expect to receive.
+     */
+    int getMaxMessageSize() throws IOException;
+
+    /**
+     * @param address - The address of the client.
+     */
+    Transport bind(InetSocketAddress address) throws IOException;
+  }
+
+  /**
+   * Sends the message that sits between the position and the limit of the buffer to the given
+   * peer. The buffer is rewound afterwards, so that the same message can go out to the next peer.
+   * Sending over a closed transport quietly does nothing.
+   */
+  void send(ByteBuffer message, SocketAddress peer) throws IOException;
+
+  /**
+   * Starts handing incoming datagrams over to the given receiver.
+   *
+   * @param runtime - The threads to receive on, for transports that need any.
+   */
+  void listen(Receiver receiver, GossipRuntime runtime);
+
+  /**
+   * @return - The channel underneath, or <code>null</code> if the transport does not have one.
+   */
+  default DatagramChannel getChannel() {
+    return null;
+  }
+}
@@ -0,0 +1,117 @@
+package com.rationaleemotions.gossip;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.Random;
+
+/**
+ * Datagrams over a non-blocking UDP channel. Datagrams are read into pooled direct buffers, that
+ * are sized to the largest message, and handed over in place.
+ * <p>
+ * For the sake of demonstrations, the transport can drop a share of the datagrams that it sends,
+ * on top of whatever the network loses.
+ */
+public final class UdpTransport implements Transport {
+
+  //How many buffers the pool keeps around.
+  private static final int POOLED_BUFFERS = 4;
+
+  private final DatagramChannel channel;
+  private final BufferPool bufferPool;
+  private final Random random = new Random();
+  private final int lossPercent;
+  private volatile Receiver receiver;
+
+  /**
+   * @param port           - The port to bind to, on every interface.
+   * @param maxMessageSize - The largest datagram to expect.
+   * @param lossPercent    - The share of sent datagrams to drop on purpose (0 to 100).
+   */
+  public UdpTransport(int port, int maxMessageSize, int lossPercent) throws IOException {
+    this.lossPercent = lossPercent;
+    this.bufferPool = new BufferPool(maxMessageSize, POOLED_BUFFERS);
+    this.channel = DatagramChannel.open();
+    try {
+      channel.bind(new InetSocketAddress(port));
+      // The runtime multiplexes this channel through a selector.
+      channel.configureBlocking(false);
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * @param lossPercent - The share of sent datagrams to drop on purpose (0 to 100).
+   */
+  public static Factory factory(int lossPercent) {
+    return new Factory() {
+      @Override
+      public int getMaxMessageSize() throws IOException {
+        return MembershipCodec.maxMessageSizeFor(InetAddress.getLocalHost());
+      }
+
+      @Override
+      public Transport bind(InetSocketAddress address) throws IOException {
+        return new UdpTransport(address.getPort(), getMaxMessageSize(), lossPercent);
+      }
+    };
+  }
+
+  @Override
+  public void send(ByteBuffer message, SocketAddress peer) throws IOException {
+    if (lossPercent > 0 && random.nextInt(100) < lossPercent) {
+      return;
+    }
+    // A non-blocking send quietly drops the datagram when the socket buffer is full,
+    // which is no different from any other loss as far as gossip is concerned.
+    try {
+      channel.send(message, peer);
+    } catch (ClosedChannelException e) {
+      // We have been closed, while a round or a timer was still running.
+    }
+    message.rewind();
+  }
+
+  @Override
+  public void listen(Receiver receiver, GossipRuntime runtime) {
+    if (runtime == null) {
+      throw new IllegalArgumentException("Receiving over UDP needs a runtime");
+    }
+    this.receiver = receiver;
+    runtime.register(this);
+  }
+
+  @Override
+  public DatagramChannel getChannel() {
+    return channel;
+  }
+
+  /**
+   * Hands every datagram that is waiting on the channel over to the receiver.
+   */
+  void drain() throws IOException {
+    ByteBuffer buffer = bufferPool.acquire();
+    try {
+      SocketAddress sender;
+      while ((sender = channel.receive(buffer)) != null) {
+        buffer.flip();
+        receiver.receive(buffer, sender);
+        buffer.clear();
+      }
+    } finally {
+      bufferPool.release(buffer);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    // Also takes the channel off the selector of the runtime.
+    channel.close();
+  }
+}
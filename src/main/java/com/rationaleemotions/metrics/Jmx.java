@@ -0,0 +1,54 @@
+package com.rationaleemotions.metrics;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Registers MBeans with the platform MBean server. Metrics are a nice to have, so failing to
+ * register or unregister one is logged rather than thrown.
+ */
+@Slf4j
+public final class Jmx {
+
+  private Jmx() {
+  }
+
+  /**
+   * @param domain - The domain of the MBean, usually the package that it reports on.
+   * @param type   - The kind of thing that the MBean reports on.
+   * @param name   - Tells apart the MBeans of the same type. Quoted as needed.
+   * @return - The name the MBean was registered under, or <code>null</code> if it could not be
+   * registered (e.g., since another one already goes by that name).
+   */
+  public static ObjectName register(Object mbean, String domain, String type, String name) {
+    try {
+      ObjectName objectName = new ObjectName(domain + ":type=" + type + ",name="
+          + ObjectName.quote(name));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, objectName);
+      return objectName;
+    } catch (JMException e) {
+      log.warn("Could not register the {} MBean of {}", type, name, e);
+      return null;
+    }
+  }
+
+  /**
+   * Unregisters the MBean with the given name, if there is one.
+   */
+  public static void unregister(ObjectName objectName) {
+    if (objectName == null) {
+      return;
+    }
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      if (server.isRegistered(objectName)) {
+        server.unregisterMBean(objectName);
+      }
+    } catch (JMException e) {
+      log.warn("Could not unregister {}", objectName, e);
+    }
+  }
+}
@@ -0,0 +1,118 @@
+package com.rationaleemotions.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative values (typically latencies), in the spirit of HdrHistogram. Every
+ * power of two is split into {@value #SUB_BUCKETS} equal buckets, so every value is recorded with
+ * a relative error of at most 1/{@value #SUB_BUCKETS}, with a fixed number of buckets for the
+ * whole range of a long.
+ * <p>
+ * Every bucket is a {@link LongAdder}, so recording is a couple of shifts and a striped increment,
+ * and never contends. Reads add the buckets up, so a read that races with recordings may be off by
+ * those recordings.
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  //Values below SUB_BUCKETS get a bucket each, and every power of two from there on gets
+  //SUB_BUCKETS of them.
+  private static final int BUCKETS = (Long.SIZE - 1 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+  private final LongAdder[] buckets = new LongAdder[BUCKETS];
+  private final LongAdder sum = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  public LatencyHistogram() {
+    for (int i = 0; i < BUCKETS; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * @param value - Negative values are recorded as 0.
+   */
+  public void record(long value) {
+    long recorded = Math.max(value, 0);
+    buckets[bucketOf(recorded)].increment();
+    sum.add(recorded);
+    max.accumulate(recorded);
+  }
+
+  public long getCount() {
+    long count = 0;
+    for (LongAdder bucket : buckets) {
+      count += bucket.sum();
+    }
+    return count;
+  }
+
+  /**
+   * @return - The average of the recorded values, or 0 if there are none.
+   */
+  public double getMean() {
+    long count = getCount();
+    return count == 0 ? 0 : (double) sum.sum() / count;
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * @param percentile - Between 0 and 100.
+   * @return - A value that the given share of the recorded values does not exceed, within the
+   * precision of the buckets, or 0 if there are none.
+   */
+  public long getPercentile(double percentile) {
+    long[] counts = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = buckets[i].sum();
+      total += counts[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(highestValueOf(i), getMax());
+      }
+    }
+    return getMax();
+  }
+
+  public void reset() {
+    for (LongAdder bucket : buckets) {
+      bucket.reset();
+    }
+    sum.reset();
+    max.reset();
+  }
+
+  static int bucketOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  /**
+   * @return - The largest value that lands in the given bucket.
+   */
+  static long highestValueOf(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = bucket / SUB_BUCKETS - 1;
+    long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+}
@@ -0,0 +1,89 @@
+package com.rationaleemotions.caching;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import lombok.extern.slf4j.Slf4j;
+import org.testng.annotations.Test;
+
+@Slf4j
+public class CacheClusterTest {
+
+  private final List<String> servers = Arrays.asList("alpha", "beta", "gamma", "delta");
+  private final List<String> keys = IntStream.range(0, 10_000)
+      .mapToObj(i -> "key-" + i)
+      .collect(Collectors.toList());
+
+  @Test
+  public void keysLiveOnTheNodeTheRingPicks() {
+    CacheCluster<String> cluster = newCluster();
+    keys.forEach(key -> cluster.put(key, key));
+    for (String key : keys) {
+      String server = cluster.getRing().getServerFor(key);
+      assertThat(cluster.getNode(server).get(key)).isEqualTo(key);
+    }
+    for (String server : servers) {
+      assertThat(cluster.getNode(server).size()).isGreaterThan(0);
+    }
+  }
+
+  @Test
+  public void multiGetsCollectFromEveryNode() {
+    CacheCluster<String> cluster = newCluster();
+    keys.subList(0, 100).forEach(key -> cluster.put(key, key));
+    List<String> wanted = new ArrayList<>(keys.subList(50, 150));
+    Map<String, String> found = cluster.getAll(wanted);
+    assertThat(found.keySet()).containsExactlyInAnyOrderElementsOf(keys.subList(50, 100));
+    assertThat(cluster.getStats().getHits()).isEqualTo(50);
+    assertThat(cluster.getStats().getMisses()).isEqualTo(50);
+  }
+
+  @Test
+  public void addingANodeOnlyCostsItsShareOfHits() {
+    CacheCluster<String> cluster = newCluster();
+    keys.forEach(key -> cluster.put(key, key));
+    cluster.addNode("epsilon");
+    long hits = keys.stream().filter(key -> cluster.get(key) != null).count();
+    double hitRate = (double) hits / keys.size();
+    log.info("Hit rate after going from {} to {} nodes is {}", servers.size(),
+        servers.size() + 1, hitRate);
+    //Roughly one in five keys move to the new node, and only those are lost.
+    assertThat(hitRate).isBetween(0.7, 0.9);
+    assertThat(cluster.getNode("epsilon").size()).isEqualTo(0);
+  }
+
+  @Test
+  public void removingANodeDropsItsEntries() {
+    CacheCluster<String> cluster = newCluster();
+    keys.forEach(key -> cluster.put(key, key));
+    long held = cluster.getNode("beta").size();
+    cluster.removeNode("beta");
+    assertThat(cluster.getNode("beta")).isNull();
+    long hits = keys.stream().filter(key -> cluster.get(key) != null).count();
+    assertThat(hits).isEqualTo(keys.size() - held);
+  }
+
+  @Test
+  public void lookupsNeverCreateNodes() {
+    //The ring still routes to a server whose node is gone, as it does for a moment on removal.
+    ConsistentHash ring = new ConsistentHash(servers, 100, HashFunction.murmur3());
+    CacheCluster<String> cluster = new CacheCluster<>(ring, servers.subList(0, 3),
+        server -> new CacheNode<>(server, 100_000));
+    keys.forEach(key -> cluster.put(key, key));
+    long hits = keys.stream().filter(key -> cluster.get(key) != null).count();
+    assertThat(hits).isLessThan((long) keys.size());
+    assertThat(cluster.getAll(keys)).hasSize((int) hits);
+    assertThat(cluster.getNode("delta")).isNull();
+    assertThat(cluster.getNodes()).hasSize(3);
+  }
+
+  private CacheCluster<String> newCluster() {
+    ConsistentHash ring = new ConsistentHash(servers, 100, HashFunction.murmur3());
+    return new CacheCluster<>(ring, servers, server -> new CacheNode<>(server, 100_000));
+  }
+}
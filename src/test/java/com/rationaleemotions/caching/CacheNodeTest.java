@@ -0,0 +1,88 @@
+package com.rationaleemotions.caching;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.testng.annotations.Test;
+
+public class CacheNodeTest {
+
+  @Test
+  public void scansDoNotFlushHotEntries() {
+    CacheNode<String, String> node = new CacheNode<>("node", 10, (key, value) -> 1, 0, 1,
+        System::currentTimeMillis);
+    for (int i = 0; i < 5; i++) {
+      node.put("hot" + i, "value");
+      node.get("hot" + i);
+    }
+    for (int i = 0; i < 100; i++) {
+      node.put("scan" + i, "value");
+    }
+    for (int i = 0; i < 5; i++) {
+      assertThat(node.get("hot" + i)).isEqualTo("value");
+    }
+    assertThat(node.size()).isEqualTo(10);
+    assertThat(node.getStats().getEvictions()).isEqualTo(95);
+  }
+
+  @Test
+  public void weightIsBounded() {
+    CacheNode<String, String> node = new CacheNode<>("node", 100,
+        (key, value) -> value.length(), 0, 4, System::currentTimeMillis);
+    for (int i = 0; i < 50; i++) {
+      node.put("key" + i, "0123456789");
+    }
+    assertThat(node.weight()).isLessThanOrEqualTo(100);
+    //Heavier than a stripe can hold.
+    node.put("huge", new String(new char[60]));
+    assertThat(node.get("huge")).isNull();
+  }
+
+  @Test
+  public void entriesExpire() {
+    AtomicLong clock = new AtomicLong();
+    CacheNode<String, String> node = new CacheNode<>("node", 10, (key, value) -> 1, 1000, 1,
+        clock::get);
+    node.put("default", "value");
+    node.put("longer", "value", 5000);
+    clock.set(999);
+    assertThat(node.get("default")).isEqualTo("value");
+    clock.set(1000);
+    assertThat(node.get("default")).isNull();
+    assertThat(node.get("longer")).isEqualTo("value");
+    clock.set(5000);
+    assertThat(node.get("longer")).isNull();
+    assertThat(node.getStats().getExpirations()).isEqualTo(2);
+  }
+
+  @Test
+  public void putIfAbsentLeavesLiveEntriesAlone() {
+    AtomicLong clock = new AtomicLong();
+    CacheNode<String, String> node = new CacheNode<>("node", 10, (key, value) -> 1, 0, 1,
+        clock::get);
+    assertThat(node.putIfAbsent("apple", "red", 1000)).isTrue();
+    assertThat(node.putIfAbsent("apple", "green", 0)).isFalse();
+    assertThat(node.get("apple")).isEqualTo("red");
+    clock.set(1000);
+    //An expired entry is as good as absent.
+    assertThat(node.putIfAbsent("apple", "green", 0)).isTrue();
+    assertThat(node.get("apple")).isEqualTo("green");
+  }
+
+  @Test
+  public void countsHitsAndMisses() {
+    CacheNode<String, String> node = new CacheNode<>("node", 10);
+    node.put("apple", "red");
+    node.put("banana", "yellow");
+    Map<String, String> found = node.getAll(Arrays.asList("apple", "banana", "cherry"));
+    assertThat(found).hasSize(2);
+    assertThat(node.remove("apple")).isEqualTo("red");
+    assertThat(node.get("apple")).isNull();
+    CacheNode.Stats stats = node.getStats();
+    assertThat(stats.getHits()).isEqualTo(2);
+    assertThat(stats.getMisses()).isEqualTo(2);
+    assertThat(stats.getHitRate()).isEqualTo(0.5);
+  }
+}
@@ -2,11 +2,29 @@ package com.rationaleemotions.caching;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import lombok.extern.slf4j.Slf4j;
 import org.testng.annotations.Test;
 
@@ -25,37 +43,268 @@ public class ConsistentHashTest {
     log.info("Initially with {} servers", servers.size());
     Collection<String> logs = generateHashes(consistentHash);
     String[] expected = new String[]{
-        "[apple] with hash value [1], Routed to Node[Linux-Host (Linux-Host&&VN0)]",
-        "[bat] with hash value [2], Routed to Node[Linux-Host (Linux-Host&&VN0)]",
-        "[cat] with hash value [3], Routed to Node[Linux-Host (Linux-Host&&VN0)]",
-        "[dog] with hash value [4], Routed to Node[Linux-Host (Linux-Host&&VN0)]",
-        "[mumbai] with hash value [13], Routed to Node[Linux-Host (Linux-Host&&VN1)]",
-        "[name] with hash value [14], Routed to Node[OSX-Host (OSX-Host&&VN0)]",
-        "[pig] with hash value [16], Routed to Node[OSX-Host (OSX-Host&&VN1)]",
-        "[queen] with hash value [17], Routed to Node[Solaris-Host (Solaris-Host&&VN0)]",
-        "[tiger] with hash value [20], Routed to Node[Solaris-Host (Solaris-Host&&VN1)]",
-        "[umbrella] with hash value [21], Routed to Node[Windows-Host (Windows-Host&&VN0)]"
+        "[apple] with hash value [1], Routed to Node[Linux-Host]",
+        "[bat] with hash value [2], Routed to Node[Linux-Host]",
+        "[cat] with hash value [3], Routed to Node[Linux-Host]",
+        "[dog] with hash value [4], Routed to Node[Linux-Host]",
+        "[mumbai] with hash value [13], Routed to Node[Linux-Host]",
+        "[name] with hash value [14], Routed to Node[OSX-Host]",
+        "[pig] with hash value [16], Routed to Node[OSX-Host]",
+        "[queen] with hash value [17], Routed to Node[Solaris-Host]",
+        "[tiger] with hash value [20], Routed to Node[Solaris-Host]",
+        "[umbrella] with hash value [21], Routed to Node[Windows-Host]"
     };
     assertThat(logs).containsExactly(expected);
     String removedServer = "Linux-Host";
     consistentHash.removeServer(removedServer);
     log.info("After removing server {}", removedServer);
     expected = new String[]{
-        "[apple] with hash value [1], Routed to Node[OSX-Host (OSX-Host&&VN0)]",
-        "[bat] with hash value [2], Routed to Node[OSX-Host (OSX-Host&&VN0)]",
-        "[cat] with hash value [3], Routed to Node[OSX-Host (OSX-Host&&VN0)]",
-        "[dog] with hash value [4], Routed to Node[OSX-Host (OSX-Host&&VN0)]",
-        "[mumbai] with hash value [13], Routed to Node[OSX-Host (OSX-Host&&VN0)]",
-        "[name] with hash value [14], Routed to Node[OSX-Host (OSX-Host&&VN0)]",
-        "[pig] with hash value [16], Routed to Node[OSX-Host (OSX-Host&&VN1)]",
-        "[queen] with hash value [17], Routed to Node[Solaris-Host (Solaris-Host&&VN0)]",
-        "[tiger] with hash value [20], Routed to Node[Solaris-Host (Solaris-Host&&VN1)]",
-        "[umbrella] with hash value [21], Routed to Node[Windows-Host (Windows-Host&&VN0)]"
+        "[apple] with hash value [1], Routed to Node[OSX-Host]",
+        "[bat] with hash value [2], Routed to Node[OSX-Host]",
+        "[cat] with hash value [3], Routed to Node[OSX-Host]",
+        "[dog] with hash value [4], Routed to Node[OSX-Host]",
+        "[mumbai] with hash value [13], Routed to Node[OSX-Host]",
+        "[name] with hash value [14], Routed to Node[OSX-Host]",
+        "[pig] with hash value [16], Routed to Node[OSX-Host]",
+        "[queen] with hash value [17], Routed to Node[Solaris-Host]",
+        "[tiger] with hash value [20], Routed to Node[Solaris-Host]",
+        "[umbrella] with hash value [21], Routed to Node[Windows-Host]"
     };
     logs = generateHashes(consistentHash);
     assertThat(logs).containsExactly(expected);
   }
 
+  @Test
+  public void lookupsDuringTopologyChanges() throws Exception {
+    List<String> servers = Arrays.asList("Solaris-Host", "OSX-Host", "Linux-Host", "Windows-Host");
+    ConsistentHash consistentHash = new ConsistentHash(servers, 2, hashFunction());
+    ExecutorService service = Executors.newFixedThreadPool(4);
+    AtomicBoolean keepRunning = new AtomicBoolean(true);
+    //The topology only starts changing once every reader is up and running.
+    CountDownLatch running = new CountDownLatch(4);
+    List<Future<Integer>> readers = IntStream.range(0, 4)
+        .mapToObj(i -> service.submit(() -> {
+          int lookups = 0;
+          do {
+            for (String key : keys) {
+              assertThat(consistentHash.getServerFor(key)).isNotNull();
+              lookups++;
+            }
+            if (lookups == keys.size()) {
+              running.countDown();
+            }
+          } while (keepRunning.get());
+          return lookups;
+        }))
+        .collect(Collectors.toList());
+    assertThat(running.await(10, TimeUnit.SECONDS)).isTrue();
+    for (int i = 0; i < 1000; i++) {
+      consistentHash.removeServer("Linux-Host");
+      consistentHash.addNewServer("Linux-Host");
+    }
+    keepRunning.set(false);
+    service.shutdown();
+    for (Future<Integer> reader : readers) {
+      assertThat(reader.get()).isGreaterThan(0);
+    }
+  }
+
+  @Test
+  public void boundedLoadsSpillHotKeysOverToOtherServers() {
+    List<String> servers = Arrays.asList("Solaris-Host", "OSX-Host", "Linux-Host", "Windows-Host");
+    ConsistentHash consistentHash = new ConsistentHash(servers, 2, hashFunction())
+        .enableBoundedLoads(0.25);
+    List<String> assigned = IntStream.range(0, 1000)
+        .mapToObj(i -> consistentHash.acquireServerFor("apple"))
+        .collect(Collectors.toList());
+    //ceil(1.25 * 1000 / 4)
+    servers.forEach(server -> assertThat(consistentHash.getLoad(server)).isLessThanOrEqualTo(313));
+    assertThat(consistentHash.getLoad("Linux-Host")).isGreaterThanOrEqualTo(250);
+
+    assigned.forEach(consistentHash::release);
+    servers.forEach(server -> assertThat(consistentHash.getLoad(server)).isZero());
+    assertThat(consistentHash.acquireServerFor("apple")).isEqualTo("Linux-Host");
+  }
+
+  @Test
+  public void weightedServersGetProportionallyMoreKeys() {
+    Map<String, Integer> weightedServers = new LinkedHashMap<>();
+    weightedServers.put("Solaris-Host", 1);
+    weightedServers.put("OSX-Host", 1);
+    weightedServers.put("Linux-Host", 2);
+    ConsistentHash consistentHash = new ConsistentHash(weightedServers, 100,
+        HashFunction.murmur3());
+    int total = 100_000;
+    Map<String, Long> owners = IntStream.range(0, total)
+        .mapToObj(i -> consistentHash.getServerFor("key-" + i))
+        .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
+    assertThat(owners.get("Linux-Host") / (double) total).isBetween(0.4, 0.6);
+  }
+
+  @Test
+  public void batchUpdatesRouteLikeIncrementalUpdates() {
+    List<String> servers = Arrays.asList("Solaris-Host", "OSX-Host", "Linux-Host", "Windows-Host");
+    ConsistentHash incremental = new ConsistentHash(servers, 50, HashFunction.xxHash64());
+    incremental.removeServer("Linux-Host");
+    incremental.addNewServer("FreeBSD-Host");
+    incremental.addNewServer("OSX-Host", 3);
+
+    ConsistentHash batched = new ConsistentHash(servers, 50, HashFunction.xxHash64());
+    Map<String, Integer> added = new LinkedHashMap<>();
+    added.put("FreeBSD-Host", 1);
+    added.put("OSX-Host", 3);
+    batched.updateServers(added, Collections.singletonList("Linux-Host"));
+
+    IntStream.range(0, 10_000)
+        .mapToObj(i -> "key-" + i)
+        .forEach(key -> assertThat(batched.getServerFor(key))
+            .isEqualTo(incremental.getServerFor(key)));
+  }
+
+  @Test
+  public void routesBatchesLikeSingleLookups() {
+    List<String> servers = Arrays.asList("Solaris-Host", "OSX-Host", "Linux-Host", "Windows-Host");
+    ConsistentHash consistentHash = new ConsistentHash(servers, 50, HashFunction.murmur3());
+    //Large enough to take the parallel path.
+    String[] batch = IntStream.range(0, 50_000).mapToObj(i -> "key-" + i).toArray(String[]::new);
+    Routing routing = consistentHash.route(batch);
+    assertThat(routing.size()).isEqualTo(batch.length);
+    for (int i = 0; i < batch.length; i++) {
+      assertThat(routing.getServerFor(i)).isEqualTo(consistentHash.getServerFor(batch[i]));
+    }
+
+    Map<String, List<String>> grouped = consistentHash.groupByServer(keys);
+    assertThat(grouped.values().stream().mapToInt(List::size).sum()).isEqualTo(keys.size());
+    grouped.forEach((server, group) -> group.forEach(
+        key -> assertThat(consistentHash.getServerFor(key)).isEqualTo(server)));
+  }
+
+  @Test
+  public void preferenceListsSkipVirtualNodesOfChosenServers() {
+    List<String> servers = Arrays.asList("Solaris-Host", "OSX-Host", "Linux-Host", "Windows-Host");
+    ConsistentHash consistentHash = new ConsistentHash(servers, 2, hashFunction());
+    assertThat(consistentHash.getServersFor("apple", 3))
+        .containsExactly("Linux-Host", "OSX-Host", "Solaris-Host");
+    assertThat(consistentHash.getServersFor("umbrella", 3))
+        .containsExactly("Windows-Host", "Linux-Host", "OSX-Host");
+    assertThat(consistentHash.getServersFor("apple", 10)).hasSize(servers.size());
+  }
+
+  @Test
+  public void precomputedPreferenceListsMatchWalkedOnes() {
+    List<String> servers = Arrays.asList("Solaris-Host", "OSX-Host", "Linux-Host", "Windows-Host");
+    ConsistentHash walked = new ConsistentHash(servers, 50, HashFunction.murmur3());
+    ConsistentHash precomputed = new ConsistentHash(servers, 50, HashFunction.murmur3())
+        .precomputePreferenceLists(3);
+    walked.addNewServer("FreeBSD-Host");
+    precomputed.addNewServer("FreeBSD-Host");
+    IntStream.range(0, 10_000)
+        .mapToObj(i -> "key-" + i)
+        .forEach(key -> {
+          List<String> preferenceList = precomputed.getServersFor(key, 3);
+          assertThat(preferenceList).doesNotHaveDuplicates();
+          assertThat(preferenceList.get(0)).isEqualTo(precomputed.getServerFor(key));
+          assertThat(preferenceList).isEqualTo(walked.getServersFor(key, 3));
+          assertThat(precomputed.getServersFor(key, 4)).isEqualTo(walked.getServersFor(key, 4));
+        });
+  }
+
+  @Test
+  public void diffsFindExactlyTheKeysThatChangeOwners() {
+    List<String> servers = Arrays.asList("Solaris-Host", "OSX-Host", "Linux-Host", "Windows-Host");
+    ConsistentHash consistentHash = new ConsistentHash(servers, 50, HashFunction.murmur3());
+    Ring original = consistentHash.snapshot();
+    assertThat(original.diff(consistentHash.snapshot())).isEmpty();
+
+    consistentHash.addNewServer("FreeBSD-Host");
+    assertMovedRangesMatchRouting(original, consistentHash);
+    Ring scaledOut = consistentHash.snapshot();
+    consistentHash.removeServer("Linux-Host");
+    assertMovedRangesMatchRouting(scaledOut, consistentHash);
+    Ring scaledIn = consistentHash.snapshot();
+    Map<String, Integer> added = new LinkedHashMap<>();
+    added.put("Haiku-Host", 1);
+    added.put("OSX-Host", 3);
+    consistentHash.updateServers(added, Collections.singletonList("Solaris-Host"));
+    assertMovedRangesMatchRouting(scaledIn, consistentHash);
+  }
+
+  @Test
+  public void metricsCountLookupsAndShareOutTheHashSpace() throws Exception {
+    List<String> servers = Arrays.asList("Solaris-Host", "OSX-Host", "Linux-Host", "Windows-Host");
+    ConsistentHash consistentHash = new ConsistentHash(servers, 100, HashFunction.murmur3())
+        .enableMetrics("metrics-test");
+    IntStream.range(0, 10_000).forEach(i -> consistentHash.getServerFor("key-" + i));
+    consistentHash.route(keys);
+
+    RoutingMetrics metrics = consistentHash.getMetrics();
+    assertThat(metrics.getLookups()).isEqualTo(10_000 + keys.size());
+    assertThat(metrics.getLookupLatencyMaxNanos()).isGreaterThan(0L);
+    assertThat(metrics.getServers()).isEqualTo(servers.size());
+    Map<String, Double> ownership = metrics.getOwnership();
+    assertThat(ownership.keySet()).containsExactlyInAnyOrderElementsOf(servers);
+    assertThat(ownership.values().stream().mapToDouble(Double::doubleValue).sum())
+        .isBetween(0.999, 1.001);
+    ownership.values().forEach(share -> assertThat(share).isBetween(0.15, 0.35));
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName(RoutingMetrics.DOMAIN + ":type=ConsistentHash,name="
+        + ObjectName.quote("metrics-test"));
+    assertThat(server.getAttribute(name, "Lookups")).isEqualTo(metrics.getLookups());
+    consistentHash.disableMetrics();
+    assertThat(server.isRegistered(name)).isFalse();
+    assertThat(consistentHash.getMetrics()).isNull();
+  }
+
+  @Test
+  public void recordsAnEventPerRebuild() throws Exception {
+    List<RecordedEvent> events;
+    try (Recording recording = new Recording()) {
+      recording.enable(RingRebuildEvent.class);
+      recording.start();
+      ConsistentHash consistentHash = new ConsistentHash(
+          Arrays.asList("Solaris-Host", "OSX-Host"), 50, HashFunction.murmur3());
+      Map<String, Integer> added = new LinkedHashMap<>();
+      added.put("Linux-Host", 1);
+      added.put("Windows-Host", 2);
+      consistentHash.updateServers(added, Collections.singleton("OSX-Host"));
+      recording.stop();
+      Path dump = Files.createTempFile("ring", ".jfr");
+      try {
+        recording.dump(dump);
+        events = RecordingFile.readAllEvents(dump);
+      } finally {
+        Files.delete(dump);
+      }
+    }
+    assertThat(events).hasSize(2);
+    RecordedEvent update = events.get(1);
+    assertThat(update.getInt("added")).isEqualTo(2);
+    assertThat(update.getInt("removed")).isEqualTo(1);
+    assertThat(update.getInt("servers")).isEqualTo(3);
+    assertThat(update.getInt("virtualNodes")).isEqualTo(200);
+  }
+
+  private static void assertMovedRangesMatchRouting(Ring before, ConsistentHash after) {
+    List<TokenRange> moved = before.diff(after.snapshot());
+    assertThat(moved.stream().filter(TokenRange::wrapsAround).count()).isLessThanOrEqualTo(1L);
+    for (int i = 0; i < 20_000; i++) {
+      long hash = after.hash("key-" + i);
+      String from = before.nodeAt(before.indexFor(hash));
+      String to = after.getServerFor("key-" + i);
+      List<TokenRange> containing = moved.stream()
+          .filter(range -> range.contains(hash))
+          .collect(Collectors.toList());
+      if (from.equals(to)) {
+        assertThat(containing).isEmpty();
+      } else {
+        assertThat(containing).hasSize(1);
+        assertThat(containing.get(0).getFrom()).isEqualTo(from);
+        assertThat(containing.get(0).getTo()).isEqualTo(to);
+      }
+    }
+  }
+
   private Function<String, Integer> hashFunction() {
     return text -> {
       String character = (text.charAt(0) + "").toLowerCase();
@@ -0,0 +1,70 @@
+package com.rationaleemotions.caching;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class HashFunctionTest {
+
+  @Test(dataProvider = "referenceValues")
+  public void matchesReferenceImplementations(HashFunction hashFunction, String text,
+      long expected) {
+    assertThat(hashFunction.hash(text)).isEqualTo(expected);
+  }
+
+  @DataProvider
+  public Object[][] referenceValues() {
+    return new Object[][]{
+        {HashFunction.xxHash64(), "", 0xef46db3751d8e999L},
+        {HashFunction.xxHash64(), "abc", 0x44bc2cf5ad770999L},
+        {HashFunction.xxHash64(), "Nobody inspects the spammish repetition", 0xfbcea83c8a378bf1L},
+        {HashFunction.murmur3(), "", 0L},
+        {HashFunction.murmur3(), "foo", -2129773440516405919L},
+        {HashFunction.murmur3(), "Nobody inspects the spammish repetition", 3079101242950401803L},
+    };
+  }
+
+  @Test(dataProvider = "hashFunctions")
+  public void textBytesAndBuffersHashAlike(HashFunction hashFunction) {
+    String text = "héllo wörld 😀 日本";
+    byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length + 3);
+    direct.put(new byte[3]).put(bytes).flip().position(3);
+
+    long expected = hashFunction.hash(bytes);
+    assertThat(hashFunction.hash(text)).isEqualTo(expected);
+    assertThat(hashFunction.hash(ByteBuffer.wrap(bytes))).isEqualTo(expected);
+    assertThat(hashFunction.hash(direct)).isEqualTo(expected);
+    assertThat(direct.position()).isEqualTo(3);
+  }
+
+  @Test(dataProvider = "hashFunctions")
+  public void spreadsKeysEvenlyAcrossServers(HashFunction hashFunction) {
+    List<String> servers = Arrays.asList("Solaris-Host", "OSX-Host", "Linux-Host", "Windows-Host");
+    ConsistentHash consistentHash = new ConsistentHash(servers, 100, hashFunction);
+    int keys = 100_000;
+    Map<String, Long> owners = IntStream.range(0, keys)
+        .mapToObj(i -> consistentHash.getServerFor("key-" + i))
+        .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
+    assertThat(owners).hasSize(servers.size());
+    double fairShare = (double) keys / servers.size();
+    owners.values().forEach(count -> assertThat(count / fairShare).isBetween(0.75, 1.25));
+  }
+
+  @DataProvider
+  public Object[][] hashFunctions() {
+    return new Object[][]{
+        {HashFunction.murmur3()},
+        {HashFunction.xxHash64()}
+    };
+  }
+}
@@ -0,0 +1,114 @@
+package com.rationaleemotions.caching;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import lombok.extern.slf4j.Slf4j;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+@Slf4j
+public class KeyMigratorTest {
+
+  private final List<String> servers = Arrays.asList("alpha", "beta", "gamma", "delta");
+  private final List<String> keys = IntStream.range(0, 10_000)
+      .mapToObj(i -> "key-" + i)
+      .collect(Collectors.toList());
+  private final ExecutorService executor = Executors.newFixedThreadPool(4);
+  private final AtomicLong clock = new AtomicLong();
+
+  @AfterClass
+  public void shutDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void scalingOutOnlyMovesTheKeysOfTheNewNode() {
+    CacheCluster<String> cluster = newCluster(0);
+    keys.forEach(key -> cluster.put(key, key));
+    cluster.addNode("epsilon");
+
+    KeyMigrator.Result result = cluster.getLastMigration();
+    log.info("Scaling out from {} to {} nodes: {}", servers.size(), servers.size() + 1, result);
+    assertThat(result.getKeysMoved()).isEqualTo(cluster.getNode("epsilon").size());
+    assertThat(result.getKeysMoved() / (double) keys.size()).isBetween(0.1, 0.3);
+    assertThat(keys.stream().filter(key -> cluster.get(key) == null).count()).isEqualTo(0L);
+    assertThat(cluster.getNodes().values().stream().mapToLong(CacheNode::size).sum())
+        .isEqualTo(keys.size());
+  }
+
+  @Test
+  public void scalingInHandsTheKeysOfTheNodeOver() {
+    CacheCluster<String> cluster = newCluster(0);
+    keys.forEach(key -> cluster.put(key, key));
+    long held = cluster.getNode("beta").size();
+    cluster.removeNode("beta");
+    assertThat(cluster.getLastMigration().getKeysMoved()).isEqualTo(held);
+    assertThat(cluster.getLastMigration().getKeysScanned()).isEqualTo(held);
+    assertThat(keys.stream().filter(key -> cluster.get(key) == null).count()).isEqualTo(0L);
+  }
+
+  @Test
+  public void entriesKeepTheTimeTheyHadLeft() {
+    CacheCluster<String> cluster = newCluster(0);
+    keys.forEach(key -> cluster.put(key, key, 1000));
+    clock.addAndGet(600);
+    cluster.addNode("epsilon");
+    CacheNode<String, String> epsilon = cluster.getNode("epsilon");
+    assertThat(epsilon.size()).isGreaterThan(0L);
+    clock.addAndGet(400);
+    List<String> moved = keys.stream()
+        .filter(key -> cluster.getRing().getServerFor(key).equals("epsilon"))
+        .collect(Collectors.toList());
+    assertThat(epsilon.getAll(moved)).isEmpty();
+  }
+
+  @Test
+  public void copiesStayUnderTheBandwidthCap() {
+    long bytesPerSecond = 100_000;
+    CacheCluster<String> cluster = newCluster(bytesPerSecond);
+    keys.forEach(key -> cluster.put(key, key));
+    cluster.addNode("epsilon");
+    KeyMigrator.Result result = cluster.getLastMigration();
+    //Every copy but the last has to wait for its slot.
+    long least = (result.getBytesMoved() - 20) * 1000 / bytesPerSecond;
+    assertThat(result.getElapsed()).isGreaterThanOrEqualTo(least);
+  }
+
+  @Test
+  public void copiesNeverReplaceWhatWasWrittenSince() throws Exception {
+    CacheCluster<String> cluster = newCluster(100_000);
+    keys.forEach(key -> cluster.put(key, key));
+    Thread scaling = new Thread(() -> cluster.addNode("epsilon"));
+    scaling.start();
+    long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+    while (!cluster.getRing().getServers().contains("epsilon")
+        && System.currentTimeMillis() < deadline) {
+      Thread.yield();
+    }
+    //The migration is still copying, at the pace of the cap.
+    List<String> moved = keys.stream()
+        .filter(key -> cluster.getRing().getServerFor(key).equals("epsilon"))
+        .collect(Collectors.toList());
+    moved.forEach(key -> cluster.put(key, "fresh"));
+    scaling.join();
+    assertThat(cluster.getLastMigration().getKeysMoved()).isLessThan((long) moved.size());
+    for (String key : moved) {
+      assertThat(cluster.get(key)).isEqualTo("fresh");
+    }
+  }
+
+  private CacheCluster<String> newCluster(long bytesPerSecond) {
+    ConsistentHash ring = new ConsistentHash(servers, 100, HashFunction.murmur3());
+    return new CacheCluster<String>(ring, servers,
+        server -> new CacheNode<>(server, 100_000, (key, value) -> 1, 0, 4, clock::get))
+        .enableMigration(executor, bytesPerSecond, (key, value) -> key.length() + value.length());
+  }
+}
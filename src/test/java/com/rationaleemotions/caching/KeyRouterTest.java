@@ -0,0 +1,91 @@
+package com.rationaleemotions.caching;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that every {@link KeyRouter} spreads keys evenly and moves as few keys as possible when
+ * servers come and go.
+ */
+public class KeyRouterTest {
+
+  private static final List<String> SERVERS = Arrays.asList(
+      "Solaris-Host", "OSX-Host", "Linux-Host", "Windows-Host");
+
+  private static final String NEW_SERVER = "FreeBSD-Host";
+
+  private final List<String> keys = IntStream.range(0, 20_000)
+      .mapToObj(i -> "key-" + i)
+      .collect(Collectors.toList());
+
+  @Test(dataProvider = "routers")
+  public void spreadsKeysEvenly(String name, KeyRouter router) {
+    Map<String, Long> owners = route(router).values().stream()
+        .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
+    assertThat(owners).hasSize(SERVERS.size());
+    double fairShare = (double) keys.size() / SERVERS.size();
+    owners.values().forEach(count -> assertThat(count / fairShare).isBetween(0.75, 1.25));
+  }
+
+  @Test(dataProvider = "routers")
+  public void addingServerOnlyMovesKeysToIt(String name, KeyRouter router) {
+    Map<String, String> before = route(router);
+    router.addNewServer(NEW_SERVER);
+    Map<String, String> after = route(router);
+
+    List<String> moved = movedKeys(before, after);
+    long movedElsewhere = moved.stream().filter(key -> !after.get(key).equals(NEW_SERVER)).count();
+    //Ideally exactly 1/5th of the keys move, and all of them to the new server.
+    assertThat((double) moved.size() / keys.size()).isBetween(0.1, 0.3);
+    assertThat((double) movedElsewhere / keys.size()).isLessThan(0.02);
+  }
+
+  @Test(dataProvider = "routers")
+  public void removingServerOnlyMovesItsKeys(String name, KeyRouter router) {
+    router.addNewServer(NEW_SERVER);
+    Map<String, String> before = route(router);
+    router.removeServer(NEW_SERVER);
+    Map<String, String> after = route(router);
+
+    List<String> moved = movedKeys(before, after);
+    long movedFromElsewhere = moved.stream()
+        .filter(key -> !before.get(key).equals(NEW_SERVER))
+        .count();
+    assertThat(after.values()).doesNotContain(NEW_SERVER);
+    assertThat((double) movedFromElsewhere / keys.size()).isLessThan(0.02);
+  }
+
+  @Test(dataProvider = "routers", expectedExceptions = IllegalStateException.class)
+  public void refusesToRouteWithoutServers(String name, KeyRouter router) {
+    SERVERS.forEach(router::removeServer);
+    router.getServerFor("apple");
+  }
+
+  @DataProvider
+  public Object[][] routers() {
+    return new Object[][]{
+        {"ring", new ConsistentHash(SERVERS, 100, HashFunction.murmur3())},
+        {"jump", new JumpConsistentHash(SERVERS)},
+        {"maglev", new MaglevHash(SERVERS, 5003, HashFunction.murmur3())}
+    };
+  }
+
+  private Map<String, String> route(KeyRouter router) {
+    return keys.stream()
+        .collect(Collectors.toMap(Function.identity(), router::getServerFor));
+  }
+
+  private List<String> movedKeys(Map<String, String> before, Map<String, String> after) {
+    return keys.stream()
+        .filter(key -> !before.get(key).equals(after.get(key)))
+        .collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,146 @@
+package com.rationaleemotions.caching;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.rationaleemotions.gossip.ClientImpl;
+import com.rationaleemotions.gossip.FailureDetector;
+import com.rationaleemotions.gossip.Member;
+import com.rationaleemotions.gossip.MembershipEvent;
+import com.rationaleemotions.gossip.SimulatedNetwork;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.testng.annotations.Test;
+
+public class RingBindingTest {
+
+  private final SimulatedNetwork network = new SimulatedNetwork(42);
+
+  @Test
+  public void waitsForFlappingToSettle() {
+    ConsistentHash ring = new ConsistentHash(Arrays.asList("alpha:1", "beta:2"));
+    RingBinding binding = new RingBinding(ring, network.getTimer(), 200, 1000, Runnable::run);
+    Member beta = member("beta:2");
+    for (int i = 0; i < 5; i++) {
+      binding.membershipChanged(event(MembershipEvent.Type.LEFT, beta));
+      network.advance(50);
+      binding.membershipChanged(event(MembershipEvent.Type.RECOVERED, beta));
+      network.advance(50);
+    }
+    binding.membershipChanged(event(MembershipEvent.Type.JOINED, member("gamma:3")));
+    assertThat(ring.getServers()).containsExactly("alpha:1", "beta:2");
+    network.advance(250);
+    assertThat(ring.getServers()).containsExactlyInAnyOrder("alpha:1", "beta:2", "gamma:3");
+    //Only gamma made it onto the ring, in a single rebuild.
+    assertThat(binding.getRebuilds()).isEqualTo(1);
+  }
+
+  @Test
+  public void neverHoldsChangesBackForLongerThanTheMaximumDelay() {
+    ConsistentHash ring = new ConsistentHash(Collections.singletonList("alpha:1"));
+    RingBinding binding = new RingBinding(ring, network.getTimer(), 200, 1000, Runnable::run);
+    for (int i = 0; i < 15; i++) {
+      binding.membershipChanged(event(MembershipEvent.Type.JOINED, member("node:" + (10 + i))));
+      network.advance(100);
+    }
+    assertThat(binding.getRebuilds()).isEqualTo(1);
+    assertThat(ring.getServers()).hasSize(11);
+    network.advance(300);
+    assertThat(binding.getRebuilds()).isEqualTo(2);
+    assertThat(ring.getServers()).hasSize(16);
+  }
+
+  @Test
+  public void rebuildsOffTheTimerThread() throws Exception {
+    ConsistentHash ring = new ConsistentHash(Collections.singletonList("alpha:1"));
+    RingBinding binding = new RingBinding(ring, network.getTimer(), 200, 1000);
+    binding.membershipChanged(event(MembershipEvent.Type.JOINED, member("beta:2")));
+    network.advance(250);
+    long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+    while (binding.getRebuilds() == 0 && System.currentTimeMillis() < deadline) {
+      TimeUnit.MILLISECONDS.sleep(10);
+    }
+    assertThat(ring.getServers()).containsExactlyInAnyOrder("alpha:1", "beta:2");
+  }
+
+  @Test
+  public void takesChangesWhileTheRingIsRebuilt() throws Exception {
+    CountDownLatch rebuilding = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicBoolean slow = new AtomicBoolean();
+    HashFunction murmur3 = HashFunction.murmur3();
+    //Holds up the rebuild, once the ring has been built.
+    HashFunction blocking = (bytes, offset, length) -> {
+      if (slow.compareAndSet(true, false)) {
+        rebuilding.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      return murmur3.hash(bytes, offset, length);
+    };
+    ConsistentHash ring = new ConsistentHash(Collections.singletonList("alpha:1"), 10, blocking);
+    RingBinding binding = new RingBinding(ring, network.getTimer(), 200, 1000, Runnable::run);
+    binding.membershipChanged(event(MembershipEvent.Type.JOINED, member("beta:2")));
+    slow.set(true);
+    Thread flusher = new Thread(binding::flush);
+    flusher.start();
+    try {
+      assertThat(rebuilding.await(5, TimeUnit.SECONDS)).isTrue();
+      //Neither a change, nor the timer asking when to flush, waits for the rebuild.
+      Thread changer = new Thread(() -> {
+        binding.membershipChanged(event(MembershipEvent.Type.JOINED, member("gamma:3")));
+        network.advance(100);
+      });
+      changer.start();
+      changer.join(TimeUnit.SECONDS.toMillis(5));
+      assertThat(changer.isAlive()).isFalse();
+    } finally {
+      release.countDown();
+    }
+    flusher.join();
+    network.advance(250);
+    assertThat(ring.getServers()).containsExactlyInAnyOrder("alpha:1", "beta:2", "gamma:3");
+    assertThat(binding.getRebuilds()).isEqualTo(2);
+  }
+
+  @Test
+  public void followsTheMembershipOfTheCluster() throws Exception {
+    List<String> addresses = Arrays.asList("node0:10000", "node1:10001", "node2:10002",
+        "node3:10003");
+    List<ClientImpl> clients = new ArrayList<>();
+    for (String address : addresses) {
+      ClientImpl client = new ClientImpl(address, addresses, () -> FailureDetector.fixed(1000),
+          network.transports(), network.getTimer(), new Random(7));
+      client.setGossipInterval(100);
+      clients.add(client);
+    }
+    ConsistentHash ring = new ConsistentHash(Arrays.asList("node0:10000", "retired:9999"));
+    RingBinding.bind(clients.get(0), ring, Runnable::run);
+    assertThat(ring.getServers()).containsExactlyInAnyOrderElementsOf(addresses);
+
+    clients.forEach(ClientImpl::startOnTimer);
+    network.advance(500);
+    clients.get(3).stop();
+    //The failure detector gives up after a second, and the ring follows within a gossip round.
+    network.advance(1000 + 200);
+    assertThat(ring.getServers()).containsExactlyInAnyOrder("node0:10000", "node1:10001",
+        "node2:10002");
+    clients.forEach(ClientImpl::stop);
+  }
+
+  private static List<MembershipEvent> event(MembershipEvent.Type type, Member member) {
+    return Collections.singletonList(new MembershipEvent(type, member));
+  }
+
+  private static Member member(String address) {
+    return new Member(address, 0, null, 1000);
+  }
+}
@@ -0,0 +1,146 @@
+package com.rationaleemotions.gossip;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class AntiEntropyTest {
+
+  private FakeClient a;
+  private FakeClient b;
+
+  @BeforeMethod
+  public void newClients() {
+    a = new FakeClient("a:1", 256);
+    b = new FakeClient("b:2", 256);
+  }
+
+  @Test
+  public void exchangesOnlyWhatDiffers() throws Exception {
+    for (int i = 0; i < 100; i++) {
+      a.add("node-" + i + ":" + i, i, 1);
+      b.add("node-" + i + ":" + i, i, 1);
+    }
+    //b is ahead on node-1, a is ahead on node-2, and each knows one node that the other does not.
+    b.members.get("node-1:1").updateIfNewer(1, 50);
+    a.members.get("node-2:2").updateIfNewer(2, 0);
+    a.add("only-a:1000", 7, 1);
+    b.add("only-b:2000", 9, 1);
+
+    AntiEntropy atB = new AntiEntropy(b, new MembershipCodec());
+    //Replies cover whatever the digest (that was split) covered, so collect them as we go.
+    List<String> pushed = new ArrayList<>();
+    List<Long> requested = new ArrayList<>();
+    for (ByteBuffer digest : a.digests()) {
+      atB.reconcile(digest);
+      atB.getPushes().forEach(m -> pushed.add(m.getNickName()));
+      for (long fingerprint : atB.getRequests()) {
+        requested.add(fingerprint);
+      }
+    }
+    assertThat(pushed).containsExactlyInAnyOrder("node-1:1", "only-b:2000");
+    assertThat(requested).containsExactlyInAnyOrder(
+        a.members.get("node-2:2").getFingerprint(), a.members.get("only-a:1000").getFingerprint());
+
+    //a answers the request with just those members.
+    long[] fingerprints = requested.stream().mapToLong(Long::longValue).toArray();
+    long[] versions = new long[fingerprints.length];
+    for (int i = 0; i < fingerprints.length; i++) {
+      Member known = b.members.get(fingerprints[i]);
+      versions[i] = known == null ? 0 : known.getVersion();
+    }
+    ByteBuffer request = ByteBuffer.allocate(256);
+    new MembershipCodec().encodeRequest(fingerprints, versions, 0, fingerprints.length, request);
+    request.flip();
+    AntiEntropy atA = new AntiEntropy(a, new MembershipCodec());
+    atA.reconcile(request);
+    assertThat(atA.getPushes().stream().map(Member::getNickName).collect(Collectors.toList()))
+        .containsExactlyInAnyOrder("node-2:2", "only-a:1000");
+    assertThat(atA.getRequests().length).isZero();
+  }
+
+  @Test
+  public void identicalListsNeedNoReply() throws Exception {
+    for (int i = 0; i < 100; i++) {
+      a.add("node-" + i + ":" + i, i, 1);
+      b.add("node-" + i + ":" + i, i, 1);
+    }
+    AntiEntropy atB = new AntiEntropy(b, new MembershipCodec());
+    for (ByteBuffer digest : a.digests()) {
+      atB.reconcile(digest);
+      assertThat(atB.getPushes()).isEmpty();
+      assertThat(atB.getRequests().length).isZero();
+    }
+  }
+
+  @Test
+  public void deadMembersAreNotPushed() throws Exception {
+    b.add("node-1:1", 10, 1);
+    b.members.setStatus(b.members.get("node-1:1"), MemberStatus.DEAD);
+    AntiEntropy atB = new AntiEntropy(b, new MembershipCodec());
+    for (ByteBuffer digest : a.digests()) {
+      atB.reconcile(digest);
+      assertThat(atB.getPushes()).isEmpty();
+    }
+  }
+
+  private static final class FakeClient implements GossipContext {
+
+    private final String nickName;
+    private final int maxMessageSize;
+    private final MembershipTable members;
+
+    FakeClient(String nickName, int maxMessageSize) {
+      this.nickName = nickName;
+      this.maxMessageSize = maxMessageSize;
+      this.members = new MembershipTable(nickName);
+    }
+
+    void add(String address, int heartbeat, int generation) {
+      members.putIfAbsent(new Member(address, heartbeat, generation, null, Client.t_cleanup));
+    }
+
+    List<ByteBuffer> digests() {
+      List<ByteBuffer> digests = new ArrayList<>();
+      Member[] sorted = members.byFingerprint();
+      MembershipCodec codec = new MembershipCodec();
+      int from = 0;
+      do {
+        ByteBuffer buffer = ByteBuffer.allocate(maxMessageSize);
+        from = codec.encodeDigest(sorted, from, buffer);
+        buffer.flip();
+        digests.add(buffer);
+      } while (from < sorted.length);
+      return digests;
+    }
+
+    @Override
+    public int getMaxMessageSize() {
+      return maxMessageSize;
+    }
+
+    @Override
+    public MembershipTable getMembershipTable() {
+      return members;
+    }
+
+    @Override
+    public void gossip(List<Member> peers) {
+    }
+
+    @Override
+    public void send(ByteBuffer message, SocketAddress peer) {
+    }
+
+    @Override
+    public String getNickName() {
+      return nickName;
+    }
+  }
+}
@@ -0,0 +1,37 @@
+package com.rationaleemotions.gossip;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.testng.annotations.Test;
+
+public class ClusterSimulatorTest {
+
+  @Test
+  public void swimDetectsACrashEverywhere() throws Exception {
+    ClusterSimulator simulator = new ClusterSimulator(GossipMode.SWIM, 7);
+    ClusterSimulator.Report report = simulator.run(10);
+    assertThat(report.getConvergenceRounds()).isGreaterThanOrEqualTo(0);
+    assertThat(report.getDetected()).isEqualTo(1.0);
+    assertThat(report.getMaxDetectionLatency()).isGreaterThan(0L);
+    assertThat(report.getFalsePositiveRate()).isEqualTo(0.0);
+    assertThat(report.getBytesPerNodePerSecond()).isGreaterThan(0.0);
+  }
+
+  @Test
+  public void aFastGossipConvergesWithoutFalsePositives() throws Exception {
+    ClusterSimulator simulator = new ClusterSimulator(GossipMode.DIGEST, 7);
+    simulator.setGossipInterval(1000);
+    simulator.setFanOut(2, 2);
+    ClusterSimulator.Report report = simulator.run(20);
+    assertThat(report.getConvergenceRounds()).isBetween(1, 20);
+    assertThat(report.getDetected()).isEqualTo(1.0);
+    assertThat(report.getFalsePositiveRate()).isLessThan(0.01);
+  }
+
+  @Test
+  public void theSameSeedGivesTheSameReport() throws Exception {
+    ClusterSimulator simulator = new ClusterSimulator(GossipMode.FULL_LIST, 7);
+    simulator.setLoss(0.1);
+    assertThat(simulator.run(10).toString()).isEqualTo(simulator.run(10).toString());
+  }
+}
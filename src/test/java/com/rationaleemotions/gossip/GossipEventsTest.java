@@ -0,0 +1,101 @@
+package com.rationaleemotions.gossip;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.testng.annotations.Test;
+
+public class GossipEventsTest {
+
+  private final List<String> addresses = Arrays.asList("node0:10000", "node1:10001",
+      "node2:10002");
+
+  @Test
+  public void recordsTrafficMergesAndFailures() throws Exception {
+    List<RecordedEvent> events;
+    try (Recording recording = new Recording()) {
+      recording.enable(GossipSendEvent.class);
+      recording.enable(GossipReceiveEvent.class);
+      recording.enable(GossipMergeEvent.class);
+      recording.enable(MemberFailureEvent.class);
+      recording.start();
+
+      SimulatedNetwork network = new SimulatedNetwork(42);
+      List<ClientImpl> clients = new ArrayList<>();
+      for (String address : addresses) {
+        ClientImpl client = new ClientImpl(address, addresses, () -> FailureDetector.fixed(1000),
+            network.transports(), network.getTimer(), new Random(7));
+        client.setGossipInterval(100);
+        clients.add(client);
+      }
+      clients.forEach(ClientImpl::startOnTimer);
+      network.advance(500);
+      clients.get(2).stop();
+      network.transports().bind(new InetSocketAddress("stranger", 9999))
+          .send(ByteBuffer.wrap(new byte[]{42, 42, 42}), clients.get(0).getMembershipTable()
+              .get("node0:10000").getSocketAddress());
+      network.advance(1500);
+      clients.forEach(ClientImpl::stop);
+
+      recording.stop();
+      Path dump = Files.createTempFile("gossip", ".jfr");
+      try {
+        recording.dump(dump);
+        events = RecordingFile.readAllEvents(dump);
+      } finally {
+        Files.delete(dump);
+      }
+    }
+
+    List<RecordedEvent> sends = named(events, "com.rationaleemotions.gossip.Send");
+    assertThat(sends).isNotEmpty();
+    for (RecordedEvent send : sends) {
+      assertThat(send.getString("type")).isEqualTo("MEMBERSHIP");
+      assertThat(send.getInt("members")).isBetween(1, 3);
+    }
+
+    List<RecordedEvent> receives = named(events, "com.rationaleemotions.gossip.Receive");
+    List<RecordedEvent> dropped = receives.stream()
+        .filter(receive -> receive.getBoolean("dropped"))
+        .collect(Collectors.toList());
+    assertThat(dropped).hasSize(1);
+    assertThat(dropped.get(0).getString("client")).isEqualTo("node0:10000");
+
+    List<RecordedEvent> merges = named(events, "com.rationaleemotions.gossip.Merge");
+    assertThat(merges).hasSize(receives.size() - 1);
+    //Everyone hears about the others for the first time in their first merges.
+    assertThat(merges.stream().mapToInt(merge -> merge.getInt("changes")).sum()).isPositive();
+
+    List<RecordedEvent> failures = named(events, "com.rationaleemotions.gossip.MemberFailure")
+        .stream()
+        .filter(failure -> failure.getString("client").equals("node0:10000"))
+        .collect(Collectors.toList());
+    assertThat(failures).hasSize(1);
+    RecordedEvent failure = failures.get(0);
+    assertThat(failure.getString("member")).isEqualTo("node2:10002");
+    assertThat(failure.getString("detectedBy")).isEqualTo("timeout");
+    //Declared dead a second after we last heard from it, give or take a tick.
+    assertThat(failure.getDuration("timeToDetect").toMillis()).isBetween(1000L, 1200L);
+  }
+
+  private static List<RecordedEvent> named(List<RecordedEvent> events, String name) {
+    List<RecordedEvent> named = new ArrayList<>();
+    for (RecordedEvent event : events) {
+      if (event.getEventType().getName().equals(name)) {
+        named.add(event);
+      }
+    }
+    return named;
+  }
+}
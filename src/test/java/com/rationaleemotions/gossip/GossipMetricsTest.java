@@ -0,0 +1,71 @@
+package com.rationaleemotions.gossip;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.testng.annotations.Test;
+
+public class GossipMetricsTest {
+
+  private final List<String> addresses = Arrays.asList("node0:10000", "node1:10001",
+      "node2:10002");
+
+  @Test
+  public void countsTrafficMergesAndDetections() throws Exception {
+    SimulatedNetwork network = new SimulatedNetwork(42);
+    List<ClientImpl> clients = new ArrayList<>();
+    for (String address : addresses) {
+      ClientImpl client = new ClientImpl(address, addresses, () -> FailureDetector.fixed(1000),
+          network.transports(), network.getTimer(), new Random(7));
+      client.setGossipInterval(100);
+      clients.add(client);
+    }
+    clients.forEach(ClientImpl::startOnTimer);
+    network.advance(500);
+    clients.get(2).stop();
+    network.transports().bind(new InetSocketAddress("stranger", 9999))
+        .send(ByteBuffer.wrap(new byte[]{42, 42, 42}), clients.get(0).getMembershipTable()
+            .get("node0:10000").getSocketAddress());
+    network.advance(1500);
+
+    GossipMetrics metrics = clients.get(0).getMetrics();
+    assertThat(metrics.getPacketsOut()).isGreaterThan(0L);
+    assertThat(metrics.getBytesOut()).isGreaterThan(metrics.getPacketsOut());
+    assertThat(metrics.getPacketsIn()).isGreaterThan(0L);
+    assertThat(metrics.getMerges()).isEqualTo(metrics.getPacketsIn() - 1);
+    assertThat(metrics.getDecodeFailures()).isEqualTo(1);
+    assertThat(metrics.getMergeLatencyMaxNanos()).isGreaterThan(0L);
+    assertThat(metrics.getAliveMembers()).isEqualTo(2);
+    assertThat(metrics.getDeadMembers()).isEqualTo(1);
+    assertThat(metrics.getDetections()).isEqualTo(1);
+    //Declared dead a second after we last heard from it, give or take a tick.
+    assertThat(metrics.getTimeToDetectMaxMillis()).isBetween(1000L, 1200L);
+    clients.forEach(ClientImpl::stop);
+  }
+
+  @Test
+  public void registersWithJmxWhileRunning() throws Exception {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName(GossipMetrics.DOMAIN + ":type=GossipClient,name="
+        + ObjectName.quote("wolverine:2226"));
+    ClientImpl client = new ClientImpl("wolverine:2226", Arrays.asList("wolverine:2226"));
+    try (GossipRuntime runtime = new GossipRuntime(1, Executors.defaultThreadFactory())) {
+      client.start(runtime);
+      assertThat(server.isRegistered(name)).isTrue();
+      assertThat(server.getAttribute(name, "AliveMembers")).isEqualTo(1);
+      client.stop();
+      assertThat(server.isRegistered(name)).isFalse();
+    } finally {
+      client.stop();
+    }
+  }
+}
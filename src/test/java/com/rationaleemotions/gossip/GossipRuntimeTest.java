@@ -0,0 +1,41 @@
+package com.rationaleemotions.gossip;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.testng.annotations.Test;
+
+public class GossipRuntimeTest {
+
+  @Test
+  public void aThrowingReceiverDoesNotStopTheOthers() throws Exception {
+    CountDownLatch thrown = new CountDownLatch(2);
+    CountDownLatch received = new CountDownLatch(2);
+    try (GossipRuntime runtime = new GossipRuntime(1, Executors.defaultThreadFactory());
+        UdpTransport throwing = new UdpTransport(0, 64, 0);
+        UdpTransport healthy = new UdpTransport(0, 64, 0)) {
+      throwing.listen((message, sender) -> {
+        thrown.countDown();
+        throw new IllegalStateException("Thrown on purpose");
+      }, runtime);
+      healthy.listen((message, sender) -> received.countDown(), runtime);
+
+      for (int i = 0; i < 2; i++) {
+        send(healthy, throwing);
+        send(throwing, healthy);
+      }
+      //Both keep receiving: the throwing one its second datagram, the other one both of them.
+      assertThat(thrown.await(10, TimeUnit.SECONDS)).isTrue();
+      assertThat(received.await(10, TimeUnit.SECONDS)).isTrue();
+    }
+  }
+
+  private static void send(UdpTransport from, UdpTransport to) throws Exception {
+    from.send(ByteBuffer.wrap(new byte[]{42}),
+        new InetSocketAddress("localhost", to.getChannel().socket().getLocalPort()));
+  }
+}
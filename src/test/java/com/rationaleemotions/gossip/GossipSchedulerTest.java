@@ -0,0 +1,121 @@
+package com.rationaleemotions.gossip;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class GossipSchedulerTest {
+
+  private RecordingClient client;
+
+  @BeforeMethod
+  public void newClient() {
+    client = new RecordingClient("self:1");
+    client.add("self:1");
+    for (int i = 0; i < 30; i++) {
+      client.add("node-" + i + ":" + (2000 + i));
+    }
+  }
+
+  @Test
+  public void gossipsWithFanOutDistinctPeers() {
+    GossipScheduler scheduler = new GossipScheduler(client, null, 1000, 3, 3);
+    for (int round = 0; round < 50; round++) {
+      scheduler.runRound();
+      List<Member> peers = client.rounds.get(round);
+      assertThat(peers).hasSize(3);
+      assertThat(peers).doesNotHaveDuplicates();
+      assertThat(peers).allMatch(peer -> !peer.getNickName().equals("self:1"));
+    }
+  }
+
+  @Test
+  public void everyPeerIsContactedWithinBoundedRounds() {
+    int fanOut = 4;
+    int peers = client.members.peers().length;
+    GossipScheduler scheduler = new GossipScheduler(client, null, 1000, fanOut, fanOut);
+    //Whichever window of rounds we look at, it covers every peer.
+    int bound = 2 * ((peers + fanOut - 1) / fanOut) + 1;
+    for (int round = 0; round < 100; round++) {
+      scheduler.runRound();
+    }
+    for (int start = 0; start + bound <= client.rounds.size(); start++) {
+      Set<Member> contacted = new HashSet<>();
+      client.rounds.subList(start, start + bound).forEach(contacted::addAll);
+      assertThat(contacted).hasSize(peers);
+    }
+  }
+
+  @Test
+  public void boostsTheFanOutAfterAChangeAndBacksOff() {
+    GossipScheduler scheduler = new GossipScheduler(client, null, 1000, 1, 4);
+    scheduler.runRound();
+    assertThat(client.rounds.get(0)).hasSize(1);
+
+    client.add("newcomer:3000");
+    scheduler.runRound();
+    assertThat(scheduler.getFanOut()).isEqualTo(4);
+    assertThat(client.rounds.get(1)).hasSize(4);
+
+    for (int round = 0; round < 20; round++) {
+      scheduler.runRound();
+    }
+    assertThat(scheduler.getFanOut()).isEqualTo(1);
+    assertThat(client.rounds.get(client.rounds.size() - 1)).hasSize(1);
+  }
+
+  @Test
+  public void sticksToTheFanOutWhenNotAdaptive() {
+    GossipScheduler scheduler = new GossipScheduler(client, null, 1000, 2, 2);
+    client.add("newcomer:3000");
+    scheduler.runRound();
+    assertThat(client.rounds.get(0)).hasSize(2);
+  }
+
+  private static final class RecordingClient implements GossipContext {
+
+    private final String nickName;
+    private final MembershipTable members;
+    private final List<List<Member>> rounds = new ArrayList<>();
+
+    RecordingClient(String nickName) {
+      this.nickName = nickName;
+      this.members = new MembershipTable(nickName);
+    }
+
+    void add(String address) {
+      members.putIfAbsent(new Member(address, 0, null, Client.t_cleanup));
+    }
+
+    @Override
+    public void gossip(List<Member> peers) {
+      rounds.add(new ArrayList<>(peers));
+    }
+
+    @Override
+    public int getMaxMessageSize() {
+      return 1024;
+    }
+
+    @Override
+    public MembershipTable getMembershipTable() {
+      return members;
+    }
+
+    @Override
+    public void send(ByteBuffer message, SocketAddress peer) {
+    }
+
+    @Override
+    public String getNickName() {
+      return nickName;
+    }
+  }
+}
@@ -1,13 +1,12 @@
 package com.rationaleemotions.gossip;
 
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
 import org.testng.annotations.Test;
 
 public class GossipTest {
@@ -20,28 +19,46 @@ public class GossipTest {
   );
 
   @Test
-  public void testMethod() {
-    List<Callable<Void>> tasks = membersInfo.stream()
-        .map(each -> (Callable<Void>) () -> {
-          new ClientImpl(each, membersInfo).start();
-          return null;
-        })
-        .collect(Collectors.toList());
-    ExecutorService service = Executors.newFixedThreadPool(tasks.size());
-    List<Future<Void>> futures = tasks.stream()
-        .map(service::submit)
-        .collect(Collectors.toList());
-    service.shutdown();
-    futures.parallelStream()
-        .forEach(each -> {
-          try {
-            each.get();
-          } catch (InterruptedException e) {
-            e.printStackTrace();
-          } catch (ExecutionException e) {
-            e.printStackTrace();
-          }
-        });
+  public void testMethod() throws Exception {
+    List<ClientImpl> clients = new ArrayList<>();
+    try (GossipRuntime runtime = new GossipRuntime(2, Executors.defaultThreadFactory())) {
+      for (String each : membersInfo) {
+        ClientImpl client = new ClientImpl(each, membersInfo);
+        client.setGossipInterval(100);
+        clients.add(client);
+      }
+      for (ClientImpl client : clients) {
+        client.start(runtime);
+      }
+
+      //Everyone restarted with a fresh generation, which everyone else should hear of.
+      long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(20);
+      while (!haveConverged(clients) && System.currentTimeMillis() < deadline) {
+        TimeUnit.MILLISECONDS.sleep(100);
+      }
+      assertThat(haveConverged(clients)).isTrue();
+
+      for (ClientImpl client : clients) {
+        client.stop();
+      }
+      for (ClientImpl client : clients) {
+        assertThat(client.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(client.getChannel().isOpen()).isFalse();
+      }
+    } finally {
+      clients.forEach(ClientImpl::stop);
+    }
+  }
+
+  private static boolean haveConverged(List<ClientImpl> clients) {
+    for (ClientImpl client : clients) {
+      for (String each : clients.stream().map(ClientImpl::getNickName).toArray(String[]::new)) {
+        if (client.getMembershipTable().get(each).getGeneration() == 0) {
+          return false;
+        }
+      }
+    }
+    return true;
   }
 
 }
@@ -0,0 +1,97 @@
+package com.rationaleemotions.gossip;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class HashedWheelTimerTest {
+
+  private AtomicLong clock;
+  private HashedWheelTimer wheel;
+
+  @BeforeMethod
+  public void newWheel() {
+    clock = new AtomicLong();
+    //Without a thread factory, the test drives the wheel.
+    wheel = new HashedWheelTimer(100, 8, clock::get, null);
+  }
+
+  @Test
+  public void expiresOnlyOnceTheDeadlinePasses() {
+    List<Member> expired = new ArrayList<>();
+    Member member = member(expired);
+    TimeoutTimer timer = new TimeoutTimer(1000, listener(expired), member, wheel);
+    timer.start();
+
+    advanceTo(900);
+    assertThat(expired).isEmpty();
+    advanceTo(1100);
+    assertThat(expired).containsExactly(member);
+    advanceTo(5000);
+    assertThat(expired).hasSize(1);
+  }
+
+  @Test
+  public void resetsPushTheDeadlineOut() {
+    List<Member> expired = new ArrayList<>();
+    Member member = member(expired);
+    TimeoutTimer timer = new TimeoutTimer(1000, listener(expired), member, wheel);
+    timer.start();
+
+    //Keep hearing from the member for several rotations of the (800ms) wheel.
+    for (long now = 500; now <= 5000; now += 500) {
+      advanceTo(now);
+      timer.reset();
+    }
+    assertThat(expired).isEmpty();
+    advanceTo(6100);
+    assertThat(expired).containsExactly(member);
+  }
+
+  @Test
+  public void cancelledTimeoutsNeverExpire() {
+    List<Member> expired = new ArrayList<>();
+    TimeoutTimer timer = new TimeoutTimer(1000, listener(expired), member(expired), wheel);
+    timer.start();
+    timer.stop();
+    advanceTo(3000);
+    assertThat(expired).isEmpty();
+  }
+
+  @Test
+  public void handlesManyTimeoutsOnOneWheel() {
+    List<Member> expired = new ArrayList<>();
+    List<TimeoutTimer> timers = new ArrayList<>();
+    for (int i = 0; i < 10_000; i++) {
+      TimeoutTimer timer = new TimeoutTimer(1000 + i, listener(expired), member(expired), wheel);
+      timer.start();
+      timers.add(timer);
+    }
+    //Deadlines run from 1000 to 10999.
+    advanceTo(5000);
+    assertThat(expired.size()).isEqualTo(4001);
+    advanceTo(11_000);
+    assertThat(expired.size()).isEqualTo(timers.size());
+  }
+
+  private void advanceTo(long now) {
+    for (long t = clock.get() + 100; t <= now; t += 100) {
+      clock.set(t);
+      wheel.advance(t);
+    }
+    clock.set(now);
+    wheel.advance(now);
+  }
+
+  private static Member member(List<Member> expired) {
+    return new Member("node-" + expired.size() + ":2222", 0, listener(expired), Client.t_cleanup);
+  }
+
+  private static javax.management.NotificationListener listener(List<Member> expired) {
+    return (notification, handback) -> expired.add((Member) notification.getUserData());
+  }
+}
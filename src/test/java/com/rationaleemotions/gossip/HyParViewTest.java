@@ -0,0 +1,170 @@
+package com.rationaleemotions.gossip;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.testng.annotations.Test;
+
+public class HyParViewTest {
+
+  private static final int NODES = 50;
+
+  @Test
+  public void viewsStaySmallAndSymmetric() throws Exception {
+    SimulatedNetwork network = new SimulatedNetwork(42);
+    List<HyParView> nodes = overlay(network, new HashMap<>());
+    Map<String, HyParView> byAddress = new HashMap<>();
+    nodes.forEach(node -> byAddress.put(node.getAddress(), node));
+    for (HyParView node : nodes) {
+      assertThat(node.getActiveView()).isNotEmpty().doesNotContain(node.getAddress());
+      assertThat(node.getActiveView().size())
+          .isLessThanOrEqualTo(HyParView.DEFAULT_ACTIVE_VIEW_SIZE);
+      assertThat(node.getPassiveView()).doesNotContain(node.getAddress());
+      assertThat(node.getPassiveView().size())
+          .isLessThanOrEqualTo(HyParView.DEFAULT_PASSIVE_VIEW_SIZE);
+      assertThat(Collections.disjoint(node.getActiveView(), node.getPassiveView())).isTrue();
+      for (String peer : node.getActiveView()) {
+        assertThat(byAddress.get(peer).getActiveView()).contains(node.getAddress());
+      }
+    }
+    nodes.forEach(HyParView::stop);
+  }
+
+  @Test
+  public void broadcastsReachEveryoneOnceEvenAfterCrashes() throws Exception {
+    SimulatedNetwork network = new SimulatedNetwork(42);
+    Map<String, Integer> deliveries = new HashMap<>();
+    List<HyParView> nodes = overlay(network, deliveries);
+
+    nodes.get(0).broadcast(ByteBuffer.wrap(new byte[]{42}));
+    network.advance(1000);
+    assertThat(deliveries).hasSize(NODES - 1).doesNotContainKey(nodes.get(0).getAddress());
+    assertThat(new HashSet<>(deliveries.values())).containsExactly(1);
+
+    //A fifth of the overlay crashes, and the survivors replace their lost peers.
+    Set<String> crashed = new HashSet<>();
+    Random random = new Random(7);
+    while (crashed.size() < NODES / 5) {
+      HyParView victim = nodes.get(1 + random.nextInt(NODES - 1));
+      victim.stop();
+      crashed.add(victim.getAddress());
+    }
+    network.advance(10 * HyParView.DEFAULT_KEEP_ALIVE_INTERVAL);
+    for (HyParView node : nodes) {
+      if (!crashed.contains(node.getAddress())) {
+        assertThat(node.getActiveView()).isNotEmpty();
+        assertThat(Collections.disjoint(node.getActiveView(), crashed)).isTrue();
+      }
+    }
+    deliveries.clear();
+    nodes.get(0).broadcast(ByteBuffer.wrap(new byte[]{43}));
+    network.advance(1000);
+    assertThat(deliveries).hasSize(NODES - 1 - crashed.size());
+    assertThat(Collections.disjoint(deliveries.keySet(), crashed)).isTrue();
+    nodes.forEach(HyParView::stop);
+  }
+
+  @Test
+  public void dropsMessagesWithMalformedAddresses() throws Exception {
+    SimulatedNetwork network = new SimulatedNetwork(42);
+    HyParView node = new HyParView("node0:10000", network.transports(), network.getTimer(),
+        new Random(7));
+    node.start(null, null);
+    OverlayCodec codec = new OverlayCodec();
+    for (String sender : new String[]{"x", "node1:port", "node1:70000"}) {
+      ByteBuffer join = ByteBuffer.allocate(64);
+      codec.encode(OverlayCodec.JOIN, (byte) 0, bytes(sender), 0, null,
+          Collections.emptyList(), join);
+      join.flip();
+      node.receive(join, null);
+    }
+    ByteBuffer shuffle = ByteBuffer.allocate(64);
+    codec.encode(OverlayCodec.SHUFFLE_REPLY, (byte) 0, bytes("node1:10001"), 0, null,
+        Collections.singletonList(bytes("x")), shuffle);
+    shuffle.flip();
+    node.receive(shuffle, null);
+    assertThat(node.getActiveView()).isEmpty();
+    assertThat(node.getPassiveView()).isEmpty();
+
+    //And it still takes in well-formed nodes, tick after tick.
+    HyParView other = new HyParView("node1:10001", network.transports(), network.getTimer(),
+        new Random(8));
+    other.start(node.getAddress(), null);
+    network.advance(3 * HyParView.DEFAULT_KEEP_ALIVE_INTERVAL);
+    assertThat(node.getActiveView()).containsExactly("node1:10001");
+    node.stop();
+    other.stop();
+  }
+
+  @Test
+  public void clientsInOverlayModeOnlyTrackTheirActiveView() throws Exception {
+    SimulatedNetwork network = new SimulatedNetwork(42);
+    Random random = network.getRandom();
+    String contact = "node0:10000";
+    List<ClientImpl> clients = new ArrayList<>();
+    for (int i = 0; i < NODES; i++) {
+      String address = "node" + i + ":" + (10000 + i);
+      //Nobody but the contact is on the startup list.
+      ClientImpl client = new ClientImpl(address, Arrays.asList(contact, address),
+          () -> FailureDetector.fixed(Client.t_cleanup),
+          network.transports(), network.getTimer(), new Random(random.nextLong()));
+      client.setGossipMode(GossipMode.OVERLAY);
+      client.startOnTimer();
+      clients.add(client);
+      network.advance(100);
+    }
+    network.advance(3 * HyParView.DEFAULT_SHUFFLE_INTERVAL);
+
+    for (ClientImpl client : clients) {
+      List<String> active = client.getOverlay().getActiveView();
+      assertThat(active).isNotEmpty();
+      assertThat(active.size()).isLessThanOrEqualTo(HyParView.DEFAULT_ACTIVE_VIEW_SIZE);
+      MembershipTable table = client.getMembershipTable();
+      //Our active peers keep sending us their heartbeats, and nobody else does.
+      for (String peer : active) {
+        assertThat(table.get(peer).getStatus()).isEqualTo(MemberStatus.ALIVE);
+      }
+      Set<String> live = new HashSet<>();
+      for (Member member : table.peers()) {
+        live.add(member.getNickName());
+      }
+      assertThat(live).containsExactlyInAnyOrderElementsOf(active);
+    }
+    clients.forEach(ClientImpl::stop);
+  }
+
+  private static byte[] bytes(String address) {
+    return address.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Joins every node through a random earlier one, and lets the overlay settle.
+   */
+  private static List<HyParView> overlay(SimulatedNetwork network,
+      Map<String, Integer> deliveries) throws Exception {
+    network.setLoss(0.01);
+    Random random = network.getRandom();
+    List<HyParView> nodes = new ArrayList<>();
+    for (int i = 0; i < NODES; i++) {
+      HyParView node = new HyParView("node" + i + ":" + (10000 + i), network.transports(),
+          network.getTimer(), new Random(random.nextLong()));
+      String address = node.getAddress();
+      node.addBroadcastListener((origin, payload) -> deliveries.merge(address, 1, Integer::sum));
+      node.start(i == 0 ? null : nodes.get(random.nextInt(i)).getAddress(), null);
+      nodes.add(node);
+      network.advance(100);
+    }
+    network.advance(3 * HyParView.DEFAULT_SHUFFLE_INTERVAL);
+    return nodes;
+  }
+}
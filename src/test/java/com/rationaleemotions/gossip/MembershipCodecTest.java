@@ -0,0 +1,154 @@
+package com.rationaleemotions.gossip;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.StreamCorruptedException;
+import com.rationaleemotions.gossip.MembershipCodec.DigestVisitor;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class MembershipCodecTest {
+
+  private final MembershipCodec codec = new MembershipCodec();
+
+  @Test(dataProvider = "stringTable")
+  public void hundredsOfMembersFitInOneMessage(boolean stringTable) throws Exception {
+    List<Member> members = members(300);
+    ByteBuffer buffer = ByteBuffer.allocate(MembershipCodec.MAX_MESSAGE_SIZE);
+    assertThat(codec.encode(members, 0, buffer, stringTable)).isEqualTo(members.size());
+    buffer.flip();
+
+    List<String> decoded = new ArrayList<>();
+    int count = codec.decode(buffer, (address, heartbeat, generation) ->
+        decoded.add(address + "/" + heartbeat + "/" + generation));
+    assertThat(count).isEqualTo(members.size());
+    assertThat(decoded).containsExactlyElementsOf(members.stream()
+        .map(m -> m.getNickName() + "/" + m.getHeartbeat() + "/" + m.getGeneration())
+        .collect(Collectors.toList()));
+    assertThat(buffer.hasRemaining()).isFalse();
+  }
+
+  @Test
+  public void largeListsAreSplitAcrossMessages() throws Exception {
+    List<Member> members = members(300);
+    ByteBuffer buffer = ByteBuffer.allocate(1024);
+    List<String> decoded = new ArrayList<>();
+    int messages = 0;
+    for (int from = 0; from < members.size(); messages++) {
+      buffer.clear();
+      from = codec.encode(members, from, buffer, false);
+      buffer.flip();
+      codec.decode(buffer, (address, heartbeat, generation) -> decoded.add(address));
+    }
+    assertThat(messages).isGreaterThan(1);
+    assertThat(decoded).containsExactlyElementsOf(members.stream()
+        .map(Member::getNickName)
+        .collect(Collectors.toList()));
+  }
+
+  @Test
+  public void splitDigestsCoverEveryFingerprint() throws Exception {
+    Member[] members = members(300).stream()
+        .sorted(Comparator.comparingLong(Member::getFingerprint))
+        .toArray(Member[]::new);
+    ByteBuffer buffer = ByteBuffer.allocate(1024);
+    List<Member> decoded = new ArrayList<>();
+    //The ranges of consecutive digests pick up exactly where the previous one left off.
+    long[] range = {Long.MIN_VALUE, Long.MIN_VALUE};
+    int messages = 0;
+    for (int from = 0; from < members.length; messages++) {
+      buffer.clear();
+      from = codec.encodeDigest(members, from, buffer);
+      buffer.flip();
+      assertThat(MembershipCodec.typeOf(buffer)).isEqualTo(MembershipCodec.DIGEST);
+      codec.decodeDigest(buffer, new DigestVisitor() {
+        @Override
+        public void begin(long from, long to, boolean request) {
+          assertThat(request).isFalse();
+          assertThat(from).isEqualTo(range[0]);
+          range[0] = to + 1;
+          range[1] = to;
+        }
+
+        @Override
+        public void visit(long fingerprint, int heartbeat, int generation) {
+          Member member = members[decoded.size()];
+          assertThat(fingerprint).isEqualTo(member.getFingerprint());
+          assertThat(fingerprint).isLessThanOrEqualTo(range[1]);
+          assertThat(heartbeat).isEqualTo(member.getHeartbeat());
+          assertThat(generation).isEqualTo(member.getGeneration());
+          decoded.add(member);
+        }
+      });
+    }
+    assertThat(messages).isGreaterThan(1);
+    assertThat(range[1]).isEqualTo(Long.MAX_VALUE);
+    assertThat(decoded).hasSize(members.length);
+  }
+
+  @Test(expectedExceptions = StreamCorruptedException.class)
+  public void rejectsTruncatedMessages() throws Exception {
+    ByteBuffer buffer = ByteBuffer.allocate(MembershipCodec.MAX_MESSAGE_SIZE);
+    codec.encode(members(10), 0, buffer, true);
+    buffer.flip().limit(buffer.limit() / 2);
+    codec.decode(buffer, (address, heartbeat, generation) -> {
+    });
+  }
+
+  @Test(dataProvider = "negativeVarints", expectedExceptions = StreamCorruptedException.class)
+  public void rejectsNegativeLengthsCountsAndIndexes(byte[] message) throws Exception {
+    codec.decode(ByteBuffer.wrap(message), (address, heartbeat, generation) -> {
+    });
+  }
+
+  @DataProvider
+  public Object[][] negativeVarints() {
+    //-1, as a varint.
+    byte[] minusOne = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F};
+    return new Object[][]{
+        //A member whose address has a negative length.
+        {message(MembershipCodec.MEMBERSHIP, (byte) 0, new byte[]{1}, minusOne, new byte[8])},
+        //A negative member count.
+        {message(MembershipCodec.MEMBERSHIP, (byte) 0, minusOne, new byte[8])},
+        //A member at a negative index of an empty string table.
+        {message(MembershipCodec.MEMBERSHIP, MembershipCodec.FLAG_STRING_TABLE,
+            new byte[]{0, 1}, minusOne, new byte[8])}
+    };
+  }
+
+  @Test(expectedExceptions = StreamCorruptedException.class)
+  public void rejectsForeignMessages() throws Exception {
+    codec.decode(ByteBuffer.wrap(new byte[]{(byte) 0xAC, (byte) 0xED, 0, 5}),
+        (address, heartbeat, generation) -> {
+        });
+  }
+
+  @DataProvider
+  public Object[][] stringTable() {
+    return new Object[][]{{true}, {false}};
+  }
+
+  private static List<Member> members(int count) {
+    return IntStream.range(0, count)
+        .mapToObj(i -> new Member("node-" + i + ":" + (2222 + i), i * 1000, 1650000000 + i,
+            (notification, handback) -> {
+            }, Client.t_cleanup))
+        .collect(Collectors.toList());
+  }
+
+  private static byte[] message(byte type, byte flags, byte[]... parts) {
+    ByteBuffer buffer = ByteBuffer.allocate(64);
+    buffer.put((byte) 'G').put(MembershipCodec.VERSION).put(type).put(flags);
+    for (byte[] part : parts) {
+      buffer.put(part);
+    }
+    return Arrays.copyOf(buffer.array(), buffer.position());
+  }
+}
@@ -0,0 +1,110 @@
+package com.rationaleemotions.gossip;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class MembershipTableTest {
+
+  private MembershipTable table;
+
+  @BeforeMethod
+  public void newTable() {
+    table = new MembershipTable("127.0.0.1:3222");
+  }
+
+  @Test
+  public void keepsTheFirstMemberForAnAddress() {
+    Member first = member("127.0.0.1:3223");
+    assertThat(table.putIfAbsent(first)).isNull();
+    assertThat(table.putIfAbsent(member("127.0.0.1:3223"))).isEqualTo(first);
+    assertThat(table.get("127.0.0.1:3223") == first).isTrue();
+    assertThat(table.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void neverPicksItselfOrTheDeadAsPeers() {
+    Member self = member("127.0.0.1:3222");
+    Member alive = member("127.0.0.1:3223");
+    Member dead = member("127.0.0.1:3224");
+    table.putIfAbsent(self);
+    table.putIfAbsent(alive);
+    table.putIfAbsent(dead);
+    table.setStatus(dead, MemberStatus.DEAD);
+
+    Random random = new Random(42);
+    for (int i = 0; i < 100; i++) {
+      assertThat(table.randomPeer(random)).isEqualTo(alive);
+    }
+    assertThat(Arrays.asList(table.live())).containsExactly(self, alive);
+    assertThat(table.withStatus(MemberStatus.DEAD)).containsExactly(dead);
+  }
+
+  @Test
+  public void hasNoPeersOnItsOwn() {
+    table.putIfAbsent(member("127.0.0.1:3222"));
+    assertThat(table.randomPeer(new Random())).isNull();
+  }
+
+  @Test
+  public void bringsTheDeadBackToLife() {
+    Member member = member("127.0.0.1:3223");
+    table.putIfAbsent(member);
+    assertThat(table.setStatus(member, MemberStatus.DEAD)).isTrue();
+    assertThat(table.setStatus(member, MemberStatus.DEAD)).isFalse();
+    assertThat(table.peers().length).isZero();
+    assertThat(table.setStatus(member, MemberStatus.ALIVE)).isTrue();
+    assertThat(Arrays.asList(table.peers())).containsExactly(member);
+  }
+
+  @Test
+  public void coalescesChangesIntoEvents() {
+    table.putIfAbsent(member("127.0.0.1:3222"));
+    Member leaving = member("127.0.0.1:3223");
+    Member flapping = member("127.0.0.1:3224");
+    Member recovering = member("127.0.0.1:3225");
+    table.putIfAbsent(leaving);
+    table.putIfAbsent(flapping);
+    table.putIfAbsent(recovering);
+    table.setStatus(recovering, MemberStatus.DEAD);
+    int[] observed = new int[1];
+    table.recordChanges(() -> observed[0]++);
+
+    Member joining = member("127.0.0.1:3226");
+    table.putIfAbsent(joining);
+    table.setStatus(leaving, MemberStatus.SUSPECT);
+    table.setStatus(leaving, MemberStatus.DEAD);
+    table.setStatus(flapping, MemberStatus.DEAD);
+    table.setStatus(flapping, MemberStatus.ALIVE);
+    table.setStatus(recovering, MemberStatus.ALIVE);
+    //Joined dead, so never part of the cluster as far as we are concerned.
+    Member stillborn = member("127.0.0.1:3227");
+    stillborn.setStatus(MemberStatus.DEAD);
+    table.putIfAbsent(stillborn);
+
+    assertThat(observed[0]).isEqualTo(7);
+    assertThat(table.drainEvents().toString()).isEqualTo(
+        "[JOINED 127.0.0.1:3226, LEFT 127.0.0.1:3223, RECOVERED 127.0.0.1:3225]");
+    assertThat(table.drainEvents()).isEmpty();
+  }
+
+  @Test
+  public void onlyTakesOnNewerVersions() {
+    Member member = new Member("127.0.0.1:3223", 10, 5, null, 1000);
+    assertThat(member.updateIfNewer(5, 9)).isFalse();
+    assertThat(member.updateIfNewer(4, 100)).isFalse();
+    assertThat(member.updateIfNewer(5, 11)).isTrue();
+    assertThat(member.getHeartbeat()).isEqualTo(11);
+    //A restart starts the heartbeat over.
+    assertThat(member.updateIfNewer(6, 0)).isTrue();
+    assertThat(member.getGeneration()).isEqualTo(6);
+    assertThat(member.getHeartbeat()).isZero();
+  }
+
+  private static Member member(String address) {
+    return new Member(address, 0, null, 1000);
+  }
+}
@@ -0,0 +1,99 @@
+package com.rationaleemotions.gossip;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.rationaleemotions.gossip.OverlayCodec.OverlayVisitor;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.testng.annotations.Test;
+
+public class OverlayCodecTest {
+
+  private final OverlayCodec codec = new OverlayCodec();
+
+  @Test
+  public void messagesRoundTrip() throws Exception {
+    ByteBuffer buffer = ByteBuffer.allocate(1024);
+    List<byte[]> addresses = new ArrayList<>();
+    addresses.add(bytes("node1:10001"));
+    addresses.add(bytes("node2:10002"));
+    assertThat(codec.encode(OverlayCodec.SHUFFLE, OverlayCodec.FLAG_HIGH_PRIORITY,
+        bytes("node0:10000"), 5, bytes("node9:10009"), addresses, buffer)).isEqualTo(2);
+    buffer.flip();
+    List<String> decoded = new ArrayList<>();
+    assertThat(codec.decode(buffer, new OverlayVisitor() {
+      @Override
+      public void visit(byte type, byte flags, String sender, int ttl, String subject) {
+        decoded.add(type + "/" + flags + "/" + sender + "/" + ttl + "/" + subject);
+      }
+
+      @Override
+      public void address(String address) {
+        decoded.add(address);
+      }
+
+      @Override
+      public void broadcast(String sender, String origin, int sequence, ByteBuffer payload) {
+        decoded.add("broadcast");
+      }
+    })).isEqualTo(OverlayCodec.SHUFFLE);
+    assertThat(decoded).containsExactly("11/4/node0:10000/5/node9:10009", "node1:10001",
+        "node2:10002");
+
+    buffer.clear();
+    ByteBuffer payload = ByteBuffer.wrap(new byte[]{1, 2, 3});
+    codec.encodeBroadcast(bytes("node0:10000"), bytes("node9:10009"), 7, payload, buffer);
+    assertThat(payload.remaining()).isEqualTo(3);
+    buffer.flip();
+    decoded.clear();
+    codec.decode(buffer, new OverlayVisitor() {
+      @Override
+      public void visit(byte type, byte flags, String sender, int ttl, String subject) {
+        decoded.add("visit");
+      }
+
+      @Override
+      public void address(String address) {
+        decoded.add(address);
+      }
+
+      @Override
+      public void broadcast(String sender, String origin, int sequence, ByteBuffer payload) {
+        decoded.add(sender + "/" + origin + "/" + sequence + "/" + payload.remaining() + "/"
+            + payload.get(2));
+      }
+    });
+    assertThat(decoded).containsExactly("node0:10000/node9:10009/7/3/3");
+  }
+
+  @Test(expectedExceptions = StreamCorruptedException.class)
+  public void rejectsMembershipMessages() throws Exception {
+    ByteBuffer buffer = ByteBuffer.allocate(1024);
+    new MembershipCodec().encode(Collections.singletonList(
+        new Member("node0:10000", 0, 0, (notification, handback) -> {
+        }, Client.t_cleanup)), 0, buffer, false);
+    buffer.flip();
+    assertThat(OverlayCodec.isOverlay(MembershipCodec.typeOf(buffer))).isFalse();
+    codec.decode(buffer, new OverlayVisitor() {
+      @Override
+      public void visit(byte type, byte flags, String sender, int ttl, String subject) {
+      }
+
+      @Override
+      public void address(String address) {
+      }
+
+      @Override
+      public void broadcast(String sender, String origin, int sequence, ByteBuffer payload) {
+      }
+    });
+  }
+
+  private static byte[] bytes(String address) {
+    return address.getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,31 @@
+package com.rationaleemotions.gossip;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.testng.annotations.Test;
+
+public class OverlaySimulatorTest {
+
+  @Test
+  public void costPerNodeStaysFlatAsTheOverlayGrows() throws Exception {
+    OverlaySimulator simulator = new OverlaySimulator(7);
+    OverlaySimulator.Report small = simulator.run(50);
+    OverlaySimulator.Report large = simulator.run(500);
+    for (OverlaySimulator.Report report : new OverlaySimulator.Report[]{small, large}) {
+      assertThat(report.getActiveView()).isLessThanOrEqualTo(HyParView.DEFAULT_ACTIVE_VIEW_SIZE);
+      assertThat(report.getPassiveView())
+          .isLessThanOrEqualTo(HyParView.DEFAULT_PASSIVE_VIEW_SIZE);
+      assertThat(report.getHealthy().getReach()).isEqualTo(1.0);
+      assertThat(report.getAfterRepair().getReach()).isEqualTo(1.0);
+    }
+    //Ten times the nodes, but about the same traffic per node.
+    assertThat(large.getBytesPerNodePerSecond())
+        .isLessThan(small.getBytesPerNodePerSecond() * 1.5);
+  }
+
+  @Test
+  public void theSameSeedGivesTheSameReport() throws Exception {
+    OverlaySimulator simulator = new OverlaySimulator(7);
+    assertThat(simulator.run(30).toString()).isEqualTo(simulator.run(30).toString());
+  }
+}
@@ -0,0 +1,102 @@
+package com.rationaleemotions.gossip;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import org.testng.annotations.Test;
+
+public class PhiAccrualFailureDetectorTest {
+
+  @Test
+  public void suspicionGrowsTheLongerAMemberIsQuiet() {
+    PhiAccrualFailureDetector detector = new PhiAccrualFailureDetector(1000);
+    long now = 0;
+    for (int i = 0; i < 50; i++) {
+      detector.heartbeat(now);
+      now += 1000;
+    }
+    long last = now - 1000;
+    assertThat(detector.phi(last + 500)).isLessThan(1.0);
+    assertThat(detector.phi(last + 1000)).isLessThan(detector.phi(last + 2000));
+    assertThat(detector.phi(last + 2000)).isLessThan(detector.phi(last + 3000));
+    assertThat(detector.phi(last + 10_000)).isGreaterThan(detector.getThreshold());
+  }
+
+  @Test
+  public void timesOutWherePhiCrossesTheThreshold() {
+    PhiAccrualFailureDetector detector = new PhiAccrualFailureDetector(1000);
+    Random random = new Random(42);
+    long now = 0;
+    for (int i = 0; i < 100; i++) {
+      detector.heartbeat(now);
+      now += 800 + random.nextInt(400);
+    }
+    long last = now;
+    detector.heartbeat(last);
+    long timeout = detector.timeout();
+    assertThat(detector.phi(last + timeout - 50)).isLessThan(detector.getThreshold());
+    assertThat(detector.phi(last + timeout + 50)).isGreaterThanOrEqualTo(detector.getThreshold());
+  }
+
+  @Test
+  public void jitterLengthensTheTimeout() {
+    PhiAccrualFailureDetector steady = new PhiAccrualFailureDetector(8, 100, 10, 1000);
+    PhiAccrualFailureDetector jittery = new PhiAccrualFailureDetector(8, 100, 10, 1000);
+    Random random = new Random(42);
+    long steadyClock = 0;
+    long jitteryClock = 0;
+    for (int i = 0; i < 100; i++) {
+      steady.heartbeat(steadyClock);
+      jittery.heartbeat(jitteryClock);
+      steadyClock += 1000;
+      jitteryClock += 500 + random.nextInt(1000);
+    }
+    assertThat(jittery.timeout()).isGreaterThan(steady.timeout());
+  }
+
+  @Test
+  public void forgetsOldIntervals() {
+    PhiAccrualFailureDetector detector = new PhiAccrualFailureDetector(8, 10, 10, 1000);
+    long now = 0;
+    for (int i = 0; i < 20; i++) {
+      detector.heartbeat(now);
+      now += 5000;
+    }
+    long slow = detector.timeout();
+    for (int i = 0; i < 20; i++) {
+      detector.heartbeat(now);
+      now += 100;
+    }
+    assertThat(slow).isGreaterThan(5000L);
+    assertThat(detector.timeout()).isLessThan(1000L);
+  }
+
+  @Test
+  public void declaresAQuietMemberDeadThroughTheTimer() {
+    AtomicLong clock = new AtomicLong();
+    HashedWheelTimer wheel = new HashedWheelTimer(100, 8, clock::get, null);
+    List<Member> expired = new ArrayList<>();
+    Member member = new Member("127.0.0.1:3223", 0, null, 1000);
+    TimeoutTimer timer = new TimeoutTimer(new PhiAccrualFailureDetector(1000),
+        (notification, handback) -> expired.add((Member) notification.getUserData()), member,
+        wheel);
+    timer.start();
+    for (int i = 1; i <= 30; i++) {
+      advanceTo(clock, wheel, i * 1000L);
+      timer.reset();
+    }
+    assertThat(expired).isEmpty();
+    advanceTo(clock, wheel, 60_000);
+    assertThat(expired).containsExactly(member);
+  }
+
+  private static void advanceTo(AtomicLong clock, HashedWheelTimer wheel, long time) {
+    for (long now = clock.get() + 100; now <= time; now += 100) {
+      clock.set(now);
+      wheel.advance(now);
+    }
+  }
+}
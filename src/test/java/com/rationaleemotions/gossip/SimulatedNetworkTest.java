@@ -0,0 +1,118 @@
+package com.rationaleemotions.gossip;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import org.testng.annotations.Test;
+
+public class SimulatedNetworkTest {
+
+  private static final InetSocketAddress A = address(5001);
+  private static final InetSocketAddress B = address(5002);
+
+  @Test
+  public void deliversOnceTheLatencyHasPassed() throws IOException {
+    SimulatedNetwork network = new SimulatedNetwork(1);
+    network.setLatency(50, 50);
+    Transport a = network.transports().bind(A);
+    List<Integer> received = listen(network.transports().bind(B));
+
+    a.send(message(7), B);
+    network.advance(49);
+    assertThat(received).isEmpty();
+    network.advance(1);
+    assertThat(received).containsExactly(7);
+  }
+
+  @Test
+  public void jitterReordersDatagrams() throws IOException {
+    SimulatedNetwork network = new SimulatedNetwork(1);
+    network.setLatency(1, 100);
+    Transport a = network.transports().bind(A);
+    List<Integer> received = listen(network.transports().bind(B));
+
+    List<Integer> sent = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      a.send(message(i), B);
+      sent.add(i);
+    }
+    network.advance(100);
+    assertThat(received).containsExactlyInAnyOrderElementsOf(sent);
+    assertThat(received).isNotEqualTo(sent);
+  }
+
+  @Test
+  public void losesTheConfiguredShare() throws IOException {
+    SimulatedNetwork network = new SimulatedNetwork(1);
+    network.setLoss(0.25);
+    Transport a = network.transports().bind(A);
+    List<Integer> received = listen(network.transports().bind(B));
+
+    for (int i = 0; i < 10_000; i++) {
+      a.send(message(i), B);
+    }
+    network.advance(100);
+    assertThat(received.size()).isBetween(7_200, 7_800);
+    assertThat(network.getDatagramsDropped()).isEqualTo(10_000L - received.size());
+  }
+
+  @Test
+  public void partitionsHoldUntilHealed() throws IOException {
+    SimulatedNetwork network = new SimulatedNetwork(1);
+    Transport a = network.transports().bind(A);
+    List<Integer> received = listen(network.transports().bind(B));
+
+    network.partition(Set.of(B));
+    a.send(message(1), B);
+    network.advance(100);
+    assertThat(received).isEmpty();
+
+    network.heal();
+    a.send(message(2), B);
+    network.advance(100);
+    assertThat(received).containsExactly(2);
+  }
+
+  @Test
+  public void theSameSeedPlaysOutTheSameWay() throws IOException {
+    assertThat(play(42)).isEqualTo(play(42));
+  }
+
+  private static List<Integer> play(long seed) throws IOException {
+    SimulatedNetwork network = new SimulatedNetwork(seed);
+    network.setLatency(1, 100);
+    network.setLoss(0.1);
+    Transport a = network.transports().bind(A);
+    List<Integer> received = listen(network.transports().bind(B));
+    for (int i = 0; i < 1000; i++) {
+      a.send(message(i), B);
+      network.advance(1);
+    }
+    network.advance(100);
+    return received;
+  }
+
+  private static List<Integer> listen(Transport transport) {
+    List<Integer> received = new ArrayList<>();
+    transport.listen((ByteBuffer message, SocketAddress sender) -> received.add(message.getInt()),
+        null);
+    return received;
+  }
+
+  private static ByteBuffer message(int value) {
+    ByteBuffer message = ByteBuffer.allocate(Integer.BYTES);
+    message.putInt(value).flip();
+    return message;
+  }
+
+  private static InetSocketAddress address(int port) {
+    return new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+  }
+}
@@ -0,0 +1,203 @@
+package com.rationaleemotions.gossip;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.StreamCorruptedException;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class SwimProtocolTest {
+
+  private static final List<String> ADDRESSES = List.of("a:4001", "b:4002", "c:4003", "d:4004");
+
+  private AtomicLong clock;
+  private HashedWheelTimer wheel;
+  private Network network;
+  private Map<String, Node> nodes;
+
+  @BeforeMethod
+  public void newCluster() throws UnknownHostException {
+    clock = new AtomicLong();
+    wheel = new HashedWheelTimer(100, 64, clock::get, null);
+    network = new Network();
+    nodes = new HashMap<>();
+    Random random = new Random(7);
+    for (String address : ADDRESSES) {
+      Node node = new Node(address, network);
+      node.swim = new SwimProtocol(node, node.me, wheel, random,
+          SwimProtocol.DEFAULT_PROTOCOL_PERIOD, SwimProtocol.DEFAULT_ACK_TIMEOUT,
+          SwimProtocol.DEFAULT_INDIRECT_PROBES);
+      nodes.put(address, node);
+      network.nodes.put(node.me.getSocketAddress(), node);
+    }
+  }
+
+  @Test
+  public void nobodyIsSuspectedWhileEveryoneAnswers() throws Exception {
+    run(20_000);
+    for (Node node : nodes.values()) {
+      for (Member member : node.members.all()) {
+        assertThat(member.getStatus()).isEqualTo(MemberStatus.ALIVE);
+      }
+    }
+  }
+
+  @Test
+  public void aCrashedMemberIsDeclaredDeadEverywhere() throws Exception {
+    network.down.add(nodes.get("c:4003").me.getSocketAddress());
+    run(30_000);
+    for (String address : List.of("a:4001", "b:4002", "d:4004")) {
+      MembershipTable table = nodes.get(address).members;
+      assertThat(table.get("c:4003").getStatus()).isEqualTo(MemberStatus.DEAD);
+      assertThat(table.get("a:4001").getStatus()).isEqualTo(MemberStatus.ALIVE);
+      assertThat(table.get("b:4002").getStatus()).isEqualTo(MemberStatus.ALIVE);
+      assertThat(table.get("d:4004").getStatus()).isEqualTo(MemberStatus.ALIVE);
+    }
+  }
+
+  @Test
+  public void aLiveSuspectRefutesTheSuspicion() throws Exception {
+    Node b = nodes.get("b:4002");
+    Member a = b.members.get("a:4001");
+    b.swim.update("a:4001", MemberStatus.SUSPECT, a.getHeartbeat(), a.getGeneration());
+    assertThat(a.getStatus()).isEqualTo(MemberStatus.SUSPECT);
+
+    run(20_000);
+    assertThat(a.getStatus()).isEqualTo(MemberStatus.ALIVE);
+    //The refutation came with a larger incarnation.
+    assertThat(a.getHeartbeat()).isGreaterThan(0);
+  }
+
+  @Test
+  public void olderUpdatesAreIgnored() {
+    Node b = nodes.get("b:4002");
+    Member c = b.members.get("c:4003");
+    b.swim.update("c:4003", MemberStatus.ALIVE, 5, 0);
+    b.swim.update("c:4003", MemberStatus.DEAD, 4, 0);
+    assertThat(c.getStatus()).isEqualTo(MemberStatus.ALIVE);
+    //Same incarnation, so suspect wins over alive.
+    b.swim.update("c:4003", MemberStatus.SUSPECT, 5, 0);
+    assertThat(c.getStatus()).isEqualTo(MemberStatus.SUSPECT);
+    b.swim.update("c:4003", MemberStatus.ALIVE, 5, 0);
+    assertThat(c.getStatus()).isEqualTo(MemberStatus.SUSPECT);
+    b.swim.update("c:4003", MemberStatus.ALIVE, 6, 0);
+    assertThat(c.getStatus()).isEqualTo(MemberStatus.ALIVE);
+  }
+
+  /**
+   * Moves the clock along in ticks, runs a protocol period on every node once a second, and
+   * delivers whatever was sent in between.
+   */
+  private void run(long millis) throws StreamCorruptedException {
+    long end = clock.get() + millis;
+    while (clock.get() < end) {
+      long now = clock.addAndGet(100);
+      if (now % SwimProtocol.DEFAULT_PROTOCOL_PERIOD == 0) {
+        for (Node node : nodes.values()) {
+          if (!network.down.contains(addressOf(node))) {
+            node.swim.probe();
+          }
+        }
+      }
+      network.deliver();
+      wheel.advance(now);
+      network.deliver();
+    }
+  }
+
+  private static SocketAddress addressOf(Node node) {
+    try {
+      return node.me.getSocketAddress();
+    } catch (UnknownHostException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static final class Network {
+
+    private final Map<SocketAddress, Node> nodes = new HashMap<>();
+    private final Set<SocketAddress> down = new HashSet<>();
+    private final Queue<Object[]> inFlight = new ArrayDeque<>();
+
+    void deliver() throws StreamCorruptedException {
+      Object[] datagram;
+      while ((datagram = inFlight.poll()) != null) {
+        SocketAddress to = (SocketAddress) datagram[1];
+        if (down.contains(to) || down.contains(datagram[0])) {
+          continue;
+        }
+        Node node = nodes.get(to);
+        node.swim.handle((ByteBuffer) datagram[2], (SocketAddress) datagram[0], node.codec);
+      }
+    }
+  }
+
+  private static final class Node implements GossipContext, NotificationListener {
+
+    private final Member me;
+    private final MembershipTable members;
+    private final Network network;
+    private final MembershipCodec codec = new MembershipCodec();
+    private SwimProtocol swim;
+
+    Node(String address, Network network) {
+      this.network = network;
+      this.members = new MembershipTable(address);
+      Member self = null;
+      for (String each : ADDRESSES) {
+        Member member = new Member(each, 0, this, Client.t_cleanup);
+        members.putIfAbsent(member);
+        if (each.equals(address)) {
+          self = member;
+        }
+      }
+      this.me = self;
+    }
+
+    @Override
+    public void gossip(List<Member> peers) {
+      swim.probe();
+    }
+
+    @Override
+    public void send(ByteBuffer message, SocketAddress peer) {
+      ByteBuffer copy = ByteBuffer.allocate(message.remaining());
+      copy.put(message).flip();
+      message.rewind();
+      network.inFlight.add(new Object[]{addressOf(this), peer, copy});
+    }
+
+    @Override
+    public int getMaxMessageSize() {
+      return 1024;
+    }
+
+    @Override
+    public MembershipTable getMembershipTable() {
+      return members;
+    }
+
+    @Override
+    public String getNickName() {
+      return me.getNickName();
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+    }
+  }
+}
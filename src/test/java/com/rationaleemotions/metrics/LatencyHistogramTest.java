@@ -0,0 +1,42 @@
+package com.rationaleemotions.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Random;
+import org.testng.annotations.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void everyValueLandsInABucketThatHoldsIt() {
+    Random random = new Random(42);
+    for (int i = 0; i < 100_000; i++) {
+      long value = random.nextLong() >>> (1 + random.nextInt(63));
+      int bucket = LatencyHistogram.bucketOf(value);
+      assertThat(LatencyHistogram.highestValueOf(bucket)).isGreaterThanOrEqualTo(value);
+      if (bucket > 0) {
+        assertThat(LatencyHistogram.highestValueOf(bucket - 1)).isLessThan(value);
+      }
+    }
+    assertThat(LatencyHistogram.highestValueOf(LatencyHistogram.bucketOf(Long.MAX_VALUE)))
+        .isEqualTo(Long.MAX_VALUE);
+  }
+
+  @Test
+  public void percentilesAreWithinTheBucketPrecision() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int value = 1; value <= 10_000; value++) {
+      histogram.record(value);
+    }
+    assertThat(histogram.getCount()).isEqualTo(10_000);
+    assertThat(histogram.getMean()).isEqualTo(5000.5);
+    assertThat(histogram.getMax()).isEqualTo(10_000);
+    assertThat(histogram.getPercentile(50)).isBetween(5000L, 5625L);
+    assertThat(histogram.getPercentile(99)).isBetween(9900L, 10_000L);
+    assertThat(histogram.getPercentile(100)).isEqualTo(10_000);
+
+    histogram.reset();
+    assertThat(histogram.getCount()).isEqualTo(0);
+    assertThat(histogram.getPercentile(99)).isEqualTo(0);
+  }
+}